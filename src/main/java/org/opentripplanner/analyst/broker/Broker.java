@@ -5,15 +5,12 @@ import com.amazonaws.services.ec2.AmazonEC2;
 import com.amazonaws.services.ec2.AmazonEC2Client;
 import com.amazonaws.services.ec2.model.*;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
-import com.google.common.collect.TreeMultimap;
-import gnu.trove.map.TIntIntMap;
-import gnu.trove.map.TIntObjectMap;
+import com.google.common.collect.Multimaps;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.TObjectLongMap;
-import gnu.trove.map.hash.TIntIntHashMap;
-import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.map.hash.TObjectLongHashMap;
 import org.glassfish.grizzly.http.server.Request;
 import org.glassfish.grizzly.http.server.Response;
@@ -31,6 +28,11 @@ import java.io.*;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * This class tracks incoming requests from workers to consume Analyst tasks, and attempts to match those
@@ -53,6 +55,11 @@ import java.util.*;
  *
  * It may also be helpful to mark jobs every time they are skipped in the LRU queue. Each time a job is serviced,
  * it is taken out of the queue and put at its end. Jobs that have not been serviced float to the top.
+ *
+ * The broker is not locked as a whole. Its state is split into one GraphShard per graph, held in concurrent
+ * collections, and tasks are matched with waiting workers on whichever thread adds a task or a worker, so hundreds of
+ * workers polling at once do not queue up behind a single monitor. Each Job guards its own delivery bookkeeping.
+ * A background thread only scans for tasks to re-deliver.
  */
 public class Broker implements Runnable {
 
@@ -63,29 +70,43 @@ public class Broker implements Runnable {
     /* How often we should check for delivered tasks that have timed out. */
     private static final int REDELIVERY_INTERVAL_SEC = 10;
 
-    public final CircularList<Job> jobs = new CircularList<>();
+    /** Jobs, high-priority tasks and waiting workers, for each graph. */
+    private final ConcurrentMap<String, GraphShard> shards = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Job> jobsById = new ConcurrentHashMap<>();
+
+    /**
+     * Each call to enqueueTasks is given a contiguous block of task IDs. This maps the first task ID of each block to
+     * its job, so the job for a task is found with a single floor lookup.
+     */
+    private final ConcurrentSkipListMap<Integer, Job> jobsByFirstTaskId = new ConcurrentSkipListMap<>();
 
-    /** the most tasks to deliver to a worker at a time */
+    /** the most tasks to deliver to a worker at a time, unless it asks for a different number */
     public final int MAX_TASKS_PER_WORKER = 8;
 
+    /** the most tasks to deliver in response to a single request, however many the worker asks for */
+    public static final int MAX_TASKS_PER_REQUEST = 256;
+
     /**
      * How long to give workers to start up (in ms) before assuming that they have started (and starting more
      * on a given graph if they haven't.
      */
     public static final long WORKER_STARTUP_TIME = 60 * 60 * 1000;
 
-    private int nUndeliveredTasks = 0; // Including normal priority jobs and high-priority tasks.
+    private final AtomicInteger nUndeliveredTasks = new AtomicInteger(); // Including normal priority jobs and high-priority tasks.
 
-    private int nWaitingConsumers = 0; // including some that might be closed
+    private final AtomicInteger nWaitingConsumers = new AtomicInteger(); // including some that might be closed
 
-    private int nextTaskId = 0;
+    private final AtomicInteger nextTaskId = new AtomicInteger();
+
+    /** Running totals of tasks delivered to and completed by workers, for monitoring broker throughput. */
+    private final LongAdder nDeliveredTasks = new LongAdder(), nCompletedTasks = new LongAdder();
 
     /** Maximum number of workers allowed */
     private int maxWorkers;
 
     private static final ObjectMapper mapper = new ObjectMapper();
 
-    private long nextRedeliveryCheckTime = System.currentTimeMillis();
 
     static {
         mapper.registerModule(AgencyAndIdSerializer.makeModule());
@@ -102,39 +123,8 @@ public class Broker implements Runnable {
 
     private WorkerCatalog workerCatalog = new WorkerCatalog();
 
-    /** The time at which each task was delivered to a worker, to allow re-delivery. */
-    TIntIntMap deliveryTimes = new TIntIntHashMap();
-
-    /**
-     * Requests that are not part of a job and can "cut in line" in front of jobs for immediate execution.
-     * When a high priority task is first received, we attempt to send it to a worker right away via
-     * the side channels. If that doesn't work, we put them here to be picked up the next time a worker
-     * is available via normal task distribution channels.
-     */
-    private ArrayListMultimap<String, AnalystClusterRequest> stalledHighPriorityTasks = ArrayListMultimap.create();
-
-    /**
-     * High priority requests that have just come and are about to be sent down a single point channel.
-     * They put here for just 100 ms so that any that arrive together are batched to the same worker.
-     * If we didn't do this, two requests arriving at basically the same time could get fanned out to
-     * two different workers because the second came in in between closing the side channel and the worker
-     * reopening it.
-     */
-    private Multimap<String, AnalystClusterRequest> newHighPriorityTasks = ArrayListMultimap.create();
-
     /** Priority requests that have already been farmed out to workers, and are awaiting a response. */
-    private TIntObjectMap<Response> highPriorityResponses = new TIntObjectHashMap<>();
-
-    /** Outstanding requests from workers for tasks, grouped by worker graph affinity. */
-    Map<String, Deque<Response>> consumersByGraph = new HashMap<>();
-
-    /**
-     * Side channels used to send single point requests to workers, cutting in front of any other work on said workers.
-     * We use a TreeMultimap because it is ordered, and the wrapped response defines an order based on
-     * machine ID. This way, the same machine will tend to get all single point work for a graph,
-     * so multiple machines won't stay alive to do single point work.
-     */
-    private Multimap<String, WrappedResponse> singlePointChannels = TreeMultimap.create();
+    private final ConcurrentMap<Integer, Response> highPriorityResponses = new ConcurrentHashMap<>();
 
     /** should we work offline */
     private boolean workOffline;
@@ -207,7 +197,7 @@ public class Broker implements Runnable {
      * Enqueue a task for execution ASAP, planning to return the response over the same HTTP connection.
      * Low-reliability, no re-delivery.
      */
-    public synchronized void enqueuePriorityTask (AnalystClusterRequest task, Response response) {
+    public void enqueuePriorityTask (AnalystClusterRequest task, Response response) {
         boolean workersAvailable = workersAvailableForGraph(task.graphId);
 
         if (!workersAvailable) {
@@ -226,11 +216,13 @@ public class Broker implements Runnable {
         // note that this will mean that requests get delivered multiple times in offline mode,
         // so some unnecessary computation takes place
         if (workersAvailable || workOffline) {
-            task.taskId = nextTaskId++;
-            newHighPriorityTasks.put(task.graphId, task);
+            task.taskId = nextTaskId.getAndIncrement();
             highPriorityResponses.put(task.taskId, response);
-
-            // wait 100ms to deliver to workers in case another request comes in almost simultaneously
+            // High priority requests are held for just 100 ms so that any that arrive together are batched to the
+            // same worker. If we didn't do this, two requests arriving at basically the same time could get fanned
+            // out to two different workers because the second came in in between closing the side channel and the
+            // worker reopening it.
+            getShard(task.graphId).newHighPriorityTasks.add(task);
             timer.schedule(new TimerTask() {
                 @Override
                 public void run() {
@@ -238,74 +230,65 @@ public class Broker implements Runnable {
                 }
             }, 100);
         }
-
-        // do not notify task delivery thread just yet as we haven't put anything in the task delivery queue yet.
     }
 
     /** attempt to deliver high priority tasks via side channels, or move them into normal channels if need be */
-    public synchronized void deliverHighPriorityTasks (String graphId) {
-        Collection<AnalystClusterRequest> tasks = newHighPriorityTasks.get(graphId);
-
+    public void deliverHighPriorityTasks (String graphId) {
+        GraphShard shard = getShard(graphId);
+        // Take all the new tasks at once. If another thread got here first there will be none left.
+        List<AnalystClusterRequest> tasks = new ArrayList<>();
+        for (AnalystClusterRequest task; (task = shard.newHighPriorityTasks.poll()) != null; ) {
+            tasks.add(task);
+        }
         if (tasks.isEmpty())
-            // someone got here first
             return;
 
         // try to deliver via side channels
-        Collection<WrappedResponse> wrs = singlePointChannels.get(graphId);
-
-        if (!wrs.isEmpty()) {
-            // there is (probably) a single point machine waiting to receive this
-            WrappedResponse wr = wrs.iterator().next();
-
+        // there is (probably) a single point machine waiting to receive this
+        // remove the channel whether it is dead or alive, a worker opens a new one after each delivery
+        WrappedResponse wr = shard.singlePointChannels.pollFirst();
+        if (wr != null) {
             try {
                 wr.response.setContentType("application/json");
                 OutputStream os = wr.response.getOutputStream();
                 mapper.writeValue(os, tasks);
                 os.close();
                 wr.response.resume();
-
-                newHighPriorityTasks.removeAll(graphId);
-
                 return;
             } catch (Exception e) {
                 LOG.info("Failed to deliver single point job via side channel, reverting to normal channel", e);
-            } finally {
-                // remove responses whether they are dead or alive
-                removeSinglePointChannel(graphId, wr);
             }
         }
 
         // if we got here we didn't manage to send it via side channel, put it in the rotation for normal channels
-        // not using putAll as it retains a link to the original collection and then we get a concurrent modification exception later.
-        tasks.forEach(t -> stalledHighPriorityTasks.put(graphId, t));
         LOG.info("No side channel available for graph {}, delivering {} tasks via normal channel",
                 graphId, tasks.size());
-        nUndeliveredTasks += tasks.size();
-        newHighPriorityTasks.removeAll(graphId);
-
-        // wake up delivery thread
-        notify();
+        shard.stalledHighPriorityTasks.addAll(tasks);
+        nUndeliveredTasks.addAndGet(tasks.size());
+        deliverTasks(shard);
     }
 
     /** Enqueue some tasks for queued execution possibly much later. Results will be saved to S3. */
-    public synchronized void enqueueTasks (List<AnalystClusterRequest> tasks) {
+    public void enqueueTasks (List<AnalystClusterRequest> tasks) {
         Job job = findJob(tasks.get(0)); // creates one if it doesn't exist
 
         if (!workersAvailableForGraph(job.graphId))
             createWorkersForGraph(job.graphId);
 
+        // Reserve a contiguous block of task IDs for these tasks.
+        int firstTaskId = nextTaskId.getAndAdd(tasks.size());
+        jobsByFirstTaskId.put(firstTaskId, job);
+        int taskId = firstTaskId;
         for (AnalystClusterRequest task : tasks) {
-            task.taskId = nextTaskId++;
+            task.taskId = taskId++;
             job.addTask(task);
-            nUndeliveredTasks += 1;
             LOG.debug("Enqueued task id {} in job {}", task.taskId, job.jobId);
             if ( ! task.graphId.equals(job.graphId)) {
                 LOG.warn("Task graph ID {} does not match job graph ID {}.", task.graphId, job.graphId);
             }
         }
-        // Wake up the delivery thread if it's waiting on input.
-        // This wakes whatever thread called wait() while holding the monitor for this Broker object.
-        notify();
+        nUndeliveredTasks.addAndGet(tasks.size());
+        deliverTasks(getShard(job.graphId));
     }
 
     public boolean workersAvailableForGraph (String graphId) {
@@ -316,7 +299,7 @@ public class Broker implements Runnable {
     }
 
     /** Create workers for a given job, if need be */
-    public void createWorkersForGraph (String graphId) {
+    public synchronized void createWorkersForGraph (String graphId) {
         String clientToken = UUID.randomUUID().toString().replaceAll("-", "");
 
         if (workOffline) {
@@ -389,8 +372,11 @@ public class Broker implements Runnable {
         LOG.info("Requesting {} workers", nWorkers);
     }
 
-    /** Consumer long-poll operations are enqueued here. */
-    public synchronized void registerSuspendedResponse(String graphId, Response response) {
+    /**
+     * Consumer long-poll operations are enqueued here.
+     * @param maxTasks the number of tasks the consumer has asked for, usually its free capacity.
+     */
+    public void registerSuspendedResponse(String graphId, Response response, int maxTasks) {
         // Add this worker to our catalog, tracking its graph affinity and the last time it was seen.
         String workerId = response.getRequest().getHeader(AnalystWorker.WORKER_ID_HEADER);
         if (workerId != null && !workerId.isEmpty()) {
@@ -400,26 +386,27 @@ public class Broker implements Runnable {
             return;
         }
         // Shelf this suspended response in a queue grouped by graph affinity.
-        Deque<Response> deque = consumersByGraph.get(graphId);
-        if (deque == null) {
-            deque = new ArrayDeque<>();
-            consumersByGraph.put(graphId, deque);
+        GraphShard shard = getShard(graphId);
+        maxTasks = Math.max(1, Math.min(maxTasks, MAX_TASKS_PER_REQUEST));
+        shard.consumers.addLast(new GraphShard.Consumer(response, maxTasks));
+        nWaitingConsumers.incrementAndGet();
+        // Hand it some tasks right away if there are any.
+        if (workOffline) {
+            // The new consumer may take tasks on any graph.
+            shards.values().forEach(this::deliverTasks);
+        } else {
+            deliverTasks(shard);
         }
-        deque.addLast(response);
-        nWaitingConsumers += 1;
-        // Wake up the delivery thread if it's waiting on consumers.
-        // This is whatever thread called wait() while holding the monitor for this Broker object.
-        notify();
     }
 
     /** When we notice that a long poll connection has closed, we remove it here. */
-    public synchronized boolean removeSuspendedResponse(String graphId, Response response) {
-        Deque<Response> deque = consumersByGraph.get(graphId);
-        if (deque == null) {
+    public boolean removeSuspendedResponse(String graphId, Response response) {
+        GraphShard shard = shards.get(graphId);
+        if (shard == null) {
             return false;
         }
-        if (deque.remove(response)) {
-            nWaitingConsumers -= 1;
+        if (shard.consumers.removeIf(consumer -> consumer.response == response)) {
+            nWaitingConsumers.decrementAndGet();
             LOG.debug("Removed closed connection from queue.");
             logQueueStatus();
             return true;
@@ -431,22 +418,23 @@ public class Broker implements Runnable {
      * Register an HTTP connection that can be used to send single point requests directly to
      * workers, bypassing normal task distribution channels.
      */
-    public synchronized void registerSinglePointChannel (String graphAffinity,WrappedResponse response) {
-        singlePointChannels.put(graphAffinity, response);
-        // no need to notify as the side channels are not used by the normal task delivery loop
+    public void registerSinglePointChannel (String graphAffinity,WrappedResponse response) {
+        getShard(graphAffinity).singlePointChannels.add(response);
+        // no need to deliver anything as the side channels are not used by the normal task delivery
     }
 
     /**
      * Remove a single point channel because the connection was closed.
      */
-    public synchronized boolean removeSinglePointChannel (String graphAffinity, WrappedResponse response) {
-        return singlePointChannels.remove(graphAffinity, response);
+    public boolean removeSinglePointChannel (String graphAffinity, WrappedResponse response) {
+        GraphShard shard = shards.get(graphAffinity);
+        return shard != null && shard.singlePointChannels.remove(response);
     }
 
     private void logQueueStatus() {
-        LOG.info("{} undelivered, of which {} high-priority", nUndeliveredTasks,
-                stalledHighPriorityTasks.size());
-        LOG.info("{} producers waiting, {} consumers waiting", highPriorityResponses.size(), nWaitingConsumers);
+        int nHighPriority = shards.values().stream().mapToInt(s -> s.stalledHighPriorityTasks.size()).sum();
+        LOG.info("{} undelivered, of which {} high-priority", nUndeliveredTasks.get(), nHighPriority);
+        LOG.info("{} producers waiting, {} consumers waiting", highPriorityResponses.size(), nWaitingConsumers.get());
         LOG.info("{} total workers", workerCatalog.size());
     }
 
@@ -455,152 +443,120 @@ public class Broker implements Runnable {
      *  marked complete. Enqueue those tasks for redelivery.
      */
     private void redeliver() {
-        if (System.currentTimeMillis() > nextRedeliveryCheckTime) {
-            nextRedeliveryCheckTime += REDELIVERY_INTERVAL_SEC * 1000;
-            LOG.info("Scanning for redelivery...");
-            int nRedelivered = 0;
-            int nInvisible = 0;
-            for (Job job : jobs) {
-                nInvisible += job.invisibleUntil.size();
-                nRedelivered += job.redeliver();
-            }
-            LOG.info("{} tasks enqueued for redelivery out of {} invisible tasks.", nRedelivered, nInvisible);
-            nUndeliveredTasks += nRedelivered;
+        LOG.info("Scanning for redelivery...");
+        int nRedelivered = 0;
+        int nInvisible = 0;
+        for (Job job : jobsById.values()) {
+            nInvisible += job.getInFlightTaskCount();
+            nRedelivered += job.redeliver();
         }
+        LOG.info("{} tasks enqueued for redelivery out of {} invisible tasks.", nRedelivered, nInvisible);
+        nUndeliveredTasks.addAndGet(nRedelivered);
     }
 
     /**
-     * This method checks whether there are any high-priority tasks or normal job tasks and attempts to match them with
-     * waiting workers. It blocks until there are tasks or workers available.
+     * Match tasks on the given graph with waiting consumers until one or the other runs out. High-priority tasks go
+     * first, then tasks are taken from the jobs on the graph in round-robin order, up to the number each consumer
+     * asked for. This makes for an as-fair-as-possible allocation: jobs are fairly allocated between workers on their
+     * graph.
+     *
+     * This is called by every thread that adds tasks or consumers, and any number of threads may be in here at once.
+     * Each consumer and each task is only ever taken from its queue by one thread. A thread that takes a consumer but
+     * finds no tasks left puts the consumer back at the tail and then checks once more for tasks, so that tasks
+     * enqueued by another thread while it was holding the consumer are not left waiting. It gives up once it takes
+     * back a consumer it already put back without delivering anything in between, so it cannot spin when the tasks
+     * it sees are being taken by other threads.
      */
-    public synchronized void deliverTasks() throws InterruptedException {
-
-        // Wait until there are some undelivered tasks.
-        while (nUndeliveredTasks == 0) {
-            LOG.debug("Task delivery thread is going to sleep, there are no tasks waiting for delivery.");
-            logQueueStatus();
-            wait();
-            redeliver();
-        }
-        LOG.debug("Task delivery thread is awake and there are some undelivered tasks.");
-        logQueueStatus();
-
-        while (nWaitingConsumers == 0) {
-            LOG.debug("Task delivery thread is going to sleep, there are no consumers waiting.");
-            // Thread will be notified when there are new incoming consumer connections.
-            wait();
-        }
-
-        LOG.debug("Task delivery thread awake; consumers are waiting and tasks are available");
-
-        // Loop over all jobs and send them to consumers
-        // This makes for an as-fair-as-possible allocation: jobs are fairly allocated between
-        // workers on their graph.
-
-        // start with high-priority tasks
-        HIGHPRIORITY: for (Map.Entry<String, Collection<AnalystClusterRequest>> e : stalledHighPriorityTasks
-                .asMap().entrySet()) {
-            // the collection is an arraylist with the most recently added at the end
-            String graphId = e.getKey();
-            Collection<AnalystClusterRequest> tasks = e.getValue();
-
-            // see if there are any consumers for this
-            // don't respect graph affinity when working offline; we can't arbitrarily start more workers
-            Deque<Response> consumers;
-            if (!workOffline)
-                consumers = consumersByGraph.get(graphId);
-            else {
-                Optional<Deque<Response>> opt = consumersByGraph.values().stream().filter(c -> !c.isEmpty()).findFirst();
-                if (opt.isPresent()) consumers = opt.get();
-                else consumers = null;
+    private void deliverTasks (GraphShard shard) {
+        GraphShard.Consumer firstRequeued = null;
+        while (shard.hasTasksAwaitingDelivery()) {
+            GraphShard.Consumer consumer = pollConsumer(shard);
+            if (consumer == null) {
+                return;
             }
 
-            if (consumers == null || consumers.isEmpty()) {
-                LOG.warn("No consumer found for graph {}, needed for {} high-priority tasks", graphId, tasks.size());
-                continue HIGHPRIORITY;
+            List<AnalystClusterRequest> highPriorityTasks = new ArrayList<>();
+            for (AnalystClusterRequest task; highPriorityTasks.size() < consumer.maxTasks &&
+                    (task = shard.stalledHighPriorityTasks.poll()) != null; ) {
+                highPriorityTasks.add(task);
             }
-
-            Iterator<AnalystClusterRequest> taskIt = tasks.iterator();
-            while (taskIt.hasNext() && !consumers.isEmpty()) {
-                Response consumer = consumers.pop();
-
-                // package tasks into a job
-                Job job = new Job("HIGH PRIORITY");
-                job.graphId = graphId;
-                for (int i = 0; i < MAX_TASKS_PER_WORKER && taskIt.hasNext(); i++) {
-                    job.addTask(taskIt.next());
-                    taskIt.remove();
-                }
-
+            if (!highPriorityTasks.isEmpty()) {
+                firstRequeued = null;
                 // TODO inefficiency here: we should mix single point and multipoint in the same response
-                deliver(job, consumer);
-                nWaitingConsumers--;
-            }
-        }
-
-        // deliver low priority tasks
-        while (nWaitingConsumers > 0) {
-            // ensure we advance at least one; advanceToElement will not advance if the predicate passes
-            // for the first element.
-            jobs.advance();
-
-            // find a job that both has visible tasks and has available workers
-            // We don't respect graph affinity when working offline, because we can't start more workers
-            Job current;
-            if (!workOffline) {
-                current = jobs.advanceToElement(e -> !e.tasksAwaitingDelivery.isEmpty() &&
-                        consumersByGraph.containsKey(e.graphId) &&
-                        !consumersByGraph.get(e.graphId).isEmpty());
-            }
-            else {
-                current = jobs.advanceToElement(e -> !e.tasksAwaitingDelivery.isEmpty());
+                if (!deliver(highPriorityTasks, consumer.response)) {
+                    shard.stalledHighPriorityTasks.addAll(highPriorityTasks);
+                }
+                continue;
             }
 
-            // nothing to see here
-            if (current == null) break;
-
-            Deque<Response> consumers;
-            if (!workOffline)
-                consumers = consumersByGraph.get(current.graphId);
-            else {
-                Optional<Deque<Response>> opt = consumersByGraph.values().stream().filter(c -> !c.isEmpty()).findFirst();
-                if (opt.isPresent()) consumers = opt.get();
-                else consumers = null;
+            Job job = shard.nextJobWithTasks();
+            List<AnalystClusterRequest> tasks = job == null ? Collections.emptyList() :
+                    job.pollTasksForDelivery(consumer.maxTasks);
+            if (tasks.isEmpty()) {
+                // Another thread took the tasks. Put the consumer back and check again, unless a full pass over the
+                // waiting consumers has delivered nothing.
+                shard.consumers.addLast(consumer);
+                nWaitingConsumers.incrementAndGet();
+                if (consumer == firstRequeued) {
+                    return;
+                }
+                if (firstRequeued == null) {
+                    firstRequeued = consumer;
+                }
+                continue;
             }
+            firstRequeued = null;
             // deliver this job to only one consumer
             // This way if there are multiple workers and multiple jobs the jobs will be fairly distributed, more or less
-            deliver(current, consumers.pop());
-            nWaitingConsumers--;
+            if (deliver(tasks, consumer.response)) {
+                job.markTasksDelivered(tasks);
+            } else {
+                job.returnUndeliveredTasks(tasks);
+            }
         }
+    }
 
-        // TODO: graph switching
+    /**
+     * Take a waiting consumer for tasks on the given graph.
+     * We don't respect graph affinity when working offline, because we can't start more workers.
+     */
+    private GraphShard.Consumer pollConsumer (GraphShard shard) {
+        GraphShard.Consumer consumer = shard.consumers.pollFirst();
+        if (consumer == null && workOffline) {
+            for (GraphShard other : shards.values()) {
+                consumer = other.consumers.pollFirst();
+                if (consumer != null) break;
+            }
+        }
+        if (consumer != null) {
+            nWaitingConsumers.decrementAndGet();
+        }
+        return consumer;
+    }
 
-        // we've delivered everything we can, prevent anything else from happening until something changes
-        wait();
+    /** @return the shard for the given graph, creating it if it does not exist. */
+    private GraphShard getShard (String graphId) {
+        return shards.computeIfAbsent(graphId, GraphShard::new);
     }
 
     /**
-     * This uses a linear search through jobs, which should not be problematic unless there are thousands of
-     * simultaneous jobs.
      * @return a Job object that contains the given task ID.
      */
     public Job getJobForTask (int taskId) {
-        for (Job job : jobs) {
-            if (job.containsTask(taskId)) {
-                return job;
-            }
+        Map.Entry<Integer, Job> entry = jobsByFirstTaskId.floorEntry(taskId);
+        if (entry != null && entry.getValue().containsTask(taskId)) {
+            return entry.getValue();
         }
         return null;
     }
 
     /**
-     * Attempt to hand some tasks from the given job to a waiting consumer connection.
+     * Attempt to hand some tasks to a waiting consumer connection.
      * The write will fail if the consumer has closed the connection but it hasn't been removed from the connection
-     * queue yet. This can happen because the Broker methods are synchronized, and the removal action may be waiting
-     * to get the monitor while we are trying to distribute tasks here.
+     * queue yet. The caller must put the tasks back in their queue in that case.
      * @return whether the handoff succeeded.
      */
-    public synchronized boolean deliver (Job job, Response response) {
+    private boolean deliver (List<AnalystClusterRequest> tasks, Response response) {
 
         // Check up-front whether the connection is still open.
         if (!response.getRequest().getRequest().getConnection().isOpen()) {
@@ -608,12 +564,6 @@ public class Broker implements Runnable {
             return false;
         }
 
-        // Get up to N tasks from the tasksAwaitingDelivery deque
-        List<AnalystClusterRequest> tasks = new ArrayList<>();
-        while (tasks.size() < MAX_TASKS_PER_WORKER && !job.tasksAwaitingDelivery.isEmpty()) {
-            tasks.add(job.tasksAwaitingDelivery.poll());
-        }
-
         // Attempt to deliver the tasks to the given consumer.
         try {
             response.setStatus(HttpStatus.OK_200);
@@ -625,16 +575,13 @@ public class Broker implements Runnable {
             LOG.debug("Consumer connection caused IO error, it will be removed.");
             response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR_500);
             response.resume();
-            // Delivery failed, put tasks back on (the end of) the queue.
-            job.tasksAwaitingDelivery.addAll(tasks);
             return false;
         }
 
         // Delivery succeeded, move tasks from undelivered to delivered status
         LOG.debug("Delivery of {} tasks succeeded.", tasks.size());
-        nUndeliveredTasks -= tasks.size();
-        job.markTasksDelivered(tasks);
-
+        nUndeliveredTasks.addAndGet(-tasks.size());
+        nDeliveredTasks.add(tasks.size());
         return true;
 
     }
@@ -644,16 +591,50 @@ public class Broker implements Runnable {
      * TODO maybe use unique delivery receipts instead of task IDs to handle redelivered tasks independently
      * @return whether the task was found and removed.
      */
-    public synchronized boolean markTaskCompleted (int taskId) {
+    public boolean markTaskCompleted (int taskId) {
         Job job = getJobForTask(taskId);
         if (job == null) {
-            LOG.error("Could not find a job containing task {}, and therefore could not mark the task as completed.");
+            LOG.error("Could not find a job containing task {}, and therefore could not mark the task as completed.",
+                    taskId);
             return false;
         }
-        job.markTaskCompleted(taskId);
+        if (job.markTaskCompleted(taskId)) {
+            nCompletedTasks.increment();
+        }
         return true;
     }
 
+    /**
+     * Mark a batch of normal (non-priority) tasks completed, taking the lock on each job only once.
+     * @return the number of the given tasks that were found.
+     */
+    public int markTasksCompleted (int[] taskIds) {
+        Map<Job, TIntList> taskIdsByJob = new HashMap<>();
+        int nFound = 0;
+        for (int taskId : taskIds) {
+            Job job = getJobForTask(taskId);
+            if (job == null) {
+                LOG.error("Could not find a job containing task {}, and therefore could not mark the task as completed.",
+                        taskId);
+                continue;
+            }
+            taskIdsByJob.computeIfAbsent(job, j -> new TIntArrayList()).add(taskId);
+            nFound += 1;
+        }
+        taskIdsByJob.forEach((job, ids) -> nCompletedTasks.add(job.markTasksCompleted(ids)));
+        return nFound;
+    }
+
+    /** @return the total number of tasks delivered to workers since this broker started, including re-deliveries. */
+    public long getDeliveredTaskCount () {
+        return nDeliveredTasks.sum();
+    }
+
+    /** @return the total number of tasks marked completed since this broker started. */
+    public long getCompletedTaskCount () {
+        return nCompletedTasks.sum();
+    }
+
     /**
      * Marks the specified priority request as completed, and returns the suspended Response object for the connection
      * that submitted the priority request (the UI), which probably still waiting to receive a result back over the
@@ -661,60 +642,61 @@ public class Broker implements Runnable {
      * without blocking the broker thread.
      * TODO rename to "deregisterSuspendedProducer" and "deregisterSuspendedConsumer" ?
      */
-    public synchronized Response deletePriorityTask (int taskId) {
+    public Response deletePriorityTask (int taskId) {
         return highPriorityResponses.remove(taskId);
     }
 
-    // TODO: occasionally purge closed connections from consumersByGraph
+    // TODO: occasionally purge closed connections from the consumer queues
     // TODO: worker catalog and graph affinity homeostasis
 
+    /**
+     * Tasks are delivered by the threads that enqueue tasks and register consumers. This thread only periodically
+     * makes timed-out tasks visible again and delivers them.
+     */
     @Override
     public void run() {
         while (true) {
             try {
-                deliverTasks();
+                Thread.sleep(REDELIVERY_INTERVAL_SEC * 1000);
             } catch (InterruptedException e) {
-                LOG.info("Task pump thread was interrupted.");
+                LOG.info("Task redelivery thread was interrupted.");
                 return;
             }
+            redeliver();
+            logQueueStatus();
+            shards.values().forEach(this::deliverTasks);
         }
     }
 
     /** find the job for a task, creating it if it does not exist */
     public Job findJob (AnalystClusterRequest task) {
-        Job job = findJob(task.jobId);
-
-        if (job != null)
+        return jobsById.computeIfAbsent(task.jobId, jobId -> {
+            Job job = new Job(jobId);
+            job.graphId = task.graphId;
+            getShard(job.graphId).jobs.add(job);
             return job;
-
-        job = new Job(task.jobId);
-        job.graphId = task.graphId;
-        jobs.insertAtTail(job);
-        return job;
+        });
     }
 
     /** find the job for a jobId, or null if it does not exist */
     public Job findJob (String jobId) {
-        for (Job job : jobs) {
-            if (job.jobId.equals(jobId)) {
-                return job;
-            }
-        }
-        return null;
+        return jobsById.get(jobId);
     }
 
     /** delete a job */
-    public synchronized boolean deleteJob (String jobId) {
-        Job job = findJob(jobId);
+    public boolean deleteJob (String jobId) {
+        Job job = jobsById.remove(jobId);
         if (job == null) return false;
-        nUndeliveredTasks -= job.tasksAwaitingDelivery.size();
-        return jobs.remove(job);
+        getShard(job.graphId).jobs.remove(job);
+        jobsByFirstTaskId.values().removeIf(j -> j == job);
+        nUndeliveredTasks.addAndGet(-job.getTasksAwaitingDeliveryCount());
+        return true;
     }
 
-    private Multimap<String, String> activeJobsPerGraph = HashMultimap.create();
+    private Multimap<String, String> activeJobsPerGraph = Multimaps.synchronizedMultimap(HashMultimap.create());
 
-    public synchronized boolean anyJobsActive() {
-        for (Job job : jobs) {
+    public boolean anyJobsActive() {
+        for (Job job : jobsById.values()) {
             if (!job.isComplete()) return true;
         }
         return false;
@@ -103,12 +103,27 @@ class BrokerHttpHandler extends HttpHandler {
 
                 if ("dequeue".equals(command)) {
                     String graphAffinity = pathComponents[2];
+                    // Workers may ask for a number of tasks matching their free capacity.
+                    String maxTasksParam = request.getParameter("maxTasks");
+                    int maxTasks = broker.MAX_TASKS_PER_WORKER;
+                    if (maxTasksParam != null) {
+                        try {
+                            maxTasks = Integer.parseInt(maxTasksParam);
+                        } catch (NumberFormatException e) {
+                            maxTasks = 0;
+                        }
+                        if (maxTasks < 1) {
+                            response.setStatus(HttpStatus.BAD_REQUEST_400);
+                            response.setDetailMessage("maxTasks should be a positive integer");
+                            return;
+                        }
+                    }
                     request.getRequest().getConnection()
                             .addCloseListener((closeable, iCloseType) -> {
                                 broker.removeSuspendedResponse(graphAffinity, response);
                             });
                     response.suspend(); // The request should survive after the handler function exits.
-                    broker.registerSuspendedResponse(graphAffinity, response);
+                    broker.registerSuspendedResponse(graphAffinity, response, maxTasks);
                 }
 
                 /* not dequeueing, enqueuing */
@@ -151,6 +166,14 @@ class BrokerHttpHandler extends HttpHandler {
                                 "Context not found; should be either 'jobs' or 'priority'");
                     }
                 }
+                else if ("complete".equals(command) && "tasks".equals(pathComponents[2])) {
+                    // Acknowledge completion of a list of normal job tasks at once, avoiding their re-delivery.
+                    int[] taskIds = mapper.readValue(request.getInputStream(), int[].class);
+                    int nFound = broker.markTasksCompleted(taskIds);
+                    LOG.debug("{} of {} completed tasks were found.", nFound, taskIds.length);
+                    response.setStatus(HttpStatus.OK_200);
+                    return;
+                }
                 else if ("complete".equals(command)) {
                     // Mark a specific high-priority task as completed, and record its result.
                     // We were originally planning to do this with a DELETE request that has a body,
@@ -75,7 +75,7 @@ public class BrokerMain implements Runnable {
         try {
             httpServer.start();
             LOG.info("Broker running.");
-            broker.run(); // run queue broker task pump in this thread
+            broker.run(); // run the task redelivery loop in this thread
             Thread.currentThread().join();
         } catch (BindException be) {
             LOG.error("Cannot bind to port {}. Is it already in use?", port);
@@ -0,0 +1,95 @@
+package org.opentripplanner.analyst.broker;
+
+import org.glassfish.grizzly.http.server.Response;
+import org.opentripplanner.analyst.cluster.AnalystClusterRequest;
+
+import java.util.Deque;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The part of the broker state concerning a single graph: the jobs on that graph, the workers waiting for tasks on it,
+ * and its high-priority tasks. Everything here is held in concurrent collections, so that tasks can be matched with
+ * workers on many threads at once without taking a lock on the whole broker.
+ */
+class GraphShard {
+
+    final String graphId;
+
+    /** The jobs on this graph, from which tasks are taken in round-robin order. Jobs are rarely added or removed. */
+    final List<Job> jobs = new CopyOnWriteArrayList<>();
+
+    /** The index in jobs of the next job to take tasks from. Wraps around, so only its value modulo the size counts. */
+    private final AtomicInteger nextJob = new AtomicInteger();
+
+    /** Outstanding requests from workers with affinity for this graph, waiting for tasks. */
+    final Deque<Consumer> consumers = new ConcurrentLinkedDeque<>();
+
+    /**
+     * High priority requests that have just come in and are about to be sent down a single point channel.
+     * See Broker.enqueuePriorityTask.
+     */
+    final Queue<AnalystClusterRequest> newHighPriorityTasks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * High priority requests that could not be sent down a single point channel. They cut in line in front of the
+     * jobs the next time a worker asks for tasks.
+     */
+    final Queue<AnalystClusterRequest> stalledHighPriorityTasks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Side channels used to send single point requests to workers. The set is ordered on machine ID, so that the same
+     * machine will tend to get all single point work for a graph. See Broker.WrappedResponse.
+     */
+    final NavigableSet<Broker.WrappedResponse> singlePointChannels = new ConcurrentSkipListSet<>();
+
+    GraphShard (String graphId) {
+        this.graphId = graphId;
+    }
+
+    /** A suspended long-poll request from a worker, and the number of tasks the worker asked for. */
+    static class Consumer {
+        final Response response;
+        final int maxTasks;
+
+        Consumer (Response response, int maxTasks) {
+            this.response = response;
+            this.maxTasks = maxTasks;
+        }
+    }
+
+    /**
+     * Advance round-robin through the jobs on this graph.
+     * @return the next job that has tasks awaiting delivery, or null if there is no such job.
+     */
+    Job nextJobWithTasks () {
+        Object[] snapshot = jobs.toArray();
+        for (int i = 0; i < snapshot.length; i++) {
+            Job job = (Job) snapshot[Math.floorMod(nextJob.getAndIncrement(), snapshot.length)];
+            if (job.hasTasksAwaitingDelivery()) {
+                return job;
+            }
+        }
+        return null;
+    }
+
+    /** @return whether there are any high-priority or job tasks on this graph awaiting delivery. */
+    boolean hasTasksAwaitingDelivery () {
+        if (!stalledHighPriorityTasks.isEmpty()) {
+            return true;
+        }
+        for (Job job : jobs) {
+            if (job.hasTasksAwaitingDelivery()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -1,6 +1,7 @@
 package org.opentripplanner.analyst.broker;
 
 import gnu.trove.iterator.TIntLongIterator;
+import gnu.trove.list.TIntList;
 import gnu.trove.map.TIntLongMap;
 import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.hash.TIntLongHashMap;
@@ -11,13 +12,19 @@ import org.opentripplanner.analyst.cluster.AnalystClusterRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * FIXME delivered tasks map is oblivious to multiple tasks having the same ID.
  * In fact we just generate numeric queue task IDs. Origin point IDs will be handled at the application layer.
+ *
+ * Jobs are used from many broker threads at once. Tasks awaiting delivery are in a concurrent queue, so that they can
+ * be taken for delivery without locking. The bookkeeping of delivered and completed tasks is guarded by the monitor
+ * of the job, so threads working on different jobs never wait for one another.
  */
 public class Job {
 
@@ -34,20 +41,23 @@ public class Job {
 
     /* Tasks in this job that have yet to be delivered, or that will be re-delivered due to completion timeout. */
     // maybe this should only be a list of IDs.
-    Queue<AnalystClusterRequest> tasksAwaitingDelivery = new ArrayDeque<>();
+    private final Queue<AnalystClusterRequest> tasksAwaitingDelivery = new ConcurrentLinkedQueue<>();
+
+    /* The size of tasksAwaitingDelivery, which a concurrent queue can only find by counting its elements. */
+    private final AtomicInteger nTasksAwaitingDelivery = new AtomicInteger();
 
     /* The tasks in this job keyed on their task ID. */
-    TIntObjectMap<AnalystClusterRequest> tasksById = new TIntObjectHashMap<>();
+    private TIntObjectMap<AnalystClusterRequest> tasksById = new TIntObjectHashMap<>();
 
     /*
      * Completion timeouts for tasks that have been delivered.
      * A task whose ID is in this map has been delivered, has not been reported completed,
      * and is not awaiting re-delivery.
      */
-    TIntLongMap invisibleUntil = new TIntLongHashMap();
+    private TIntLongMap invisibleUntil = new TIntLongHashMap();
 
     /* The IDs of all tasks that have been marked completed. */
-    TIntSet completedTasks = new TIntHashSet();
+    private TIntSet completedTasks = new TIntHashSet();
 
     public Job (String jobId) {
         this.jobId = jobId;
@@ -55,11 +65,43 @@ public class Job {
 
     /** Adds a task to this Job, assigning it a task ID number. */
     public void addTask (AnalystClusterRequest task) {
-        tasksById.put(task.taskId, task);
+        synchronized (this) {
+            tasksById.put(task.taskId, task);
+        }
+        enqueueForDelivery(task);
+    }
+
+    private void enqueueForDelivery (AnalystClusterRequest task) {
         tasksAwaitingDelivery.add(task);
+        nTasksAwaitingDelivery.incrementAndGet();
+    }
+
+    /** Take up to maxTasks tasks that are awaiting delivery. Several threads may take tasks at once. */
+    public List<AnalystClusterRequest> pollTasksForDelivery (int maxTasks) {
+        List<AnalystClusterRequest> tasks = new ArrayList<>(maxTasks);
+        while (tasks.size() < maxTasks) {
+            AnalystClusterRequest task = tasksAwaitingDelivery.poll();
+            if (task == null) break;
+            nTasksAwaitingDelivery.decrementAndGet();
+            tasks.add(task);
+        }
+        return tasks;
+    }
+
+    /** Put back tasks taken by pollTasksForDelivery that could not be delivered, at the end of the queue. */
+    public void returnUndeliveredTasks (List<AnalystClusterRequest> tasks) {
+        tasks.forEach(this::enqueueForDelivery);
+    }
+
+    public boolean hasTasksAwaitingDelivery () {
+        return !tasksAwaitingDelivery.isEmpty();
     }
 
-    public void markTasksDelivered(List<AnalystClusterRequest> tasks) {
+    public int getTasksAwaitingDeliveryCount () {
+        return nTasksAwaitingDelivery.get();
+    }
+
+    public synchronized void markTasksDelivered(List<AnalystClusterRequest> tasks) {
         long deliveryTime = System.currentTimeMillis();
         long visibleAt = deliveryTime + INVISIBLE_DURATION_SEC * 1000;
         for (AnalystClusterRequest task : tasks) {
@@ -72,7 +114,7 @@ public class Job {
      * completed, and make all these tasks visible again for delivery.
      * TODO maybe this should only be triggered when the awaiting delivery queue is empty to reduce double-delivery.
      */
-    public int redeliver () {
+    public synchronized int redeliver () {
         long now = System.currentTimeMillis();
         TIntLongIterator invisibleIterator = invisibleUntil.iterator();
         int nRedelivered = 0;
@@ -82,7 +124,7 @@ public class Job {
             long timeout = invisibleIterator.value();
             if (now > timeout) {
                 invisibleIterator.remove();
-                tasksAwaitingDelivery.add(tasksById.get(taskId));
+                enqueueForDelivery(tasksById.get(taskId));
                 LOG.warn("Task {} of job {} was not completed in time, queueing it for re-delivery.", taskId, jobId);
                 nRedelivered += 1;
             }
@@ -90,41 +132,61 @@ public class Job {
         return nRedelivered;
     }
 
-    public void markTaskCompleted (int taskId) {
+    /** @return true if the task was marked completed, false if the completion message was ignored. */
+    public synchronized boolean markTaskCompleted (int taskId) {
         if (tasksById.get(taskId) == null) {
             LOG.error("Tried to mark task {} completed, but it was not in job {}.", taskId, jobId);
-            return;
+            return false;
         }
         if (invisibleUntil.remove(taskId) != 0) {
             // If the taskId was found in the invisibleUntil map, the task was delivered and has not been slated for
             // re-delivery.
             completedTasks.add(taskId);
+            return true;
         } else {
             // If the taskId was not found in the invisibleUntil map, the task was never delivered, or timed out and was
             // slated for redelivery. We should ignore the completion message and let the re-delivery proceed to avoid
             // problems with redelivered tasks overwriting results in S3 after the job is considered finished.
             // TODO verify that there are no race conditions here.
-            LOG.warn("Ignoring late task completion message, task {} was queued for re-delivery.");
+            LOG.warn("Ignoring late task completion message, task {} was queued for re-delivery.", taskId);
+            return false;
+        }
+    }
+
+    /**
+     * Mark several tasks of this job completed at once, acquiring the lock on this job only once.
+     * @return the number of tasks that were marked completed.
+     */
+    public synchronized int markTasksCompleted (TIntList taskIds) {
+        int nCompleted = 0;
+        for (int i = 0; i < taskIds.size(); i++) {
+            if (markTaskCompleted(taskIds.get(i))) nCompleted += 1;
         }
+        return nCompleted;
     }
 
-    public int getTotalTaskCount() {
+    public synchronized int getTotalTaskCount() {
         return tasksById.size();
     }
 
-    public int getCompletedTaskCount() {
+    public synchronized int getCompletedTaskCount() {
         return completedTasks.size();
     }
 
-    public boolean isComplete() {
+    /** @return the number of tasks that have been delivered to workers but have not yet been completed. */
+    public synchronized int getInFlightTaskCount() {
+        return invisibleUntil.size();
+    }
+
+    public synchronized boolean isComplete() {
         return completedTasks.size() == tasksById.size();
     }
 
-    public boolean containsTask (int taskId) {
+    public synchronized boolean containsTask (int taskId) {
         AnalystClusterRequest req = tasksById.get(taskId);
         if (req != null) {
             if (!req.jobId.equals(this.jobId)) {
-                LOG.error("Task {} has a job ID that does not match the job in which it was discovered.");
+                LOG.error("Task {} has a job ID that does not match the job in which it was discovered.", taskId);
             }
             return true;
         }
@@ -52,7 +52,13 @@ public class AnalystClusterRequest implements Serializable {
 
 	/** Should times be included in the results (i.e. ResultSetWithTimes rather than ResultSet) */
 	public boolean includeTimes = false;
-	
+
+	/**
+	 * Should results saved to the output location be written in the compact binary format (see
+	 * ResultEnvelopeBinaryFormat) rather than as JSON? Results with isochrones are always written as JSON.
+	 */
+	public boolean binaryOutput = false;
+
 	private AnalystClusterRequest(String destinationPointsetId, String graphId) {
 		this.destinationPointsetId = destinationPointsetId;
 		this.graphId = graphId;
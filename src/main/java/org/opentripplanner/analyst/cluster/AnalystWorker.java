@@ -11,8 +11,8 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
@@ -34,7 +34,6 @@ import org.opentripplanner.api.model.JodaLocalDateSerializer;
 import org.opentripplanner.api.model.QualifiedModeSetSerializer;
 import org.opentripplanner.api.model.TraverseModeSetSerializer;
 import org.opentripplanner.common.MavenVersion;
-import org.opentripplanner.profile.RaptorWorkerData;
 import org.opentripplanner.profile.RepeatedRaptorProfileRouter;
 import org.opentripplanner.routing.graph.Graph;
 import org.slf4j.Logger;
@@ -56,6 +55,8 @@ import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.Properties;
 import java.util.Random;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.UUID;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
@@ -87,6 +88,9 @@ public class AnalystWorker implements Runnable {
 
     public static final int POLL_TIMEOUT = 10 * 1000;
 
+    /** How often completed batch tasks are acknowledged to the broker when using the bulk protocol, in milliseconds. */
+    public static final int ACK_INTERVAL = 1000;
+
     /**
      * If this value is non-negative, the worker will not actually do any work. It will just report all tasks
      * as completed immediately, but will fail to do so on the given percentage of tasks. This is used in testing task
@@ -94,6 +98,16 @@ public class AnalystWorker implements Runnable {
      */
     public int dryRunFailureRate = -1;
 
+    /**
+     * If true, this worker asks the broker for as many batch tasks as it has free capacity for, and acknowledges
+     * completed batch tasks in bulk every ACK_INTERVAL rather than with one HTTP request per task. For short tasks
+     * the round trips would otherwise take longer than the tasks themselves.
+     */
+    public boolean bulkProtocol = true;
+
+    /** IDs of completed batch tasks that have not yet been acknowledged to the broker. Guarded by its own monitor. */
+    private final TIntList completedTaskIds = new TIntArrayList();
+
     /** How long (minimum, in milliseconds) should this worker stay alive after receiving a single point request? */
     public static final int SINGLE_POINT_KEEPALIVE = 15 * 60 * 1000;
 
@@ -113,10 +127,8 @@ public class AnalystWorker implements Runnable {
 
     static final HttpClient httpClient;
 
-    /** Cache RAPTOR data by Job ID */
-    private Cache<String, RaptorWorkerData> workerDataCache = CacheBuilder.newBuilder()
-            .maximumSize(200)
-            .build();
+    /** Cache RAPTOR data in memory and on disk, shared between jobs that use the same data. */
+    private RaptorWorkerDataCache workerDataCache = new RaptorWorkerDataCache();
 
     static {
         PoolingHttpClientConnectionManager mgr = new PoolingHttpClientConnectionManager();
@@ -191,6 +203,8 @@ public class AnalystWorker implements Runnable {
         this.pointSetDatastore = new PointSetDatastore(10, null, false, config.getProperty("pointsets-bucket"));
         this.clusterGraphBuilder = new ClusterGraphBuilder(config.getProperty("graphs-bucket"));
 
+        this.bulkProtocol = !"false".equals(config.getProperty("bulk-protocol"));
+
         Boolean autoShutdown = Boolean.parseBoolean(config.getProperty("auto-shutdown"));
         this.autoShutdown = autoShutdown == null ? false : autoShutdown;
 
@@ -241,6 +255,15 @@ public class AnalystWorker implements Runnable {
         batchExecutor = new ThreadPoolExecutor(1, nP, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(nP * 2));
         batchExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
 
+        if (bulkProtocol) {
+            new Timer("task acknowledgement", true).schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    acknowledgeCompletedTasks();
+                }
+            }, ACK_INTERVAL, ACK_INTERVAL);
+        }
+
         // Build a graph on startup, iff a graph ID was provided.
         if (graphId != null) {
             LOG.info("Prebuilding graph {}", graphId);
@@ -399,8 +422,7 @@ public class AnalystWorker implements Runnable {
             // But then we'd need to pass in both the cache and the key, which is weird.
             if (transit && !singlePoint) {
                 long dataStart = System.currentTimeMillis();
-                router.raptorWorkerData = workerDataCache.get(clusterRequest.jobId, () -> RepeatedRaptorProfileRouter
-                        .getRaptorWorkerData(clusterRequest.profileRequest, graph, sampleSet, ts));
+                router.raptorWorkerData = workerDataCache.get(clusterRequest, graph, sampleSet, ts);
                 ts.raptorData = (int) (System.currentTimeMillis() - dataStart);
             } else {
                 // The worker will generate a one-time throw-away table.
@@ -413,6 +435,8 @@ public class AnalystWorker implements Runnable {
             try {
                 // TODO when router runs, if there are no transit modes defined it should just skip the transit work.
                 router.includeTimes = clusterRequest.includeTimes;
+                // A user is waiting on single-point requests, use all the cores. Batch jobs already keep them all busy.
+                router.parallel = singlePoint;
                 envelope = router.route();
                 envelope.id = clusterRequest.id;
                 ts.success = true;
@@ -429,9 +453,10 @@ public class AnalystWorker implements Runnable {
             envelope.jobId = clusterRequest.jobId;
             envelope.destinationPointsetId = clusterRequest.destinationPointsetId;
             if (clusterRequest.outputLocation != null) {
-                // Convert the result envelope and its contents to JSON and gzip it in this thread.
+                // Convert the result envelope and its contents to JSON or binary and gzip it in this thread.
                 // Transfer the results to Amazon S3 in another thread, piping between the two.
-                String s3key = String.join("/", clusterRequest.jobId, clusterRequest.id + ".json.gz");
+                boolean binary = clusterRequest.binaryOutput && ResultEnvelopeBinaryFormat.canWrite(envelope);
+                String s3key = String.join("/", clusterRequest.jobId, clusterRequest.id + (binary ? ".dat.gz" : ".json.gz"));
                 PipedInputStream inPipe = new PipedInputStream();
                 PipedOutputStream outPipe = new PipedOutputStream(inPipe);
                 new Thread(() -> {
@@ -440,7 +465,11 @@ public class AnalystWorker implements Runnable {
                 OutputStream gzipOutputStream = new GZIPOutputStream(outPipe);
                 // We could do the writeValue() in a thread instead, in which case both the DELETE and S3 options
                 // could consume it in the same way.
-                objectMapper.writeValue(gzipOutputStream, envelope);
+                if (binary) {
+                    ResultEnvelopeBinaryFormat.write(envelope, gzipOutputStream);
+                } else {
+                    objectMapper.writeValue(gzipOutputStream, envelope);
+                }
                 gzipOutputStream.close();
                 // Tell the broker the task has been handled and should not be re-delivered to another worker.
                 deleteRequest(clusterRequest);
@@ -496,6 +525,9 @@ public class AnalystWorker implements Runnable {
             url = BROKER_BASE_URL + "/single/" + graphId;
         } else {
             url = BROKER_BASE_URL + "/dequeue/" + graphId;
+            if (bulkProtocol) {
+                url += "?maxTasks=" + getFreeBatchCapacity();
+            }
         }
         HttpPost httpPost = new HttpPost(url);
         httpPost.setHeader(new BasicHeader(WORKER_ID_HEADER, machineId));
@@ -556,10 +588,26 @@ public class AnalystWorker implements Runnable {
         }
     }
 
+    /**
+     * The number of batch tasks this worker could start or queue right now without blocking, i.e. how many it should
+     * ask the broker for.
+     */
+    private int getFreeBatchCapacity () {
+        int idleThreads = batchExecutor.getMaximumPoolSize() - batchExecutor.getActiveCount();
+        return Math.max(1, idleThreads + batchExecutor.getQueue().remainingCapacity());
+    }
+
     /**
      * Tell the broker that the given message has been successfully processed by a worker (HTTP DELETE).
+     * When using the bulk protocol the task is only recorded here, and acknowledged with others on a timer.
      */
     public void deleteRequest(AnalystClusterRequest clusterRequest) {
+        if (bulkProtocol) {
+            synchronized (completedTaskIds) {
+                completedTaskIds.add(clusterRequest.taskId);
+            }
+            return;
+        }
         String url = BROKER_BASE_URL + String.format("/tasks/%s", clusterRequest.taskId);
         HttpDelete httpDelete = new HttpDelete(url);
         try {
@@ -576,6 +624,36 @@ public class AnalystWorker implements Runnable {
         }
     }
 
+    /**
+     * Tell the broker in a single request that all the batch tasks completed since the last call have been
+     * successfully processed. If that fails they are kept to be acknowledged again on the next call.
+     */
+    private void acknowledgeCompletedTasks () {
+        int[] taskIds;
+        synchronized (completedTaskIds) {
+            if (completedTaskIds.isEmpty()) return;
+            taskIds = completedTaskIds.toArray();
+            completedTaskIds.clear();
+        }
+        HttpPost httpPost = new HttpPost(BROKER_BASE_URL + "/complete/tasks");
+        try {
+            httpPost.setEntity(new ByteArrayEntity(objectMapper.writeValueAsBytes(taskIds)));
+            HttpResponse response = httpClient.execute(httpPost);
+            // Signal the http client library that we're done with this response object, allowing connection reuse.
+            EntityUtils.consumeQuietly(response.getEntity());
+            if (response.getStatusLine().getStatusCode() == 200) {
+                LOG.info("Successfully acknowledged {} completed tasks.", taskIds.length);
+                return;
+            }
+            LOG.info("Failed to acknowledge {} completed tasks ({}).", taskIds.length, response.getStatusLine());
+        } catch (Exception e) {
+            LOG.warn("Failed to acknowledge {} completed tasks.", taskIds.length, e);
+        }
+        synchronized (completedTaskIds) {
+            completedTaskIds.addAll(taskIds);
+        }
+    }
+
     /** Get the AWS instance type if applicable */
     public String getInstanceType () {
         try {
@@ -0,0 +1,134 @@
+package org.opentripplanner.analyst.cluster;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Iterables;
+import com.google.common.hash.Hashing;
+import org.opentripplanner.analyst.SampleSet;
+import org.opentripplanner.analyst.scenario.AddTripPattern;
+import org.opentripplanner.analyst.scenario.TransferRule;
+import org.opentripplanner.profile.ProfileRequest;
+import org.opentripplanner.profile.RaptorWorkerData;
+import org.opentripplanner.profile.RaptorWorkerDataStore;
+import org.opentripplanner.profile.RepeatedRaptorProfileRouter;
+import org.opentripplanner.routing.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Caches the RAPTOR data used by an analyst worker, both in memory and on disk.
+ *
+ * Data is keyed on everything it is built from: the graph, the time window, the parts of the profile request that
+ * affect it, the scenario and the destination point set. Different jobs using the same data therefore share one
+ * copy rather than each building its own. The data is also saved to a file in the cache directory, and read back
+ * memory-mapped (see RaptorWorkerDataStore), so the large stop-to-target tables stay off the heap and a restarted
+ * worker can reuse the data built before it was restarted.
+ *
+ * Data for scenarios that add trip patterns or transfer rules cannot be saved. It is only cached in memory by job ID,
+ * as all data used to be.
+ */
+public class RaptorWorkerDataCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RaptorWorkerDataCache.class);
+
+    private static final String CACHE_DIR = "raptor_data_cache";
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final File cacheDir;
+
+    private final Cache<String, RaptorWorkerData> cache = CacheBuilder.newBuilder()
+            .maximumSize(200)
+            .build();
+
+    public RaptorWorkerDataCache () {
+        this(new File(CACHE_DIR));
+    }
+
+    public RaptorWorkerDataCache (File cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    /** Get the RAPTOR data for the given request, loading or building it as needed. */
+    public RaptorWorkerData get (AnalystClusterRequest clusterRequest, Graph graph, SampleSet sampleSet,
+            TaskStatistics ts) throws ExecutionException {
+        String key = key(clusterRequest);
+        if (key == null) {
+            return cache.get("job_" + clusterRequest.jobId, () -> RepeatedRaptorProfileRouter
+                    .getRaptorWorkerData(clusterRequest.profileRequest, graph, sampleSet, ts));
+        }
+        return cache.get(key, () -> loadOrBuild(key, clusterRequest.profileRequest, graph, sampleSet, ts));
+    }
+
+    private RaptorWorkerData loadOrBuild (String key, ProfileRequest request, Graph graph, SampleSet sampleSet,
+            TaskStatistics ts) {
+        File file = new File(cacheDir, key + ".dat");
+        if (file.exists()) {
+            try {
+                RaptorWorkerData data = RaptorWorkerDataStore.read(file, graph);
+                if (data != null) {
+                    LOG.info("Loaded RAPTOR data from {}", file);
+                    return data;
+                }
+            } catch (IOException e) {
+                LOG.warn("Could not read RAPTOR data from {}, rebuilding it.", file, e);
+            }
+        }
+
+        RaptorWorkerData data = RepeatedRaptorProfileRouter.getRaptorWorkerData(request, graph, sampleSet, ts);
+        if (!RaptorWorkerDataStore.canStore(data)) {
+            return data;
+        }
+        try {
+            cacheDir.mkdirs();
+            // Write to a temporary file and move it into place, so other workers never see a partial file.
+            File tempFile = File.createTempFile(key, ".tmp", cacheDir);
+            RaptorWorkerDataStore.write(data, graph, tempFile);
+            if (!tempFile.renameTo(file)) {
+                tempFile.delete();
+            }
+            // Replace the data on the heap with the memory-mapped copy.
+            RaptorWorkerData mapped = RaptorWorkerDataStore.read(file, graph);
+            if (mapped != null) {
+                LOG.info("Saved RAPTOR data to {}", file);
+                return mapped;
+            }
+        } catch (IOException e) {
+            LOG.warn("Could not save RAPTOR data to {}, keeping it in memory.", file, e);
+        }
+        return data;
+    }
+
+    /**
+     * @return a key identifying the data for the given request, usable as a file name, or null if the data for this
+     * request cannot be saved to disk.
+     */
+    private static String key (AnalystClusterRequest clusterRequest) {
+        ProfileRequest request = clusterRequest.profileRequest;
+        if (request.scenario != null && request.scenario.modifications != null &&
+                (!Iterables.isEmpty(Iterables.filter(request.scenario.modifications, AddTripPattern.class)) ||
+                 !Iterables.isEmpty(Iterables.filter(request.scenario.modifications, TransferRule.class)))) {
+            return null;
+        }
+        String scenario;
+        try {
+            scenario = request.scenario == null ? "" : objectMapper.writeValueAsString(request.scenario);
+        } catch (JsonProcessingException e) {
+            LOG.warn("Could not serialize scenario, RAPTOR data will not be saved to disk.", e);
+            return null;
+        }
+        String description = String.join(";", clusterRequest.graphId, String.valueOf(request.date),
+                String.valueOf(request.fromTime), String.valueOf(request.toTime), String.valueOf(request.walkSpeed),
+                String.valueOf(request.maxWalkTime), String.valueOf(request.boardingAssumption),
+                String.valueOf(clusterRequest.destinationPointsetId), scenario);
+        return Hashing.sha1().hashString(description, Charsets.UTF_8).toString();
+    }
+
+}
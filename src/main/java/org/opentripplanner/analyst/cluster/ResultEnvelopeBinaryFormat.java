@@ -0,0 +1,180 @@
+package org.opentripplanner.analyst.cluster;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import org.opentripplanner.analyst.Histogram;
+import org.opentripplanner.analyst.ResultSet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A compact binary encoding of a ResultEnvelope, an alternative to JSON for the results of batch jobs. With times to
+ * a million destinations in each of several result sets, JSON output dominates both the size of the results and the
+ * time the worker spends writing them.
+ *
+ * The envelope is written to the stream as it is encoded, using protobuf varints:
+ * <ul>
+ * <li>a header with the magic number, the format version and the envelope IDs,</li>
+ * <li>for each ResultSet in the order of ResultEnvelope.Which, a presence flag and if present its ID, its travel times
+ * and its histograms.</li>
+ * </ul>
+ * Travel times are delta-coded from one destination to the next and zigzag-encoded, so destinations close together in
+ * the point set, which usually have similar times, take one or two bytes each. Unreached destinations are written as
+ * -1. Histograms are written as their category name followed by the packed counts and sums.
+ *
+ * Isochrones are not part of this format, see canWrite().
+ */
+public class ResultEnvelopeBinaryFormat {
+
+    private static final int MAGIC = 0x4f545245; // "OTRE"
+
+    private static final int VERSION = 1;
+
+    private static final int UNREACHED = Integer.MAX_VALUE;
+
+    /** @return true if the given envelope can be written in this format, i.e. none of its result sets has isochrones. */
+    public static boolean canWrite (ResultEnvelope envelope) {
+        for (ResultEnvelope.Which which : ResultEnvelope.Which.values()) {
+            ResultSet resultSet = envelope.get(which);
+            if (resultSet != null && resultSet.isochrones != null) return false;
+        }
+        return true;
+    }
+
+    /** Write the given envelope to the given stream. The stream is flushed but not closed. */
+    public static void write (ResultEnvelope envelope, OutputStream stream) throws IOException {
+        if (!canWrite(envelope)) {
+            throw new IllegalArgumentException("Result envelopes with isochrones cannot be written in binary format.");
+        }
+        CodedOutputStream out = CodedOutputStream.newInstance(stream);
+        out.writeFixed32NoTag(MAGIC);
+        out.writeUInt32NoTag(VERSION);
+        out.writeBoolNoTag(envelope.profile);
+        writeString(envelope.jobId, out);
+        writeString(envelope.id, out);
+        writeString(envelope.destinationPointsetId, out);
+        for (ResultEnvelope.Which which : ResultEnvelope.Which.values()) {
+            ResultSet resultSet = envelope.get(which);
+            out.writeBoolNoTag(resultSet != null);
+            if (resultSet != null) {
+                writeResultSet(resultSet, out);
+            }
+        }
+        out.flush();
+    }
+
+    /** Read an envelope previously written by write() from the given stream. */
+    public static ResultEnvelope read (InputStream stream) throws IOException {
+        CodedInputStream in = CodedInputStream.newInstance(stream);
+        // The default limit of 64MB is too low for the largest point sets.
+        in.setSizeLimit(Integer.MAX_VALUE);
+        if (in.readFixed32() != MAGIC) {
+            throw new IOException("Not a binary result envelope.");
+        }
+        int version = in.readUInt32();
+        if (version != VERSION) {
+            throw new IOException("Unsupported binary result envelope version " + version);
+        }
+        ResultEnvelope envelope = new ResultEnvelope();
+        envelope.profile = in.readBool();
+        envelope.jobId = readString(in);
+        envelope.id = readString(in);
+        envelope.destinationPointsetId = readString(in);
+        for (ResultEnvelope.Which which : ResultEnvelope.Which.values()) {
+            if (in.readBool()) {
+                envelope.put(which, readResultSet(in));
+            }
+        }
+        return envelope;
+    }
+
+    private static void writeResultSet (ResultSet resultSet, CodedOutputStream out) throws IOException {
+        writeString(resultSet.id, out);
+
+        out.writeBoolNoTag(resultSet.times != null);
+        if (resultSet.times != null) {
+            out.writeUInt32NoTag(resultSet.times.length);
+            int previous = 0;
+            for (int time : resultSet.times) {
+                int value = time == UNREACHED ? -1 : time;
+                out.writeSInt32NoTag(value - previous);
+                previous = value;
+            }
+        }
+
+        int nHistograms = resultSet.histograms == null ? 0 : resultSet.histograms.size();
+        out.writeUInt32NoTag(nHistograms);
+        if (nHistograms > 0) {
+            for (Map.Entry<String, Histogram> entry : resultSet.histograms.entrySet()) {
+                out.writeStringNoTag(entry.getKey());
+                writeInts(entry.getValue().counts, out);
+                writeInts(entry.getValue().sums, out);
+            }
+        }
+    }
+
+    private static ResultSet readResultSet (CodedInputStream in) throws IOException {
+        ResultSet resultSet = new ResultSet();
+        resultSet.id = readString(in);
+
+        if (in.readBool()) {
+            int[] times = new int[in.readUInt32()];
+            int previous = 0;
+            for (int i = 0; i < times.length; i++) {
+                int value = previous + in.readSInt32();
+                times[i] = value == -1 ? UNREACHED : value;
+                previous = value;
+            }
+            resultSet.times = times;
+        }
+
+        int nHistograms = in.readUInt32();
+        Map<String, Histogram> histograms = new HashMap<>(nHistograms * 2);
+        for (int h = 0; h < nHistograms; h++) {
+            String name = in.readString();
+            Histogram histogram = new Histogram();
+            histogram.counts = readInts(in);
+            histogram.sums = readInts(in);
+            histograms.put(name, histogram);
+        }
+        resultSet.histograms = histograms;
+        return resultSet;
+    }
+
+    /** Write an array as its length plus one followed by its values, so that a null array can be told apart. */
+    private static void writeInts (int[] ints, CodedOutputStream out) throws IOException {
+        if (ints == null) {
+            out.writeUInt32NoTag(0);
+            return;
+        }
+        out.writeUInt32NoTag(ints.length + 1);
+        for (int i : ints) {
+            // Counts and sums are non-negative, negative values are written in five bytes but still read back.
+            out.writeUInt32NoTag(i);
+        }
+    }
+
+    private static int[] readInts (CodedInputStream in) throws IOException {
+        int length = in.readUInt32();
+        if (length == 0) return null;
+        int[] ints = new int[length - 1];
+        for (int i = 0; i < ints.length; i++) {
+            ints[i] = in.readUInt32();
+        }
+        return ints;
+    }
+
+    private static void writeString (String string, CodedOutputStream out) throws IOException {
+        out.writeBoolNoTag(string != null);
+        if (string != null) out.writeStringNoTag(string);
+    }
+
+    private static String readString (CodedInputStream in) throws IOException {
+        return in.readBool() ? in.readString() : null;
+    }
+
+}
@@ -346,6 +346,13 @@ public abstract class RoutingResource {
      */
     @QueryParam("disableRemainingWeightHeuristic")
     protected Boolean disableRemainingWeightHeuristic;
+
+    /**
+     * If true, transit itineraries are found with a single RAPTOR search over the scheduled trips instead of
+     * repeated A* searches. Only applies to depart-after searches.
+     */
+    @QueryParam("useRaptor")
+    protected Boolean useRaptor;
     
     /* 
      * somewhat ugly bug fix: the graphService is only needed here for fetching per-graph time zones. 
@@ -565,6 +572,9 @@ public abstract class RoutingResource {
         if (disableRemainingWeightHeuristic != null)
             request.disableRemainingWeightHeuristic = disableRemainingWeightHeuristic;
 
+        if (useRaptor != null)
+            request.useRaptor = useRaptor;
+
         //getLocale function returns defaultLocale if locale is null
         request.locale = ResourceBundleSingleton.INSTANCE.getLocale(locale);
         return request;
@@ -40,6 +40,20 @@ public class UpdaterStatusResource {
         return Response.status(Response.Status.OK).entity(updaterManager.getUpdaterDescriptions()).build();
     }
 
+    /**
+     * Return the queue depth, wait and run times of the graph writers, for each part of the graph they modify. Long
+     * waits show updates stuck behind slower ones, and coalesced writers show updaters faster than the writers.
+     */
+    @GET
+    @Path("/writers")
+    public Response getWriterStats () {
+        GraphUpdaterManager updaterManager = router.graph.updaterManager;
+        if (updaterManager == null) {
+            return Response.status(Response.Status.NOT_FOUND).entity("No updaters running.").build();
+        }
+        return Response.status(Response.Status.OK).entity(updaterManager.getWriterStats()).build();
+    }
+
     /** Return status for a specific updater. */
     @GET
     @Path("/{updaterId}")
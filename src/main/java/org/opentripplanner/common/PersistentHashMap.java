@@ -0,0 +1,326 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+
+/**
+ * An immutable hash map in which adding or removing a key returns a new map sharing all untouched structure with the
+ * old one, so that "copying" a map and then changing a few entries costs time and memory in proportion to the number
+ * of entries changed, not to the size of the map. Many versions of the same map can therefore be kept around cheaply,
+ * and handed to other threads without any synchronization.
+ *
+ * This is a hash array mapped trie (Bagwell 2001): a tree with up to 32 branches per node selected by successive five
+ * bit fragments of the key hash, where each node only allocates the branches that are present. Keys with identical
+ * hashes are kept together in a collision node at the bottom of the tree. Null keys and values are not allowed.
+ */
+public final class PersistentHashMap<K, V> {
+
+    private static final int BITS = 5;
+
+    private static final int MASK = (1 << BITS) - 1;
+
+    @SuppressWarnings("rawtypes")
+    private static final PersistentHashMap EMPTY = new PersistentHashMap(null, 0);
+
+    private final Node<K, V> root;
+
+    private final int size;
+
+    private PersistentHashMap (Node<K, V> root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> empty () {
+        return EMPTY;
+    }
+
+    public int size () {
+        return size;
+    }
+
+    public boolean isEmpty () {
+        return size == 0;
+    }
+
+    /** @return the value for the given key, or null if there is none. */
+    public V get (Object key) {
+        return root == null ? null : root.get(key.hashCode(), key, 0);
+    }
+
+    public boolean containsKey (Object key) {
+        return get(key) != null;
+    }
+
+    /** @return a map with the given key mapped to the given value, which may be this map if it already was. */
+    public PersistentHashMap<K, V> plus (K key, V value) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(value);
+        int hash = key.hashCode();
+        boolean[] added = new boolean[1];
+        Node<K, V> newRoot = root == null ? new Leaf<>(hash, key, value) : root.plus(hash, key, value, 0, added);
+        if (newRoot == root) return this;
+        return new PersistentHashMap<>(newRoot, root == null || added[0] ? size + 1 : size);
+    }
+
+    /** @return a map without the given key, which may be this map if it did not contain the key. */
+    public PersistentHashMap<K, V> minus (Object key) {
+        if (root == null) return this;
+        Node<K, V> newRoot = root.minus(key.hashCode(), key, 0);
+        if (newRoot == root) return this;
+        return newRoot == null ? empty() : new PersistentHashMap<>(newRoot, size - 1);
+    }
+
+    /** @return a map without any of the entries matching the given predicate, which may be this map if none match. */
+    public PersistentHashMap<K, V> minusIf (BiPredicate<? super K, ? super V> predicate) {
+        PersistentHashMap<K, V>[] result = new PersistentHashMap[] { this };
+        forEach((k, v) -> {
+            if (predicate.test(k, v)) result[0] = result[0].minus(k);
+        });
+        return result[0];
+    }
+
+    /** Call the given function on every entry in this map, in no particular order. */
+    public void forEach (BiConsumer<? super K, ? super V> action) {
+        if (root != null) root.forEach(action);
+    }
+
+    @Override
+    public String toString () {
+        StringBuilder sb = new StringBuilder("{");
+        forEach((k, v) -> {
+            if (sb.length() > 1) sb.append(", ");
+            sb.append(k).append('=').append(v);
+        });
+        return sb.append('}').toString();
+    }
+
+    private static int bit (int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private static abstract class Node<K, V> {
+
+        abstract V get (int hash, Object key, int shift);
+
+        /** @param added set to true if the key was not already present. @return this node if nothing changed. */
+        abstract Node<K, V> plus (int hash, K key, V value, int shift, boolean[] added);
+
+        /** @return this node if the key was not present, or null if the node became empty. */
+        abstract Node<K, V> minus (int hash, Object key, int shift);
+
+        abstract void forEach (BiConsumer<? super K, ? super V> action);
+    }
+
+    /** A single entry. */
+    private static final class Leaf<K, V> extends Node<K, V> {
+
+        final int hash;
+        final K key;
+        final V value;
+
+        Leaf (int hash, K key, V value) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        V get (int hash, Object key, int shift) {
+            return this.hash == hash && this.key.equals(key) ? value : null;
+        }
+
+        @Override
+        Node<K, V> plus (int hash, K key, V value, int shift, boolean[] added) {
+            if (this.hash == hash && this.key.equals(key)) {
+                return this.value == value ? this : new Leaf<>(hash, key, value);
+            }
+            added[0] = true;
+            return merge(this, new Leaf<>(hash, key, value), shift);
+        }
+
+        @Override
+        Node<K, V> minus (int hash, Object key, int shift) {
+            return this.hash == hash && this.key.equals(key) ? null : this;
+        }
+
+        @Override
+        void forEach (BiConsumer<? super K, ? super V> action) {
+            action.accept(key, value);
+        }
+    }
+
+    /** Make a node holding two leaves with different keys, starting at the given shift. */
+    private static <K, V> Node<K, V> merge (Leaf<K, V> a, Leaf<K, V> b, int shift) {
+        if (a.hash == b.hash) {
+            return new CollisionNode<>(a.hash, new Leaf[] { a, b });
+        }
+        int bitA = bit(a.hash, shift);
+        int bitB = bit(b.hash, shift);
+        if (bitA == bitB) {
+            return new BitmapNode<>(bitA, new Node[] { merge(a, b, shift + BITS) });
+        }
+        // Children are stored in the order of their bits.
+        Node[] children = Integer.compareUnsigned(bitA, bitB) < 0 ? new Node[] { a, b } : new Node[] { b, a };
+        return new BitmapNode<>(bitA | bitB, children);
+    }
+
+    /** An interior node, with a child for each bit set in its bitmap. */
+    private static final class BitmapNode<K, V> extends Node<K, V> {
+
+        final int bitmap;
+        final Node<K, V>[] children;
+
+        BitmapNode (int bitmap, Node<K, V>[] children) {
+            this.bitmap = bitmap;
+            this.children = children;
+        }
+
+        private int index (int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @Override
+        V get (int hash, Object key, int shift) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) return null;
+            return children[index(bit)].get(hash, key, shift + BITS);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Node<K, V> plus (int hash, K key, V value, int shift, boolean[] added) {
+            int bit = bit(hash, shift);
+            int index = index(bit);
+            if ((bitmap & bit) == 0) {
+                added[0] = true;
+                Node<K, V>[] newChildren = new Node[children.length + 1];
+                System.arraycopy(children, 0, newChildren, 0, index);
+                newChildren[index] = new Leaf<>(hash, key, value);
+                System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+                return new BitmapNode<>(bitmap | bit, newChildren);
+            }
+            Node<K, V> child = children[index];
+            Node<K, V> newChild = child.plus(hash, key, value, shift + BITS, added);
+            if (newChild == child) return this;
+            Node<K, V>[] newChildren = children.clone();
+            newChildren[index] = newChild;
+            return new BitmapNode<>(bitmap, newChildren);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Node<K, V> minus (int hash, Object key, int shift) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) return this;
+            int index = index(bit);
+            Node<K, V> child = children[index];
+            Node<K, V> newChild = child.minus(hash, key, shift + BITS);
+            if (newChild == child) return this;
+            if (newChild == null) {
+                if (children.length == 1) return null;
+                if (children.length == 2 && children[1 - index] instanceof Leaf) {
+                    // A single remaining leaf can move up to the parent.
+                    return children[1 - index];
+                }
+                Node<K, V>[] newChildren = new Node[children.length - 1];
+                System.arraycopy(children, 0, newChildren, 0, index);
+                System.arraycopy(children, index + 1, newChildren, index, children.length - index - 1);
+                return new BitmapNode<>(bitmap & ~bit, newChildren);
+            }
+            if (children.length == 1 && newChild instanceof Leaf) {
+                return newChild;
+            }
+            Node<K, V>[] newChildren = children.clone();
+            newChildren[index] = newChild;
+            return new BitmapNode<>(bitmap, newChildren);
+        }
+
+        @Override
+        void forEach (BiConsumer<? super K, ? super V> action) {
+            for (Node<K, V> child : children) child.forEach(action);
+        }
+    }
+
+    /** The leaves for keys that have exactly the same hash. */
+    private static final class CollisionNode<K, V> extends Node<K, V> {
+
+        final int hash;
+        final Leaf<K, V>[] leaves;
+
+        CollisionNode (int hash, Leaf<K, V>[] leaves) {
+            this.hash = hash;
+            this.leaves = leaves;
+        }
+
+        private int find (Object key) {
+            for (int i = 0; i < leaves.length; i++) {
+                if (leaves[i].key.equals(key)) return i;
+            }
+            return -1;
+        }
+
+        @Override
+        V get (int hash, Object key, int shift) {
+            if (hash != this.hash) return null;
+            int i = find(key);
+            return i < 0 ? null : leaves[i].value;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Node<K, V> plus (int hash, K key, V value, int shift, boolean[] added) {
+            if (hash != this.hash) {
+                // Push this node down below a new interior node, and add the new key beside it.
+                return new BitmapNode<>(bit(this.hash, shift), new Node[] { this }).plus(hash, key, value, shift,
+                        added);
+            }
+            int i = find(key);
+            if (i >= 0) {
+                if (leaves[i].value == value) return this;
+                Leaf<K, V>[] newLeaves = leaves.clone();
+                newLeaves[i] = new Leaf<>(hash, key, value);
+                return new CollisionNode<>(hash, newLeaves);
+            }
+            added[0] = true;
+            Leaf<K, V>[] newLeaves = Arrays.copyOf(leaves, leaves.length + 1);
+            newLeaves[leaves.length] = new Leaf<>(hash, key, value);
+            return new CollisionNode<>(hash, newLeaves);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Node<K, V> minus (int hash, Object key, int shift) {
+            if (hash != this.hash) return this;
+            int i = find(key);
+            if (i < 0) return this;
+            if (leaves.length == 2) return leaves[1 - i];
+            Leaf<K, V>[] newLeaves = new Leaf[leaves.length - 1];
+            System.arraycopy(leaves, 0, newLeaves, 0, i);
+            System.arraycopy(leaves, i + 1, newLeaves, i, leaves.length - i - 1);
+            return new CollisionNode<>(hash, newLeaves);
+        }
+
+        @Override
+        void forEach (BiConsumer<? super K, ? super V> action) {
+            for (Leaf<K, V> leaf : leaves) leaf.forEach(action);
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common.geometry;
+
+import java.io.BufferedInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+/**
+ * A table of compact line strings (see CompactLineString) referred to by their number, stored as one array of offsets
+ * and one array of all coordinates rather than as one small array per geometry.
+ *
+ * The table can be backed by a region of a graph file mapped in memory. Its geometries then stay out of the heap, and
+ * are only read from the file (or from the page cache) when an edge geometry is needed, for instance to build an
+ * itinerary. Searches never need them.
+ *
+ * The layout of the table is: the number of geometries, the offset of each geometry in the coordinates (one more than
+ * there are geometries), then all coordinates, all as big-endian 32-bit integers.
+ */
+public final class CompactGeometryTable {
+
+    private static final int[] EMPTY = new int[0];
+
+    /* Only read with absolute gets, which are safe to use from several threads. */
+    private final IntBuffer offsets;
+
+    private final IntBuffer coordinates;
+
+    private CompactGeometryTable(IntBuffer offsets, IntBuffer coordinates) {
+        this.offsets = offsets;
+        this.coordinates = coordinates;
+    }
+
+    /** Read a table on the heap. */
+    public static CompactGeometryTable read(DataInput in) throws IOException {
+        int[] offsets = new int[in.readInt() + 1];
+        for (int i = 0; i < offsets.length; i++)
+            offsets[i] = in.readInt();
+        int[] coordinates = new int[offsets[offsets.length - 1]];
+        for (int i = 0; i < coordinates.length; i++)
+            coordinates[i] = in.readInt();
+        return new CompactGeometryTable(IntBuffer.wrap(offsets), IntBuffer.wrap(coordinates));
+    }
+
+    /**
+     * Map a table stored in the given region of a file. The mapping remains valid after the channel is closed. Regions
+     * too large to be mapped at once are read on the heap instead.
+     */
+    public static CompactGeometryTable map(FileChannel channel, long position, long length) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            channel.position(position);
+            return read(new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16)));
+        }
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        int size = buffer.getInt(0);
+        buffer.position(Integer.BYTES);
+        buffer.limit(Integer.BYTES * (size + 2));
+        IntBuffer offsets = buffer.slice().asIntBuffer();
+        buffer.limit((int) length);
+        buffer.position(Integer.BYTES * (size + 2));
+        IntBuffer coordinates = buffer.slice().asIntBuffer();
+        return new CompactGeometryTable(offsets, coordinates);
+    }
+
+    /** @return the number of geometries in this table. */
+    public int size() {
+        return offsets.limit() - 1;
+    }
+
+    /** @return a copy of the geometry with the given number, in the form returned by compactLineString. */
+    public int[] get(int number) {
+        int start = offsets.get(number);
+        int end = offsets.get(number + 1);
+        if (start == end)
+            return EMPTY;
+        int[] geometry = new int[end - start];
+        for (int i = 0; i < geometry.length; i++)
+            geometry[i] = coordinates.get(start + i);
+        return geometry;
+    }
+}
@@ -23,6 +23,7 @@ public class BinHeap<T> {
     private T[] elem;
     private int size; 
     private int capacity;
+    private int highWater; // largest size since the last clear, bounds the slots that may hold stale references
     
     public BinHeap() {
     	this(1000);
@@ -117,11 +118,23 @@ public class BinHeap<T> {
     	size=0;
     } 
 
+    /**
+     * Empty the queue and release references to the elements it held, so that a pooled heap does not keep the
+     * previous search's states reachable. Only the slots that have actually been used are touched.
+     */
+    public void clear() {
+        Arrays.fill(elem, 1, Math.min(highWater, capacity) + 1, null);
+        size = 0;
+        highWater = 0;
+    }
+
     public void insert(T e, double p) {
         int i;
         size += 1;
         if (size > capacity) 
         	resize((int) (capacity * GROW_FACTOR));
+        if (size > highWater)
+            highWater = size;
         for (i = size; prio[i/2] > p; i /= 2) {
             elem[i] = elem[i/2];
             prio[i] = prio[i/2];
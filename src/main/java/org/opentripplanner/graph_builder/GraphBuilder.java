@@ -18,8 +18,10 @@ import com.google.common.collect.Lists;
 import org.opentripplanner.graph_builder.model.GtfsBundle;
 import org.opentripplanner.graph_builder.module.DirectTransferGenerator;
 import org.opentripplanner.graph_builder.module.EmbedConfig;
+import org.opentripplanner.graph_builder.module.LandmarkModule;
 import org.opentripplanner.graph_builder.module.GtfsModule;
 import org.opentripplanner.graph_builder.module.PruneFloatingIslands;
+import org.opentripplanner.graph_builder.module.StopTreeCacheModule;
 import org.opentripplanner.graph_builder.module.StreetLinkerModule;
 import org.opentripplanner.graph_builder.module.TransitToTaggedStopsModule;
 import org.opentripplanner.graph_builder.module.map.BusRouteStreetMatcher;
@@ -56,7 +58,7 @@ import java.util.zip.ZipFile;
 
 /**
  * This makes a Graph out of various inputs like GTFS and OSM.
- * It is modular: GraphBuilderModules are placed in a list and run in sequence.
+ * It is modular: GraphBuilderModules are placed in a list and run in sequence, and the time taken by each is logged.
  */
 public class GraphBuilder implements Runnable {
     
@@ -155,9 +157,18 @@ public class GraphBuilder implements Runnable {
             builder.checkInputs();
         }
         
+        // The modules run one after the other, because each of them modifies the graph. The slowest ones process
+        // the stops or edges of the graph on several threads.
         HashMap<Class<?>, Object> extra = new HashMap<Class<?>, Object>();
-        for (GraphBuilderModule load : _graphBuilderModules)
+        List<String> moduleTimes = new ArrayList<String>();
+        for (GraphBuilderModule load : _graphBuilderModules) {
+            long moduleStartTime = System.currentTimeMillis();
             load.buildGraph(graph, extra);
+            String moduleTime = String.format("%s took %.1f seconds.", load.getClass().getSimpleName(),
+                    (System.currentTimeMillis() - moduleStartTime) / 1000.0);
+            LOG.info(moduleTime);
+            moduleTimes.add(moduleTime);
+        }
 
         graph.summarizeBuilderAnnotations();
         if (serializeGraph) {
@@ -171,6 +182,8 @@ public class GraphBuilder implements Runnable {
         }
 
         long endTime = System.currentTimeMillis();
+        for (String moduleTime : moduleTimes)
+            LOG.info(moduleTime);
         LOG.info(String.format("Graph building took %.1f minutes.", (endTime - startTime) / 1000 / 60.0));
     }
 
@@ -309,6 +322,12 @@ public class GraphBuilder implements Runnable {
                 graphBuilder.addModule(new DirectTransferGenerator());
             }
         }
+        if (hasOSM && builderParams.landmarks > 0) {
+            graphBuilder.addModule(new LandmarkModule(builderParams.landmarks, builderParams.landmarkModes));
+        }
+        if (hasOSM && hasGTFS && builderParams.stopTreeCache) {
+            graphBuilder.addModule(new StopTreeCacheModule());
+        }
         graphBuilder.addModule(new EmbedConfig(builderConfig, routerConfig));
         if (builderParams.htmlAnnotations) {
             graphBuilder.addModule(new AnnotationsToHTML(params.build, builderParams.maxHtmlAnnotationsPerFile));
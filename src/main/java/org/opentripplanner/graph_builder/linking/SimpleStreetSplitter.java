@@ -11,7 +11,6 @@ import com.vividsolutions.jts.linearref.LinearLocation;
 import com.vividsolutions.jts.linearref.LocationIndexedLine;
 import gnu.trove.map.TIntDoubleMap;
 import gnu.trove.map.hash.TIntDoubleHashMap;
-import jersey.repackaged.com.google.common.collect.Lists;
 import org.opentripplanner.common.geometry.GeometryUtils;
 import org.opentripplanner.common.geometry.HashGridSpatialIndex;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
@@ -39,6 +38,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * This class links transit stops to streets by splitting the streets (unless the stop is extremely close to the street
@@ -86,23 +86,55 @@ public class SimpleStreetSplitter {
         }
     }
 
-    /** Link all relevant vertices to the street network */
+    /**
+     * Link all relevant vertices to the street network.
+     *
+     * Finding the closest edges is the expensive part and only reads the street network, so it is done for all
+     * vertices in parallel first. The vertices are then linked one at a time, in order. If an edge that mattered when
+     * finding the closest edges of a vertex has since been split to link another vertex, they are found again. The
+     * result is therefore the same as when linking the vertices one at a time.
+     */
     public void link () {	
+        List<Vertex> vertices = new ArrayList<Vertex>();
         for (Vertex v : graph.getVertices()) {
             if (v instanceof TransitStop || v instanceof BikeRentalStationVertex || v instanceof BikeParkVertex)
-                if (!link(v)) {
-                    if (v instanceof TransitStop)
-                        LOG.warn(graph.addBuilderAnnotation(new StopUnlinked((TransitStop) v)));
-                    else if (v instanceof BikeRentalStationVertex)
-                        LOG.warn(graph.addBuilderAnnotation(new BikeRentalStationUnlinked((BikeRentalStationVertex) v)));
-                    else if (v instanceof BikeParkVertex)
-                        LOG.warn(graph.addBuilderAnnotation(new BikeParkUnlinked((BikeParkVertex) v)));
-                };
+                vertices.add(v);
+        }
+        List<Candidates> candidates = vertices.parallelStream().map(this::findCandidates)
+                .collect(Collectors.toList());
+        for (int i = 0; i < vertices.size(); i++) {
+            Vertex v = vertices.get(i);
+            Candidates c = candidates.get(i);
+            if (!c.isCurrent())
+                c = findCandidates(v);
+            if (!link(v, c)) {
+                if (v instanceof TransitStop)
+                    LOG.warn(graph.addBuilderAnnotation(new StopUnlinked((TransitStop) v)));
+                else if (v instanceof BikeRentalStationVertex)
+                    LOG.warn(graph.addBuilderAnnotation(new BikeRentalStationUnlinked((BikeRentalStationVertex) v)));
+                else if (v instanceof BikeParkVertex)
+                    LOG.warn(graph.addBuilderAnnotation(new BikeParkUnlinked((BikeParkVertex) v)));
+            }
         }
     }
 
     /** Link this vertex into the graph */
     public boolean link (Vertex vertex) {
+        return link(vertex, findCandidates(vertex));
+    }
+
+    private boolean link (Vertex vertex, Candidates candidates) {
+        if (candidates.nBest == 0)
+            return false;
+        final double xscale = Math.cos(vertex.getLat() * Math.PI / 180);
+        for (StreetEdge edge : candidates.edges.subList(0, candidates.nBest)) {
+            link(vertex, edge, xscale);
+        }
+        return true;
+    }
+
+    /** Find the street edges this vertex should be linked to. This does not modify the graph. */
+    private Candidates findCandidates (Vertex vertex) {
         // find nearby street edges
         // TODO: we used to use an expanding-envelope search, which is more efficient in
         // dense areas. but first let's see how inefficient this is. I suspect it's not too
@@ -161,10 +193,9 @@ public class SimpleStreetSplitter {
 
         // find the closest candidate edges
         if (candidateEdges.isEmpty() || distances.get(candidateEdges.get(0).getId()) > radiusDeg)
-            return false;
+            return new Candidates(candidateEdges, 0);
 
         // find the best edges
-        List<StreetEdge> bestEdges = Lists.newArrayList();
 
         // add edges until there is a break of epsilon meters.
         // we do this to enforce determinism. if there are a lot of edges that are all extremely close to each other,
@@ -172,15 +203,39 @@ public class SimpleStreetSplitter {
         // fall just inside or beyond the cutoff depending on floating-point operations.
         int i = 0;
         do {
-            bestEdges.add(candidateEdges.get(i++));
+            i++;
         } while (i < candidateEdges.size() &&
                 distances.get(candidateEdges.get(i).getId()) - distances.get(candidateEdges.get(i - 1).getId()) < duplicateDeg);
 
-        for (StreetEdge edge : bestEdges) {
-            link(vertex, edge, xscale);
+        return new Candidates(candidateEdges, i);
+    }
+
+    /**
+     * The best edges to link a vertex to, followed by the next closest edge if any.
+     *
+     * Splitting an edge replaces it with two edges that are no closer to any point. So the best edges of a vertex can
+     * only change when one of them, or the next closest edge, is split. The other nearby edges need not be kept.
+     */
+    private static class Candidates {
+
+        final List<StreetEdge> edges;
+
+        final int nBest;
+
+        /** @param sortedEdges the edges near the vertex sorted by distance, of which the first nBest are the best */
+        Candidates (List<StreetEdge> sortedEdges, int nBest) {
+            this.edges = new ArrayList<StreetEdge>(sortedEdges.subList(0, Math.min(nBest + 1, sortedEdges.size())));
+            this.nBest = nBest;
         }
 
-        return true;
+        /** @return true if none of these edges has been split since they were found. */
+        boolean isCurrent () {
+            for (StreetEdge edge : edges) {
+                if (!edge.getToVertex().getIncoming().contains(edge))
+                    return false;
+            }
+            return true;
+        }
     }
 
     /** split the edge and link in the transit stop */
@@ -25,11 +25,14 @@ import org.opentripplanner.routing.vertextype.TransitStop;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 /**
  * {@link org.opentripplanner.graph_builder.services.GraphBuilderModule} module that links up the stops of a transit network among themselves. This is necessary for
@@ -69,16 +72,37 @@ public class DirectTransferGenerator implements GraphBuilderModule {
             LOG.info("Creating direct transfer edges between stops using straight line distance (not streets)...");
         }
 
-        int nTransfersTotal = 0;
-        int nLinkableStops = 0;
-
+        /* Skip stops that are entrances to stations or whose entrances are coded separately */
+        List<TransitStop> stops = new ArrayList<TransitStop>();
         for (TransitStop ts0 : Iterables.filter(graph.getVertices(), TransitStop.class)) {
+            if (ts0.isStreetLinkable()) stops.add(ts0);
+        }
+
+        int nTransfersTotal = linkStops(graph, nearbyStopFinder, stops);
+        LOG.info("Done connecting stops to one another. Created a total of {} transfers from {} stops.", nTransfersTotal, stops.size());
+        graph.hasDirectTransfers = true;
+    }
 
-            /* Skip stops that are entrances to stations or whose entrances are coded separately */
-            if (!ts0.isStreetLinkable()) continue;
-            if (++nLinkableStops % 1000 == 0) {
-                LOG.info("Linked {} stops", nLinkableStops);
+    /**
+     * Make transfers from each of the given stops to the nearby stops on other patterns.
+     * The searches only read the graph, so they run in parallel before any transfer is created. Searches therefore
+     * never traverse transfers made for other stops, and the result does not depend on the order of the stops.
+     * @return the number of transfers created.
+     */
+    int linkStops (Graph graph, NearbyStopFinder nearbyStopFinder, List<TransitStop> stops) {
+        AtomicInteger nSearchedStops = new AtomicInteger();
+        List<Set<NearbyStopFinder.StopAtDistance>> nearbyStops = stops.parallelStream().map(ts0 -> {
+            int n = nSearchedStops.incrementAndGet();
+            if (n % 1000 == 0) {
+                LOG.info("Found nearby stops for {}/{} stops", n, stops.size());
             }
+            return nearbyStopFinder.findNearbyStopsConsideringPatterns(ts0);
+        }).collect(Collectors.toList());
+
+        int nTransfersTotal = 0;
+
+        for (int i = 0; i < stops.size(); i++) {
+            TransitStop ts0 = stops.get(i);
             LOG.debug("Linking stop '{}' {}", ts0.getStop(), ts0);
 
             /* Determine the set of stops that are already reachable via other pathways or transfers */
@@ -94,7 +118,7 @@ public class DirectTransferGenerator implements GraphBuilderModule {
 
             /* Make transfers to each nearby stop that is the closest stop on some trip pattern. */
             int n = 0;
-            for (NearbyStopFinder.StopAtDistance sd : nearbyStopFinder.findNearbyStopsConsideringPatterns(ts0)) {
+            for (NearbyStopFinder.StopAtDistance sd : nearbyStops.get(i)) {
                 /* Skip the origin stop, loop transfers are not needed. */
                 if (sd.tstop == ts0 || pathwayDestinations.contains(sd.tstop)) continue;
                 new SimpleTransfer(ts0, sd.tstop, sd.dist, sd.geom);
@@ -106,8 +130,7 @@ public class DirectTransferGenerator implements GraphBuilderModule {
             }
             nTransfersTotal += n;
         }
-        LOG.info("Done connecting stops to one another. Created a total of {} transfers from {} stops.", nTransfersTotal, nLinkableStops);
-        graph.hasDirectTransfers = true;
+        return nTransfersTotal;
     }
 
     @Override
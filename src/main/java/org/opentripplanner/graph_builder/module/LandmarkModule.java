@@ -0,0 +1,67 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.module;
+
+import org.opentripplanner.graph_builder.services.GraphBuilderModule;
+import org.opentripplanner.routing.algorithm.strategies.LandmarkDistances;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * {@link org.opentripplanner.graph_builder.services.GraphBuilderModule} module that precomputes street network
+ * distances to and from a set of landmarks, which are saved with the graph and used by the ALT heuristic
+ * (LandmarkRemainingWeightHeuristic) to speed up street searches. This must run after all street and transit linking
+ * edges have been added, since the distances are only valid for the edges present when they are computed.
+ */
+public class LandmarkModule implements GraphBuilderModule {
+
+    private static Logger LOG = LoggerFactory.getLogger(LandmarkModule.class);
+
+    private final int nLandmarks;
+
+    private final Set<TraverseMode> modes;
+
+    public LandmarkModule(int nLandmarks, Set<TraverseMode> modes) {
+        this.nLandmarks = nLandmarks;
+        this.modes = modes;
+    }
+
+    public List<String> provides() {
+        return Arrays.asList("landmarks");
+    }
+
+    public List<String> getPrerequisites() {
+        return Arrays.asList("streets");
+    }
+
+    @Override
+    public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
+        long startTime = System.currentTimeMillis();
+        graph.landmarkDistances = LandmarkDistances.build(graph, nLandmarks, modes);
+        LOG.info("Computed distances for {} landmarks in {} seconds.", graph.landmarkDistances.getLandmarkCount(),
+                (System.currentTimeMillis() - startTime) / 1000);
+    }
+
+    @Override
+    public void checkInputs() {
+        // nothing to do
+    }
+}
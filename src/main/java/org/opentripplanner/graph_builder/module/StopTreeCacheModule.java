@@ -0,0 +1,66 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.module;
+
+import org.opentripplanner.graph_builder.services.GraphBuilderModule;
+import org.opentripplanner.profile.StopTreeCache;
+import org.opentripplanner.routing.graph.CompactStreetGraph;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.GraphIndex;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.TransitStop;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * {@link org.opentripplanner.graph_builder.services.GraphBuilderModule} module that precomputes walking distances from
+ * every transit stop to the street vertices around it, which are saved with the graph so that analyst workers do not
+ * have to compute them when they start up. This must run after transit stops are linked to the street network, since
+ * the distances are only valid for the edges present when they are computed.
+ */
+public class StopTreeCacheModule implements GraphBuilderModule {
+
+    private static Logger LOG = LoggerFactory.getLogger(StopTreeCacheModule.class);
+
+    public List<String> provides() {
+        return Arrays.asList("stop trees");
+    }
+
+    public List<String> getPrerequisites() {
+        return Arrays.asList("streets", "linking");
+    }
+
+    @Override
+    public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
+        long startTime = System.currentTimeMillis();
+        List<TransitStop> transitStops = new ArrayList<>();
+        for (Vertex v : graph.getVertices()) {
+            if (v instanceof TransitStop) transitStops.add((TransitStop) v);
+        }
+        CompactStreetGraph streets = new CompactStreetGraph(graph);
+        graph.stopTreeCache = new StopTreeCache(streets, transitStops, GraphIndex.MAX_WALK_METERS);
+        LOG.info("Cached distances around {} transit stops in {} seconds.", transitStops.size(),
+                (System.currentTimeMillis() - startTime) / 1000);
+    }
+
+    @Override
+    public void checkInputs() {
+        // nothing to do
+    }
+}
@@ -42,6 +42,8 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 /**
  * {@link org.opentripplanner.graph_builder.services.GraphBuilderModule} plugin that applies elevation data to street data that has already
@@ -59,11 +61,12 @@ public class ElevationModule implements GraphBuilderModule {
 
     private ElevationGridCoverageFactory gridCoverageFactory;
 
-    private Coverage coverage;
+    /* Interpolating coverages are not thread-safe, so each thread sampling elevations has its own. */
+    private ThreadLocal<Coverage> coverage;
 
     // Keep track of the proportion of elevation fetch operations that fail so we can issue warnings.
-    private int nPointsEvaluated = 0;
-    private int nPointsOutsideDEM = 0;
+    private AtomicInteger nPointsEvaluated = new AtomicInteger();
+    private AtomicInteger nPointsOutsideDEM = new AtomicInteger();
 
     /**
      * The distance between samples in meters. Defaults to 10m, the approximate resolution of 1/3
@@ -96,39 +99,55 @@ public class ElevationModule implements GraphBuilderModule {
     @Override
     public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
         gridCoverageFactory.setGraph(graph);
-        Coverage gridCov = gridCoverageFactory.getGridCoverage();
-
-        // If gridCov is a GridCoverage2D, apply a bilinear interpolator. Otherwise, just use the
-        // coverage as is (note: UnifiedGridCoverages created by NEDGridCoverageFactoryImpl handle
-        // interpolation internally)
-        coverage = (gridCov instanceof GridCoverage2D) ? Interpolator2D.create(
-                (GridCoverage2D) gridCov, new InterpolationBilinear()) : gridCov;
+        // Load the coverage once on this thread, the other threads only wrap it in their own interpolator.
+        gridCoverageFactory.getGridCoverage();
+        coverage = ThreadLocal.withInitial(() -> {
+            Coverage gridCov = gridCoverageFactory.getGridCoverage();
+            // If gridCov is a GridCoverage2D, apply a bilinear interpolator. Otherwise, just use the
+            // coverage as is (note: UnifiedGridCoverages created by NEDGridCoverageFactoryImpl handle
+            // interpolation internally)
+            return (gridCov instanceof GridCoverage2D) ? Interpolator2D.create(
+                    (GridCoverage2D) gridCov, new InterpolationBilinear()) : gridCov;
+        });
         log.info("Setting street elevation profiles from digital elevation model...");
-        List<StreetEdge> edgesWithElevation = new ArrayList<StreetEdge>();
-        int nProcessed = 0;
-        int nTotal = graph.countEdges();
+        List<StreetWithElevationEdge> edges = new ArrayList<StreetWithElevationEdge>();
         for (Vertex gv : graph.getVertices()) {
             for (Edge ee : gv.getOutgoing()) {
                 if (ee instanceof StreetWithElevationEdge) {
-                    StreetWithElevationEdge edgeWithElevation = (StreetWithElevationEdge) ee;
-                    processEdge(graph, edgeWithElevation);
-                    if (edgeWithElevation.getElevationProfile() != null && !edgeWithElevation.isElevationFlattened()) {
-                        edgesWithElevation.add(edgeWithElevation);
-                    }
-                    nProcessed += 1;
-                    if (nProcessed % 50000 == 0) {
-                        log.info("set elevation on {}/{} edges", nProcessed, nTotal);
-                        double failurePercentage = nPointsOutsideDEM / nPointsEvaluated * 100;
-                        if (failurePercentage > 50) {
-                            log.warn("Fetching elevation failed at {}/{} points ({}%)",
-                                    nPointsOutsideDEM, nPointsEvaluated, failurePercentage);
-                            log.warn("Elevation is missing at a large number of points. DEM may be for the wrong region. " +
-                                    "If it is unprojected, perhaps the axes are not in (longitude, latitude) order.");
-                        }
-                    }
+                    edges.add((StreetWithElevationEdge) ee);
                 }
             }
         }
+        // Sampling the coverage along each edge only modifies that edge, so the edges are processed in parallel.
+        // Annotations are added afterwards in the order of the edges, to keep them deterministic.
+        boolean[] flattened = new boolean[edges.size()];
+        AtomicInteger nProcessed = new AtomicInteger();
+        IntStream.range(0, edges.size()).parallel().forEach(i -> {
+            flattened[i] = processEdge(edges.get(i));
+            int n = nProcessed.incrementAndGet();
+            if (n % 50000 == 0) {
+                log.info("set elevation on {}/{} edges", n, edges.size());
+                double failurePercentage = 100.0 * nPointsOutsideDEM.get() / nPointsEvaluated.get();
+                if (failurePercentage > 50) {
+                    log.warn("Fetching elevation failed at {}/{} points ({}%)",
+                            nPointsOutsideDEM, nPointsEvaluated, failurePercentage);
+                    log.warn("Elevation is missing at a large number of points. DEM may be for the wrong region. " +
+                            "If it is unprojected, perhaps the axes are not in (longitude, latitude) order.");
+                }
+            }
+        });
+        // Let the coverages of the pool threads be garbage collected.
+        coverage = null;
+        List<StreetEdge> edgesWithElevation = new ArrayList<StreetEdge>();
+        for (int i = 0; i < edges.size(); i++) {
+            StreetWithElevationEdge edgeWithElevation = edges.get(i);
+            if (flattened[i]) {
+                log.trace(graph.addBuilderAnnotation(new ElevationFlattened(edgeWithElevation)));
+            }
+            if (edgeWithElevation.getElevationProfile() != null && !edgeWithElevation.isElevationFlattened()) {
+                edgesWithElevation.add(edgeWithElevation);
+            }
+        }
 
         @SuppressWarnings("unchecked")
         HashMap<Vertex, Double> extraElevation = (HashMap<Vertex, Double>) extra.get(ElevationPoint.class);
@@ -331,14 +350,15 @@ public class ElevationModule implements GraphBuilderModule {
     }
 
     /**
-     * Processes a single street edge, creating and assigning the elevation profile.
+     * Processes a single street edge, creating and assigning the elevation profile. This may be called from several
+     * threads at once on different edges.
      * 
      * @param ee the street edge
-     * @param graph the graph (used only for error handling)
+     * @return true if the profile was flattened, which should be recorded as a builder annotation
      */
-    private void processEdge(Graph graph, StreetWithElevationEdge ee) {
+    private boolean processEdge(StreetWithElevationEdge ee) {
         if (ee.getElevationProfile() != null) {
-            return; /* already set up */
+            return false; /* already set up */
         }
         Geometry g = ee.getGeometry();
         Coordinate[] coords = g.getCoordinates();
@@ -374,9 +394,7 @@ public class ElevationModule implements GraphBuilderModule {
         PackedCoordinateSequence elevPCS = new PackedCoordinateSequence.Double(
                 coordList.toArray(coordArr));
 
-        if(ee.setElevationProfile(elevPCS, false)) {
-            log.trace(graph.addBuilderAnnotation(new ElevationFlattened(ee)));
-        }
+        return ee.setElevationProfile(elevPCS, false);
     }
 
     /**
@@ -449,11 +467,11 @@ public class ElevationModule implements GraphBuilderModule {
             // GeoTIFFs in various projections. Note that GeoTools defaults to strict EPSG axis ordering of (lat, long)
             // for DefaultGeographicCRS.WGS84, but OTP is using (long, lat) throughout and assumes unprojected DEM
             // rasters to also use (long, lat).
-            coverage.evaluate(new DirectPosition2D(GeometryUtils.WGS84_XY, x, y), values);
+            coverage.get().evaluate(new DirectPosition2D(GeometryUtils.WGS84_XY, x, y), values);
         } catch (org.opengis.coverage.PointOutsideCoverageException e) {
-            nPointsOutsideDEM += 1;
+            nPointsOutsideDEM.incrementAndGet();
         }
-        nPointsEvaluated += 1;
+        nPointsEvaluated.incrementAndGet();
         return values[0];
     }
 
@@ -39,8 +39,12 @@ public class GeotiffGridCoverageFactoryImpl implements ElevationGridCoverageFact
         this.path = path;
     }
 
+    /** @return the coverage of the GeoTIFF file, which is read on the first call and shared by later calls. */
     @Override
-    public GridCoverage2D getGridCoverage() {
+    public synchronized GridCoverage2D getGridCoverage() {
+        if (coverage != null) {
+            return coverage;
+        }
         try {
             // There is a serious standardization failure around the axis order of WGS84. See issue #1930.
             // GeoTools assumes strict EPSG axis order of (latitude, longitude) unless told otherwise.
@@ -44,8 +44,8 @@ public class NEDGridCoverageFactoryImpl implements ElevationGridCoverageFactory
 
     private Graph graph;
 
-    /** All tiles for the DEM stitched into a single coverage. */
-    UnifiedGridCoverage unifiedCoverage = null;
+    /** One coverage for each tile of the DEM, without interpolation. */
+    private List<GridCoverage2D> regionCoverages = null;
 
     private File cacheDirectory;
 
@@ -114,24 +114,32 @@ public class NEDGridCoverageFactoryImpl implements ElevationGridCoverageFactory
         }
     }
 
-    /** @return a GeoTools grid coverage for the entire area of interest, lazy-creating it on the first call. */
-    public Coverage getGridCoverage() {
-        if (unifiedCoverage == null) {
+    /**
+     * @return a GeoTools grid coverage for the entire area of interest, lazy-loading the tiles on the first call.
+     * Each call returns a new coverage sharing the tiles but not the interpolators, which are not thread-safe, so
+     * different threads can evaluate elevations at the same time using one coverage each.
+     */
+    public synchronized Coverage getGridCoverage() {
+        if (regionCoverages == null) {
             loadVerticalDatum();
             tileSource.setGraph(graph);
             tileSource.setCacheDirectory(cacheDirectory);
             List<File> paths = tileSource.getNEDTiles();
-            // Make one grid coverage for each NED tile, adding them all to a single UnifiedGridCoverage.
+            regionCoverages = new ArrayList<GridCoverage2D>();
             for (File path : paths) {
                 GeotiffGridCoverageFactoryImpl factory = new GeotiffGridCoverageFactoryImpl(path);
-                // TODO might bicubic interpolation give better results?
-                GridCoverage2D regionCoverage = Interpolator2D.create(factory.getGridCoverage(),
-                        new InterpolationBilinear());
-                if (unifiedCoverage == null) {
-                    unifiedCoverage = new UnifiedGridCoverage("unified", regionCoverage, datums);
-                } else {
-                    unifiedCoverage.add(regionCoverage);
-                }
+                regionCoverages.add(factory.getGridCoverage());
+            }
+        }
+        // Make one interpolated grid coverage for each NED tile, adding them all to a single UnifiedGridCoverage.
+        UnifiedGridCoverage unifiedCoverage = null;
+        for (GridCoverage2D coverage : regionCoverages) {
+            // TODO might bicubic interpolation give better results?
+            GridCoverage2D regionCoverage = Interpolator2D.create(coverage, new InterpolationBilinear());
+            if (unifiedCoverage == null) {
+                unifiedCoverage = new UnifiedGridCoverage("unified", regionCoverage, datums);
+            } else {
+                unifiedCoverage.add(regionCoverage);
             }
         }
         return unifiedCoverage;
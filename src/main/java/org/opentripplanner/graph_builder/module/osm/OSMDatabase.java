@@ -17,6 +17,11 @@ import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Multimap;
 import com.vividsolutions.jts.geom.*;
+import gnu.trove.list.TLongList;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
 import org.opentripplanner.common.RepeatingTimePeriod;
 import org.opentripplanner.common.TurnRestrictionType;
 import org.opentripplanner.common.geometry.GeometryUtils;
@@ -30,7 +35,6 @@ import org.opentripplanner.openstreetmap.services.OpenStreetMapContentHandler;
 import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.core.TraverseModeSet;
 import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
-import org.opentripplanner.util.MapUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,8 +44,13 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
 
     private static Logger LOG = LoggerFactory.getLogger(OSMDatabase.class);
 
+    /*
+     * The maps and sets keyed by node or way ID, which hold millions of entries for large regions, use primitive long
+     * keys: boxed keys and hash map entries took most of the memory.
+     */
+
     /* Map of all nodes used in ways/areas keyed by their OSM ID */
-    private Map<Long, OSMNode> nodesById = new HashMap<Long, OSMNode>();
+    private TLongObjectMap<OSMNode> nodesById = new TLongObjectHashMap<OSMNode>();
 
     /* Map of all bike-rental nodes, keyed by their OSM ID */
     private Map<Long, OSMNode> bikeRentalNodes = new HashMap<Long, OSMNode>();
@@ -50,10 +59,10 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
     private Map<Long, OSMNode> bikeParkingNodes = new HashMap<Long, OSMNode>();
 
     /* Map of all non-area ways keyed by their OSM ID */
-    private Map<Long, OSMWay> waysById = new HashMap<Long, OSMWay>();
+    private TLongObjectMap<OSMWay> waysById = new TLongObjectHashMap<OSMWay>();
 
     /* Map of all area ways keyed by their OSM ID */
-    private Map<Long, OSMWay> areaWaysById = new HashMap<Long, OSMWay>();
+    private TLongObjectMap<OSMWay> areaWaysById = new TLongObjectHashMap<OSMWay>();
 
     /* Map of all relations keyed by their OSM ID */
     private Map<Long, OSMRelation> relationsById = new HashMap<Long, OSMRelation>();
@@ -68,7 +77,7 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
     private List<Area> bikeParkingAreas = new ArrayList<Area>();
 
     /* Map of all area OSMWay for a given node */
-    private Map<Long, Set<OSMWay>> areasForNode = new HashMap<Long, Set<OSMWay>>();
+    private TLongObjectMap<Set<OSMWay>> areasForNode = new TLongObjectHashMap<Set<OSMWay>>();
 
     /* Map of all area OSMWay for a given node */
     private List<OSMWay> singleWayAreas = new ArrayList<OSMWay>();
@@ -76,13 +85,13 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
     private Set<OSMWithTags> processedAreas = new HashSet<OSMWithTags>();
 
     /* Set of area way IDs */
-    private Set<Long> areaWayIds = new HashSet<Long>();
+    private TLongSet areaWayIds = new TLongHashSet();
 
     /* Set of all node IDs of kept ways. Needed to mark which nodes to keep in stage 3. */
-    private Set<Long> waysNodeIds = new HashSet<Long>();
+    private TLongSet waysNodeIds = new TLongHashSet();
 
     /* Set of all node IDs of kept areas. Needed to mark which nodes to keep in stage 3. */
-    private Set<Long> areaNodeIds = new HashSet<Long>();
+    private TLongSet areaNodeIds = new TLongHashSet();
 
     /* Track which vertical level each OSM way belongs to, for building elevators etc. */
     private Map<OSMWithTags, OSMLevel> wayLevels = new HashMap<OSMWithTags, OSMLevel>();
@@ -120,7 +129,7 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
     }
 
     public Collection<OSMWay> getWays() {
-        return Collections.unmodifiableCollection(waysById.values());
+        return Collections.unmodifiableCollection(waysById.valueCollection());
     }
 
     public Collection<OSMNode> getBikeRentalNodes() {
@@ -230,13 +239,13 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
                 singleWayAreas.add(way);
                 areaWaysById.put(wayId, way);
                 areaWayIds.add(wayId);
-                for (Long node : way.getNodeRefs()) {
-                    MapUtils.addToMapSet(areasForNode, node, way);
-                }
+                way.trimNodeRefs();
+                addAreaForNodes(way);
             }
             return;
         }
 
+        way.trimNodeRefs();
         waysById.put(wayId, way);
 
         if (waysById.size() % 10000 == 0)
@@ -294,8 +303,8 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
         // only 2 steps -- ways+relations, followed by used nodes.
         // Ways can be tag-filtered in phase 1.
 
-        markNodesForKeeping(waysById.values(), waysNodeIds);
-        markNodesForKeeping(areaWaysById.values(), areaNodeIds);
+        markNodesForKeeping(waysById.valueCollection(), waysNodeIds);
+        markNodesForKeeping(areaWaysById.valueCollection(), areaNodeIds);
     }
 
     /**
@@ -369,13 +378,14 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
 
         // For each way, intersect with areas
         int nCreatedNodes = 0;
-        for (OSMWay way : waysById.values()) {
+        for (OSMWay way : waysById.valueCollection()) {
             OSMLevel wayLevel = getLevelForWay(way);
+            TLongList nodeRefs = way.getPrimitiveNodeRefs();
 
             // For each segment of the way
-            for (int i = 0; i < way.getNodeRefs().size() - 1; i++) {                
-                OSMNode nA = nodesById.get(way.getNodeRefs().get(i));
-                OSMNode nB = nodesById.get(way.getNodeRefs().get(i + 1));
+            for (int i = 0; i < nodeRefs.size() - 1; i++) {
+                OSMNode nA = nodesById.get(nodeRefs.get(i));
+                OSMNode nB = nodesById.get(nodeRefs.get(i + 1));
                 if (nA == null || nB == null) {
                     continue;
                 }
@@ -460,7 +470,7 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
                     	
                     	// don't insert the same node twice. This is not always safe; suppose a way crosses over the same node in the parking area twice.
                     	// but we assume it doesn't (and even if it does, it's not a huge deal, as it is still connected elsewhere on the same way).
-                    	if (way.getNodeRefs().contains(ringSegment.nA.getId()))
+                    	if (nodeRefs.contains(ringSegment.nA.getId()))
                     		continue;
                     	
                     	way.addNodeRef(ringSegment.nA.getId(), i + 1);
@@ -477,7 +487,7 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
                     else if (checkIntersectionDistance(p, ringSegment.nB, epsilon)) {
                     	// insert node B into the road, if it's not already there
                     	
-                    	if (way.getNodeRefs().contains(ringSegment.nB.getId()))
+                    	if (nodeRefs.contains(ringSegment.nB.getId()))
                     		continue;
                     	
                     	way.addNodeRef(ringSegment.nB.getId(), i + 1);
@@ -582,17 +592,33 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
         }
     }
 
-    private void markNodesForKeeping(Collection<OSMWay> osmWays, Set<Long> nodeSet) {
+    private void markNodesForKeeping(Collection<OSMWay> osmWays, TLongSet nodeSet) {
         for (Iterator<OSMWay> it = osmWays.iterator(); it.hasNext();) {
             OSMWay way = it.next();
             // Since the way is kept, update nodes-with-neighbors
-            List<Long> nodes = way.getNodeRefs();
+            TLongList nodes = way.getPrimitiveNodeRefs();
             if (nodes.size() > 1) {
                 nodeSet.addAll(nodes);
             }
         }
     }
 
+    private void addAreaForNodes(OSMWay way) {
+        TLongList nodes = way.getPrimitiveNodeRefs();
+        for (int i = 0; i < nodes.size(); i++) {
+            addAreaForNode(nodes.get(i), way);
+        }
+    }
+
+    private void addAreaForNode(long nodeId, OSMWay way) {
+        Set<OSMWay> areas = areasForNode.get(nodeId);
+        if (areas == null) {
+            areas = new HashSet<OSMWay>();
+            areasForNode.put(nodeId, areas);
+        }
+        areas.add(way);
+    }
+
     /**
      * Create areas from single ways.
      */
@@ -601,8 +627,9 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
             if (processedAreas.contains(way)) {
                 continue;
             }
-            for (Long nodeRef : way.getNodeRefs()) {
-                if (!nodesById.containsKey(nodeRef)) {
+            TLongList nodeRefs = way.getPrimitiveNodeRefs();
+            for (int i = 0; i < nodeRefs.size(); i++) {
+                if (!nodesById.containsKey(nodeRefs.get(i))) {
                     continue AREA;
                 }
             }
@@ -644,13 +671,14 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
                     // relation includes way which does not exist in the data. Skip.
                     continue RELATION;
                 }
-                for (Long nodeId : way.getNodeRefs()) {
-                    if (!nodesById.containsKey(nodeId)) {
+                TLongList nodeRefs = way.getPrimitiveNodeRefs();
+                for (int i = 0; i < nodeRefs.size(); i++) {
+                    if (!nodesById.containsKey(nodeRefs.get(i))) {
                         // this area is missing some nodes, perhaps because it is on
                         // the edge of the region, so we will simply not route on it.
                         continue RELATION;
                     }
-                    MapUtils.addToMapSet(areasForNode, nodeId, way);
+                    addAreaForNode(nodeRefs.get(i), way);
                 }
                 if (role.equals("inner")) {
                     innerWays.add(way);
@@ -18,6 +18,9 @@ import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.LineString;
+import gnu.trove.list.TLongList;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
 import org.opentripplanner.common.TurnRestriction;
 import org.opentripplanner.common.geometry.GeometryUtils;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
@@ -536,11 +539,13 @@ public class OpenStreetMapModule implements GraphBuilderModule {
 
                 // handle duplicate nodes in OSM ways
                 // this is a workaround for crappy OSM data quality
-                ArrayList<Long> nodes = new ArrayList<Long>(way.getNodeRefs().size());
+                TLongList nodeRefs = way.getPrimitiveNodeRefs();
+                ArrayList<Long> nodes = new ArrayList<Long>(nodeRefs.size());
                 long last = -1;
                 double lastLat = -1, lastLon = -1;
                 String lastLevel = null;
-                for (long nodeId : way.getNodeRefs()) {
+                for (int n = 0; n < nodeRefs.size(); n++) {
+                    long nodeId = nodeRefs.get(n);
                     OSMNode node = osmdb.getNode(nodeId);
                     if (node == null)
                         continue WAY;
@@ -890,10 +895,11 @@ public class OpenStreetMapModule implements GraphBuilderModule {
         }
 
         private void initIntersectionNodes() {
-            Set<Long> possibleIntersectionNodes = new HashSet<Long>();
+            TLongSet possibleIntersectionNodes = new TLongHashSet();
             for (OSMWay way : osmdb.getWays()) {
-                List<Long> nodes = way.getNodeRefs();
-                for (long node : nodes) {
+                TLongList nodes = way.getPrimitiveNodeRefs();
+                for (int i = 0; i < nodes.size(); i++) {
+                    long node = nodes.get(i);
                     if (possibleIntersectionNodes.contains(node)) {
                         intersectionNodes.put(node, null);
                     } else {
@@ -13,55 +13,199 @@
 
 package org.opentripplanner.openstreetmap.impl;
 
+import org.opentripplanner.openstreetmap.model.OSMNode;
+import org.opentripplanner.openstreetmap.model.OSMRelation;
+import org.opentripplanner.openstreetmap.model.OSMWay;
 import org.opentripplanner.openstreetmap.services.OpenStreetMapContentHandler;
 import org.opentripplanner.openstreetmap.services.OpenStreetMapProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
-import crosby.binary.file.BlockInputStream;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.protobuf.CodedInputStream;
+
+import crosby.binary.Fileformat;
+import crosby.binary.Osmformat;
 
 /**
  * Parser for the OpenStreetMap PBF format. Parses files in three passes:
  * First the relations, then the ways, then the nodes are also loaded.
  *
+ * The blob headers are scanned once to find the data blocks. The first pass decodes all of them and remembers which
+ * kinds of entities each one contains, so that the second and third passes only read the blocks containing ways and
+ * nodes respectively. Blocks are decompressed and decoded on a pool of threads, but the decoded entities are handed to
+ * the content handler on the calling thread and in file order, so handlers need not be thread-safe.
+ *
  * @see http://wiki.openstreetmap.org/wiki/PBF_Format
  * @see org.opentripplanner.openstreetmap.services.graph_builder.services.osm.OpenStreetMapContentHandler#biPhase
  * @since 0.4
  */
 public class BinaryFileBasedOpenStreetMapProviderImpl implements OpenStreetMapProvider {
 
+    private static final Logger LOG = LoggerFactory.getLogger(BinaryFileBasedOpenStreetMapProviderImpl.class);
+
+    /* Largest blob header and blob allowed by the PBF format. */
+    private static final int MAX_HEADER_SIZE = 64 * 1024;
+
+    private static final int MAX_BLOB_SIZE = 32 * 1024 * 1024;
+
+    /* The kinds of entities in a data block, as bit flags. */
+    private static final int NODES = 1, WAYS = 2, RELATIONS = 4;
+
     private File _path;
 
+    private int threads = Runtime.getRuntime().availableProcessors();
+
     public void readOSM(OpenStreetMapContentHandler handler) {
-        try {
-            BinaryOpenStreetMapParser parser = new BinaryOpenStreetMapParser(handler);
+        ExecutorService pool = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("PbfDecoder-%d").setDaemon(true).build());
+        try (FileChannel channel = FileChannel.open(_path.toPath(), StandardOpenOption.READ)) {
+            List<Block> blocks = scan(channel, handler);
 
-            FileInputStream input = new FileInputStream(_path);
-            parser.setParseNodes(false);
-            parser.setParseWays(false);
-            (new BlockInputStream(input, parser)).process();
+            process(channel, blocks, RELATIONS, pool, handler);
             handler.doneFirstPhaseRelations();
 
-            input = new FileInputStream(_path);
-            parser.setParseRelations(false);
-            parser.setParseWays(true);
-            (new BlockInputStream(input, parser)).process();
+            process(channel, blocks, WAYS, pool, handler);
             handler.doneSecondPhaseWays();
 
-            input = new FileInputStream(_path);
-            parser.setParseNodes(true);
-            parser.setParseWays(false);
-            (new BlockInputStream(input, parser)).process();
+            process(channel, blocks, NODES, pool, handler);
             handler.doneThirdPhaseNodes();
         } catch (Exception ex) {
-            throw new IllegalStateException("error loading OSM from path " + _path, ex);        }
+            throw new IllegalStateException("error loading OSM from path " + _path, ex);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Read the blob headers of the whole file, parse the file header and return the positions of the data blocks,
+     * without reading the data blocks themselves.
+     */
+    private List<Block> scan(FileChannel channel, OpenStreetMapContentHandler handler) throws IOException {
+        List<Block> blocks = new ArrayList<>();
+        long position = 0;
+        long size = channel.size();
+        while (position < size) {
+            int headerSize = ByteBuffer.wrap(read(channel, position, Integer.BYTES)).getInt();
+            if (headerSize < 0 || headerSize > MAX_HEADER_SIZE)
+                throw new IOException("Invalid PBF blob header size " + headerSize + " at offset " + position);
+            position += Integer.BYTES;
+            Fileformat.BlobHeader header = Fileformat.BlobHeader.parseFrom(read(channel, position, headerSize));
+            position += headerSize;
+            int blobSize = header.getDatasize();
+            if (blobSize < 0 || blobSize > MAX_BLOB_SIZE)
+                throw new IOException("Invalid PBF blob size " + blobSize + " at offset " + position);
+            if (header.getType().equals("OSMHeader")) {
+                new BinaryOpenStreetMapParser(handler).parse(Osmformat.HeaderBlock.parseFrom(
+                        inflate(read(channel, position, blobSize))));
+            } else if (header.getType().equals("OSMData")) {
+                blocks.add(new Block(position, blobSize));
+            } else {
+                LOG.warn("Skipping PBF blob of unknown type {}.", header.getType());
+            }
+            position += blobSize;
+        }
+        return blocks;
+    }
+
+    /**
+     * Decode the entities of one kind from all the blocks that may contain them. Blocks are read in file order, and at
+     * most a few blocks per thread are decoded ahead of the handler, which bounds the memory used by decoded entities.
+     */
+    private void process(FileChannel channel, List<Block> blocks, int kind, ExecutorService pool,
+            OpenStreetMapContentHandler handler) throws IOException, InterruptedException, ExecutionException {
+        Deque<Future<DecodedBlock>> pending = new ArrayDeque<>();
+        int decoded = 0;
+        for (Block block : blocks) {
+            if ((block.contents & kind) == 0)
+                continue;
+            byte[] blob = read(channel, block.position, block.size);
+            pending.add(pool.submit(() -> decode(block, blob, kind)));
+            if (pending.size() >= 2 * threads)
+                pending.remove().get().deliver(handler);
+            decoded++;
+        }
+        while (!pending.isEmpty())
+            pending.remove().get().deliver(handler);
+        LOG.debug("Decoded {} of {} PBF blocks.", decoded, blocks.size());
+    }
+
+    private static DecodedBlock decode(Block block, byte[] blob, int kind) throws IOException {
+        Osmformat.PrimitiveBlock primitiveBlock = Osmformat.PrimitiveBlock.parseFrom(inflate(blob));
+        int contents = 0;
+        for (Osmformat.PrimitiveGroup group : primitiveBlock.getPrimitivegroupList()) {
+            if (group.hasDense() || group.getNodesCount() > 0)
+                contents |= NODES;
+            if (group.getWaysCount() > 0)
+                contents |= WAYS;
+            if (group.getRelationsCount() > 0)
+                contents |= RELATIONS;
+        }
+        DecodedBlock decoded = new DecodedBlock(block, contents);
+        BinaryOpenStreetMapParser parser = new BinaryOpenStreetMapParser(decoded);
+        parser.setParseNodes(kind == NODES);
+        parser.setParseWays(kind == WAYS);
+        parser.setParseRelations(kind == RELATIONS);
+        parser.parse(primitiveBlock);
+        return decoded;
+    }
+
+    /** @return the decompressed content of a blob. */
+    private static CodedInputStream inflate(byte[] bytes) throws IOException {
+        Fileformat.Blob blob = Fileformat.Blob.parseFrom(bytes);
+        if (blob.hasRaw())
+            return blob.getRaw().newCodedInput();
+        if (!blob.hasZlibData())
+            throw new IOException("Unsupported PBF blob compression.");
+        byte[] data = new byte[blob.getRawSize()];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(blob.getZlibData().toByteArray());
+            if (inflater.inflate(data) != data.length || !inflater.finished())
+                throw new IOException("PBF blob does not have the expected size.");
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt PBF blob.", e);
+        } finally {
+            inflater.end();
+        }
+        return CodedInputStream.newInstance(data);
+    }
+
+    private static byte[] read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new EOFException("Truncated PBF file.");
+        }
+        return buffer.array();
     }
 
     public void setPath(File path) {
         _path = path;
     }
 
+    /** Set the number of threads decoding blocks, which defaults to the number of processors. */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
     public String toString() {
         return "BinaryFileBasedOpenStreetMapProviderImpl(" + _path + ")";
     }
@@ -72,4 +216,76 @@ public class BinaryFileBasedOpenStreetMapProviderImpl implements OpenStreetMapPr
             throw new RuntimeException("Can't read OSM path: " + _path);
         }
     }
+
+    /** The position of a data block in the file, and the kinds of entities it contains once it has been decoded. */
+    private static class Block {
+
+        final long position;
+
+        final int size;
+
+        /* Until the block is decoded, assume it contains everything. Only accessed from the reading thread. */
+        int contents = NODES | WAYS | RELATIONS;
+
+        Block(long position, int size) {
+            this.position = position;
+            this.size = size;
+        }
+    }
+
+    /** The entities decoded from one block on a pool thread, waiting to be handed to the content handler. */
+    private static class DecodedBlock implements OpenStreetMapContentHandler {
+
+        final Block block;
+
+        final int contents;
+
+        final List<OSMNode> nodes = new ArrayList<>();
+
+        final List<OSMWay> ways = new ArrayList<>();
+
+        final List<OSMRelation> relations = new ArrayList<>();
+
+        DecodedBlock(Block block, int contents) {
+            this.block = block;
+            this.contents = contents;
+        }
+
+        void deliver(OpenStreetMapContentHandler handler) {
+            block.contents = contents;
+            for (OSMRelation relation : relations)
+                handler.addRelation(relation);
+            for (OSMWay way : ways)
+                handler.addWay(way);
+            for (OSMNode node : nodes)
+                handler.addNode(node);
+        }
+
+        @Override
+        public void addNode(OSMNode node) {
+            nodes.add(node);
+        }
+
+        @Override
+        public void addWay(OSMWay way) {
+            ways.add(way);
+        }
+
+        @Override
+        public void addRelation(OSMRelation relation) {
+            relations.add(relation);
+        }
+
+        @Override
+        public void doneFirstPhaseRelations() {
+        }
+
+        @Override
+        public void doneSecondPhaseWays() {
+        }
+
+        @Override
+        public void doneThirdPhaseNodes() {
+        }
+    }
 }
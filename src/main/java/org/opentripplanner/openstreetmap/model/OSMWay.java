@@ -16,12 +16,16 @@
 
 package org.opentripplanner.openstreetmap.model;
 
-import java.util.ArrayList;
+import gnu.trove.decorator.TLongListDecorator;
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TLongArrayList;
+
 import java.util.List;
 
 public class OSMWay extends OSMWithTags {
 
-    private List<Long> _nodes = new ArrayList<Long>();
+    /* Primitive longs, as boxed node IDs take several times more memory on large extracts. */
+    private TLongArrayList _nodes = new TLongArrayList(4);
 
     public void addNodeRef(OSMNodeRef nodeRef) {
         _nodes.add(nodeRef.getRef());
@@ -32,13 +36,26 @@ public class OSMWay extends OSMWithTags {
     }
 
     public void addNodeRef(long nodeRef, int index) {
-        _nodes.add(index, nodeRef);
+        _nodes.insert(index, nodeRef);
     }
 
+    /**
+     * @return the node IDs of this way. The IDs are boxed on access, use getPrimitiveNodeRefs in loops over many ways.
+     */
     public List<Long> getNodeRefs() {
+        return new TLongListDecorator(_nodes);
+    }
+
+    /** @return the node IDs of this way, without boxing them. */
+    public TLongList getPrimitiveNodeRefs() {
         return _nodes;
     }
 
+    /** Release the unused capacity of the node ID list, once all node IDs have been added. */
+    public void trimNodeRefs() {
+        _nodes.trimToSize();
+    }
+
     public String toString() {
         return "osm way " + id;
     }
@@ -15,9 +15,14 @@
 
 package org.opentripplanner.openstreetmap.model;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
 import org.opentripplanner.graph_builder.module.osm.TemplateLibrary;
 import org.opentripplanner.util.I18NString;
 import org.opentripplanner.util.NonLocalizedString;
@@ -29,8 +34,17 @@ import org.opentripplanner.util.TranslatedString;
 
 public class OSMWithTags {
 
-    /* To save memory this is only created when an entity actually has tags. */
-    private Map<String, String> _tags;
+    /*
+     * The same few keys and values (and many names) are used by millions of entities, so they are interned. Interned
+     * strings no longer used by any entity are garbage collected.
+     */
+    private static final Interner<String> TAG_STRINGS = Interners.newWeakInterner();
+
+    /*
+     * To save memory this is only created when an entity actually has tags. The keys and values follow each other in
+     * a single array rather than in a map, as most entities have only a few tags.
+     */
+    private String[] _tags;
 
     protected long id;
 
@@ -54,10 +68,7 @@ public class OSMWithTags {
      * Adds a tag.
      */
     public void addTag(OSMTag tag) {
-        if (_tags == null)
-            _tags = new HashMap<String, String>();
-
-        _tags.put(tag.getK().toLowerCase(), tag.getV());
+        putTag(tag.getK().toLowerCase(), tag.getV());
     }
 
     /**
@@ -67,17 +78,47 @@ public class OSMWithTags {
         if (key == null || value == null)
             return;
 
-        if (_tags == null)
-            _tags = new HashMap<String, String>();
+        putTag(key.toLowerCase(), value);
+    }
 
-        _tags.put(key.toLowerCase(), value);
+    private void putTag(String key, String value) {
+        key = TAG_STRINGS.intern(key);
+        if (value != null)
+            value = TAG_STRINGS.intern(value);
+        int i = indexOfTag(key);
+        if (i >= 0) {
+            _tags[i + 1] = value;
+        } else if (_tags == null) {
+            _tags = new String[] { key, value };
+        } else {
+            int n = _tags.length;
+            _tags = Arrays.copyOf(_tags, n + 2);
+            _tags[n] = key;
+            _tags[n + 1] = value;
+        }
+    }
+
+    /** @return the index of the given lower case key in _tags, or -1 if it is not there. */
+    private int indexOfTag(String key) {
+        if (_tags != null) {
+            for (int i = 0; i < _tags.length; i += 2) {
+                if (_tags[i].equals(key))
+                    return i;
+            }
+        }
+        return -1;
     }
 
     /**
-     * The tags of an entity.
+     * The tags of an entity, or null if it has none. This is a copy, changing it does not change the entity.
      */
     public Map<String, String> getTags() {
-        return _tags;
+        if (_tags == null)
+            return null;
+        Map<String, String> tags = new HashMap<String, String>();
+        for (int i = 0; i < _tags.length; i += 2)
+            tags.put(_tags[i], _tags[i + 1]);
+        return Collections.unmodifiableMap(tags);
     }
 
     /**
@@ -85,7 +126,7 @@ public class OSMWithTags {
      */
     public boolean hasTag(String tag) {
         tag = tag.toLowerCase();
-        return _tags != null && _tags.containsKey(tag);
+        return indexOfTag(tag) >= 0;
     }
 
     /**
@@ -126,8 +167,9 @@ public class OSMWithTags {
     /** @return a tag's value, converted to lower case. */
     public String getTag(String tag) {
         tag = tag.toLowerCase();
-        if (_tags != null && _tags.containsKey(tag)) {
-            return _tags.get(tag);
+        int i = indexOfTag(tag);
+        if (i >= 0) {
+            return _tags[i + 1];
         }
         return null;
     }
@@ -137,8 +179,9 @@ public class OSMWithTags {
      */
     public Boolean isTag(String tag, String value) {
         tag = tag.toLowerCase();
-        if (_tags != null && _tags.containsKey(tag) && value != null)
-            return value.equals(_tags.get(tag));
+        int i = indexOfTag(tag);
+        if (i >= 0 && value != null)
+            return value.equals(_tags[i + 1]);
 
         return false;
     }
@@ -148,30 +191,30 @@ public class OSMWithTags {
      * {@link org.opentripplanner.graph_builder.module.osm.OpenStreetMapModule#processRelations processRelations}
      */
     public I18NString getAssumedName() {
-        if (_tags.containsKey("name"))
+        if (hasTag("name"))
             return TranslatedString.getI18NString(TemplateLibrary.generateI18N("{name}", this));
 
-        if (_tags.containsKey("otp:route_name"))
-            return new NonLocalizedString(_tags.get("otp:route_name"));
+        if (hasTag("otp:route_name"))
+            return new NonLocalizedString(getTag("otp:route_name"));
 
         if (this.creativeName != null)
             return this.creativeName;
 
-        if (_tags.containsKey("otp:route_ref"))
-            return new NonLocalizedString(_tags.get("otp:route_ref"));
+        if (hasTag("otp:route_ref"))
+            return new NonLocalizedString(getTag("otp:route_ref"));
 
-        if (_tags.containsKey("ref"))
-            return new NonLocalizedString(_tags.get("ref"));
+        if (hasTag("ref"))
+            return new NonLocalizedString(getTag("ref"));
 
         return null;
     }
 
     public Map<String, String> getTagsByPrefix(String prefix) {
         Map<String, String> out = new HashMap<String, String>();
-        for (Map.Entry<String, String> entry : _tags.entrySet()) {
-            String k = entry.getKey();
+        for (int i = 0; i < _tags.length; i += 2) {
+            String k = _tags[i];
             if (k.equals(prefix) || k.startsWith(prefix + ":")) {
-                out.put(k, entry.getValue());
+                out.put(k, _tags[i + 1]);
             }
         }
 
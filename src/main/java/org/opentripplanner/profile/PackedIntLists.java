@@ -0,0 +1,77 @@
+package org.opentripplanner.profile;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.IntBuffer;
+import java.util.List;
+
+/**
+ * A list of int arrays packed into a single array in compressed sparse row (CSR) form: the values of list i are
+ * values[offsets[i]] through values[offsets[i + 1] - 1]. Iterating over the lists in order then reads contiguous
+ * memory rather than following a reference to a separate array for each list.
+ *
+ * The values are held in an IntBuffer so that they can either be on the heap or in a read-only memory-mapped file
+ * (see RaptorWorkerDataStore), which keeps large tables like the stop-to-target times off the heap.
+ *
+ * Loops over one list look like
+ * <pre>for (int i = packed.offsets[s], end = packed.offsets[s + 1]; i < end; i++) { ... packed.values.get(i) ... }</pre>
+ */
+public class PackedIntLists implements Serializable {
+
+    public final int[] offsets;
+
+    /** Transient because buffers are not serializable, see writeObject and readObject. */
+    public transient IntBuffer values;
+
+    /**
+     * Pack the given lists. If there are fewer than size lists, or if some of them are null, the missing lists are
+     * empty.
+     */
+    public PackedIntLists (List<int[]> lists, int size) {
+        offsets = new int[size + 1];
+        int total = 0;
+        for (int i = 0; i < size; i++) {
+            offsets[i] = total;
+            int[] list = i < lists.size() ? lists.get(i) : null;
+            if (list != null) total += list.length;
+        }
+        offsets[size] = total;
+        int[] packed = new int[total];
+        for (int i = 0; i < size && i < lists.size(); i++) {
+            int[] list = lists.get(i);
+            if (list != null) System.arraycopy(list, 0, packed, offsets[i], list.length);
+        }
+        values = IntBuffer.wrap(packed);
+    }
+
+    /** Wrap lists that have already been packed, for instance values in a memory-mapped file. */
+    public PackedIntLists (int[] offsets, IntBuffer values) {
+        this.offsets = offsets;
+        this.values = values;
+    }
+
+    /** @return the number of lists. */
+    public int size () {
+        return offsets.length - 1;
+    }
+
+    /** @return the number of values in list i. */
+    public int length (int i) {
+        return offsets[i + 1] - offsets[i];
+    }
+
+    private void writeObject (ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        int[] copy = new int[values.limit()];
+        values.duplicate().get(copy);
+        out.writeObject(copy);
+    }
+
+    private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        values = IntBuffer.wrap((int[]) in.readObject());
+    }
+
+}
@@ -0,0 +1,270 @@
+package org.opentripplanner.profile;
+
+import gnu.trove.iterator.TIntIntIterator;
+import gnu.trove.map.TIntIntMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A round-based RAPTOR search from a single origin at a single departure time to a single destination, on the same
+ * compacted RaptorWorkerData used by the analyst RaptorWorker. Unlike RaptorWorker, which only keeps the best time at
+ * each stop regardless of the number of rides taken, this keeps separate labels for each round so that it finds the
+ * full Pareto set of journeys on (arrival time, number of transfers) in one pass, and keeps parent pointers so that
+ * those journeys can be reconstructed and mapped back onto the graph.
+ *
+ * Access and egress are not part of this search: the caller supplies the time needed to reach each stop from the
+ * origin and the time needed to reach the destination from each stop, which are typically found with a street search.
+ *
+ * Only scheduled trips are used. Frequency-based trips have no fixed departure times to build an itinerary from, and
+ * are ignored.
+ *
+ * See http://research.microsoft.com/pubs/156567/raptor_alenex.pdf
+ */
+public class PointToPointRaptorWorker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PointToPointRaptorWorker.class);
+
+    public static final int UNREACHED = RaptorWorker.UNREACHED;
+
+    private final RaptorWorkerData data;
+
+    private final int maxRides;
+
+    private final float walkSpeed;
+
+    /** The earliest time at which one can be at each stop ready to board, after a given number of rides. */
+    private final int[][] boardTimes;
+
+    /** The earliest time at which one can arrive at each stop on board a vehicle, by number of rides. */
+    private final int[][] rideTimes;
+
+    /** The stop the traveler walked from to reach each board label, or -1 for the initial access labels. */
+    private final int[][] transferFromStop;
+
+    /** The pattern, board position and alight position within that pattern that produced each ride label. */
+    private final int[][] ridePattern, rideBoardPosition, rideAlightPosition;
+
+    /** The best board and ride times over all rounds, used for local pruning. */
+    private final int[] bestBoardTimes, bestRideTimes;
+
+    private final BitSet stopsTouched, patternsTouched;
+
+    /**
+     * @param maxRides the maximum number of vehicles to ride, i.e. the maximum number of transfers plus one.
+     * @param walkSpeed the walk speed in meters per second to use on transfers between stops.
+     */
+    public PointToPointRaptorWorker (RaptorWorkerData data, int maxRides, float walkSpeed) {
+        this.data = data;
+        this.maxRides = maxRides;
+        this.walkSpeed = walkSpeed;
+        boardTimes = new int[maxRides + 1][data.nStops];
+        rideTimes = new int[maxRides + 1][data.nStops];
+        transferFromStop = new int[maxRides + 1][data.nStops];
+        ridePattern = new int[maxRides + 1][data.nStops];
+        rideBoardPosition = new int[maxRides + 1][data.nStops];
+        rideAlightPosition = new int[maxRides + 1][data.nStops];
+        bestBoardTimes = new int[data.nStops];
+        bestRideTimes = new int[data.nStops];
+        stopsTouched = new BitSet(data.nStops);
+        patternsTouched = new BitSet(data.nPatterns);
+    }
+
+    /**
+     * Find the Pareto-optimal journeys on arrival time and number of transfers.
+     *
+     * @param accessTimes the time in seconds to reach each stop (by RAPTOR index) from the origin.
+     * @param egressTimes the time in seconds to reach the destination from each stop (by RAPTOR index).
+     * @param departureTime the departure time from the origin, in seconds since midnight.
+     * @return the journeys found, in order of increasing number of rides and decreasing arrival time.
+     */
+    public List<Journey> route (TIntIntMap accessTimes, TIntIntMap egressTimes, int departureTime) {
+        for (int[] times : boardTimes) Arrays.fill(times, UNREACHED);
+        for (int[] times : rideTimes) Arrays.fill(times, UNREACHED);
+        Arrays.fill(bestBoardTimes, UNREACHED);
+        Arrays.fill(bestRideTimes, UNREACHED);
+        stopsTouched.clear();
+
+        int maxTime = departureTime + RaptorWorker.MAX_DURATION;
+        int bestArrivalAtTarget = maxTime;
+
+        for (TIntIntIterator it = accessTimes.iterator(); it.hasNext();) {
+            it.advance();
+            int stop = it.key();
+            int time = departureTime + it.value();
+            if (time < boardTimes[0][stop]) {
+                boardTimes[0][stop] = time;
+                bestBoardTimes[stop] = time;
+                transferFromStop[0][stop] = -1;
+                stopsTouched.set(stop);
+            }
+        }
+
+        List<Journey> journeys = new ArrayList<>();
+        for (int round = 1; round <= maxRides && !stopsTouched.isEmpty(); round++) {
+            markPatternsForTouchedStops();
+            stopsTouched.clear();
+
+            int[] previousBoardTimes = boardTimes[round - 1];
+            int[] roundRideTimes = rideTimes[round];
+
+            for (int p = patternsTouched.nextSetBit(0); p >= 0; p = patternsTouched.nextSetBit(p + 1)) {
+                RaptorWorkerTimetable timetable = data.timetablesForPattern.get(p);
+                if (!timetable.hasScheduledTrips()) continue;
+
+                int onTrip = -1;
+                int boardPosition = -1;
+                for (int position = 0; position < timetable.stopIndices.length; position++) {
+                    int stop = timetable.stopIndices[position];
+
+                    if (onTrip != -1) {
+                        int arrivalTime = timetable.getArrival(onTrip, position);
+                        // Local and target pruning: an arrival that is no better than one found with fewer or
+                        // equal rides, or that is no better than the best arrival at the target, is dominated.
+                        if (arrivalTime < bestRideTimes[stop] && arrivalTime < bestArrivalAtTarget) {
+                            roundRideTimes[stop] = arrivalTime;
+                            bestRideTimes[stop] = arrivalTime;
+                            ridePattern[round][stop] = p;
+                            rideBoardPosition[round][stop] = boardPosition;
+                            rideAlightPosition[round][stop] = position;
+                            stopsTouched.set(stop);
+                        }
+                    }
+
+                    // Board here, or catch an earlier trip of this pattern if we can reach this stop in time for it.
+                    int boardTime = previousBoardTimes[stop];
+                    if (boardTime != UNREACHED && (onTrip == -1 ||
+                            boardTime + RaptorWorkerTimetable.MIN_BOARD_TIME_SECONDS < timetable.getDeparture(onTrip, position))) {
+                        int trip = timetable.findDepartureAfter(position, boardTime);
+                        if (trip != -1 && (onTrip == -1 || trip < onTrip)) {
+                            onTrip = trip;
+                            boardPosition = position;
+                        }
+                    }
+                }
+            }
+
+            doTransfers(round, maxTime);
+
+            // Check whether any stop reached by riding in this round improves on the arrival at the target.
+            int bestStop = -1;
+            int bestEgressTime = UNREACHED;
+            for (TIntIntIterator it = egressTimes.iterator(); it.hasNext();) {
+                it.advance();
+                int stop = it.key();
+                if (roundRideTimes[stop] == UNREACHED) continue;
+                int arrivalAtTarget = roundRideTimes[stop] + it.value();
+                if (arrivalAtTarget < bestArrivalAtTarget ||
+                        (bestStop != -1 && arrivalAtTarget == bestArrivalAtTarget && it.value() < bestEgressTime)) {
+                    bestArrivalAtTarget = arrivalAtTarget;
+                    bestStop = stop;
+                    bestEgressTime = it.value();
+                }
+            }
+            if (bestStop != -1) {
+                journeys.add(reconstruct(round, bestStop, bestArrivalAtTarget));
+            }
+        }
+        LOG.debug("Found {} Pareto-optimal journeys", journeys.size());
+        return journeys;
+    }
+
+    /**
+     * Make the board labels for this round: a stop reached by riding can be boarded at directly or after walking a
+     * transfer to a nearby stop. Marks the stops whose board label improved for the next round.
+     */
+    private void doTransfers (int round, int maxTime) {
+        int[] roundRideTimes = rideTimes[round];
+        int[] roundBoardTimes = boardTimes[round];
+        BitSet improved = new BitSet(data.nStops);
+        for (int stop = stopsTouched.nextSetBit(0); stop >= 0; stop = stopsTouched.nextSetBit(stop + 1)) {
+            int fromTime = roundRideTimes[stop];
+            if (fromTime < bestBoardTimes[stop] && fromTime < roundBoardTimes[stop]) {
+                roundBoardTimes[stop] = fromTime;
+                bestBoardTimes[stop] = fromTime;
+                transferFromStop[round][stop] = stop;
+                improved.set(stop);
+            }
+            IntBuffer transfers = data.packedTransfersForStop.values;
+            for (int i = data.packedTransfersForStop.offsets[stop], end = data.packedTransfersForStop.offsets[stop + 1];
+                 i < end; i += 2) {
+                int toStop = transfers.get(i);
+                int toTime = fromTime + (int) (transfers.get(i + 1) / walkSpeed);
+                if (toTime < maxTime && toTime < bestBoardTimes[toStop] && toTime < roundBoardTimes[toStop]) {
+                    roundBoardTimes[toStop] = toTime;
+                    bestBoardTimes[toStop] = toTime;
+                    transferFromStop[round][toStop] = stop;
+                    improved.set(toStop);
+                }
+            }
+        }
+        stopsTouched.clear();
+        stopsTouched.or(improved);
+    }
+
+    private void markPatternsForTouchedStops () {
+        patternsTouched.clear();
+        for (int stop = stopsTouched.nextSetBit(0); stop >= 0; stop = stopsTouched.nextSetBit(stop + 1)) {
+            IntBuffer patterns = data.packedPatternsForStop.values;
+            for (int i = data.packedPatternsForStop.offsets[stop], end = data.packedPatternsForStop.offsets[stop + 1];
+                 i < end; i++) {
+                patternsTouched.set(patterns.get(i));
+            }
+        }
+    }
+
+    /** Follow the parent pointers back from a ride label to build the legs of a journey. */
+    private Journey reconstruct (int round, int egressStop, int arrivalTime) {
+        List<Leg> legs = new ArrayList<>(round);
+        int stop = egressStop;
+        for (int r = round; r > 0; r--) {
+            Leg leg = new Leg();
+            leg.pattern = ridePattern[r][stop];
+            leg.boardPosition = rideBoardPosition[r][stop];
+            leg.alightPosition = rideAlightPosition[r][stop];
+            leg.alightStop = stop;
+            leg.boardStop = data.timetablesForPattern.get(leg.pattern).stopIndices[leg.boardPosition];
+            legs.add(leg);
+            // The stop where the previous ride ended, from which we walked (or stayed) to board this one.
+            stop = transferFromStop[r - 1][leg.boardStop];
+        }
+        Collections.reverse(legs);
+        Journey journey = new Journey();
+        journey.legs = legs;
+        journey.arrivalTime = arrivalTime;
+        journey.accessStop = legs.get(0).boardStop;
+        journey.egressStop = egressStop;
+        return journey;
+    }
+
+    /** A journey found by the search, as the sequence of rides taken. */
+    public static class Journey {
+
+        /** The arrival time at the destination, in seconds since midnight, according to the RAPTOR data. */
+        public int arrivalTime;
+
+        /** The RAPTOR indices of the first stop boarded at and of the last stop alighted at. */
+        public int accessStop, egressStop;
+
+        /** One leg per ride, in order. A transfer is walked wherever a leg does not board where the last alighted. */
+        public List<Leg> legs;
+
+        public int getTransfers () {
+            return legs.size() - 1;
+        }
+    }
+
+    /** One ride on a pattern in a journey. Stops are RAPTOR stop indices; positions are positions within the pattern. */
+    public static class Leg {
+        public int pattern;
+        public int boardStop, alightStop;
+        public int boardPosition, alightPosition;
+    }
+
+}
@@ -12,9 +12,15 @@ import org.slf4j.LoggerFactory;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.stream.IntStream;
 
 /**
@@ -46,7 +52,7 @@ public class RaptorWorker {
      *
      * This should be a number beyond which people would generally consider transit to be completely unreasonable.
      */
-    static final int MAX_DURATION = 120 * 60;
+    public static final int MAX_DURATION = 120 * 60;
 
     /**
      * The number of randomized frequency schedule draws to take for each minute of the search.
@@ -109,6 +115,20 @@ public class RaptorWorker {
 
     private ProfileRequest req;
 
+    /**
+     * The boarding assumption for frequency trips in the current search. This is usually the one from the request,
+     * but is temporarily changed to compute the best and worst cases. It is kept here rather than changed in the
+     * request because the request may be shared between workers searching in parallel.
+     */
+    private RaptorWorkerTimetable.BoardingAssumption boardingAssumption;
+
+    /**
+     * If true, split the departure minutes into sub-ranges that are searched in parallel on the common fork-join pool.
+     * This reduces the response time of a single request, which is useful for interactive single-point requests,
+     * but is pointless when there are already as many requests being handled as there are cores.
+     */
+    public boolean parallel = false;
+
     private long totalPropagationTime = 0;
 
     private FrequencyRandomOffsets offsets;
@@ -123,7 +143,8 @@ public class RaptorWorker {
         allStopsTouched = new BitSet(data.nStops);
         stopsTouched = new BitSet(data.nStops);
         patternsTouched = new BitSet(data.nPatterns);
-        this.req = req; 
+        this.req = req;
+        this.boardingAssumption = req.boardingAssumption;
         Arrays.fill(bestTimes, UNREACHED); // initialize once here and reuse on subsequent iterations.
         Arrays.fill(bestNonTransferTimes, UNREACHED);
         offsets = new FrequencyRandomOffsets(data);
@@ -165,15 +186,15 @@ public class RaptorWorker {
         }
 
         // if no frequencies, don't run Monte Carlo
-        int iterations = (req.toTime - fromTime - 60) / 60 + 1;
+        int minutes = (req.toTime - fromTime - 60) / 60 + 1;
 
         // if we do Monte Carlo, we do more iterations. But we only do monte carlo when we have frequencies.
         // So only update the number of iterations when we're actually going to use all of them, to
         // avoid uninitialized arrays.
         // if we multiply when we're not doing monte carlo, we'll end up with too many iterations.
-        if (data.hasFrequencies)
-            // we add 2 because we do two "fake" draws where we do min or max instead of a monte carlo draw
-            iterations *= (monteCarloDraws + 2);
+        // we add 2 because we do two "fake" draws where we do min or max instead of a monte carlo draw
+        int iterationsPerMinute = data.hasFrequencies ? monteCarloDraws + 2 : 1;
+        int iterations = minutes * iterationsPerMinute;
 
         ts.searchCount = iterations;
 
@@ -188,15 +209,83 @@ public class RaptorWorker {
         // TODO don't hardwire timestep below
         ts.timeStep = 60;
 
+        int iterationsFilled = 0;
+        if (parallel && minutes > 1) {
+            // Split the departure minutes into contiguous sub-ranges and run range-RAPTOR over each one in its own
+            // worker, with its own state. Each worker writes to its own slice of the output arrays.
+            // Range-RAPTOR restarts from scratch at the latest minute of each sub-range, so this does somewhat more
+            // work in total than a single sequential search, but makes use of all the cores for a single request.
+            final int draws = monteCarloDraws;
+            int nRanges = Math.min(minutes, ForkJoinPool.commonPool().getParallelism() + 1);
+            List<RaptorWorker> workers = new ArrayList<>();
+            List<Callable<Integer>> searches = new ArrayList<>();
+            for (int range = 0; range < nRanges; range++) {
+                int startMinute = minutes * range / nRanges;
+                int endMinute = minutes * (range + 1) / nRanges;
+                RaptorWorker worker = new RaptorWorker(data, req);
+                workers.add(worker);
+                searches.add(() -> worker.runRaptorMinutes(initialStops, nonTransitTimes, startMinute, endMinute,
+                        draws, timesAtTargetsEachIteration, includeIterationInAverages));
+            }
+            try {
+                for (Future<Integer> filled : ForkJoinPool.commonPool().invokeAll(searches)) {
+                    iterationsFilled += filled.get();
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                throw new RuntimeException("Parallel RAPTOR search failed", e);
+            }
+            for (RaptorWorker worker : workers) {
+                totalPropagationTime += worker.totalPropagationTime;
+            }
+        } else {
+            iterationsFilled = runRaptorMinutes(initialStops, nonTransitTimes, 0, minutes, monteCarloDraws,
+                    timesAtTargetsEachIteration, includeIterationInAverages);
+        }
+
+        // make sure we filled the array, otherwise results are garbage.
+        // This implies a bug in OTP, but it has happened in the past when we did
+        // not set the number of iterations correctly.
+        if (iterationsFilled != iterations)
+            throw new IllegalStateException("Iterations did not completely fill output array");
+
+        long calcTime = System.currentTimeMillis() - beginCalcTime;
+        LOG.info("calc time {}sec", calcTime / 1000.0);
+        LOG.info("  propagation {}sec", totalPropagationTime / 1000.0);
+        LOG.info("  raptor {}sec", (calcTime - totalPropagationTime) / 1000.0);
+        // in parallel mode these are summed over all threads, so propagation may exceed the total time
+        ts.propagation = (int) totalPropagationTime;
+        ts.transitSearch = (int) (calcTime - totalPropagationTime);
+        //dumpVariableByte(timesAtTargetsEachMinute);
+        // we can use min_max here as we've also run it once with best case and worst case board,
+        // so the best and worst cases are meaningful.
+        propagatedTimesStore.setFromArray(timesAtTargetsEachIteration, includeIterationInAverages,
+                PropagatedTimesStore.ConfidenceCalculationMethod.MIN_MAX);
+        return propagatedTimesStore;
+    }
+
+    /**
+     * Run range-RAPTOR over a contiguous range of departure minutes, from the latest to the earliest. Minute n departs
+     * at req.toTime - 60 * (n + 1), and its results go to the output arrays starting at iteration n times the number
+     * of iterations per minute, so that ranges can be searched independently by different workers.
+     *
+     * @param startMinute the first (latest) minute of the range, inclusive.
+     * @param endMinute the last (earliest) minute of the range, exclusive.
+     * @return the number of iterations filled in.
+     */
+    private int runRaptorMinutes (TIntIntMap initialStops, int[] nonTransitTimes, int startMinute, int endMinute,
+            int monteCarloDraws, int[][] timesAtTargetsEachIteration, boolean[] includeIterationInAverages) {
+        int iterationsPerMinute = data.hasFrequencies ? monteCarloDraws + 2 : 1;
+
         // times at targets from scheduled search
         int[] scheduledTimesAtTargets = new int[data.nTargets];
         Arrays.fill(scheduledTimesAtTargets, UNREACHED);
 
         // current iteration
-        int iteration = 0;
+        int iteration = startMinute * iterationsPerMinute;
 
         // FIXME this should be changed to tolerate a zero-width time range
-        for (int departureTime = req.toTime - 60, n = 0; departureTime >= fromTime; departureTime -= 60, n++) {
+        for (int n = startMinute; n < endMinute; n++) {
+            int departureTime = req.toTime - 60 * (n + 1);
             if (n % 15 == 0) {
                 LOG.info("minute {}", n);
             }
@@ -226,19 +315,17 @@ public class RaptorWorker {
                     // special cases: calculate the best and the worst cases as well
                     // Note that this (intentionally) does not affect searches where the user has requested
                     // an assumption other than RANDOM, or stops with transfer rules.
-                    RaptorWorkerTimetable.BoardingAssumption requestedBoardingAssumption = req.boardingAssumption;
-
                     if (i == 0 && req.boardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM) {
-                        req.boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.WORST_CASE;
+                        boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.WORST_CASE;
                         // don't include extrema in averages
                         includeIterationInAverages[iteration] = false;
                     }
                     else if (i == 1 && req.boardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM) {
-                        req.boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.BEST_CASE;
+                        boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.BEST_CASE;
                         // don't include extrema in averages
                         includeIterationInAverages[iteration] = false;
                     }
-                    else if (requestedBoardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM)
+                    else if (req.boardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM)
                         // use a new Monte Carlo draw each time
                         // included in averages by default
                         offsets.randomize();
@@ -246,7 +333,7 @@ public class RaptorWorker {
                     this.runRaptorFrequency(departureTime, bestTimesCopy, bestNonTransferTimesCopy,
                             previousPatternsCopy);
 
-                    req.boardingAssumption = requestedBoardingAssumption;
+                    boardingAssumption = req.boardingAssumption;
 
                     // do propagation
                     int[] frequencyTimesAtTargets = timesAtTargetsEachIteration[iteration++];
@@ -269,26 +356,7 @@ public class RaptorWorker {
                         .toArray();
             }
         }
-
-        // make sure we filled the array, otherwise results are garbage.
-        // This implies a bug in OTP, but it has happened in the past when we did
-        // not set the number of iterations correctly.
-        // iteration should be incremented past end of array by ++ in assignment above
-        if (iteration != iterations)
-            throw new IllegalStateException("Iterations did not completely fill output array");
-
-        long calcTime = System.currentTimeMillis() - beginCalcTime;
-        LOG.info("calc time {}sec", calcTime / 1000.0);
-        LOG.info("  propagation {}sec", totalPropagationTime / 1000.0);
-        LOG.info("  raptor {}sec", (calcTime - totalPropagationTime) / 1000.0);
-        ts.propagation = (int) totalPropagationTime;
-        ts.transitSearch = (int) (calcTime - totalPropagationTime);
-        //dumpVariableByte(timesAtTargetsEachMinute);
-        // we can use min_max here as we've also run it once with best case and worst case board,
-        // so the best and worst cases are meaningful.
-        propagatedTimesStore.setFromArray(timesAtTargetsEachIteration, includeIterationInAverages,
-                PropagatedTimesStore.ConfidenceCalculationMethod.MIN_MAX);
-        return propagatedTimesStore;
+        return iteration - startMinute * iterationsPerMinute;
     }
 
     public void dumpVariableByte(int[][] array) {
@@ -391,7 +459,7 @@ public class RaptorWorker {
                         for (int trip = 0; trip < timetable.getFrequencyTripCount(); trip++) {
                             int boardTime = timetable
                                     .getFrequencyDeparture(trip, stopPositionInPattern,
-                                            bestTimes[stopIndex], previousPatterns[stopIndex], offsets, req.boardingAssumption);
+                                            bestTimes[stopIndex], previousPatterns[stopIndex], offsets, boardingAssumption);
 
                             if (boardTime != -1 && boardTime < remainOnBoardTime) {
                                 // make sure we board the best frequency entry at a stop
@@ -489,10 +557,11 @@ public class RaptorWorker {
             // TODO this is reboarding every trip at every stop.
             markPatternsForStop(stop);
             int fromTime = bestNonTransferTimes[stop];
-            int[] transfers = data.transfersForStop.get(stop);
-            for (int i = 0; i < transfers.length; i++) {
-                int toStop = transfers[i++]; // increment i
-                int distance = transfers[i]; // i will be incremented at the end of the loop
+            IntBuffer transfers = data.packedTransfersForStop.values;
+            for (int i = data.packedTransfersForStop.offsets[stop], end = data.packedTransfersForStop.offsets[stop + 1];
+                 i < end; i++) {
+                int toStop = transfers.get(i++); // increment i
+                int distance = transfers.get(i); // i will be incremented at the end of the loop
                 int toTime = fromTime + (int) (distance / req.walkSpeed);
                 if (toTime < max_time && toTime < bestTimes[toStop]) {
                     bestTimes[toStop] = toTime;
@@ -526,6 +595,9 @@ public class RaptorWorker {
         // a sample would be able to reach these two stops within the walk limit, but that the two
         // intersections it is connected to cannot reach both.
 
+        IntBuffer targets = data.packedTargetsForStop.values;
+        int[] targetOffsets = data.packedTargetsForStop.offsets;
+
         // only loop over stops that were touched this minute
         for (int s = allStopsTouched.nextSetBit(0); s >= 0; s = allStopsTouched.nextSetBit(s + 1)) {
             // it's safe to use the best time at this stop for any number of transfers, even in range-raptor,
@@ -533,15 +605,10 @@ public class RaptorWorker {
             // we do not necessarily compute all pareto-optimal paths on (journey time, number of transfers).
             int baseTimeSeconds = timesAtTransitStops[s];
             if (baseTimeSeconds != UNREACHED) {
-                int[] targets = data.targetsForStop.get(s);
-
-                if (targets == null)
-                    continue;
-
-                for (int i = 0; i < targets.length; i++) {
-                    int targetIndex = targets[i++]; // increment i after read
+                for (int i = targetOffsets[s], end = targetOffsets[s + 1]; i < end; i++) {
+                    int targetIndex = targets.get(i++); // increment i after read
                     // the cache has time in seconds rather than distance, to avoid costly floating-point divides and integer casts here.
-                    int propagated_time = baseTimeSeconds + targets[i];
+                    int propagated_time = baseTimeSeconds + targets.get(i);
 
                     if (timesAtTargets[targetIndex] > propagated_time) {
                         timesAtTargets[targetIndex] = propagated_time;
@@ -554,9 +621,10 @@ public class RaptorWorker {
 
     /** Mark all the patterns passing through the given stop. */
     private void markPatternsForStop(int stop) {
-        int[] patterns = data.patternsForStop.get(stop);
-        for (int pattern : patterns) {
-            patternsTouched.set(pattern);
+        IntBuffer patterns = data.packedPatternsForStop.values;
+        for (int i = data.packedPatternsForStop.offsets[stop], end = data.packedPatternsForStop.offsets[stop + 1];
+             i < end; i++) {
+            patternsTouched.set(patterns.get(i));
         }
     }
 
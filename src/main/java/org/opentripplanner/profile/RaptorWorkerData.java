@@ -63,12 +63,6 @@ public class RaptorWorkerData implements Serializable {
     /** The number of targets (vertices or samples) */
     public final int nTargets;
 
-    /** For every stop, one pair of ints (targetStopIndex, distanceMeters) for each transfer out of that stop. This uses 0-based stop indices that are specific to RaptorData */
-    public final List<int[]> transfersForStop = new ArrayList<>();
-
-    /** A list of pattern indexes passing through each stop, again using Raptor indices. */
-    public final List<int[]> patternsForStop = new ArrayList<>();
-
     /** For each pattern, a 2D array of stoptimes for each trip on the pattern. */
     public List<RaptorWorkerTimetable> timetablesForPattern = new ArrayList<>();
 
@@ -92,19 +86,65 @@ public class RaptorWorkerData implements Serializable {
     /** The boarding assumption used for initial vehicle boarding, and for when there is no transfer rule defined */
     public RaptorWorkerTimetable.BoardingAssumption boardingAssumption;
 
+    /*
+     * The per-stop lists are packed into single arrays (see PackedIntLists), for use in the inner loops of the
+     * search where following a reference to a separate small array for each stop causes a lot of cache misses.
+     * Each has exactly nStops lists.
+     */
+
+    /**
+     * For every stop, one pair of ints (targetStopIndex, distanceMeters) for each transfer out of that stop. This
+     * uses 0-based stop indices that are specific to RaptorData.
+     */
+    public final PackedIntLists packedTransfersForStop;
+
+    /** A list of pattern indexes passing through each stop, again using Raptor indices. */
+    public final PackedIntLists packedPatternsForStop;
+
     /**
-     * For each stop, one pair of ints (targetID, distanceMeters) for each destination near that stop.
+     * For each stop, one pair of ints (targetID, time in seconds) for each destination near that stop.
      * For generic TimeSurfaces these are street intersections. They could be anything though since the worker doesn't
      * care what the IDs stand for. For example, they could be point indexes in a pointset.
      */
-    public final List<int[]> targetsForStop = new ArrayList<>();
+    public final PackedIntLists packedTargetsForStop;
 
     /** The 0-based RAPTOR indices of each stop from their vertex IDs */
     public transient final TIntIntMap indexForStop;
+
+    /** The vertex IDs of each stop, indexed by their 0-based RAPTOR indices. The inverse of indexForStop. */
+    public transient final TIntList stopForIndex;
+
+    /**
+     * The graph TripPattern for each RAPTOR pattern index, used to map RAPTOR results back onto the graph.
+     * Patterns added by scenarios have no graph TripPattern and are not included, but they always come after the
+     * graph patterns so the indices of graph patterns are unaffected.
+     */
+    public transient final List<TripPattern> patternForIndex;
      /** Optional debug data: the name of each stop. */
     public transient final List<String> stopNames = new ArrayList<>();
     public transient final List<String> patternNames = new ArrayList<>();
 
+    /**
+     * Create RaptorWorkerData from previously computed parts, when reading it back from a file (see
+     * RaptorWorkerDataStore).
+     */
+    RaptorWorkerData (int nStops, int nPatterns, int nTargets, TIntList stopForIndex, List<TripPattern> patternForIndex,
+                      PackedIntLists packedTransfersForStop, PackedIntLists packedPatternsForStop,
+                      PackedIntLists packedTargetsForStop) {
+        this.nStops = nStops;
+        this.nPatterns = nPatterns;
+        this.nTargets = nTargets;
+        this.stopForIndex = stopForIndex;
+        this.patternForIndex = patternForIndex;
+        this.packedTransfersForStop = packedTransfersForStop;
+        this.packedPatternsForStop = packedPatternsForStop;
+        this.packedTargetsForStop = packedTargetsForStop;
+        indexForStop = new TIntIntHashMap(nStops, 0.75f, Integer.MIN_VALUE, -1);
+        for (int i = 0; i < nStops; i++) {
+            indexForStop.put(stopForIndex.get(i), i);
+        }
+    }
+
     /** Create RaptorWorkerData for the given window and graph */
     public RaptorWorkerData (Graph graph, TimeWindow window, ProfileRequest request, TaskStatistics ts) {
         this(graph, window, request, null, ts);
@@ -120,15 +160,31 @@ public class RaptorWorkerData implements Serializable {
 
     /** Create RaptorWorkerData to be used to build ResultSets directly without creating an intermediate SampleSet */
     public RaptorWorkerData (Graph graph, TimeWindow window, ProfileRequest req, SampleSet sampleSet, TaskStatistics ts) {
+        this(graph, window, req, sampleSet, ts, true);
+    }
+
+    /**
+     * Create RaptorWorkerData for the given window and graph. If includeTargets is false, no times from stops to
+     * targets (intersections or samples) are computed and nTargets is zero. This is for searches that only need to
+     * reach stops, like point-to-point searches where egress is handled separately, and avoids building the
+     * StopTreeCache.
+     */
+    public RaptorWorkerData (Graph graph, TimeWindow window, ProfileRequest req, SampleSet sampleSet, TaskStatistics ts,
+                             boolean includeTargets) {
         Scenario scenario = req.scenario;
 
         int totalPatterns = graph.index.patternForId.size();
         int totalStops = graph.index.stopForId.size();
         timetablesForPattern = new ArrayList<RaptorWorkerTimetable>(totalPatterns);
-        List<TripPattern> patternForIndex = Lists.newArrayList(totalPatterns);
+        patternForIndex = Lists.newArrayList(totalPatterns);
         TObjectIntMap<TripPattern> indexForPattern = new TObjectIntHashMap<>(totalPatterns, 0.75f, -1);
         indexForStop = new TIntIntHashMap(totalStops, 0.75f, Integer.MIN_VALUE, -1);
-        TIntList stopForIndex = new TIntArrayList(totalStops, Integer.MIN_VALUE);
+        stopForIndex = new TIntArrayList(totalStops, Integer.MIN_VALUE);
+
+        // The per-stop lists are only built here, and kept once packed.
+        List<int[]> transfersForStop = new ArrayList<>();
+        List<int[]> patternsForStop = new ArrayList<>();
+        List<int[]> targetsForStop = new ArrayList<>();
 
         this.boardingAssumption = req.boardingAssumption;
 
@@ -445,13 +501,19 @@ public class RaptorWorkerData implements Serializable {
                 transfersForStop.add(EMPTY_INT_ARRAY);
         }
 
-        long stcStart = System.currentTimeMillis();
-        StopTreeCache stc = graph.index.getStopTreeCache();
-        ts.stopTreeCaching = (int) (System.currentTimeMillis() - stcStart);
+        StopTreeCache stc = null;
+        if (includeTargets) {
+            long stcStart = System.currentTimeMillis();
+            stc = graph.index.getStopTreeCache();
+            ts.stopTreeCaching = (int) (System.currentTimeMillis() - stcStart);
+        }
 
         // Record times to nearby intersections for all used stops.
         // We use times rather than distances to avoid a costly floating-point divide during propagation
-        if (sampleSet == null) {
+        if (!includeTargets) {
+            nTargets = 0;
+        }
+        else if (sampleSet == null) {
             int maxWalkDistance = (int) (req.maxWalkTime * 60 * req.walkSpeed);
             for (TIntIterator stopIt = stopForIndex.iterator(); stopIt.hasNext();) {
                 int stop = stopIt.next();
@@ -460,7 +522,7 @@ public class RaptorWorkerData implements Serializable {
                 Vertex tstop = graph.getVertexById(stop);
                 boolean isPermanentStop = tstop != null && TransitStop.class.isInstance(tstop);
                 // convert distance to time
-                int[] distancesForStop = isPermanentStop ? stc.distancesForStop.get(tstop) : temporaryStopTreeCache.get(stop);
+                int[] distancesForStop = isPermanentStop ? stc.getDistancesForStop((TransitStop) tstop) : temporaryStopTreeCache.get(stop);
                 TIntList timesForStop = new TIntArrayList();
 
                 for (int i = 0; i < distancesForStop.length; i += 2) {
@@ -544,7 +606,7 @@ public class RaptorWorkerData implements Serializable {
                 Vertex tstop = graph.getVertexById(stop);
                 if (tstop != null && TransitStop.class.isInstance(tstop))
                     // permanent stop
-                    distancesForStop = stc.distancesForStop.get(tstop);
+                    distancesForStop = stc.getDistancesForStop((TransitStop) tstop);
                 else
                     // temporary stop
                     distancesForStop = temporaryStopTreeCache.get(stop);
@@ -613,6 +675,10 @@ public class RaptorWorkerData implements Serializable {
         ts.stopCount = nStops = stopForIndex.size();
         ts.patternCount = nPatterns = timetablesForPattern.size();
         ts.targetCount = nTargets;
+
+        packedTransfersForStop = new PackedIntLists(transfersForStop, nStops);
+        packedPatternsForStop = new PackedIntLists(patternsForStop, nStops);
+        packedTargetsForStop = new PackedIntLists(targetsForStop, nStops);
     }
 
     /** find stops from a given SPT, including temporary stops. If useTimes is true, use times from the SPT, otherwise use distances */
@@ -0,0 +1,239 @@
+package org.opentripplanner.profile;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.CountingOutputStream;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+import org.opentripplanner.routing.edgetype.TripPattern;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.TransitStop;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Saves RaptorWorkerData to a compact binary file and reads it back, memory-mapping the packed per-stop tables
+ * (most importantly the stop-to-target times, which dominate the size of the data for large point sets) read-only
+ * instead of loading them onto the heap. Several RaptorWorkerData objects and several processes reading the same file
+ * then share one copy of these tables in the OS page cache.
+ *
+ * Stops are saved as vertex indices, which are only meaningful for the graph the data was built from. The vertex
+ * labels are saved as well, and a file is rejected if they do not match the graph it is being read for.
+ *
+ * Data built with scenarios that add stops or transfer rules refers to scenario objects and cannot be saved; see
+ * canStore().
+ */
+public class RaptorWorkerDataStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RaptorWorkerDataStore.class);
+
+    private static final int MAGIC = 0x52575344; // "RWSD"
+
+    private static final int VERSION = 2;
+
+    /** @return true if the given data can be saved, i.e. it does not refer to temporary stops or transfer rules. */
+    public static boolean canStore (RaptorWorkerData data) {
+        return data.addedStops.isEmpty() && data.transferRules.isEmpty() && data.baseTransferRules.isEmpty();
+    }
+
+    /** Write the given data to a file. The file should be renamed into place by the caller once complete. */
+    public static void write (RaptorWorkerData data, Graph graph, File file) throws IOException {
+        if (!canStore(data)) {
+            throw new IllegalArgumentException("RAPTOR data with added stops or transfer rules cannot be stored.");
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(data.nStops);
+            out.writeInt(data.nPatterns);
+            out.writeInt(data.nTargets);
+            out.writeBoolean(data.hasSchedules);
+            out.writeBoolean(data.hasFrequencies);
+            out.writeUTF(data.boardingAssumption == null ? "" : data.boardingAssumption.name());
+
+            for (int s = 0; s < data.nStops; s++) {
+                int vertexIndex = data.stopForIndex.get(s);
+                Vertex vertex = graph.getVertexById(vertexIndex);
+                out.writeInt(vertexIndex);
+                out.writeUTF(vertex == null ? "" : vertex.getLabel());
+            }
+
+            for (int p = 0; p < data.nPatterns; p++) {
+                out.writeUTF(p < data.patternNames.size() ? data.patternNames.get(p) : "");
+                writeTimetable(data.timetablesForPattern.get(p), out);
+            }
+
+            writePackedIntLists(data.packedTransfersForStop, out);
+            writePackedIntLists(data.packedPatternsForStop, out);
+            writePackedIntLists(data.packedTargetsForStop, out);
+        }
+    }
+
+    /**
+     * Read data previously written by write() for the given graph. The packed per-stop tables are memory-mapped, so
+     * the file must not be modified or deleted while the data is in use.
+     *
+     * @return the data, or null if the file is not compatible with the given graph.
+     */
+    public static RaptorWorkerData read (File file, Graph graph) throws IOException {
+        try (CountingInputStream counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(file)));
+             RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            DataInputStream in = new DataInputStream(counter);
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                LOG.warn("{} is not a RAPTOR data file of the current version.", file);
+                return null;
+            }
+            int nStops = in.readInt();
+            int nPatterns = in.readInt();
+            int nTargets = in.readInt();
+            boolean hasSchedules = in.readBoolean();
+            boolean hasFrequencies = in.readBoolean();
+            String boardingAssumption = in.readUTF();
+
+            TIntList stopForIndex = new TIntArrayList(nStops);
+            List<String> stopLabels = new ArrayList<>(nStops);
+            for (int s = 0; s < nStops; s++) {
+                int vertexIndex = in.readInt();
+                String label = in.readUTF();
+                Vertex vertex = graph.getVertexById(vertexIndex);
+                if (!(vertex instanceof TransitStop) || !vertex.getLabel().equals(label)) {
+                    LOG.warn("Stops in {} do not match the graph.", file);
+                    return null;
+                }
+                stopForIndex.add(vertexIndex);
+                stopLabels.add(label);
+            }
+
+            List<String> patternNames = new ArrayList<>(nPatterns);
+            List<RaptorWorkerTimetable> timetables = new ArrayList<>(nPatterns);
+            List<TripPattern> patternForIndex = new ArrayList<>();
+            boolean allPatternsFound = true;
+            for (int p = 0; p < nPatterns; p++) {
+                String name = in.readUTF();
+                patternNames.add(name);
+                timetables.add(readTimetable(in));
+                // Patterns are in the same order as when the data was built, stop at the first one not in the graph.
+                TripPattern pattern = graph.index.patternForId.get(name);
+                allPatternsFound &= pattern != null;
+                if (allPatternsFound) patternForIndex.add(pattern);
+            }
+
+            FileChannel channel = raf.getChannel();
+            PackedIntLists transfers = readPackedIntLists(in, counter, channel);
+            PackedIntLists patterns = readPackedIntLists(in, counter, channel);
+            PackedIntLists targets = readPackedIntLists(in, counter, channel);
+
+            RaptorWorkerData data = new RaptorWorkerData(nStops, nPatterns, nTargets, stopForIndex, patternForIndex,
+                    transfers, patterns, targets);
+            data.hasSchedules = hasSchedules;
+            data.hasFrequencies = hasFrequencies;
+            if (!boardingAssumption.isEmpty()) {
+                data.boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.valueOf(boardingAssumption);
+            }
+            data.stopNames.addAll(stopLabels);
+            data.patternNames.addAll(patternNames);
+            data.timetablesForPattern = timetables;
+            for (RaptorWorkerTimetable timetable : timetables) {
+                timetable.raptorData = data;
+            }
+            return data;
+        }
+    }
+
+    private static void writeTimetable (RaptorWorkerTimetable timetable, DataOutputStream out) throws IOException {
+        out.writeInt(timetable.nTrips);
+        out.writeInt(timetable.nStops);
+        out.writeInt(timetable.dataIndex);
+        out.writeInt(timetable.mode);
+        writeInts(timetable.stopIndices, out);
+        writeInts(timetable.arrivalsByStop, out);
+        writeInts(timetable.departuresByStop, out);
+        out.writeBoolean(timetable.departuresSorted);
+        int nFrequencies = timetable.frequencyTrips == null ? 0 : timetable.frequencyTrips.length;
+        out.writeInt(nFrequencies);
+        for (int f = 0; f < nFrequencies; f++) {
+            out.writeInt(timetable.headwaySecs[f]);
+            out.writeInt(timetable.startTimes[f]);
+            out.writeInt(timetable.endTimes[f]);
+            writeInts(timetable.frequencyTrips[f], out);
+        }
+    }
+
+    private static RaptorWorkerTimetable readTimetable (DataInputStream in) throws IOException {
+        int nTrips = in.readInt();
+        int nStops = in.readInt();
+        RaptorWorkerTimetable timetable = new RaptorWorkerTimetable(nTrips, nStops);
+        timetable.dataIndex = in.readInt();
+        timetable.mode = in.readInt();
+        timetable.stopIndices = readInts(in);
+        timetable.arrivalsByStop = readInts(in);
+        timetable.departuresByStop = readInts(in);
+        timetable.departuresSorted = in.readBoolean();
+        int nFrequencies = in.readInt();
+        timetable.frequencyTrips = new int[nFrequencies][];
+        timetable.headwaySecs = new int[nFrequencies];
+        timetable.startTimes = new int[nFrequencies];
+        timetable.endTimes = new int[nFrequencies];
+        for (int f = 0; f < nFrequencies; f++) {
+            timetable.headwaySecs[f] = in.readInt();
+            timetable.startTimes[f] = in.readInt();
+            timetable.endTimes[f] = in.readInt();
+            timetable.frequencyTrips[f] = readInts(in);
+        }
+        return timetable;
+    }
+
+    private static void writePackedIntLists (PackedIntLists packed, DataOutputStream out) throws IOException {
+        writeInts(packed.offsets, out);
+        IntBuffer values = packed.values.duplicate();
+        values.rewind();
+        out.writeInt(values.remaining());
+        while (values.hasRemaining()) {
+            out.writeInt(values.get());
+        }
+    }
+
+    /** Read the offsets onto the heap, and memory-map the values rather than reading them. */
+    private static PackedIntLists readPackedIntLists (DataInputStream in, CountingInputStream counter,
+            FileChannel channel) throws IOException {
+        int[] offsets = readInts(in);
+        int nValues = in.readInt();
+        long position = counter.getCount();
+        long size = nValues * 4L;
+        ByteStreams.skipFully(in, size);
+        // Written by a DataOutputStream, so big-endian, which is also the default order of the mapped buffer.
+        IntBuffer values = channel.map(FileChannel.MapMode.READ_ONLY, position, size).asIntBuffer();
+        return new PackedIntLists(offsets, values);
+    }
+
+    private static void writeInts (int[] ints, DataOutputStream out) throws IOException {
+        out.writeInt(ints.length);
+        for (int i : ints) {
+            out.writeInt(i);
+        }
+    }
+
+    private static int[] readInts (DataInputStream in) throws IOException {
+        int[] ints = new int[in.readInt()];
+        for (int i = 0; i < ints.length; i++) {
+            ints[i] = in.readInt();
+        }
+        return ints;
+    }
+
+}
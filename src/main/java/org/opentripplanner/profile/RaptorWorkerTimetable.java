@@ -46,8 +46,15 @@ public class RaptorWorkerTimetable implements Serializable {
 
     int nTrips, nStops;
 
-    /* For each trip on this pattern, an packed array of (arrival, departure) time pairs. */
-    public int[][] timesPerTrip;
+    /*
+     * The scheduled times in stop-major order, built by pack(): the times of all trips at stop 0, then the times
+     * of all trips at stop 1 etc. The time of trip t at stop s is at index s * nTrips + t. Scanning down a pattern
+     * and looking for a departure at a stop then read contiguous memory.
+     */
+    int[] arrivalsByStop, departuresByStop;
+
+    /** True if the departures of the trips are in order at every stop (no overtaking), so they can be binary searched. */
+    boolean departuresSorted;
 
     /* Times for frequency-based trips are stored in parallel arrays (a column store). */
 
@@ -81,10 +88,12 @@ public class RaptorWorkerTimetable implements Serializable {
     /** slack required when boarding a transit vehicle */
     public static final int MIN_BOARD_TIME_SECONDS = 60;
 
+    /** shift of the times of trips from the previous service day */
+    private static final int SECONDS_PER_DAY = 24 * 60 * 60;
+
     public RaptorWorkerTimetable(int nTrips, int nStops) {
         this.nTrips = nTrips;
         this.nStops = nStops;
-        timesPerTrip = new int[nTrips][];
     }
 
     /**
@@ -92,20 +101,54 @@ public class RaptorWorkerTimetable implements Serializable {
      * MIN_BOARD_TIME_SECONDS seconds of slack. 
      */
     public int findDepartureAfter(int stop, int time) {
-        for (int trip = 0; trip < timesPerTrip.length; trip++) {
-            if (getDeparture(trip, stop) > time + MIN_BOARD_TIME_SECONDS) {
-                return trip;
+        int first = stop * nTrips;
+        int end = first + nTrips;
+        int minDeparture = time + MIN_BOARD_TIME_SECONDS;
+        if (departuresSorted) {
+            // find the first departure later than minDeparture
+            int lo = first, hi = end;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (departuresByStop[mid] > minDeparture) hi = mid;
+                else lo = mid + 1;
+            }
+            return lo < end ? lo - first : -1;
+        }
+        for (int i = first; i < end; i++) {
+            if (departuresByStop[i] > minDeparture) {
+                return i - first;
             }
         }
         return -1;
     }
 
     public int getArrival (int trip, int stop) {
-        return timesPerTrip[trip][stop * 2];
+        return arrivalsByStop[stop * nTrips + trip];
     }
 
     public int getDeparture (int trip, int stop) {
-        return timesPerTrip[trip][stop * 2 + 1];
+        return departuresByStop[stop * nTrips + trip];
+    }
+
+    /**
+     * Build the stop-major arrays of scheduled times. The per-trip arrays are not kept, so the times are only held once.
+     * @param timesPerTrip for each trip on this pattern, an array of (arrival, departure) time pairs.
+     */
+    public void pack (int[][] timesPerTrip) {
+        arrivalsByStop = new int[nTrips * nStops];
+        departuresByStop = new int[nTrips * nStops];
+        departuresSorted = true;
+        for (int trip = 0; trip < nTrips; trip++) {
+            int[] times = timesPerTrip[trip];
+            for (int stop = 0; stop < nStops; stop++) {
+                int i = stop * nTrips + trip;
+                arrivalsByStop[i] = times[stop * 2];
+                departuresByStop[i] = times[stop * 2 + 1];
+                if (trip > 0 && departuresByStop[i] < departuresByStop[i - 1]) {
+                    departuresSorted = false;
+                }
+            }
+        }
     }
 
     public int getFrequencyDeparture (int trip, int stop, int time, int previousPattern, FrequencyRandomOffsets offsets) {
@@ -242,7 +285,7 @@ public class RaptorWorkerTimetable implements Serializable {
 
     /** does this timetable have any scheduled trips? */
     public boolean hasScheduledTrips () {
-        return this.timesPerTrip != null && this.timesPerTrip.length > 0;
+        return this.nTrips > 0;
     }
 
     /**
@@ -253,25 +296,36 @@ public class RaptorWorkerTimetable implements Serializable {
 
         // Filter down the trips to only those running during the window
         // This filtering can reduce number of trips and run time by 80 percent
+        // Trips of the previous day that are still running after midnight are shifted back by one day.
         BitSet servicesRunning = window.servicesRunning;
-        List<TripTimes> tripTimes = Lists.newArrayList();
-        TT: for (TripTimes tt : pattern.scheduledTimetable.tripTimes) {
-            if (servicesRunning.get(tt.serviceCode) &&
-                    tt.getArrivalTime(0) < window.to &&
-                    tt.getDepartureTime(tt.getNumStops() - 1) >= window.from) {
-
-                // apply scenario
-                // TODO: need to do this before filtering based on window!
-                if (scenario != null && scenario.modifications != null) {
-                    for (TripFilter filter : Iterables.filter(scenario.modifications, TripFilter.class)) {
-                        tt = filter.apply(tt.trip, pattern, tt);
+        int[] dayOffsets = window.servicesRunningPreviousDay == null ? new int[] { 0 } : new int[] { 0, -SECONDS_PER_DAY };
+        List<int[]> timesPerTrip = Lists.newArrayList();
+        for (TripTimes tt0 : pattern.scheduledTimetable.tripTimes) {
+            TT: for (int offset : dayOffsets) {
+                BitSet services = offset == 0 ? servicesRunning : window.servicesRunningPreviousDay;
+                TripTimes tt = tt0;
+                if (services.get(tt.serviceCode) &&
+                        tt.getArrivalTime(0) + offset < window.to &&
+                        tt.getDepartureTime(tt.getNumStops() - 1) + offset >= window.from) {
+
+                    // apply scenario
+                    // TODO: need to do this before filtering based on window!
+                    if (scenario != null && scenario.modifications != null) {
+                        for (TripFilter filter : Iterables.filter(scenario.modifications, TripFilter.class)) {
+                            tt = filter.apply(tt.trip, pattern, tt);
+
+                            if (tt == null)
+                                continue TT;
+                        }
+                    }
 
-                        if (tt == null)
-                            continue TT;
+                    int[] times = new int[tt.getNumStops() * 2];
+                    for (int s = 0; s < tt.getNumStops(); s++) {
+                        times[s * 2] = tt.getArrivalTime(s) + offset;
+                        times[s * 2 + 1] = tt.getDepartureTime(s) + offset;
                     }
+                    timesPerTrip.add(times);
                 }
-
-                tripTimes.add(tt);
             }
         }
 
@@ -302,34 +356,24 @@ public class RaptorWorkerTimetable implements Serializable {
             }
         }
 
-        if (tripTimes.isEmpty() && freqs.isEmpty()) {
+        if (timesPerTrip.isEmpty() && freqs.isEmpty()) {
             return null; // no trips active, don't bother storing a timetable
         }
 
 
-        // Sort the trip times by their first arrival time
-        Collections.sort(tripTimes, new Comparator<TripTimes>() {
+        // Sort the trips by their first arrival time
+        Collections.sort(timesPerTrip, new Comparator<int[]>() {
             @Override
-            public int compare(TripTimes tt1, TripTimes tt2) {
-                return (tt1.getArrivalTime(0) - tt2.getArrivalTime(0));
+            public int compare(int[] times1, int[] times2) {
+                return (times1[0] - times2[0]);
             }
         });
 
         // Copy the times into the compacted table
-        RaptorWorkerTimetable rwtt = new RaptorWorkerTimetable(tripTimes.size(), pattern.getStops().size());
-        int t = 0;
-        for (TripTimes tt : tripTimes) {
-            int[] times = new int[rwtt.nStops * 2];
-            for (int s = 0; s < pattern.getStops().size(); s++) {
-                int arrival = tt.getArrivalTime(s);
-                int departure = tt.getDepartureTime(s);
-                times[s * 2] = arrival;
-                times[s * 2 + 1] = departure;
-            }
-            rwtt.timesPerTrip[t++] = times;
-        }
+        RaptorWorkerTimetable rwtt = new RaptorWorkerTimetable(timesPerTrip.size(), pattern.getStops().size());
 
-        ts.scheduledTripCount += rwtt.timesPerTrip.length;
+        ts.scheduledTripCount += rwtt.nTrips;
+        rwtt.pack(timesPerTrip.toArray(new int[rwtt.nTrips][]));
 
         // save frequency times
         rwtt.frequencyTrips = new int[freqs.size()][pattern.getStops().size() * 2];
@@ -396,12 +440,14 @@ public class RaptorWorkerTimetable implements Serializable {
         RaptorWorkerTimetable rwtt = new RaptorWorkerTimetable(timetables.size(), atp.temporaryStops.length);
 
         // create timetabled trips
+        int[][] timesPerTrip = new int[rwtt.nTrips][];
         int t = 0;
         for (AddTripPattern.PatternTimetable pt : timetables) {
-            rwtt.timesPerTrip[t++] = timesForPatternTimetable(atp, pt);
+            timesPerTrip[t++] = timesForPatternTimetable(atp, pt);
         }
 
-        ts.scheduledTripCount += rwtt.timesPerTrip.length;
+        ts.scheduledTripCount += rwtt.nTrips;
+        rwtt.pack(timesPerTrip);
 
         // create frequency trips
         rwtt.frequencyTrips = new int[frequencies.size()][atp.temporaryStops.length * 2];
@@ -1,19 +1,20 @@
 package org.opentripplanner.profile;
 
-import com.beust.jcommander.internal.Maps;
-
-import org.opentripplanner.routing.algorithm.AStar;
-import org.opentripplanner.routing.core.RoutingRequest;
-import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.algorithm.CompactStreetSearch;
 import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.graph.CompactStreetGraph;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
-import org.opentripplanner.routing.spt.DominanceFunction;
-import org.opentripplanner.routing.spt.ShortestPathTree;
 import org.opentripplanner.routing.vertextype.TransitStop;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -21,56 +22,149 @@ import java.util.Map;
  * This allows us to propagate travel times out from transit to streets much faster in one-to-many analyst queries.
  * The StopTreeCache has a fixed distance cutoff, so will be unable to provide distance information for vertices beyond
  * that cutoff distance.
+ *
+ * The distances are stored in compressed sparse row form: the entries of each stop are contiguous in two flat arrays
+ * of vertex positions and distances. This can be built by the StopTreeCacheModule and saved with the graph, so that it
+ * does not have to be computed when the server or an analyst worker starts. Vertex indices are not preserved when a
+ * graph is saved and loaded, so vertices are referred to by their position in an array of vertices, which is mapped
+ * to vertex indices when the graph is indexed.
  */
-public class StopTreeCache {
+public class StopTreeCache implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     private static final Logger LOG = LoggerFactory.getLogger(StopTreeCache.class);
+
     final int maxWalkMeters;
-    // Flattened 2D array of (streetVertexIndex, distanceFromStop) for each TransitStop
-    public final Map<TransitStop, int[]> distancesForStop = Maps.newHashMap();
+
+    /** The transit stops, in the order of their entries. */
+    private final TransitStop[] stops;
+
+    /** All the vertices within the cutoff distance of any stop. */
+    private final Vertex[] vertices;
+
+    /** The entries of the stop at position s are at positions firstEntry[s] until firstEntry[s + 1]. */
+    private final int[] firstEntry;
+
+    /** For each entry, the position of the vertex in the vertices array. */
+    private final int[] entryVertex;
+
+    /** For each entry, the walking distance in meters from the stop to the vertex. */
+    private final int[] entryDistance;
+
+    /** The position of each stop in the stops array. */
+    private transient Map<TransitStop, Integer> positionForStop;
+
+    /** For each entry, the current index of the vertex. */
+    private transient int[] entryVertexIndex;
 
     public StopTreeCache (Graph graph, int maxWalkMeters) {
+        this(graph.index.getCompactStreetGraph(), graph.index.stopVertexForStop.values(), maxWalkMeters);
+    }
+
+    public StopTreeCache (CompactStreetGraph streets, Collection<TransitStop> transitStops, int maxWalkMeters) {
         this.maxWalkMeters = maxWalkMeters;
         LOG.info("Caching distances to nearby street intersections from each transit stop...");
-        graph.index.stopVertexForStop.values().parallelStream().forEach(tstop -> {
-            RoutingRequest rr = new RoutingRequest(TraverseMode.WALK);
-            rr.batch = (true);
-            rr.setRoutingContext(graph, tstop, tstop);
-            AStar astar = new AStar();
-            rr.longDistance = true;
-            rr.setNumItineraries(1);
-
-            // since we're storing distances and later using them to optimize
-            // (in the profile propagation code we optimize on distance / walkSpeed
-            //  not the actual time including turn costs etc.),
-            // we need to optimize on distance here as well.
-            rr.maxWalkDistance = maxWalkMeters;
-            rr.softWalkLimiting = false;
-            rr.dominanceFunction = new DominanceFunction.LeastWalk();
-
-            ShortestPathTree spt = astar.getShortestPathTree(rr, 5); // timeout in seconds
-            // Copy vertex indices and distances into a flattened 2D array
-            int[] distances = new int[spt.getVertexCount() * 2];
-            int i = 0;
-            for (Vertex vertex : spt.getVertices()) {
-                State state = spt.getState(vertex);
-                
-                if (state == null)
-                    continue;
-                
-                distances[i++] = vertex.getIndex();
-                distances[i++] = (int) state.getWalkDistance();
+        stops = transitStops.toArray(new TransitStop[transitStops.size()]);
+        // Since we're storing distances and later using them to optimize (in the profile propagation code we optimize
+        // on distance / walkSpeed, not the actual time including turn costs etc.), we need to optimize on distance here
+        // as well. This is a walk-only search, so it can run on the compact street graph, with one search per thread
+        // reusing its arrays from one stop to the next.
+        ThreadLocal<CompactStreetSearch> searches = ThreadLocal.withInitial(() -> {
+            CompactStreetSearch search = new CompactStreetSearch(streets);
+            search.mode = TraverseMode.WALK;
+            search.minimizeDistance = true;
+            search.maxDistance = maxWalkMeters;
+            return search;
+        });
+        Vertex[][] reachedForStop = new Vertex[stops.length][];
+        int[][] distancesForStop = new int[stops.length][];
+        Arrays.parallelSetAll(reachedForStop, s -> {
+            CompactStreetSearch search = searches.get();
+            search.search(stops[s]);
+            Vertex[] reached = new Vertex[search.getReachedCount()];
+            int[] distances = new int[search.getReachedCount()];
+            for (int r = 0; r < reached.length; r++) {
+                reached[r] = search.getReachedVertex(r);
+                distances[r] = (int) search.getReachedDistance(r);
             }
+            distancesForStop[s] = distances;
+            return reached;
+        });
 
-            rr.cleanup();
-
-            synchronized (distancesForStop) {
-                distancesForStop.put(tstop, distances);
+        // Concatenate the results of all the stops, numbering the vertices as they are first seen.
+        int nEntries = 0;
+        for (Vertex[] reached : reachedForStop) nEntries += reached.length;
+        firstEntry = new int[stops.length + 1];
+        entryVertex = new int[nEntries];
+        entryDistance = new int[nEntries];
+        Map<Vertex, Integer> positionForVertex = new IdentityHashMap<>();
+        List<Vertex> vertexList = new ArrayList<>();
+        int e = 0;
+        for (int s = 0; s < stops.length; s++) {
+            firstEntry[s] = e;
+            for (int r = 0; r < reachedForStop[s].length; r++) {
+                Vertex v = reachedForStop[s][r];
+                Integer position = positionForVertex.get(v);
+                if (position == null) {
+                    position = vertexList.size();
+                    positionForVertex.put(v, position);
+                    vertexList.add(v);
+                }
+                entryVertex[e] = position;
+                entryDistance[e] = distancesForStop[s][r];
+                e++;
             }
-        });
+        }
+        firstEntry[stops.length] = e;
+        vertices = vertexList.toArray(new Vertex[vertexList.size()]);
+        index();
         LOG.info("Done caching distances to nearby street intersections from each transit stop.");
     }
 
+    /**
+     * Rebuild the transient lookup tables. This must be called whenever vertex indices may have changed, i.e. after the
+     * graph is loaded, see Graph.index().
+     */
+    public void index () {
+        Map<TransitStop, Integer> positionForStop = new IdentityHashMap<>();
+        for (int s = 0; s < stops.length; s++) {
+            positionForStop.put(stops[s], s);
+        }
+        int[] entryVertexIndex = new int[entryVertex.length];
+        for (int e = 0; e < entryVertex.length; e++) {
+            entryVertexIndex[e] = vertices[entryVertex[e]].getIndex();
+        }
+        this.positionForStop = positionForStop;
+        this.entryVertexIndex = entryVertexIndex;
+    }
+
+    /** @return the cutoff distance in meters beyond which vertices are not in this cache. */
+    public int getMaxWalkMeters () {
+        return maxWalkMeters;
+    }
+
+    /** @return the transit stops for which distances are known. */
+    public List<TransitStop> getStops () {
+        return Arrays.asList(stops);
+    }
+
+    /**
+     * @return a flattened 2D array of (streetVertexIndex, distanceFromStop) for each vertex within the cutoff distance
+     * of the given stop, or null if the stop is not in this cache.
+     */
+    public int[] getDistancesForStop (TransitStop transitStop) {
+        Integer s = positionForStop.get(transitStop);
+        if (s == null) return null;
+        int[] distances = new int[(firstEntry[s + 1] - firstEntry[s]) * 2];
+        int i = 0;
+        for (int e = firstEntry[s]; e < firstEntry[s + 1]; e++) {
+            distances[i++] = entryVertexIndex[e];
+            distances[i++] = entryDistance[e];
+        }
+        return distances;
+    }
+
     /**
      * Given a travel time to a transit stop, fill in the array with minimum travel times to all nearby street vertices.
      * This function is meant to be called repeatedly on multiple transit stops, accumulating minima
@@ -79,12 +173,10 @@ public class StopTreeCache {
     public void propagateStop(TransitStop transitStop, int baseTimeSeconds, double walkSpeed, int[] targetArray) {
         // Iterate over street intersections in the vicinity of this particular transit stop.
         // Shift the time range at this transit stop, merging it into that for all reachable street intersections.
-        int[] distances = distancesForStop.get(transitStop);
-        int v = 0;
-        while (v < distances.length) {
-            // Unravel flattened 2D array
-            int vertexIndex = distances[v++];
-            int distance = distances[v++];
+        int s = positionForStop.get(transitStop);
+        for (int e = firstEntry[s]; e < firstEntry[s + 1]; e++) {
+            int vertexIndex = entryVertexIndex[e];
+            int distance = entryDistance[e];
             // distance in meters over walkspeed in meters per second --> seconds
             int egressWalkTimeSeconds = (int) (distance / walkSpeed);
             int propagated_time = baseTimeSeconds + egressWalkTimeSeconds;
@@ -7,6 +7,8 @@ public class TimeWindow {
     int from;
     int to;
     BitSet servicesRunning;
+    /** Services running on the previous day, whose trips are used with their times shifted back by one day. */
+    BitSet servicesRunningPreviousDay;
     DayOfWeek dayOfWeek;
 
     public TimeWindow(int from, int to, BitSet servicesRunning) {
@@ -14,9 +16,15 @@ public class TimeWindow {
     }
 
     public TimeWindow(int from, int to, BitSet servicesRunning, DayOfWeek dayOfWeek) {
+        this(from, to, servicesRunning, null, dayOfWeek);
+    }
+
+    public TimeWindow(int from, int to, BitSet servicesRunning, BitSet servicesRunningPreviousDay,
+            DayOfWeek dayOfWeek) {
 		this.from = from;
 		this.to = to;
 		this.servicesRunning = servicesRunning;
+        this.servicesRunningPreviousDay = servicesRunningPreviousDay;
         this.dayOfWeek = dayOfWeek;
 	}
     
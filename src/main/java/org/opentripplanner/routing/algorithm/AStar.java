@@ -26,6 +26,7 @@ import org.opentripplanner.routing.core.RoutingContext;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.GraphGeneration;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.spt.*;
 import org.opentripplanner.util.DateUtils;
@@ -54,6 +55,9 @@ public class AStar {
 
     private TraverseVisitor traverseVisitor;
 
+    /** If set, the priority queue and SPT state storage are taken from this context rather than allocated anew. */
+    private SearchContext searchContext;
+
     enum RunStatus {
         RUNNING, STOPPED
     }
@@ -109,7 +113,9 @@ public class AStar {
 
         runState = new RunState( options, terminationStrategy );
         runState.rctx = options.getRoutingContext();
-        runState.spt = options.getNewShortestPathTree();
+        runState.spt = searchContext != null ?
+                searchContext.getNewShortestPathTree(options) :
+                options.getNewShortestPathTree();
 
         // We want to reuse the heuristic instance in a series of requests for the same target to avoid repeated work.
         // "Batch" means one-to-many mode, where there is no goal to reach so we use a trivial heuristic.
@@ -134,7 +140,9 @@ public class AStar {
         // before reaching its target.
         int initialSize = runState.rctx.graph.getVertices().size();
         initialSize = (int) Math.ceil(2 * (Math.sqrt((double) initialSize + 1)));
-        runState.pq = new BinHeap<>(initialSize);
+        runState.pq = searchContext != null ?
+                searchContext.getQueue(initialSize) :
+                new BinHeap<>(initialSize);
         runState.nVisited = 0;
         runState.targetAcceptedStates = Lists.newArrayList();
         
@@ -177,7 +185,8 @@ public class AStar {
 
         runState.nVisited += 1;
         
-        Collection<Edge> edges = runState.options.arriveBy ? runState.u_vertex.getIncoming() : runState.u_vertex.getOutgoing();
+        GraphGeneration generation = runState.rctx.generation;
+        Collection<Edge> edges = runState.options.arriveBy ? runState.u_vertex.getIncoming(generation) : runState.u_vertex.getOutgoing(generation);
         for (Edge edge : edges) {
 
             // Iterate over traversal results. When an edge leads nowhere (as indicated by
@@ -357,6 +366,14 @@ public class AStar {
         this.traverseVisitor = traverseVisitor;
     }
 
+    /**
+     * Reuse the data structures in the given context for subsequent searches. The SPTs returned by this instance are
+     * then only valid until its next search, or until the context is released.
+     */
+    public void setSearchContext(SearchContext searchContext) {
+        this.searchContext = searchContext;
+    }
+
     public List<GraphPath> getPathsToTarget() {
         List<GraphPath> ret = new LinkedList<>();
         for (State s : runState.targetAcceptedStates) {
@@ -0,0 +1,194 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm;
+
+import gnu.trove.list.array.TIntArrayList;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.graph.CompactStreetGraph;
+import org.opentripplanner.routing.graph.Vertex;
+
+import java.util.Arrays;
+
+/**
+ * A one-to-many Dijkstra search on a CompactStreetGraph, using a single street mode. It works entirely on primitive
+ * arrays: there are no State objects, and the arrays are reused from one search to the next, so a search costs time in
+ * proportion to the part of the graph it explores rather than to the size of the graph. An instance is not thread
+ * safe; give each thread its own.
+ *
+ * Paths minimize either distance or travel time. Walking and cycling use a constant speed, driving uses the speed
+ * limit of each edge. Turn restrictions, turn costs and elevation are not taken into account.
+ */
+public class CompactStreetSearch {
+
+    private final CompactStreetGraph graph;
+
+    /** The mode of travel, which must be WALK, BICYCLE or CAR. */
+    public TraverseMode mode = TraverseMode.WALK;
+
+    /** Speed in meters per second when walking or cycling. Driving uses the speed limit of each edge. */
+    public double speed = 1.33;
+
+    /** If true find the shortest paths, otherwise the fastest. */
+    public boolean minimizeDistance = true;
+
+    /** Do not explore beyond this distance in meters. */
+    public double maxDistance = Double.POSITIVE_INFINITY;
+
+    /** Do not explore beyond this travel time in seconds. */
+    public double maxDuration = Double.POSITIVE_INFINITY;
+
+    /** Only use edges that are accessible in a wheelchair, and no stairs. */
+    public boolean wheelchairAccessible = false;
+
+    /** The distance in meters to each vertex by position, or infinity if it has not been reached. */
+    private final double[] distance;
+
+    /** The travel time in seconds to each vertex by position, or infinity if it has not been reached. */
+    private final double[] duration;
+
+    /** The positions of all the vertices reached by the last search, in the order they were reached. */
+    private final TIntArrayList reached = new TIntArrayList();
+
+    /** A binary heap of vertex positions keyed on weight. Entries are not removed when improved, see search(). */
+    private int[] heapPositions = new int[64];
+    private double[] heapKeys = new double[64];
+    private int heapSize = 0;
+
+    public CompactStreetSearch (CompactStreetGraph graph) {
+        this.graph = graph;
+        distance = new double[graph.getVertexCount()];
+        duration = new double[graph.getVertexCount()];
+        Arrays.fill(distance, Double.POSITIVE_INFINITY);
+        Arrays.fill(duration, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Search outward from the given vertex, replacing the results of any previous search.
+     * @throws IllegalArgumentException if the vertex is not in the compact street graph.
+     */
+    public void search (Vertex origin) {
+        int originPosition = graph.position(origin);
+        if (originPosition < 0) {
+            throw new IllegalArgumentException("Vertex is not in the compact street graph: " + origin);
+        }
+        // Only reset the vertices touched by the last search.
+        for (int i = 0; i < reached.size(); i++) {
+            distance[reached.get(i)] = Double.POSITIVE_INFINITY;
+            duration[reached.get(i)] = Double.POSITIVE_INFINITY;
+        }
+        reached.resetQuick();
+        heapSize = 0;
+
+        int permissionMask = CompactStreetGraph.permissionMask(mode);
+        boolean driving = mode == TraverseMode.CAR;
+        distance[originPosition] = 0;
+        duration[originPosition] = 0;
+        reached.add(originPosition);
+        insert(originPosition, 0);
+        while (heapSize > 0) {
+            double key = heapKeys[0];
+            int p = extractMin();
+            // The same vertex may be in the heap several times, only the entry with the current weight is valid.
+            if (key > (minimizeDistance ? distance[p] : duration[p])) continue;
+            if (p != originPosition && !graph.isThrough(p)) continue;
+            for (int e = graph.getFirstEdge(p); e < graph.getEndEdge(p); e++) {
+                if (!graph.allows(e, permissionMask)) continue;
+                if (wheelchairAccessible && (graph.isStairs(e) || !graph.isWheelchairAccessible(e))) continue;
+                double length = graph.getEdgeLengthMm(e) / 1000.0;
+                double newDistance = distance[p] + length;
+                double newDuration = duration[p] + length / (driving ? graph.getEdgeCarSpeed(e) : speed);
+                if (newDistance > maxDistance || newDuration > maxDuration) continue;
+                int q = graph.getEdgeTarget(e);
+                double newWeight = minimizeDistance ? newDistance : newDuration;
+                double oldWeight = minimizeDistance ? distance[q] : duration[q];
+                if (newWeight < oldWeight) {
+                    if (Double.isInfinite(oldWeight)) reached.add(q);
+                    distance[q] = newDistance;
+                    duration[q] = newDuration;
+                    insert(q, newWeight);
+                }
+            }
+        }
+    }
+
+    /** @return the number of vertices reached by the last search, including the origin. */
+    public int getReachedCount () {
+        return reached.size();
+    }
+
+    /** @return the i-th vertex reached by the last search. */
+    public Vertex getReachedVertex (int i) {
+        return graph.getVertex(reached.get(i));
+    }
+
+    /** @return the distance in meters to the i-th vertex reached by the last search. */
+    public double getReachedDistance (int i) {
+        return distance[reached.get(i)];
+    }
+
+    /** @return the travel time in seconds to the i-th vertex reached by the last search. */
+    public double getReachedDuration (int i) {
+        return duration[reached.get(i)];
+    }
+
+    /** @return the distance in meters to the given vertex in the last search, or infinity if it was not reached. */
+    public double getDistance (Vertex v) {
+        int p = graph.position(v);
+        return p < 0 ? Double.POSITIVE_INFINITY : distance[p];
+    }
+
+    /** @return the travel time in seconds to the given vertex in the last search, or infinity if it was not reached. */
+    public double getDuration (Vertex v) {
+        int p = graph.position(v);
+        return p < 0 ? Double.POSITIVE_INFINITY : duration[p];
+    }
+
+    private void insert (int position, double key) {
+        if (heapSize == heapPositions.length) {
+            heapPositions = Arrays.copyOf(heapPositions, heapSize * 2);
+            heapKeys = Arrays.copyOf(heapKeys, heapSize * 2);
+        }
+        int i = heapSize++;
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (heapKeys[parent] <= key) break;
+            heapPositions[i] = heapPositions[parent];
+            heapKeys[i] = heapKeys[parent];
+            i = parent;
+        }
+        heapPositions[i] = position;
+        heapKeys[i] = key;
+    }
+
+    private int extractMin () {
+        int min = heapPositions[0];
+        heapSize--;
+        int lastPosition = heapPositions[heapSize];
+        double lastKey = heapKeys[heapSize];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) break;
+            if (child + 1 < heapSize && heapKeys[child + 1] < heapKeys[child]) child++;
+            if (lastKey <= heapKeys[child]) break;
+            heapPositions[i] = heapPositions[child];
+            heapKeys[i] = heapKeys[child];
+            i = child;
+        }
+        heapPositions[i] = lastPosition;
+        heapKeys[i] = lastKey;
+        return min;
+    }
+
+}
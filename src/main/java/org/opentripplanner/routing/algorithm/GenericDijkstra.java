@@ -97,7 +97,8 @@ public class GenericDijkstra {
                 break;
             }
 
-            for (Edge edge : options.arriveBy ? u_vertex.getIncoming() : u_vertex.getOutgoing()) {
+            for (Edge edge : options.arriveBy ? u_vertex.getIncoming(u.getGeneration()) :
+                    u_vertex.getOutgoing(u.getGeneration())) {
                 if (skipEdgeStrategy != null &&
                     skipEdgeStrategy.shouldSkipEdge(initialState.getVertex(), null, u, edge, spt, options)) {
                     continue;
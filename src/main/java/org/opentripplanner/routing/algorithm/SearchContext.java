@@ -0,0 +1,96 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm;
+
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.spt.VertexStateMap;
+
+/**
+ * The large data structures used by an AStar search (the priority queue and the per-vertex state storage of the
+ * shortest path tree), kept so they can be reused from one search to the next instead of being reallocated for
+ * every search. One context is pooled per thread; use acquire() and release() around a series of searches.
+ *
+ * An SPT produced using a context is only valid until the next search begins or the context is released, so callers
+ * must extract any paths they need before then. This is the case in GraphPathFinder, which keeps only GraphPaths.
+ */
+public class SearchContext {
+
+    private static final ThreadLocal<SearchContext> POOL = new ThreadLocal<SearchContext>() {
+        @Override
+        protected SearchContext initialValue() {
+            return new SearchContext(true);
+        }
+    };
+
+    private final boolean pooled;
+
+    private boolean inUse = false;
+
+    private BinHeap<State> queue;
+
+    private VertexStateMap stateMap;
+
+    private SearchContext(boolean pooled) {
+        this.pooled = pooled;
+    }
+
+    /**
+     * @return this thread's pooled search context, or a fresh non-pooled one if the pooled context is already in use
+     * higher up the stack (for example by a nested search).
+     */
+    public static SearchContext acquire() {
+        SearchContext context = POOL.get();
+        if (context.inUse) {
+            context = new SearchContext(false);
+        }
+        context.inUse = true;
+        return context;
+    }
+
+    /** Return this context to the pool, dropping references to the states of the last search so they can be GCed. */
+    public void release() {
+        if (queue != null) queue.clear();
+        if (stateMap != null) stateMap.clear();
+        inUse = false;
+    }
+
+    /** @return an empty priority queue, reused from the previous search if there was one. */
+    BinHeap<State> getQueue(int initialSize) {
+        if (queue == null) {
+            queue = new BinHeap<>(initialSize);
+        } else {
+            queue.clear();
+        }
+        return queue;
+    }
+
+    /** @return a new SPT for the given request, backed by the state storage of the previous search if there was one. */
+    ShortestPathTree getNewShortestPathTree(RoutingRequest options) {
+        if (stateMap == null) {
+            stateMap = new VertexStateMap(Vertex.getMaxIndex());
+        } else {
+            stateMap.clear(Vertex.getMaxIndex());
+        }
+        return options.dominanceFunction.getNewShortestPathTree(options, stateMap);
+    }
+
+    public boolean isPooled() {
+        return pooled;
+    }
+
+}
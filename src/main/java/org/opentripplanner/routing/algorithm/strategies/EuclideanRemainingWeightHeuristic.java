@@ -53,8 +53,8 @@ public class EuclideanRemainingWeightHeuristic implements RemainingWeightHeurist
         maxStreetSpeed = req.getStreetSpeedUpperBound();
         maxTransitSpeed = req.getTransitSpeedUpperBound();
 
-        if (target.getDegreeIn() == 1) {
-            Edge edge = Iterables.getOnlyElement(target.getIncoming());
+        if (target.getDegreeIn(req.rctx.generation) == 1) {
+            Edge edge = Iterables.getOnlyElement(target.getIncoming(req.rctx.generation));
             if (edge instanceof FreeEdge) {
                 target = edge.getFromVertex();
             }
@@ -164,7 +164,8 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
 //                    Double.isInfinite(uw) ? -1.0 : uw);
 
             // OUTgoing for heuristic search when main search is arriveBy 
-            for (Edge e : options.arriveBy ? u.getOutgoing() : u.getIncoming()) {
+            for (Edge e : options.arriveBy ? u.getOutgoing(options.rctx.generation) :
+                    u.getIncoming(options.rctx.generation)) {
                 // Do not enter streets in this phase.
                 if (e instanceof StreetTransitLink) continue;
                 Vertex v = options.arriveBy ? e.getToVertex() : e.getFromVertex();
@@ -313,7 +314,7 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
                 }
             }
             // FIXME should only traverse when state is better than old_weight
-            for (Edge e : rr.arriveBy ? v.getIncoming() : v.getOutgoing()) {
+            for (Edge e : rr.arriveBy ? v.getIncoming(s.getGeneration()) : v.getOutgoing(s.getGeneration())) {
                 // arriveBy has been set to match actual directional behavior in this subsearch
                 State s1 = e.traverse(s);
                 if (s1 == null)
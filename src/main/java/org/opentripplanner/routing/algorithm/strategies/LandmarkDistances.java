@@ -0,0 +1,290 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm.strategies;
+
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.TransitStationStop;
+import org.opentripplanner.routing.vertextype.TransitVertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * Precomputed street network distances to and from a small set of landmark vertices, for the ALT (A*, landmarks and
+ * triangle inequality) goal direction heuristic, see LandmarkRemainingWeightHeuristic. By the triangle inequality, the
+ * network distance from v to t is at least d(L, t) - d(L, v) and at least d(v, L) - d(t, L) for every landmark L.
+ * Landmarks on the far side of a river or a hill from the origin give much tighter bounds than straight-line distance.
+ *
+ * Distances are in meters, on all edges that can be used without riding transit, regardless of the permissions of
+ * any particular mode. Only street edges count toward the distance, other edges are free. Since any search uses a
+ * subset of these edges at their full length, these distances are lower bounds on the length of any path a street
+ * search can find.
+ *
+ * Vertex indices are reassigned when a graph is loaded, so the vertices are stored along with the distances, and the
+ * mapping from vertex index to position in the tables is rebuilt by index().
+ */
+public class LandmarkDistances implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOG = LoggerFactory.getLogger(LandmarkDistances.class);
+
+    /** The vertices covered by the tables, in the order of the tables. */
+    private final Vertex[] vertices;
+
+    /** The landmarks chosen, for debugging. */
+    public final Vertex[] landmarks;
+
+    /** For each landmark, the distance from that landmark to each vertex, or infinity if it cannot be reached. */
+    private final float[][] distancesFrom;
+
+    /** For each landmark, the distance from each vertex to that landmark, or infinity if it cannot be reached. */
+    private final float[][] distancesTo;
+
+    /** The street modes for which the landmark heuristic should be used, see LandmarkRemainingWeightHeuristic. */
+    public final Set<TraverseMode> modes;
+
+    /** The smallest bicycle safety factor of any street edge, used to keep the heuristic admissible for cyclists. */
+    public final double minBicycleSafetyFactor;
+
+    /** The position of each vertex in the tables, by vertex index, or -1. Rebuilt after the graph is loaded. */
+    private transient int[] positionForIndex;
+
+    private LandmarkDistances (Vertex[] vertices, Vertex[] landmarks, float[][] distancesFrom, float[][] distancesTo,
+            Set<TraverseMode> modes, double minBicycleSafetyFactor) {
+        this.vertices = vertices;
+        this.landmarks = landmarks;
+        this.distancesFrom = distancesFrom;
+        this.distancesTo = distancesTo;
+        this.modes = modes;
+        this.minBicycleSafetyFactor = minBicycleSafetyFactor;
+        index();
+    }
+
+    /** Rebuild the mapping from vertex indices to positions in the tables. Must be called after the graph is loaded. */
+    public void index () {
+        int maxIndex = 0;
+        for (Vertex v : vertices) maxIndex = Math.max(maxIndex, v.getIndex());
+        int[] positions = new int[maxIndex + 1];
+        Arrays.fill(positions, -1);
+        for (int p = 0; p < vertices.length; p++) {
+            positions[vertices[p].getIndex()] = p;
+        }
+        positionForIndex = positions;
+    }
+
+    /** @return the position of the given vertex in the tables, or -1 if it is not covered (e.g. temporary vertices). */
+    public int position (Vertex v) {
+        int index = v.getIndex();
+        if (index >= positionForIndex.length) return -1;
+        int position = positionForIndex[index];
+        // Temporary vertices may reuse an index with no relation to the vertex that had it when the table was made.
+        if (position < 0 || vertices[position] != v) return -1;
+        return position;
+    }
+
+    public int getLandmarkCount () {
+        return landmarks.length;
+    }
+
+    /** @return the network distance in meters from the given landmark to the vertex at the given position. */
+    public float getDistanceFrom (int landmark, int position) {
+        return distancesFrom[landmark][position];
+    }
+
+    /** @return the network distance in meters from the vertex at the given position to the given landmark. */
+    public float getDistanceTo (int landmark, int position) {
+        return distancesTo[landmark][position];
+    }
+
+    /**
+     * @return a lower bound on the network distance in meters from the vertex at position a to the vertex at
+     * position b.
+     */
+    public double lowerBound (int a, int b) {
+        double bound = 0;
+        for (int l = 0; l < landmarks.length; l++) {
+            bound = Math.max(bound, difference(distancesFrom[l][b], distancesFrom[l][a]));
+            bound = Math.max(bound, difference(distancesTo[l][a], distancesTo[l][b]));
+        }
+        return bound;
+    }
+
+    /** @return x - y, or zero if either is infinite, in which case the triangle inequality says nothing. */
+    static double difference (float x, float y) {
+        if (Float.isInfinite(x) || Float.isInfinite(y)) return 0;
+        return x - y;
+    }
+
+    /** @return true if the given edge can be used by a search that does not ride transit. */
+    static boolean isStreetSearchEdge (Edge edge) {
+        return isStreetSearchVertex(edge.getFromVertex()) && isStreetSearchVertex(edge.getToVertex());
+    }
+
+    private static boolean isStreetSearchVertex (Vertex v) {
+        // Stops and stations can be walked through, the rest of the transit layer can only be reached by boarding.
+        return v != null && (!(v instanceof TransitVertex) || v instanceof TransitStationStop);
+    }
+
+    /**
+     * Choose landmarks and compute the distances to and from them. Landmarks are chosen by the "farthest" method: each
+     * new landmark is the vertex farthest from all the landmarks chosen so far, which tends to spread them around the
+     * edge of the region where they give the best bounds.
+     */
+    public static LandmarkDistances build (Graph graph, int nLandmarks, Set<TraverseMode> modes) {
+        List<Vertex> vertexList = new ArrayList<>();
+        for (Vertex v : graph.getVertices()) {
+            if (isStreetSearchVertex(v)) vertexList.add(v);
+        }
+        Vertex[] vertices = vertexList.toArray(new Vertex[vertexList.size()]);
+        int maxIndex = 0;
+        for (Vertex v : vertices) maxIndex = Math.max(maxIndex, v.getIndex());
+        int[] positionForIndex = new int[maxIndex + 1];
+        Arrays.fill(positionForIndex, -1);
+        for (int p = 0; p < vertices.length; p++) positionForIndex[vertices[p].getIndex()] = p;
+
+        // Pack the edges into forward and reverse adjacency arrays, so that the searches do not touch edge objects.
+        double minBicycleSafetyFactor = 1;
+        int[] outOffsets = new int[vertices.length + 1], inOffsets = new int[vertices.length + 1];
+        List<Edge> edges = new ArrayList<>();
+        for (Vertex v : vertices) {
+            for (Edge e : v.getOutgoing()) {
+                if (!isStreetSearchEdge(e)) continue;
+                edges.add(e);
+                outOffsets[positionForIndex[e.getFromVertex().getIndex()] + 1]++;
+                inOffsets[positionForIndex[e.getToVertex().getIndex()] + 1]++;
+                if (e instanceof StreetEdge) {
+                    minBicycleSafetyFactor = Math.min(minBicycleSafetyFactor, ((StreetEdge) e).getBicycleSafetyFactor());
+                }
+            }
+        }
+        for (int p = 0; p < vertices.length; p++) {
+            outOffsets[p + 1] += outOffsets[p];
+            inOffsets[p + 1] += inOffsets[p];
+        }
+        int[] outTargets = new int[edges.size()], inTargets = new int[edges.size()];
+        float[] outLengths = new float[edges.size()], inLengths = new float[edges.size()];
+        int[] outFill = Arrays.copyOf(outOffsets, vertices.length), inFill = Arrays.copyOf(inOffsets, vertices.length);
+        for (Edge e : edges) {
+            int from = positionForIndex[e.getFromVertex().getIndex()];
+            int to = positionForIndex[e.getToVertex().getIndex()];
+            float length = e instanceof StreetEdge ? (float) e.getDistance() : 0;
+            outTargets[outFill[from]] = to;
+            outLengths[outFill[from]++] = length;
+            inTargets[inFill[to]] = from;
+            inLengths[inFill[to]++] = length;
+        }
+        LOG.info("Computing distances for {} landmarks on {} vertices and {} edges.", nLandmarks, vertices.length,
+                edges.size());
+
+        if (vertices.length == 0) nLandmarks = 0;
+
+        // Choose landmarks one by one, each one as far as possible from those already chosen.
+        float[][] distancesFrom = new float[nLandmarks][];
+        int[] landmarkPositions = new int[nLandmarks];
+        float[] minDistance = new float[vertices.length];
+        Arrays.fill(minDistance, Float.POSITIVE_INFINITY);
+        // Start from the farthest vertex from an arbitrary vertex, which is the first landmark.
+        int candidate = -1;
+        if (nLandmarks > 0) {
+            int seed = new Random(42).nextInt(vertices.length);
+            candidate = farthest(dijkstra(seed, outOffsets, outTargets, outLengths), null);
+        }
+        for (int l = 0; l < nLandmarks; l++) {
+            landmarkPositions[l] = candidate;
+            distancesFrom[l] = dijkstra(candidate, outOffsets, outTargets, outLengths);
+            for (int p = 0; p < vertices.length; p++) {
+                minDistance[p] = Math.min(minDistance[p], distancesFrom[l][p]);
+            }
+            minDistance[candidate] = 0;
+            candidate = farthest(distancesFrom[l], minDistance);
+            if (candidate >= 0 && minDistance[candidate] == 0) candidate = -1;
+            if (candidate < 0) {
+                nLandmarks = l + 1;
+            }
+        }
+        distancesFrom = Arrays.copyOf(distancesFrom, nLandmarks);
+
+        // The reverse searches do not affect the choice of landmarks, run them in parallel.
+        final int[] landmarkPositionsFinal = landmarkPositions;
+        float[][] distancesTo = IntStream.range(0, nLandmarks).parallel()
+                .mapToObj(l -> dijkstra(landmarkPositionsFinal[l], inOffsets, inTargets, inLengths))
+                .toArray(float[][]::new);
+
+        Vertex[] landmarks = new Vertex[nLandmarks];
+        for (int l = 0; l < nLandmarks; l++) {
+            landmarks[l] = vertices[landmarkPositions[l]];
+            LOG.info("Landmark {}: {}", l, landmarks[l]);
+        }
+        return new LandmarkDistances(vertices, landmarks, distancesFrom, distancesTo, modes.isEmpty() ? EnumSet.noneOf(TraverseMode.class) : EnumSet.copyOf(modes),
+                minBicycleSafetyFactor);
+    }
+
+    /**
+     * @param minDistance if not null, the minimum distance from any landmark chosen so far, which is maximized rather
+     * than the distances themselves.
+     * @return the position of the vertex with the largest finite distance, or -1 if no vertex has a finite distance.
+     */
+    private static int farthest (float[] distances, float[] minDistance) {
+        int best = -1;
+        float bestDistance = -1;
+        for (int p = 0; p < distances.length; p++) {
+            if (Float.isInfinite(distances[p])) continue;
+            float d = minDistance == null ? distances[p] : minDistance[p];
+            if (!Float.isInfinite(d) && d > bestDistance) {
+                best = p;
+                bestDistance = d;
+            }
+        }
+        return best;
+    }
+
+    /** A plain Dijkstra search over packed adjacency arrays. @return the distance to each position. */
+    private static float[] dijkstra (int origin, int[] offsets, int[] targets, float[] lengths) {
+        float[] distances = new float[offsets.length - 1];
+        Arrays.fill(distances, Float.POSITIVE_INFINITY);
+        distances[origin] = 0;
+        BinHeap<Integer> queue = new BinHeap<>();
+        queue.insert(origin, 0);
+        while (!queue.empty()) {
+            double distance = queue.peek_min_key();
+            int p = queue.extract_min();
+            // Entries are never removed when a shorter distance is found, skip the stale ones.
+            if (distance > distances[p]) continue;
+            for (int i = offsets[p]; i < offsets[p + 1]; i++) {
+                float d = (float) (distance + lengths[i]);
+                int q = targets[i];
+                if (d < distances[q]) {
+                    distances[q] = d;
+                    queue.insert(q, d);
+                }
+            }
+        }
+        return distances;
+    }
+
+}
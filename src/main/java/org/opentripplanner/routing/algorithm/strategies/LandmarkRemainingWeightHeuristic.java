@@ -0,0 +1,190 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm.strategies;
+
+import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
+import org.opentripplanner.routing.core.OptimizeType;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Vertex;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * A remaining weight heuristic for street searches using precomputed distances to and from landmarks (ALT), see
+ * LandmarkDistances. The estimate is the larger of the landmark bound and the straight-line distance to the target,
+ * converted to weight with the smallest weight per meter any street edge can have for the request. It is therefore
+ * never smaller than the straight-line bound, and much larger where the street network detours around obstacles.
+ *
+ * Like the Euclidean heuristic this does not account for elevation, which can make some edges cheaper than their
+ * length at the maximum speed. Beyond that it is admissible: bicycle safety factors below one are accounted for.
+ *
+ * The temporary vertices at the ends of a search are not in the landmark tables. A temporary target is replaced by
+ * the nearest real vertices through which it can be reached, combining their distances so that the bound holds for
+ * whichever of them the path actually passes through. States at temporary vertices get the straight-line bound.
+ */
+public class LandmarkRemainingWeightHeuristic implements RemainingWeightHeuristic {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Stop looking for real vertices around a temporary target after this many temporary vertices. */
+    private static final int MAX_TEMPORARY_VERTICES = 100;
+
+    /**
+     * The smallest factor by which the bicycle cost model scales the weight of a safe edge beyond its safety factor.
+     * Only the greenway discount in StreetEdge does so; the triangle optimization mixes the safety weight with the
+     * time and slope weights, which are never cheaper than the length at the maximum speed. Multiplying the smallest
+     * safety factor in the graph by this discount keeps the weight per meter at or below that of any actual edge, so
+     * the bound stays admissible.
+     */
+    private static final double MIN_BICYCLE_WEIGHT_FACTOR = StreetEdge.GREENWAY_WEIGHT_FACTOR;
+
+    private final LandmarkDistances distances;
+
+    private boolean arriveBy;
+    private double lat;
+    private double lon;
+    private double weightPerMeter;
+
+    /** For each landmark, the distance from that landmark to the target (or to the origin in an arriveBy search). */
+    private float[] targetFrom;
+
+    /** For each landmark, the distance from the target (or from the origin in an arriveBy search) to that landmark. */
+    private float[] targetTo;
+
+    public LandmarkRemainingWeightHeuristic (LandmarkDistances distances) {
+        this.distances = distances;
+    }
+
+    /**
+     * @return true if landmarks are available for the given request, that is if it does not use transit and landmarks
+     * were computed for its fastest street mode.
+     */
+    public static boolean appliesTo (LandmarkDistances distances, RoutingRequest request) {
+        if (distances == null || distances.getLandmarkCount() == 0 || request.modes.isTransit()) return false;
+        TraverseMode mode = request.modes.getCar() ? TraverseMode.CAR :
+                request.modes.getBicycle() ? TraverseMode.BICYCLE : TraverseMode.WALK;
+        return distances.modes.contains(mode);
+    }
+
+    @Override
+    public void initialize (RoutingRequest options, long abortTime) {
+        Vertex target = options.rctx.target;
+        arriveBy = options.arriveBy;
+        lat = target.getLat();
+        lon = target.getLon();
+        double minReluctance = Math.min(options.walkReluctance, options.stairsReluctance);
+        weightPerMeter = minReluctance / options.getStreetSpeedUpperBound();
+        if (options.modes.getBicycle() && !options.wheelchairAccessible && options.optimize != OptimizeType.QUICK
+                && options.optimize != OptimizeType.FLAT) {
+            // Safe streets are cheaper than their length for cyclists, greenways are cheaper still.
+            weightPerMeter *= Math.min(1, distances.minBicycleSafetyFactor * MIN_BICYCLE_WEIGHT_FACTOR);
+        }
+        int nLandmarks = distances.getLandmarkCount();
+        targetFrom = new float[nLandmarks];
+        targetTo = new float[nLandmarks];
+        int position = distances.position(target);
+        if (position >= 0) {
+            for (int l = 0; l < nLandmarks; l++) {
+                targetFrom[l] = distances.getDistanceFrom(l, position);
+                targetTo[l] = distances.getDistanceTo(l, position);
+            }
+        } else {
+            combineRealNeighbors(target);
+        }
+    }
+
+    /**
+     * Find the real vertices through which a temporary target is reached (or left, in an arriveBy search), and combine
+     * their distances so that each term of the bound is no larger than it would be for any one of them.
+     */
+    private void combineRealNeighbors (Vertex target) {
+        int nLandmarks = distances.getLandmarkCount();
+        // In a forward search the path to the target comes through a real vertex u, and d(v, t) >= d(v, u). The bound
+        // fromL[u] - fromL[v] must hold for all u, so take the smallest fromL[u] and the largest toL[u]. In an arriveBy
+        // search the path leaves the origin through some u, and d(t, v) >= d(u, v), so the roles are swapped.
+        float fill = arriveBy ? Float.NEGATIVE_INFINITY : Float.POSITIVE_INFINITY;
+        for (int l = 0; l < nLandmarks; l++) {
+            targetFrom[l] = fill;
+            targetTo[l] = -fill;
+        }
+        boolean found = false;
+        Set<Vertex> seen = new HashSet<>();
+        Queue<Vertex> queue = new ArrayDeque<>();
+        queue.add(target);
+        seen.add(target);
+        while (!queue.isEmpty() && seen.size() <= MAX_TEMPORARY_VERTICES) {
+            Vertex v = queue.poll();
+            for (Edge e : arriveBy ? v.getOutgoing() : v.getIncoming()) {
+                Vertex u = arriveBy ? e.getToVertex() : e.getFromVertex();
+                if (u == null || !seen.add(u)) continue;
+                int position = distances.position(u);
+                if (position < 0) {
+                    queue.add(u);
+                    continue;
+                }
+                found = true;
+                for (int l = 0; l < nLandmarks; l++) {
+                    float from = distances.getDistanceFrom(l, position);
+                    float to = distances.getDistanceTo(l, position);
+                    targetFrom[l] = arriveBy ? Math.max(targetFrom[l], from) : Math.min(targetFrom[l], from);
+                    targetTo[l] = arriveBy ? Math.min(targetTo[l], to) : Math.max(targetTo[l], to);
+                }
+            }
+        }
+        if (!found || !queue.isEmpty()) {
+            // The target is not connected to the tables, or we gave up looking: fall back on the straight line.
+            for (int l = 0; l < nLandmarks; l++) {
+                targetFrom[l] = Float.POSITIVE_INFINITY;
+                targetTo[l] = Float.POSITIVE_INFINITY;
+            }
+        }
+    }
+
+    @Override
+    public double estimateRemainingWeight (State s) {
+        Vertex v = s.getVertex();
+        double bound = SphericalDistanceLibrary.fastDistance(v.getLat(), v.getLon(), lat, lon);
+        int position = distances.position(v);
+        if (position >= 0) {
+            for (int l = 0; l < targetFrom.length; l++) {
+                float from = distances.getDistanceFrom(l, position);
+                float to = distances.getDistanceTo(l, position);
+                if (arriveBy) {
+                    // Lower bound on the distance from the origin to v.
+                    bound = Math.max(bound, LandmarkDistances.difference(from, targetFrom[l]));
+                    bound = Math.max(bound, LandmarkDistances.difference(targetTo[l], to));
+                } else {
+                    // Lower bound on the distance from v to the target.
+                    bound = Math.max(bound, LandmarkDistances.difference(targetFrom[l], from));
+                    bound = Math.max(bound, LandmarkDistances.difference(to, targetTo[l]));
+                }
+            }
+        }
+        return bound * weightPerMeter;
+    }
+
+    @Override
+    public void reset() {}
+
+    @Override
+    public void doSomeWork() {}
+
+}
@@ -171,7 +171,7 @@ public class WalkConstrainingHeuristic implements RemainingWeightHeuristic {
             // the optimal path may use transit.
             // Without instanceOf check P+R and B+R doesn't work in depart by searches
             vertices.add(v);
-            for (Edge e : rr.arriveBy ? v.getIncoming() : v.getOutgoing()) {
+            for (Edge e : rr.arriveBy ? v.getIncoming(s.getGeneration()) : v.getOutgoing(s.getGeneration())) {
                 // arriveBy has been set to match actual directional behavior in this subsearch
                 State s1 = e.traverse(s);
                 if (s1 == null)
@@ -33,6 +33,7 @@ import org.opentripplanner.routing.error.TransitTimesException;
 import org.opentripplanner.routing.error.VertexNotFoundException;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.GraphGeneration;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.location.StreetLocation;
 import org.opentripplanner.routing.location.TemporaryStreetLocation;
@@ -100,6 +101,9 @@ public class RoutingContext implements Cloneable {
     /** A snapshot of street speeds for looking up real-time or historical traffic data */
     public final StreetSpeedSnapshot streetSpeedSnapshot;
 
+    /** The generation of the graph whose edges this search sees, even if updaters publish newer ones meanwhile. */
+    public final GraphGeneration generation;
+
     /**
      * Cache lists of which transit services run on which midnight-to-midnight periods. This ties a TraverseOptions to a particular start time for the
      * duration of a search so the same options cannot be used for multiple searches concurrently. To do so this cache would need to be moved into
@@ -210,6 +214,7 @@ public class RoutingContext implements Cloneable {
         }
         this.opt = routingRequest;
         this.graph = graph;
+        this.generation = graph.pinGeneration(this);
         this.debugOutput.startedCalculating();
 
         // The following block contains potentially resource-intensive things that are only relevant for transit.
@@ -417,5 +422,6 @@ public class RoutingContext implements Cloneable {
     public void destroy() {
         if (origin instanceof TemporaryVertex) ((TemporaryVertex) origin).dispose();
         if (target instanceof TemporaryVertex) ((TemporaryVertex) target).dispose();
+        graph.unpinGeneration(this);
     }
 }
@@ -358,6 +358,12 @@ public class RoutingRequest implements Cloneable, Serializable {
      */
     public boolean disableRemainingWeightHeuristic = false;
 
+    /**
+     * If true, transit itineraries are found with a single multi-criteria RAPTOR search over the scheduled trips
+     * (see RaptorPathFinder) rather than repeated A* searches with trip banning. Only used for depart-after searches.
+     */
+    public boolean useRaptor = false;
+
     /**
      * The routing context used to actually carry out this search. It is important to build States from TraverseOptions
      * rather than RoutingContexts,and just keep a reference to the context in the TraverseOptions, rather than using
@@ -922,6 +928,7 @@ public class RoutingRequest implements Cloneable, Serializable {
                 && reverseOptimizeOnTheFly == other.reverseOptimizeOnTheFly
                 && ignoreRealtimeUpdates == other.ignoreRealtimeUpdates
                 && disableRemainingWeightHeuristic == other.disableRemainingWeightHeuristic
+                && useRaptor == other.useRaptor
                 && Objects.equal(startingTransitTripId, other.startingTransitTripId)
                 && useTraffic == other.useTraffic;
     }
@@ -952,6 +959,7 @@ public class RoutingRequest implements Cloneable, Serializable {
                 + new Boolean(reverseOptimizeOnTheFly).hashCode() * 95112799
                 + new Boolean(ignoreRealtimeUpdates).hashCode() * 154329
                 + new Boolean(disableRemainingWeightHeuristic).hashCode() * 193939
+                + new Boolean(useRaptor).hashCode() * 472841
                 + new Boolean(useTraffic).hashCode() * 10169;
         if (batch) {
             hashCode *= -1;
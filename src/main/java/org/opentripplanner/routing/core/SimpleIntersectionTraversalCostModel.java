@@ -48,7 +48,7 @@ public class SimpleIntersectionTraversalCostModel extends AbstractIntersectionTr
                                        RoutingRequest options, float fromSpeed, float toSpeed) {
 
         // If the vertex is free-flowing then (by definition) there is no cost to traverse it.
-        if (v.inferredFreeFlowing()) {
+        if (v.inferredFreeFlowing(options.rctx == null ? null : options.rctx.generation)) {
             return 0;
         }
 
@@ -27,6 +27,7 @@ import org.opentripplanner.routing.edgetype.StreetEdge;
 import org.opentripplanner.routing.edgetype.TransitBoardAlight;
 import org.opentripplanner.routing.edgetype.TripPattern;
 import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.GraphGeneration;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.trippattern.TripTimes;
 import org.slf4j.Logger;
@@ -459,6 +460,15 @@ public class State implements Cloneable {
         return stateData.opt.rctx;
     }
 
+    /**
+     * @return the generation of the graph seen by the search this state belongs to, or null if it has no routing
+     * context, in which case the latest generation is used.
+     */
+    public GraphGeneration getGeneration() {
+        RoutingContext rctx = stateData.opt.rctx;
+        return rctx == null ? null : rctx.generation;
+    }
+
     public RoutingRequest getOptions () {
         return stateData.opt;
     }
@@ -579,7 +589,7 @@ public class State implements Cloneable {
     public boolean multipleOptionsBefore() {
         boolean foundAlternatePaths = false;
         TraverseMode requestedMode = getNonTransitMode();
-        for (Edge out : backState.vertex.getOutgoing()) {
+        for (Edge out : backState.vertex.getOutgoing(getGeneration())) {
             if (out == backEdge) {
                 continue;
             }
@@ -601,7 +611,7 @@ public class State implements Cloneable {
             //now, from here, try a continuing path.
             Vertex tov = outState.getVertex();
             boolean found = false;
-            for (Edge out2 : tov.getOutgoing()) {
+            for (Edge out2 : tov.getOutgoing(getGeneration())) {
                 State outState2 = out2.traverse(outState);
                 if (outState2 != null && !outState2.getBackMode().equals(requestedMode)) {
                     // walking a bike, so, not really an exit
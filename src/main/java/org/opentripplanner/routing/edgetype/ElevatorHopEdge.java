@@ -73,6 +73,10 @@ public class ElevatorHopEdge extends Edge implements ElevatorEdge {
         return s1.makeState();
     }
 
+    public StreetTraversalPermission getPermission() {
+        return permission;
+    }
+
     @Override
     public double getDistance() {
         return 0;
@@ -37,6 +37,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.Arrays;
 import java.util.List;
@@ -66,6 +67,9 @@ public class StreetEdge extends Edge implements Cloneable {
 
     private static final double GREENWAY_SAFETY_FACTOR = 0.1;
 
+    /** When optimizing for greenways, the weight of edges at least as safe as a greenway is multiplied by this. */
+    public static final double GREENWAY_WEIGHT_FACTOR = 0.66;
+
     // TODO(flamholz): do something smarter with the car speed here.
     public static final float DEFAULT_CAR_SPEED = 11.2f;
 
@@ -78,15 +82,20 @@ public class StreetEdge extends Edge implements Cloneable {
     private static final int SLOPEOVERRIDE_FLAG_INDEX = 5;
     private static final int WHEELCHAIR_ACCESSIBLE_FLAG_INDEX = 6;
 
+    /*
+     * The fields below are package-private so that StreetEdgeColumns can save and restore them in the binary graph
+     * format without recomputing them.
+     */
+
     /** back, roundabout, stairs, ... */
-    private byte flags;
+    byte flags;
 
     /**
      * Length is stored internally as 32-bit fixed-point (millimeters). This allows edges of up to ~2100km.
      * Distances used in calculations and exposed outside this class are still in double-precision floating point meters.
      * Someday we might want to convert everything to fixed point representations.
      */
-    private int length_mm;
+    int length_mm;
 
     /**
      * bicycleSafetyWeight = length * bicycleSafetyFactor. For example, a 100m street with a safety
@@ -95,31 +104,40 @@ public class StreetEdge extends Edge implements Cloneable {
      */
     protected float bicycleSafetyFactor;
 
-    private int[] compactGeometry;
+    /** Null when the geometry is in geometryTable. */
+    int[] compactGeometry;
+
+    /**
+     * When the graph was loaded from the binary graph format, the geometries are kept in a table shared by all street
+     * edges (mapped from the graph file when possible) and read from it on demand. See CompactGeometryTable.
+     */
+    transient CompactGeometryTable geometryTable;
+
+    int geometryNumber;
     
-    private I18NString name;
+    I18NString name;
 
-    private StreetTraversalPermission permission;
+    StreetTraversalPermission permission;
 
     /** The OSM way ID from whence this came - needed to reference traffic data */
     public long wayId;
 
-    private int streetClass = CLASS_OTHERPATH;
+    int streetClass = CLASS_OTHERPATH;
     
     /**
      * The speed (meters / sec) at which an automobile can traverse
      * this street segment.
      */
-    private float carSpeed;
+    float carSpeed;
 
     /**
      * The angle at the start of the edge geometry.
      * Internal representation is -180 to +179 integer degrees mapped to -128 to +127 (brads)
      */
-    private byte inAngle;
+    byte inAngle;
 
     /** The angle at the start of the edge geometry. Internal representation like that of inAngle. */
-    private byte outAngle;
+    byte outAngle;
 
     public StreetEdge(StreetVertex v1, StreetVertex v2, LineString geometry,
                       I18NString name, double length,
@@ -169,6 +187,11 @@ public class StreetEdge extends Edge implements Cloneable {
         this(v1, v2, geometry, new NonLocalizedString(name), length, permission, back);
     }
 
+    /** Used by StreetEdgeColumns, which sets the fields itself. */
+    StreetEdge(StreetVertex v1, StreetVertex v2) {
+        super(v1, v2);
+    }
+
 
     /**
      * Checks permissions of the street edge if specified modes are allowed to travel.
@@ -338,7 +361,7 @@ public class StreetEdge extends Edge implements Cloneable {
                 weight = bicycleSafetyFactor * getDistance() / speed;
                 if (bicycleSafetyFactor <= GREENWAY_SAFETY_FACTOR) {
                     // greenways are treated as even safer than they really are
-                    weight *= 0.66;
+                    weight *= GREENWAY_WEIGHT_FACTOR;
                 }
                 break;
             case FLAT:
@@ -407,7 +430,7 @@ public class StreetEdge extends Edge implements Cloneable {
             if (s1.hasEnteredNoThroughTrafficArea()) {
                 // Only Edges are marked as no-thru, but really we need to avoid creating dominant, pruned states
                 // on thru _Vertices_. This could certainly be improved somehow.
-                for (StreetEdge se : Iterables.filter(s1.getVertex().getOutgoing(), StreetEdge.class)) {
+                for (StreetEdge se : Iterables.filter(s1.getVertex().getOutgoing(s0.getGeneration()), StreetEdge.class)) {
                     if (!se.isNoThruTraffic()) {
                         // This vertex has at least one through-traffic edge. We can't dominate it with a no-thru state.
                         return null;
@@ -603,6 +626,16 @@ public class StreetEdge extends Edge implements Cloneable {
 
     private void writeObject(ObjectOutputStream out) throws IOException {
         out.defaultWriteObject();
+        // The geometry table is not serialized with each edge, so a geometry read from it is written after the fields.
+        // The edge itself is left alone as it may be in use by routing threads.
+        CompactGeometryTable table = geometryTable;
+        out.writeObject(table == null ? null : table.get(geometryNumber));
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int[] geometry = (int[]) in.readObject();
+        if (geometry != null) compactGeometry = geometry;
     }
 
     public String toString() {
@@ -664,16 +697,25 @@ public class StreetEdge extends Edge implements Cloneable {
 	}
 
 	public LineString getGeometry() {
-		return CompactLineString.uncompactLineString(fromv.getLon(), fromv.getLat(), tov.getLon(), tov.getLat(), compactGeometry, isBack());
+		return CompactLineString.uncompactLineString(fromv.getLon(), fromv.getLat(), tov.getLon(), tov.getLat(), getCompactGeometry(), isBack());
 	}
 
 	private void setGeometry(LineString geometry) {
 		this.compactGeometry = CompactLineString.compactLineString(fromv.getLon(), fromv.getLat(), tov.getLon(), tov.getLat(), isBack() ? (LineString)geometry.reverse() : geometry, isBack());
+		this.geometryTable = null;
+	}
+
+	/** @return the compact geometry of this edge, read from the geometry table if it is in there. */
+	int[] getCompactGeometry() {
+		CompactGeometryTable table = geometryTable;
+		return table == null ? compactGeometry : table.get(geometryNumber);
 	}
 
 	public void shareData(StreetEdge reversedEdge) {
-	    if (Arrays.equals(compactGeometry, reversedEdge.compactGeometry)) {
+	    if (Arrays.equals(getCompactGeometry(), reversedEdge.getCompactGeometry())) {
 	        compactGeometry = reversedEdge.compactGeometry;
+	        geometryTable = reversedEdge.geometryTable;
+	        geometryNumber = reversedEdge.geometryNumber;
 	    } else {
 	        LOG.warn("Can't share geometry between {} and {}", this, reversedEdge);
 	    }
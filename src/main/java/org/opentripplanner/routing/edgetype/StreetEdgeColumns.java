@@ -0,0 +1,276 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.edgetype;
+
+import org.opentripplanner.common.geometry.CompactGeometryTable;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.StreetVertex;
+import org.opentripplanner.util.I18NString;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * The fields of the street edges of a graph as parallel arrays, the way they are stored in the binary graph format
+ * (see BinaryGraphWriter). The vertices, geometries and names of the edges are stored in tables of their own, and are
+ * referred to by their number in those tables.
+ *
+ * Only edges of exactly the classes StreetEdge and StreetWithElevationEdge are stored like this. Subclasses may have
+ * more fields, and are serialized with the rest of the graph.
+ */
+public class StreetEdgeColumns {
+
+    private static final byte STREET_EDGE = 0;
+    private static final byte STREET_WITH_ELEVATION_EDGE = 1;
+
+    private final int size;
+
+    private final byte[] type;
+    public final int[] id;
+    public final int[] fromVertex;
+    public final int[] toVertex;
+    private final int[] geometry;
+    private final int[] name;
+    private final byte[] flags;
+    private final int[] lengthMm;
+    private final float[] bicycleSafetyFactor;
+    private final byte[] permission;
+    private final long[] wayId;
+    private final int[] streetClass;
+    private final float[] carSpeed;
+    private final byte[] inAngle;
+    private final byte[] outAngle;
+
+    /* The elevation fields of the StreetWithElevationEdges, in the order they appear among all edges. */
+    private final int elevationSize;
+    private final byte[][] elevationProfile;
+    private final float[] slopeSpeedFactor;
+    private final float[] slopeWorkFactor;
+    private final float[] maxSlope;
+    private final boolean[] flattened;
+
+    /** @return whether the given edge can be stored in columns. */
+    public static boolean canStore (Edge edge) {
+        return edge.getClass() == StreetEdge.class || edge.getClass() == StreetWithElevationEdge.class;
+    }
+
+    private StreetEdgeColumns (int size, int elevationSize) {
+        this.size = size;
+        type = new byte[size];
+        id = new int[size];
+        fromVertex = new int[size];
+        toVertex = new int[size];
+        geometry = new int[size];
+        name = new int[size];
+        flags = new byte[size];
+        lengthMm = new int[size];
+        bicycleSafetyFactor = new float[size];
+        permission = new byte[size];
+        wayId = new long[size];
+        streetClass = new int[size];
+        carSpeed = new float[size];
+        inAngle = new byte[size];
+        outAngle = new byte[size];
+        this.elevationSize = elevationSize;
+        elevationProfile = new byte[elevationSize][];
+        slopeSpeedFactor = new float[elevationSize];
+        slopeWorkFactor = new float[elevationSize];
+        maxSlope = new float[elevationSize];
+        flattened = new boolean[elevationSize];
+    }
+
+    /**
+     * Copy the fields of the given edges, which must all be storable.
+     * @param vertexNumber gives the number of a vertex in the vertex table.
+     * @param geometryNumber gives the number of a compact geometry in the geometry table.
+     * @param nameNumber gives the number of a name in the name table.
+     */
+    public StreetEdgeColumns (List<StreetEdge> edges, ToIntFunction<Vertex> vertexNumber,
+            ToIntFunction<int[]> geometryNumber, ToIntFunction<I18NString> nameNumber) {
+        this(edges.size(), (int) edges.stream().filter(e -> e instanceof StreetWithElevationEdge).count());
+        // Geometries read from a table are decoded once, so that edges sharing them still share them when saved.
+        Map<CompactGeometryTable, int[][]> decoded = new IdentityHashMap<>();
+        int e = 0;
+        for (int i = 0; i < size; i++) {
+            StreetEdge edge = edges.get(i);
+            id[i] = edge.getId();
+            fromVertex[i] = vertexNumber.applyAsInt(edge.getFromVertex());
+            toVertex[i] = vertexNumber.applyAsInt(edge.getToVertex());
+            int[] compactGeometry = edge.compactGeometry;
+            CompactGeometryTable table = edge.geometryTable;
+            if (table != null) {
+                int[][] tableGeometries = decoded.computeIfAbsent(table, t -> new int[t.size()][]);
+                if (tableGeometries[edge.geometryNumber] == null) {
+                    tableGeometries[edge.geometryNumber] = table.get(edge.geometryNumber);
+                }
+                compactGeometry = tableGeometries[edge.geometryNumber];
+            }
+            geometry[i] = geometryNumber.applyAsInt(compactGeometry);
+            name[i] = nameNumber.applyAsInt(edge.name);
+            flags[i] = edge.flags;
+            lengthMm[i] = edge.length_mm;
+            bicycleSafetyFactor[i] = edge.bicycleSafetyFactor;
+            permission[i] = edge.permission == null ? -1 : (byte) edge.permission.ordinal();
+            wayId[i] = edge.wayId;
+            streetClass[i] = edge.streetClass;
+            carSpeed[i] = edge.carSpeed;
+            inAngle[i] = edge.inAngle;
+            outAngle[i] = edge.outAngle;
+            if (edge instanceof StreetWithElevationEdge) {
+                StreetWithElevationEdge elevationEdge = (StreetWithElevationEdge) edge;
+                type[i] = STREET_WITH_ELEVATION_EDGE;
+                elevationProfile[e] = elevationEdge.packedElevationProfile;
+                slopeSpeedFactor[e] = elevationEdge.slopeSpeedFactor;
+                slopeWorkFactor[e] = elevationEdge.slopeWorkFactor;
+                maxSlope[e] = elevationEdge.maxSlope;
+                flattened[e] = elevationEdge.flattened;
+                e++;
+            } else {
+                type[i] = STREET_EDGE;
+            }
+        }
+    }
+
+    public int size () {
+        return size;
+    }
+
+    /**
+     * Create the edges between the given vertices, without recomputing anything. Their geometries are left in the
+     * geometry table, and only read from it when needed.
+     * @param geometries the geometry table.
+     * @param names gives the name with the given number in the name table.
+     */
+    public StreetEdge[] build (Vertex[] vertices, CompactGeometryTable geometries, IntFunction<I18NString> names) {
+        StreetEdge[] edges = new StreetEdge[size];
+        StreetTraversalPermission[] permissions = StreetTraversalPermission.values();
+        int e = 0;
+        for (int i = 0; i < size; i++) {
+            StreetVertex from = (StreetVertex) vertices[fromVertex[i]];
+            StreetVertex to = (StreetVertex) vertices[toVertex[i]];
+            StreetEdge edge;
+            if (type[i] == STREET_WITH_ELEVATION_EDGE) {
+                StreetWithElevationEdge elevationEdge = new StreetWithElevationEdge(from, to);
+                elevationEdge.packedElevationProfile = elevationProfile[e];
+                elevationEdge.slopeSpeedFactor = slopeSpeedFactor[e];
+                elevationEdge.slopeWorkFactor = slopeWorkFactor[e];
+                elevationEdge.maxSlope = maxSlope[e];
+                elevationEdge.flattened = flattened[e];
+                e++;
+                edge = elevationEdge;
+            } else {
+                edge = new StreetEdge(from, to);
+            }
+            if (geometry[i] >= 0) {
+                edge.geometryTable = geometries;
+                edge.geometryNumber = geometry[i];
+            }
+            edge.name = names.apply(name[i]);
+            edge.flags = flags[i];
+            edge.length_mm = lengthMm[i];
+            edge.bicycleSafetyFactor = bicycleSafetyFactor[i];
+            edge.permission = permission[i] < 0 ? null : permissions[permission[i]];
+            edge.wayId = wayId[i];
+            edge.streetClass = streetClass[i];
+            edge.carSpeed = carSpeed[i];
+            edge.inAngle = inAngle[i];
+            edge.outAngle = outAngle[i];
+            edges[i] = edge;
+        }
+        return edges;
+    }
+
+    public void write (DataOutput out) throws IOException {
+        out.writeInt(size);
+        out.writeInt(elevationSize);
+        out.write(type);
+        writeInts(out, id);
+        writeInts(out, fromVertex);
+        writeInts(out, toVertex);
+        writeInts(out, geometry);
+        writeInts(out, name);
+        out.write(flags);
+        writeInts(out, lengthMm);
+        writeFloats(out, bicycleSafetyFactor);
+        out.write(permission);
+        for (long value : wayId) out.writeLong(value);
+        writeInts(out, streetClass);
+        writeFloats(out, carSpeed);
+        out.write(inAngle);
+        out.write(outAngle);
+        for (int e = 0; e < elevationSize; e++) {
+            byte[] profile = elevationProfile[e];
+            out.writeInt(profile == null ? -1 : profile.length);
+            if (profile != null) out.write(profile);
+        }
+        writeFloats(out, slopeSpeedFactor);
+        writeFloats(out, slopeWorkFactor);
+        writeFloats(out, maxSlope);
+        for (boolean value : flattened) out.writeBoolean(value);
+    }
+
+    public static StreetEdgeColumns read (DataInput in) throws IOException {
+        StreetEdgeColumns columns = new StreetEdgeColumns(in.readInt(), in.readInt());
+        in.readFully(columns.type);
+        readInts(in, columns.id);
+        readInts(in, columns.fromVertex);
+        readInts(in, columns.toVertex);
+        readInts(in, columns.geometry);
+        readInts(in, columns.name);
+        in.readFully(columns.flags);
+        readInts(in, columns.lengthMm);
+        readFloats(in, columns.bicycleSafetyFactor);
+        in.readFully(columns.permission);
+        for (int i = 0; i < columns.size; i++) columns.wayId[i] = in.readLong();
+        readInts(in, columns.streetClass);
+        readFloats(in, columns.carSpeed);
+        in.readFully(columns.inAngle);
+        in.readFully(columns.outAngle);
+        for (int e = 0; e < columns.elevationSize; e++) {
+            int length = in.readInt();
+            if (length >= 0) {
+                columns.elevationProfile[e] = new byte[length];
+                in.readFully(columns.elevationProfile[e]);
+            }
+        }
+        readFloats(in, columns.slopeSpeedFactor);
+        readFloats(in, columns.slopeWorkFactor);
+        readFloats(in, columns.maxSlope);
+        for (int e = 0; e < columns.elevationSize; e++) columns.flattened[e] = in.readBoolean();
+        return columns;
+    }
+
+    private static void writeInts (DataOutput out, int[] values) throws IOException {
+        for (int value : values) out.writeInt(value);
+    }
+
+    private static void writeFloats (DataOutput out, float[] values) throws IOException {
+        for (float value : values) out.writeFloat(value);
+    }
+
+    private static void readInts (DataInput in, int[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) values[i] = in.readInt();
+    }
+
+    private static void readFloats (DataInput in, float[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) values[i] = in.readFloat();
+    }
+}
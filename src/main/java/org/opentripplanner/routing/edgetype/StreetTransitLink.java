@@ -58,6 +58,10 @@ public class StreetTransitLink extends Edge {
         return null;
     }
 
+    public boolean isWheelchairAccessible() {
+        return wheelchairAccessible;
+    }
+
     public double getDistance() {
         return 0;
     }
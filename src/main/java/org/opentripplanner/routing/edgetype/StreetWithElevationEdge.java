@@ -32,15 +32,17 @@ public class StreetWithElevationEdge extends StreetEdge {
 
     private static final long serialVersionUID = 1L;
 
-    private byte[] packedElevationProfile;
+    /* These fields are package-private so that StreetEdgeColumns can save and restore them. */
 
-    private float slopeSpeedFactor = 1.0f;
+    byte[] packedElevationProfile;
 
-    private float slopeWorkFactor = 1.0f;
+    float slopeSpeedFactor = 1.0f;
 
-    private float maxSlope;
+    float slopeWorkFactor = 1.0f;
 
-    private boolean flattened;
+    float maxSlope;
+
+    boolean flattened;
 
     public StreetWithElevationEdge(StreetVertex v1, StreetVertex v2, LineString geometry,
             I18NString name, double length, StreetTraversalPermission permission, boolean back) {
@@ -52,6 +54,11 @@ public class StreetWithElevationEdge extends StreetEdge {
         super(v1, v2, geometry, new NonLocalizedString(name), length, permission, back);
     }
 
+    /** Used by StreetEdgeColumns, which sets the fields itself. */
+    StreetWithElevationEdge(StreetVertex v1, StreetVertex v2) {
+        super(v1, v2);
+    }
+
     @Override
     public StreetWithElevationEdge clone() {
         return (StreetWithElevationEdge) super.clone();
@@ -14,6 +14,7 @@
 package org.opentripplanner.routing.edgetype;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
@@ -87,6 +88,20 @@ public class Timetable implements Serializable {
      * Helps determine whether a particular pattern is worth searching for departures at a given time. 
      */
     private transient int minTime, maxTime;
+
+    /**
+     * For each stop, the positions in tripTimes of the trips sorted by departure time at that stop (ties in the order
+     * of tripTimes), allowing a binary search for the next departure. Consecutive stops at which the trips are in the
+     * same order share one array, so a pattern where trips do not overtake each other needs only one. Null if this
+     * timetable was changed since it was last finished.
+     */
+    private transient int[][] tripsByDeparture;
+
+    /**
+     * As tripsByDeparture but sorted by arrival time, and with ties in the reverse order of tripTimes since this is
+     * searched backward.
+     */
+    private transient int[][] tripsByArrival;
     
     /** Construct an empty Timetable. */
     public Timetable(TripPattern pattern) {
@@ -146,37 +161,58 @@ public class Timetable implements Serializable {
         }
         TripTimes bestTrip = null;
         Stop currentStop = pattern.getStop(stopIndex);
-        // Linear search through the timetable looking for the best departure.
-        // We no longer use a binary search on Timetables because:
-        // 1. we allow combining trips from different service IDs on the same tripPattern.
-        // 2. We mix frequency-based and one-off TripTimes together on tripPatterns.
-        // 3. Stoptimes may change with realtime updates, and we cannot count on them being sorted.
-        //    The complexity of keeping sorted indexes up to date does not appear to be worth the
-        //    apparently minor speed improvement.
         int bestTime = boarding ? Integer.MAX_VALUE : Integer.MIN_VALUE;
-        // Hoping JVM JIT will distribute the loop over the if clauses as needed.
-        // We could invert this and skip some service days based on schedule overlap as in RRRR.
-        for (TripTimes tt : tripTimes) {
-            if (tt.isCanceled()) continue;
-            if ( ! serviceDay.serviceRunning(tt.serviceCode)) continue; // TODO merge into call on next line
-            if ( ! tt.tripAcceptable(s0, stopIndex)) continue;
-            int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, boarding, serviceDay, time);
-            if (adjustedTime == -1) continue;
-            if (boarding) {
-                int depTime = tt.getDepartureTime(stopIndex);
-                if (depTime < 0) continue; // negative values were previously used for canceled trips/passed stops/skipped stops, but
-                                           // now its not sure if this check should be still in place because there is a boolean field
-                                           // for canceled trips
-                if (depTime >= adjustedTime && depTime < bestTime) {
+        // Trips with different service IDs and realtime updates are combined on the same pattern, so they are not
+        // sorted by their times at any given stop. finish() builds a sorted index of the trips at each stop. The trips
+        // are visited in order of their time at the stop from the search time on, so the first one that can be
+        // boarded is the best one. Only a few trips are usually skipped because they are not running or acceptable.
+        int[] sortedTrips = sortedTrips(stopIndex, boarding);
+        if (sortedTrips != null) {
+            int n = sortedTrips.length;
+            int low = searchSortedTrips(sortedTrips, stopIndex, time, boarding);
+            for (int i = boarding ? low : low - 1; boarding ? i < n : i >= 0; i += boarding ? 1 : -1) {
+                TripTimes tt = tripTimes.get(sortedTrips[i]);
+                int stopTime = boarding ? tt.getDepartureTime(stopIndex) : tt.getArrivalTime(stopIndex);
+                if (stopTime < 0) continue; // negative times were previously used for canceled trips and skipped stops
+                if (tt.isCanceled()) continue;
+                if ( ! serviceDay.serviceRunning(tt.serviceCode)) continue;
+                if ( ! tt.tripAcceptable(s0, stopIndex)) continue;
+                int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, boarding, serviceDay, time);
+                if (adjustedTime == -1) continue;
+                // A minimum transfer time can make the trip too early to board (or too late to alight from).
+                if (boarding ? stopTime >= adjustedTime : stopTime <= adjustedTime) {
                     bestTrip = tt;
-                    bestTime = depTime;
+                    bestTime = stopTime;
+                    break;
                 }
-            } else {
-                int arvTime = tt.getArrivalTime(stopIndex);
-                if (arvTime < 0) continue;
-                if (arvTime <= adjustedTime && arvTime > bestTime) {
-                    bestTrip = tt;
-                    bestTime = arvTime;
+            }
+        } else {
+            // Linear search through the timetable looking for the best departure, for timetables that have not been
+            // finished since they were changed.
+            // Hoping JVM JIT will distribute the loop over the if clauses as needed.
+            // We could invert this and skip some service days based on schedule overlap as in RRRR.
+            for (TripTimes tt : tripTimes) {
+                if (tt.isCanceled()) continue;
+                if ( ! serviceDay.serviceRunning(tt.serviceCode)) continue; // TODO merge into call on next line
+                if ( ! tt.tripAcceptable(s0, stopIndex)) continue;
+                int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, boarding, serviceDay, time);
+                if (adjustedTime == -1) continue;
+                if (boarding) {
+                    int depTime = tt.getDepartureTime(stopIndex);
+                    if (depTime < 0) continue; // negative values were previously used for canceled trips/passed stops/skipped stops, but
+                                               // now its not sure if this check should be still in place because there is a boolean field
+                                               // for canceled trips
+                    if (depTime >= adjustedTime && depTime < bestTime) {
+                        bestTrip = tt;
+                        bestTime = depTime;
+                    }
+                } else {
+                    int arvTime = tt.getArrivalTime(stopIndex);
+                    if (arvTime < 0) continue;
+                    if (arvTime <= adjustedTime && arvTime > bestTime) {
+                        bestTrip = tt;
+                        bestTime = arvTime;
+                    }
                 }
             }
         }
@@ -215,6 +251,81 @@ public class Timetable implements Serializable {
         return bestTrip;
     }
 
+    /**
+     * Get up to n trips departing from the given stop at or after the given time on the given service day, in order of
+     * departure. Canceled trips are included, as departure boards show them.
+     * @param time the time in seconds since midnight on the service day, which may be negative.
+     * @return the trips, or null if this timetable was changed since it was last finished and has no sorted index, in
+     * which case the caller must look through all the trips.
+     */
+    public List<TripTimes> getNextDepartures(ServiceDay serviceDay, int stopIndex, int time, int n) {
+        int[] sortedTrips = sortedTrips(stopIndex, true);
+        if (sortedTrips == null) return null;
+        List<TripTimes> departures = new ArrayList<>();
+        for (int i = searchSortedTrips(sortedTrips, stopIndex, time, true);
+                i < sortedTrips.length && departures.size() < n; i++) {
+            TripTimes tt = tripTimes.get(sortedTrips[i]);
+            if (tt.getDepartureTime(stopIndex) == -1) continue;
+            if ( ! serviceDay.serviceRunning(tt.serviceCode)) continue;
+            departures.add(tt);
+        }
+        return departures;
+    }
+
+    /**
+     * @return the position in the given sorted trips of the first trip departing at or after the given time, or of the
+     * first trip arriving after it. When alighting, the trip before that one is the last to arrive at or before it.
+     */
+    private int searchSortedTrips(int[] sortedTrips, int stopIndex, int time, boolean boarding) {
+        int low = 0;
+        int high = sortedTrips.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            TripTimes tt = tripTimes.get(sortedTrips[mid]);
+            if (boarding ? tt.getDepartureTime(stopIndex) < time : tt.getArrivalTime(stopIndex) <= time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the positions in tripTimes of all the trips sorted by their departure (or arrival) time at the given stop,
+     * or null if the timetable was changed since the sort.
+     */
+    private int[] sortedTrips(int stopIndex, boolean boarding) {
+        int[][] sorted = boarding ? tripsByDeparture : tripsByArrival;
+        if (sorted == null || sorted[stopIndex].length != tripTimes.size()) return null;
+        return sorted[stopIndex];
+    }
+
+    /**
+     * Sort the trips by departure or arrival time at each stop, for tripsByDeparture and tripsByArrival.
+     */
+    private int[][] sortTrips(int nStops, boolean departures) {
+        int nTrips = tripTimes.size();
+        int[][] sorted = new int[nStops][];
+        // Sort the time and position of each trip together, packed in a long with the time in the high bits.
+        long[] keys = new long[nTrips];
+        for (int s = 0; s < nStops; s++) {
+            for (int i = 0; i < nTrips; i++) {
+                TripTimes tt = tripTimes.get(i);
+                int time = departures ? tt.getDepartureTime(s) : tt.getArrivalTime(s);
+                keys[i] = ((long) time << 32) | (departures ? i : nTrips - 1 - i);
+            }
+            Arrays.sort(keys);
+            int[] positions = new int[nTrips];
+            for (int i = 0; i < nTrips; i++) {
+                int low = (int) keys[i];
+                positions[i] = departures ? low : nTrips - 1 - low;
+            }
+            sorted[s] = s > 0 && Arrays.equals(positions, sorted[s - 1]) ? sorted[s - 1] : positions;
+        }
+        return sorted;
+    }
+
     /**
      * Check transfer table rules. Given the last alight time from the State,
      * return the boarding time t0 adjusted for this particular trip's minimum transfer time,
@@ -295,6 +406,9 @@ public class Timetable implements Serializable {
             minTime = Math.min(minTime, freq.getMinDeparture());
             maxTime = Math.max(maxTime, freq.getMaxArrival());
         }
+        /* Index the trips by time at each stop, for getNextTrip. */
+        tripsByDeparture = sortTrips(nStops, true);
+        tripsByArrival = sortTrips(nStops, false);
     }
 
     /** @return the index of TripTimes for this trip ID in this particular Timetable */
@@ -338,6 +452,8 @@ public class Timetable implements Serializable {
      * @return old trip times of trip
      */
     public TripTimes setTripTimes(int tripIndex, TripTimes tt) {
+        tripsByDeparture = null;
+        tripsByArrival = null;
         return tripTimes.set(tripIndex, tt);
     }
 
@@ -518,9 +634,21 @@ public class Timetable implements Serializable {
      * Here we don't know if it's a scheduled trip or a realtime-added trip.
      */
     public void addTripTimes(TripTimes tt) {
+        tripsByDeparture = null;
+        tripsByArrival = null;
         tripTimes.add(tt);
     }
 
+    /**
+     * Remove a trip from this Timetable. Like addTripTimes, this leaves the Timetable to be analyzed, compacted and
+     * indexed again, and should only be called on a Timetable that is not shared with a committed snapshot.
+     */
+    public void removeTripTimes(int tripIndex) {
+        tripsByDeparture = null;
+        tripsByArrival = null;
+        tripTimes.remove(tripIndex);
+    }
+
     /**
      * Add a frequency entry to this Timetable. See addTripTimes method. Maybe Frequency Entries should
      * just be TripTimes for simplicity.
@@ -14,9 +14,9 @@
 package org.opentripplanner.routing.edgetype;
 
 import java.util.*;
-import java.util.Map.Entry;
 
 import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.opentripplanner.common.PersistentHashMap;
 import org.opentripplanner.routing.trippattern.TripTimes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -96,12 +96,9 @@ public class TimetableSnapshot {
 
     private static final Logger LOG = LoggerFactory.getLogger(TimetableSnapshot.class);
     
-    // Use HashMap not Map so we can clone.
-    // if this turns out to be slow/spacious we can use an array with integer pattern indexes
-    // The SortedSet members are copy-on-write
-    // FIXME: this could be made into a flat hashtable with compound keys.
-    private HashMap<TripPattern, SortedSet<Timetable>> timetables =
-            new HashMap<TripPattern, SortedSet<Timetable>>();
+    // The maps are persistent: committing a snapshot shares them with the committed copy, and later updates to this
+    // snapshot only copy the paths leading to the entries they change. The SortedSet members are copy-on-write.
+    private PersistentHashMap<TripPattern, SortedSet<Timetable>> timetables = PersistentHashMap.empty();
 
     /**
      * <p>
@@ -109,12 +106,9 @@ public class TimetableSnapshot {
      * service date as a result of a call to {@link #update(String feedId, TripPattern, TripTimes, ServiceDate)}
      * with trip times of a trip that didn't exist yet in the trip pattern.
      * </p>
-     * <p>
-     * This is a HashMap and not a Map so the clone function is available.
-     * </p>
      */
-    private HashMap<TripIdAndServiceDate, TripPattern> lastAddedTripPattern = new HashMap<>();
-    
+    private PersistentHashMap<TripIdAndServiceDate, TripPattern> lastAddedTripPattern = PersistentHashMap.empty();
+
     /**
      * Boolean value indicating that timetable snapshot is read only if true. Once it is true, it shouldn't
      * be possible to change it to false anymore.
@@ -186,9 +180,87 @@ public class TimetableSnapshot {
             throw new ConcurrentModificationException("This TimetableSnapshot is read-only.");
         }
         
+        Timetable tt = writableTimetable(pattern, serviceDate);
+        
+        // Assume all trips in a pattern are from the same feed, which should be the case.
+        // Find trip index
+        int tripIndex = tt.getTripIndex(updatedTripTimes.trip.getId());
+        if (tripIndex == -1) {
+            // Trip not found, add it
+            tt.addTripTimes(updatedTripTimes);
+            // Remember this pattern for the added trip id and service date
+            String tripId = updatedTripTimes.trip.getId().getId();
+            TripIdAndServiceDate tripIdAndServiceDate = new TripIdAndServiceDate(feedId, tripId, serviceDate);
+            lastAddedTripPattern = lastAddedTripPattern.plus(tripIdAndServiceDate, pattern);
+        } else {
+            // Set updated trip times of trip
+            tt.setTripTimes(tripIndex, updatedTripTimes);
+        }
+        
+        // The time tables are finished during the commit
+        
+        return true;
+    }
+
+    /**
+     * Undo all updates to one trip on one service date: put back its scheduled trip times in the timetable of its
+     * scheduled pattern, and remove it from the pattern it was last added to, if any. The result is the same as if no
+     * update for the trip had ever been applied to this snapshot.
+     *
+     * @param feedId feed id the trip id belongs to
+     * @param scheduledPattern the pattern of the trip in the scheduled data, or null if the trip is not scheduled
+     * @param tripId trip id (without agency)
+     * @param serviceDate service date
+     * @return true if this snapshot changed as a result of the call
+     */
+    public boolean revert(String feedId, TripPattern scheduledPattern, String tripId, ServiceDate serviceDate) {
+        Preconditions.checkNotNull(serviceDate);
+
+        if (readOnly) {
+            throw new ConcurrentModificationException("This TimetableSnapshot is read-only.");
+        }
+
+        boolean modified = false;
+        if (scheduledPattern != null) {
+            int scheduledIndex = scheduledPattern.scheduledTimetable.getTripIndex(tripId);
+            Timetable tt = resolve(scheduledPattern, serviceDate);
+            if (scheduledIndex != -1 && tt != scheduledPattern.scheduledTimetable) {
+                TripTimes scheduledTripTimes = scheduledPattern.scheduledTimetable.getTripTimes(scheduledIndex);
+                int tripIndex = tt.getTripIndex(tripId);
+                if (tripIndex != -1 && tt.getTripTimes(tripIndex) != scheduledTripTimes) {
+                    tt = writableTimetable(scheduledPattern, serviceDate);
+                    tt.setTripTimes(tripIndex, scheduledTripTimes);
+                    modified = true;
+                }
+            }
+        }
+
+        TripIdAndServiceDate tripIdAndServiceDate = new TripIdAndServiceDate(feedId, tripId, serviceDate);
+        TripPattern addedPattern = lastAddedTripPattern.get(tripIdAndServiceDate);
+        if (addedPattern != null) {
+            // An added pattern may also be used by other added trips, so only this trip is removed from it. Like
+            // update, this changes a copy of the timetable, never one that a committed snapshot may share.
+            if (resolve(addedPattern, serviceDate).getTripIndex(tripId) != -1) {
+                Timetable tt = writableTimetable(addedPattern, serviceDate);
+                tt.removeTripTimes(tt.getTripIndex(tripId));
+            }
+            lastAddedTripPattern = lastAddedTripPattern.minus(tripIdAndServiceDate);
+            modified = true;
+        }
+
+        if (modified) {
+            dirty = true;
+        }
+        return modified;
+    }
+
+    /**
+     * @return the timetable of the given pattern on the given day in this snapshot, copying it first if it has not
+     * been modified since the last commit. The copy is done here rather than in the methods changing the timetable to
+     * avoid copying repeatedly when several updates are applied to the same timetable.
+     */
+    private Timetable writableTimetable(TripPattern pattern, ServiceDate serviceDate) {
         Timetable tt = resolve(pattern, serviceDate);
-        // we need to perform the copy of Timetable here rather than in Timetable.update()
-        // to avoid repeatedly copying in case several updates are applied to the same timetable
         if ( ! dirtyTimetables.contains(tt)) {
             Timetable old = tt;
             tt = new Timetable(tt, serviceDate);
@@ -204,34 +276,17 @@ public class TimetableSnapshot {
             if(old.serviceDate != null)
                 sortedTimetables.remove(old);
             sortedTimetables.add(tt);
-            timetables.put(pattern, sortedTimetables);
+            timetables = timetables.plus(pattern, sortedTimetables);
             dirtyTimetables.add(tt);
             dirty = true;
         }
-        
-        // Assume all trips in a pattern are from the same feed, which should be the case.
-        // Find trip index
-        int tripIndex = tt.getTripIndex(updatedTripTimes.trip.getId());
-        if (tripIndex == -1) {
-            // Trip not found, add it
-            tt.addTripTimes(updatedTripTimes);
-            // Remember this pattern for the added trip id and service date
-            String tripId = updatedTripTimes.trip.getId().getId();
-            TripIdAndServiceDate tripIdAndServiceDate = new TripIdAndServiceDate(feedId, tripId, serviceDate);
-            lastAddedTripPattern.put(tripIdAndServiceDate, pattern);
-        } else {
-            // Set updated trip times of trip
-            tt.setTripTimes(tripIndex, updatedTripTimes);
-        }
-        
-        // The time tables are finished during the commit
-        
-        return true;
+        return tt;
     }
 
     /**
      * This produces a small delay of typically around 50ms, which is almost entirely due to
-     * the indexing step. Cloning the map is much faster (2ms).
+     * the indexing step. The maps themselves are shared with the committed snapshot rather than copied,
+     * so committing them takes constant time whatever the number of timetables.
      * It is perhaps better to index timetables as they are changed to avoid experiencing all
      * this lag at once, but we want to avoid re-indexing when receiving multiple updates for
      * the same timetable in rapid succession. This compromise is expressed by the
@@ -243,7 +298,6 @@ public class TimetableSnapshot {
         return commit(false);
     }
 
-    @SuppressWarnings("unchecked")
     public TimetableSnapshot commit(boolean force) {
         if (readOnly) {
             throw new ConcurrentModificationException("This TimetableSnapshot is read-only.");
@@ -254,9 +308,8 @@ public class TimetableSnapshot {
         for (Timetable tt : dirtyTimetables) {
             tt.finish(); // summarize, index, etc. the new timetables
         }
-        ret.timetables = (HashMap<TripPattern, SortedSet<Timetable>>) this.timetables.clone();
-        ret.lastAddedTripPattern = (HashMap<TripIdAndServiceDate, TripPattern>)
-                this.lastAddedTripPattern.clone();
+        ret.timetables = this.timetables;
+        ret.lastAddedTripPattern = this.lastAddedTripPattern;
         this.dirtyTimetables.clear();
         this.dirty = false;
 
@@ -290,7 +343,9 @@ public class TimetableSnapshot {
      * @return true if the timetable changed as a result of the call
      */
     protected boolean clearTimetable(String feedId) {
-        return timetables.keySet().removeIf(tripPattern -> feedId.equals(tripPattern.getFeedId()));
+        PersistentHashMap<TripPattern, SortedSet<Timetable>> old = timetables;
+        timetables = timetables.minusIf((tripPattern, sortedTimetables) -> feedId.equals(tripPattern.getFeedId()));
+        return timetables != old;
     }
 
     /**
@@ -300,7 +355,10 @@ public class TimetableSnapshot {
      * @return true if the lastAddedTripPattern changed as a result of the call
      */
     protected boolean clearLastAddedTripPattern(String feedId) {
-        return lastAddedTripPattern.keySet().removeIf(lastAddedTripPattern -> feedId.equals(lastAddedTripPattern.getFeedId()));
+        PersistentHashMap<TripIdAndServiceDate, TripPattern> old = lastAddedTripPattern;
+        lastAddedTripPattern = lastAddedTripPattern.minusIf((tripIdAndServiceDate, pattern) ->
+                feedId.equals(tripIdAndServiceDate.getFeedId()));
+        return lastAddedTripPattern != old;
     }
 
     /**
@@ -311,37 +369,33 @@ public class TimetableSnapshot {
             throw new ConcurrentModificationException("This TimetableSnapshot is read-only.");
         }
 
-        boolean modified = false;
-        for (Iterator<TripPattern> it = timetables.keySet().iterator(); it.hasNext();){
-            TripPattern pattern = it.next();
-            SortedSet<Timetable> sortedTimetables = timetables.get(pattern);
+        PersistentHashMap<TripPattern, SortedSet<Timetable>> oldTimetables = timetables;
+        oldTimetables.forEach((pattern, sortedTimetables) -> {
+            // The timetables are sorted by service date, so if the first one is kept they all are.
+            if (serviceDate.compareTo(sortedTimetables.first().serviceDate) < 0) {
+                return;
+            }
             SortedSet<Timetable> toKeepTimetables =
                     new TreeSet<Timetable>(new SortedTimetableComparator());
             for(Timetable timetable : sortedTimetables) {
                 if(serviceDate.compareTo(timetable.serviceDate) < 0) {
                     toKeepTimetables.add(timetable);
-                } else {
-                    modified = true;
                 }
             }
 
             if(toKeepTimetables.isEmpty()) {
-                it.remove();
+                timetables = timetables.minus(pattern);
             } else {
-                timetables.put(pattern, toKeepTimetables);
+                timetables = timetables.plus(pattern, toKeepTimetables);
             }
-        }
-        
+        });
+
         // Also remove last added trip pattern for days that are purged
-        for (Iterator<Entry<TripIdAndServiceDate, TripPattern>> iterator = lastAddedTripPattern
-                .entrySet().iterator(); iterator.hasNext();) {
-            TripIdAndServiceDate tripIdAndServiceDate = iterator.next().getKey();
-            if (serviceDate.compareTo(tripIdAndServiceDate.getServiceDate()) >= 0) {
-                iterator.remove();
-                modified = true;
-            }
-        }
+        PersistentHashMap<TripIdAndServiceDate, TripPattern> oldLastAdded = lastAddedTripPattern;
+        lastAddedTripPattern = lastAddedTripPattern.minusIf((tripIdAndServiceDate, pattern) ->
+                serviceDate.compareTo(tripIdAndServiceDate.getServiceDate()) >= 0);
 
+        boolean modified = timetables != oldTimetables || lastAddedTripPattern != oldLastAdded;
         return modified;
     }
 
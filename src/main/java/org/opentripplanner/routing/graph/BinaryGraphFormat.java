@@ -0,0 +1,197 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.graph;
+
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.OsmVertex;
+import org.opentripplanner.util.I18NString;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * The layout of a graph saved in the binary graph format, shared by BinaryGraphWriter and BinaryGraphReader.
+ *
+ * A file starts with a magic number and the version of the format, followed by sections. Each section starts with its
+ * kind and its length in bytes, so that a reader can find all the sections of a file first and decode them in parallel.
+ * The file ends with a section of kind END.
+ *
+ * The vertices and edges of the street network make up most of a graph. The most common kinds of them are stored as
+ * parallel primitive arrays (columns), along with tables of the strings, compact geometries and other names they refer
+ * to. Everything else, including the Graph object itself and the transit data, is stored with Java serialization in
+ * the OBJECTS section, where references to the vertices and edges stored in columns are replaced by their number.
+ */
+final class BinaryGraphFormat {
+
+    private BinaryGraphFormat () { }
+
+    /** "OTPG", which Java serialization streams never start with. */
+    static final int MAGIC = 0x4F545047;
+
+    /** Increment this whenever the layout of any section changes. */
+    static final int VERSION = 1;
+
+    /* Kinds of sections, in the order they are written. */
+
+    static final int END = 0;
+
+    /** The strings referred to by vertices and edges: labels and names. */
+    static final int STRINGS = 1;
+
+    /** The names that are not plain strings (for example translated names), with Java serialization. */
+    static final int EXTRA_NAMES = 2;
+
+    /** The compact geometries of the street edges, in the layout of CompactGeometryTable so they can be mapped. */
+    static final int GEOMETRIES = 3;
+
+    /** The street vertices stored as columns, see VertexColumns. */
+    static final int VERTICES = 4;
+
+    /** The street edges stored as columns, see StreetEdgeColumns. */
+    static final int STREET_EDGES = 5;
+
+    /** The graph and all other edges with Java serialization, then the builder annotations if the graph has them. */
+    static final int OBJECTS = 6;
+
+    /** The name number of a null name. Other negative numbers refer to the extra names. */
+    static final int NULL_NAME = Integer.MIN_VALUE;
+
+    /** Replaces a reference to a vertex stored in columns in the OBJECTS section. */
+    static class VertexRef implements Serializable {
+        private static final long serialVersionUID = 1L;
+        final int number;
+
+        VertexRef (int number) {
+            this.number = number;
+        }
+    }
+
+    /** Replaces a reference to an edge stored in columns in the OBJECTS section. */
+    static class EdgeRef implements Serializable {
+        private static final long serialVersionUID = 1L;
+        final int number;
+
+        EdgeRef (int number) {
+            this.number = number;
+        }
+    }
+
+    /**
+     * The street vertices of a graph as parallel arrays. Only vertices of exactly the classes IntersectionVertex and
+     * OsmVertex are stored like this, as other vertex classes have more fields.
+     */
+    static class VertexColumns {
+
+        private static final byte INTERSECTION = 0;
+        private static final byte OSM = 1;
+
+        private static final int TRAFFIC_LIGHT = 1;
+        private static final int FREE_FLOWING = 2;
+
+        final int size;
+        private final byte[] type;
+        private final int[] label;
+        private final double[] x;
+        private final double[] y;
+        private final int[] name;
+        private final byte[] flags;
+        /** The OSM node IDs of the OsmVertices, in the order they appear among all vertices. */
+        private final long[] nodeId;
+
+        static boolean canStore (Vertex vertex) {
+            return vertex.getClass() == IntersectionVertex.class || vertex.getClass() == OsmVertex.class;
+        }
+
+        private VertexColumns (int size, int osmSize) {
+            this.size = size;
+            type = new byte[size];
+            label = new int[size];
+            x = new double[size];
+            y = new double[size];
+            name = new int[size];
+            flags = new byte[size];
+            nodeId = new long[osmSize];
+        }
+
+        VertexColumns (List<Vertex> vertices, ToIntFunction<String> stringNumber,
+                ToIntFunction<I18NString> nameNumber) {
+            this(vertices.size(), (int) vertices.stream().filter(v -> v instanceof OsmVertex).count());
+            int osm = 0;
+            for (int i = 0; i < size; i++) {
+                IntersectionVertex vertex = (IntersectionVertex) vertices.get(i);
+                label[i] = stringNumber.applyAsInt(vertex.getLabel());
+                x[i] = vertex.getX();
+                y[i] = vertex.getY();
+                name[i] = nameNumber.applyAsInt(((Vertex) vertex).getRawName());
+                flags[i] = (byte) ((vertex.trafficLight ? TRAFFIC_LIGHT : 0) | (vertex.freeFlowing ? FREE_FLOWING : 0));
+                if (vertex instanceof OsmVertex) {
+                    type[i] = OSM;
+                    nodeId[osm++] = ((OsmVertex) vertex).nodeId;
+                } else {
+                    type[i] = INTERSECTION;
+                }
+            }
+        }
+
+        /**
+         * Create the vertices, without adding them to a graph: the graph is only read after them, and rebuilds its
+         * table of vertices from its edges.
+         */
+        Vertex[] build (String[] strings, IntFunction<I18NString> names) {
+            Vertex[] vertices = new Vertex[size];
+            int osm = 0;
+            for (int i = 0; i < size; i++) {
+                IntersectionVertex vertex;
+                if (type[i] == OSM) {
+                    vertex = new OsmVertex(null, strings[label[i]], x[i], y[i], nodeId[osm++], names.apply(name[i]));
+                } else {
+                    vertex = new IntersectionVertex(null, strings[label[i]], x[i], y[i], names.apply(name[i]));
+                }
+                vertex.trafficLight = (flags[i] & TRAFFIC_LIGHT) != 0;
+                vertex.freeFlowing = (flags[i] & FREE_FLOWING) != 0;
+                vertices[i] = vertex;
+            }
+            return vertices;
+        }
+
+        void write (DataOutput out) throws IOException {
+            out.writeInt(size);
+            out.writeInt(nodeId.length);
+            out.write(type);
+            for (int value : label) out.writeInt(value);
+            for (double value : x) out.writeDouble(value);
+            for (double value : y) out.writeDouble(value);
+            for (int value : name) out.writeInt(value);
+            out.write(flags);
+            for (long value : nodeId) out.writeLong(value);
+        }
+
+        static VertexColumns read (DataInput in) throws IOException {
+            VertexColumns columns = new VertexColumns(in.readInt(), in.readInt());
+            in.readFully(columns.type);
+            for (int i = 0; i < columns.size; i++) columns.label[i] = in.readInt();
+            for (int i = 0; i < columns.size; i++) columns.x[i] = in.readDouble();
+            for (int i = 0; i < columns.size; i++) columns.y[i] = in.readDouble();
+            for (int i = 0; i < columns.size; i++) columns.name[i] = in.readInt();
+            in.readFully(columns.flags);
+            for (int i = 0; i < columns.nodeId.length; i++) columns.nodeId[i] = in.readLong();
+            return columns;
+        }
+    }
+}
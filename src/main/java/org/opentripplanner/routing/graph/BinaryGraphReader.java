@@ -0,0 +1,361 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.graph;
+
+import org.opentripplanner.common.geometry.CompactGeometryTable;
+import org.opentripplanner.graph_builder.annotation.GraphBuilderAnnotation;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetEdgeColumns;
+import org.opentripplanner.routing.graph.BinaryGraphFormat.EdgeRef;
+import org.opentripplanner.routing.graph.BinaryGraphFormat.VertexColumns;
+import org.opentripplanner.routing.graph.BinaryGraphFormat.VertexRef;
+import org.opentripplanner.routing.graph.Graph.LoadLevel;
+import org.opentripplanner.routing.services.StreetVertexIndexFactory;
+import org.opentripplanner.util.I18NString;
+import org.opentripplanner.util.NonLocalizedString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Loads a graph saved in the binary graph format (see BinaryGraphFormat). When reading from a file, the sections holding
+ * the tables and columns of the street network are decoded in parallel, each from its own position in the file, and
+ * the street edge geometries are mapped from the file rather than read on the heap.
+ */
+public class BinaryGraphReader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BinaryGraphReader.class);
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final ClassLoader classLoader;
+
+    /* The decoded sections. */
+    private String[] strings;
+    private List<I18NString> extraNames;
+    private CompactGeometryTable geometries;
+    private VertexColumns vertexColumns;
+    private StreetEdgeColumns edgeColumns;
+
+    /** One name per string number, so that equal names are shared like they were in the graph that was saved. */
+    private NonLocalizedString[] stringNames;
+
+    private Vertex[] vertices;
+    private StreetEdge[] edges;
+
+    private BinaryGraphReader (ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    /** @return whether the given file starts like a graph saved in the binary graph format. */
+    public static boolean isBinaryGraph (File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return file.length() >= Integer.BYTES && in.readInt() == BinaryGraphFormat.MAGIC;
+        }
+    }
+
+    /**
+     * @return whether the given stream starts like a graph saved in the binary graph format. The stream must support
+     * mark and reset, and is left at the position it was at.
+     */
+    public static boolean isBinaryGraph (InputStream in) throws IOException {
+        in.mark(Integer.BYTES);
+        try {
+            byte[] magic = new byte[Integer.BYTES];
+            int read = 0;
+            while (read < magic.length) {
+                int n = in.read(magic, read, magic.length - read);
+                if (n < 0) return false;
+                read += n;
+            }
+            return ByteBuffer.wrap(magic).getInt() == BinaryGraphFormat.MAGIC;
+        } finally {
+            in.reset();
+        }
+    }
+
+    /**
+     * Load a graph from a file in the binary graph format.
+     * @param classLoader the class loader used to load the classes of serialized objects, or null for the default one.
+     */
+    public static Graph read (File file, LoadLevel level, StreetVertexIndexFactory indexFactory,
+            ClassLoader classLoader) throws IOException, ClassNotFoundException {
+        return new BinaryGraphReader(classLoader).read(file, level, indexFactory);
+    }
+
+    /**
+     * Load a graph from a stream in the binary graph format. The sections are decoded one after the other, as a stream
+     * cannot be read at several positions at once.
+     * @param classLoader the class loader used to load the classes of serialized objects, or null for the default one.
+     */
+    public static Graph read (InputStream is, LoadLevel level, StreetVertexIndexFactory indexFactory,
+            ClassLoader classLoader) throws IOException, ClassNotFoundException {
+        return new BinaryGraphReader(classLoader).read(is, level, indexFactory);
+    }
+
+    private Graph read (File file, LoadLevel level, StreetVertexIndexFactory indexFactory)
+            throws IOException, ClassNotFoundException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            readHeader(sectionStream(channel, 0, 2 * Integer.BYTES));
+            // Find all sections first, their lengths are at the start of each of them.
+            Map<Integer, long[]> sections = new HashMap<>();
+            long position = 2 * Integer.BYTES;
+            while (true) {
+                ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + Long.BYTES);
+                readFully(channel, buffer, position);
+                int kind = buffer.getInt(0);
+                if (kind == BinaryGraphFormat.END) break;
+                long length = buffer.getLong(Integer.BYTES);
+                position += buffer.capacity();
+                sections.put(kind, new long[] { position, length });
+                position += length;
+            }
+            LOG.debug("Decoding street vertices and edges...");
+            List<CompletableFuture<Void>> decoded = new ArrayList<>();
+            for (Map.Entry<Integer, long[]> section : sections.entrySet()) {
+                int kind = section.getKey();
+                long start = section.getValue()[0];
+                long length = section.getValue()[1];
+                if (kind == BinaryGraphFormat.OBJECTS) continue;
+                if (kind == BinaryGraphFormat.GEOMETRIES) {
+                    // The geometries stay in the file, see CompactGeometryTable.
+                    geometries = CompactGeometryTable.map(channel, start, length);
+                    continue;
+                }
+                decoded.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        decodeSection(kind, sectionStream(channel, start, length));
+                    } catch (IOException | ClassNotFoundException e) {
+                        throw new CompletionException(e);
+                    }
+                }));
+            }
+            try {
+                CompletableFuture.allOf(decoded.toArray(new CompletableFuture[decoded.size()])).join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) throw (IOException) cause;
+                if (cause instanceof ClassNotFoundException) throw (ClassNotFoundException) cause;
+                throw e;
+            }
+            long[] objects = sections.get(BinaryGraphFormat.OBJECTS);
+            if (objects == null) throw new StreamCorruptedException("Graph file has no object section.");
+            return readObjects(sectionStream(channel, objects[0], objects[1]), level, indexFactory);
+        }
+    }
+
+    private Graph read (InputStream is, LoadLevel level, StreetVertexIndexFactory indexFactory)
+            throws IOException, ClassNotFoundException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(is, BUFFER_SIZE));
+        readHeader(in);
+        while (true) {
+            int kind = in.readInt();
+            if (kind == BinaryGraphFormat.END) {
+                throw new StreamCorruptedException("Graph file has no object section.");
+            }
+            in.readLong(); // the length, only needed to find the sections of a file
+            if (kind == BinaryGraphFormat.OBJECTS) {
+                // The last section, that needs all the others.
+                return readObjects(in, level, indexFactory);
+            }
+            decodeSection(kind, in);
+        }
+    }
+
+    private static void readHeader (DataInputStream in) throws IOException {
+        if (in.readInt() != BinaryGraphFormat.MAGIC) {
+            throw new StreamCorruptedException("Not a graph in the binary graph format.");
+        }
+        int version = in.readInt();
+        if (version != BinaryGraphFormat.VERSION) {
+            LOG.error("Stored graph is incompatible with this version of OTP, please rebuild it.");
+            throw new IllegalStateException("Stored graph format version " + version + ", expected "
+                    + BinaryGraphFormat.VERSION);
+        }
+    }
+
+    private void decodeSection (int kind, DataInputStream in) throws IOException, ClassNotFoundException {
+        switch (kind) {
+            case BinaryGraphFormat.STRINGS:
+                strings = readStrings(in);
+                break;
+            case BinaryGraphFormat.EXTRA_NAMES:
+                extraNames = readExtraNames(in);
+                break;
+            case BinaryGraphFormat.GEOMETRIES:
+                geometries = CompactGeometryTable.read(in);
+                break;
+            case BinaryGraphFormat.VERTICES:
+                vertexColumns = VertexColumns.read(in);
+                break;
+            case BinaryGraphFormat.STREET_EDGES:
+                edgeColumns = StreetEdgeColumns.read(in);
+                break;
+            default:
+                throw new StreamCorruptedException("Unknown graph file section " + kind);
+        }
+    }
+
+    private static String[] readStrings (DataInputStream in) throws IOException {
+        String[] strings = new String[in.readInt()];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return strings;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<I18NString> readExtraNames (InputStream in) throws IOException, ClassNotFoundException {
+        return (List<I18NString>) new ReferenceResolvingInputStream(in).readObject();
+    }
+
+    private I18NString name (int number) {
+        if (number == BinaryGraphFormat.NULL_NAME) return null;
+        if (number < 0) return extraNames.get(-1 - number);
+        if (stringNames[number] == null) stringNames[number] = new NonLocalizedString(strings[number]);
+        return stringNames[number];
+    }
+
+    @SuppressWarnings("unchecked")
+    private Graph readObjects (InputStream in, LoadLevel level, StreetVertexIndexFactory indexFactory)
+            throws IOException, ClassNotFoundException {
+        if (strings == null || extraNames == null || geometries == null || vertexColumns == null
+                || edgeColumns == null) {
+            throw new StreamCorruptedException("Graph file is missing sections.");
+        }
+        stringNames = new NonLocalizedString[strings.length];
+        vertices = vertexColumns.build(strings, this::name);
+        edges = edgeColumns.build(vertices, geometries, this::name);
+        for (int i = 0; i < edges.length; i++) {
+            ((Edge) edges[i]).setId(edgeColumns.id[i]);
+        }
+        LOG.debug("Street vertices and edges built.");
+        try {
+            ObjectInputStream objectIn = new ReferenceResolvingInputStream(in);
+            Graph graph = (Graph) objectIn.readObject();
+            LOG.debug("Basic graph info read.");
+            if (graph.graphVersionMismatch())
+                throw new RuntimeException("Graph version mismatch detected.");
+            if (level == LoadLevel.BASIC)
+                return graph;
+            LOG.debug("Loading other edges...");
+            List<Edge> otherEdges = (List<Edge>) objectIn.readObject();
+            List<Edge> allEdges = new ArrayList<>(edges.length + otherEdges.size());
+            allEdges.addAll(Arrays.asList(edges));
+            allEdges.addAll(otherEdges);
+            graph.indexLoadedEdges(allEdges, indexFactory);
+            if (level == LoadLevel.FULL)
+                return graph;
+            if (graph.isDebugData()) {
+                graph.setBuilderAnnotations((List<GraphBuilderAnnotation>) objectIn.readObject());
+                LOG.debug("Debug info read.");
+            } else {
+                LOG.warn("Graph file does not contain debug data.");
+            }
+            return graph;
+        } catch (InvalidClassException ex) {
+            LOG.error("Stored graph is incompatible with this version of OTP, please rebuild it.");
+            throw new IllegalStateException("Stored Graph version error", ex);
+        }
+    }
+
+    private static void readFully (FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new StreamCorruptedException("Graph file is truncated.");
+            }
+        }
+    }
+
+    /** @return a stream over the given part of the file, that can be read at the same time as other parts. */
+    private static DataInputStream sectionStream (FileChannel channel, long start, long length) {
+        return new DataInputStream(new BufferedInputStream(new ChannelInputStream(channel, start, length),
+                BUFFER_SIZE));
+    }
+
+    /** Reads part of a file with positional reads, which do not change the position of the channel. */
+    private static class ChannelInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+
+        ChannelInputStream (FileChannel channel, long start, long length) {
+            this.channel = channel;
+            this.position = start;
+            this.end = start + length;
+        }
+
+        @Override
+        public int read () throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read (byte[] b, int off, int len) throws IOException {
+            if (position >= end) return -1;
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, (int) Math.min(len, end - position));
+            int n = channel.read(buffer, position);
+            if (n < 0) throw new StreamCorruptedException("Graph file is truncated.");
+            position += n;
+            return n;
+        }
+    }
+
+    /** Replaces the numbers of the vertices and edges stored in columns by the vertices and edges themselves. */
+    private class ReferenceResolvingInputStream extends ObjectInputStream {
+
+        ReferenceResolvingInputStream (InputStream in) throws IOException {
+            super(in);
+            enableResolveObject(true);
+        }
+
+        @Override
+        protected Object resolveObject (Object obj) {
+            if (obj instanceof VertexRef) return vertices[((VertexRef) obj).number];
+            if (obj instanceof EdgeRef) return edges[((EdgeRef) obj).number];
+            return obj;
+        }
+
+        @Override
+        protected Class<?> resolveClass (ObjectStreamClass osc) throws IOException, ClassNotFoundException {
+            if (classLoader == null) return super.resolveClass(osc);
+            return Class.forName(osc.getName(), false, classLoader);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.graph;
+
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetEdgeColumns;
+import org.opentripplanner.routing.graph.BinaryGraphFormat.EdgeRef;
+import org.opentripplanner.routing.graph.BinaryGraphFormat.VertexColumns;
+import org.opentripplanner.routing.graph.BinaryGraphFormat.VertexRef;
+import org.opentripplanner.util.I18NString;
+import org.opentripplanner.util.NonLocalizedString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Saves a graph in the binary graph format (see BinaryGraphFormat). The sections are streamed to the file one after the
+ * other; only the columns of the street vertices and edges and the tables they refer to are built in memory first.
+ */
+public class BinaryGraphWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BinaryGraphWriter.class);
+
+    private final Graph graph;
+
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Integer> stringNumbers = new HashMap<>();
+
+    private final ArrayList<I18NString> extraNames = new ArrayList<>();
+    private final Map<I18NString, Integer> extraNameNumbers = new IdentityHashMap<>();
+
+    /** Geometries shared by several edges (see StreetEdge.shareData) are only stored once. */
+    private final List<int[]> geometries = new ArrayList<>();
+    private final Map<int[], Integer> geometryNumbers = new IdentityHashMap<>();
+
+    private final List<Vertex> columnVertices = new ArrayList<>();
+    private final Map<Vertex, Integer> vertexNumbers = new IdentityHashMap<>();
+
+    private final List<StreetEdge> columnEdges = new ArrayList<>();
+    private final Map<Edge, Integer> edgeNumbers = new IdentityHashMap<>();
+
+    /** The edges that are serialized with the graph. */
+    private final ArrayList<Edge> otherEdges = new ArrayList<>();
+
+    private FileChannel channel;
+    private DataOutputStream out;
+
+    private BinaryGraphWriter (Graph graph) {
+        this.graph = graph;
+    }
+
+    public static void write (Graph graph, File file) throws IOException {
+        new BinaryGraphWriter(graph).write(file);
+    }
+
+    private void write (File file) throws IOException {
+        LOG.debug("Sorting vertices and edges into columns...");
+        List<Edge> edges = new ArrayList<>(graph.countEdges());
+        for (Vertex v : graph.getVertices()) {
+            // there are assumed to be no edges in an incoming list that are not in an outgoing list
+            edges.addAll(v.getOutgoing());
+            if (v.getDegreeOut() + v.getDegreeIn() == 0) {
+                LOG.debug("vertex {} has no edges, it will not survive serialization.", v);
+            } else if (VertexColumns.canStore(v)) {
+                vertexNumbers.put(v, columnVertices.size());
+                columnVertices.add(v);
+            }
+        }
+        for (Edge e : edges) {
+            if (StreetEdgeColumns.canStore(e) && vertexNumbers.containsKey(e.getFromVertex())
+                    && vertexNumbers.containsKey(e.getToVertex())) {
+                edgeNumbers.put(e, columnEdges.size());
+                columnEdges.add((StreetEdge) e);
+            } else {
+                otherEdges.add(e);
+            }
+        }
+        VertexColumns vertexColumns = new VertexColumns(columnVertices, this::stringNumber, this::nameNumber);
+        StreetEdgeColumns edgeColumns = new StreetEdgeColumns(columnEdges, vertexNumbers::get, this::geometryNumber,
+                this::nameNumber);
+        LOG.info("{} vertices and {} edges in columns, {} other edges.", columnVertices.size(), columnEdges.size(),
+                otherEdges.size());
+        graph.rebuildVertexAndEdgeIndices();
+
+        // A graph loaded from the file being replaced may still read its geometries from it (see CompactGeometryTable),
+        // so the file is never overwritten in place but replaced once the new one is complete.
+        // The temporary file is created with the default permissions, like the file it replaces was.
+        File parent = file.getAbsoluteFile().getParentFile();
+        Path temporary = new File(parent, file.getName() + ".tmp").toPath();
+        try {
+            // Left over from an interrupted save, possibly with other permissions.
+            Files.deleteIfExists(temporary);
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                this.channel = channel;
+                this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+                out.writeInt(BinaryGraphFormat.MAGIC);
+                out.writeInt(BinaryGraphFormat.VERSION);
+
+                beginSection(BinaryGraphFormat.STRINGS);
+                out.writeInt(strings.size());
+                for (String string : strings) {
+                    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+                endSection();
+
+                beginSection(BinaryGraphFormat.EXTRA_NAMES);
+                ObjectOutputStream extraOut = new ObjectOutputStream(out);
+                extraOut.writeObject(extraNames);
+                extraOut.flush();
+                endSection();
+
+                LOG.debug("Writing geometries...");
+                beginSection(BinaryGraphFormat.GEOMETRIES);
+                out.writeInt(geometries.size());
+                int offset = 0;
+                out.writeInt(offset);
+                for (int[] geometry : geometries) {
+                    offset += geometry.length;
+                    out.writeInt(offset);
+                }
+                for (int[] geometry : geometries) {
+                    for (int value : geometry) out.writeInt(value);
+                }
+                endSection();
+
+                LOG.debug("Writing street vertices and edges...");
+                beginSection(BinaryGraphFormat.VERTICES);
+                vertexColumns.write(out);
+                endSection();
+
+                beginSection(BinaryGraphFormat.STREET_EDGES);
+                edgeColumns.write(out);
+                endSection();
+
+                LOG.debug("Writing graph and other edges...");
+                beginSection(BinaryGraphFormat.OBJECTS);
+                ObjectOutputStream objectOut = new ReferenceReplacingOutputStream(out);
+                objectOut.writeObject(graph);
+                objectOut.writeObject(otherEdges);
+                if (graph.isDebugData()) {
+                    LOG.debug("Writing debug data...");
+                    objectOut.writeObject(graph.getBuilderAnnotations());
+                }
+                objectOut.flush();
+                endSection();
+
+                out.writeInt(BinaryGraphFormat.END);
+                out.flush();
+            }
+            Files.move(temporary, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        LOG.info("Graph written.");
+    }
+
+    /** The position in the file of the length of the current section. */
+    private long sectionLengthPosition;
+
+    private void beginSection (int kind) throws IOException {
+        out.writeInt(kind);
+        out.flush();
+        sectionLengthPosition = channel.position();
+        out.writeLong(0);
+    }
+
+    private void endSection () throws IOException {
+        out.flush();
+        long length = channel.position() - sectionLengthPosition - Long.BYTES;
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+        buffer.putLong(length).flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, sectionLengthPosition + buffer.position());
+        }
+    }
+
+    private int stringNumber (String string) {
+        Integer number = stringNumbers.get(string);
+        if (number == null) {
+            number = strings.size();
+            strings.add(string);
+            stringNumbers.put(string, number);
+        }
+        return number;
+    }
+
+    private int nameNumber (I18NString name) {
+        if (name == null) return BinaryGraphFormat.NULL_NAME;
+        if (name.getClass() == NonLocalizedString.class) return stringNumber(name.toString());
+        Integer number = extraNameNumbers.get(name);
+        if (number == null) {
+            number = extraNames.size();
+            extraNames.add(name);
+            extraNameNumbers.put(name, number);
+        }
+        return -1 - number;
+    }
+
+    private int geometryNumber (int[] geometry) {
+        if (geometry == null) return -1;
+        Integer number = geometryNumbers.get(geometry);
+        if (number == null) {
+            number = geometries.size();
+            geometries.add(geometry);
+            geometryNumbers.put(geometry, number);
+        }
+        return number;
+    }
+
+    /** Replaces the vertices and edges stored in columns by their number. */
+    private class ReferenceReplacingOutputStream extends ObjectOutputStream {
+
+        ReferenceReplacingOutputStream (OutputStream out) throws IOException {
+            super(out);
+            enableReplaceObject(true);
+        }
+
+        /* One reference per vertex or edge, so that the stream writes each of them only once. */
+        private final VertexRef[] vertexRefs = new VertexRef[columnVertices.size()];
+        private final EdgeRef[] edgeRefs = new EdgeRef[columnEdges.size()];
+
+        @Override
+        protected Object replaceObject (Object obj) {
+            if (obj instanceof Vertex) {
+                Integer number = vertexNumbers.get(obj);
+                if (number != null) {
+                    if (vertexRefs[number] == null) vertexRefs[number] = new VertexRef(number);
+                    return vertexRefs[number];
+                }
+            } else if (obj instanceof Edge) {
+                Integer number = edgeNumbers.get(obj);
+                if (number != null) {
+                    if (edgeRefs[number] == null) edgeRefs[number] = new EdgeRef(number);
+                    return edgeRefs[number];
+                }
+            }
+            return obj;
+        }
+    }
+}
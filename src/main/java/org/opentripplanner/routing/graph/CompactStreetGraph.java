@@ -0,0 +1,250 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.graph;
+
+import org.opentripplanner.routing.core.MortonVertexComparator;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.ElevatorEdge;
+import org.opentripplanner.routing.edgetype.ElevatorHopEdge;
+import org.opentripplanner.routing.edgetype.FreeEdge;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTransitLink;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.vertextype.BarrierVertex;
+import org.opentripplanner.routing.vertextype.StreetVertex;
+import org.opentripplanner.routing.vertextype.TransitStationStop;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A frozen, read-only view of the street layer of a Graph in compressed sparse row form: the outgoing edges of each
+ * vertex are stored contiguously in parallel primitive arrays (target, length, permissions, car speed, flags) rather
+ * than as Edge objects. Vertices are numbered in the order of a MortonVertexComparator, so that vertices which are
+ * close together in space, and therefore tend to be explored together by a search, are close together in memory.
+ *
+ * This holds street edges, links between streets and transit stops, free edges and elevators. Other edges (bike
+ * rental, park and ride, pathways...) are left out, as are turn restrictions and elevation, so searches on this view
+ * are suited to computing walking distances and approximate travel times on the street network, not to producing
+ * itineraries. See CompactStreetSearch.
+ *
+ * It is built from the Graph after it is loaded, and not updated afterward: edges added or removed later, for example
+ * by real-time updaters, are not reflected.
+ */
+public class CompactStreetGraph {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompactStreetGraph.class);
+
+    /** Edge flag: the edge is a staircase. */
+    public static final byte FLAG_STAIRS = 1;
+
+    /** Edge flag: the edge can be used in a wheelchair. */
+    public static final byte FLAG_WHEELCHAIR = 2;
+
+    /** The vertices in this view, in Morton order. */
+    private final Vertex[] vertices;
+
+    /** The position of each vertex in this view by vertex index, or -1 if it is not included. */
+    private final int[] positionForIndex;
+
+    /**
+     * Whether a search may continue through each vertex. Transit stops are included so that searches can start or end
+     * there, but do not pass through them: that would allow shortcuts made of two links to the same stop.
+     */
+    private final boolean[] through;
+
+    /** The outgoing edges of the vertex at position p are at positions firstEdge[p] until firstEdge[p + 1]. */
+    private final int[] firstEdge;
+
+    /** The position of the vertex at the end of each edge. */
+    private final int[] edgeTarget;
+
+    /** The length of each edge in millimeters, as in StreetEdge. */
+    private final int[] edgeLengthMm;
+
+    /** The StreetTraversalPermission code of each edge, including any barriers at its ends. */
+    private final byte[] edgePermission;
+
+    /** The car speed on each edge in meters per second. */
+    private final float[] edgeCarSpeed;
+
+    /** Flags for each edge, see FLAG_STAIRS and FLAG_WHEELCHAIR. */
+    private final byte[] edgeFlags;
+
+    public CompactStreetGraph (Graph graph) {
+        List<Vertex> vertexList = new ArrayList<>();
+        for (Vertex v : graph.getVertices()) {
+            if (isIncluded(v)) vertexList.add(v);
+        }
+        if (!vertexList.isEmpty()) {
+            Collections.sort(vertexList, new MortonVertexComparator(vertexList));
+        }
+        vertices = vertexList.toArray(new Vertex[vertexList.size()]);
+        int maxIndex = -1;
+        for (Vertex v : vertices) maxIndex = Math.max(maxIndex, v.getIndex());
+        positionForIndex = new int[maxIndex + 1];
+        Arrays.fill(positionForIndex, -1);
+        through = new boolean[vertices.length];
+        for (int p = 0; p < vertices.length; p++) {
+            positionForIndex[vertices[p].getIndex()] = p;
+            through[p] = vertices[p] instanceof StreetVertex;
+        }
+
+        // Count the edges first so that the arrays can be allocated at their final size.
+        int nEdges = 0;
+        for (Vertex v : vertices) {
+            for (Edge e : v.getOutgoing()) {
+                if (isIncluded(e)) nEdges++;
+            }
+        }
+        firstEdge = new int[vertices.length + 1];
+        edgeTarget = new int[nEdges];
+        edgeLengthMm = new int[nEdges];
+        edgePermission = new byte[nEdges];
+        edgeCarSpeed = new float[nEdges];
+        edgeFlags = new byte[nEdges];
+        int edge = 0;
+        for (int p = 0; p < vertices.length; p++) {
+            firstEdge[p] = edge;
+            for (Edge e : vertices[p].getOutgoing()) {
+                if (!isIncluded(e)) continue;
+                edgeTarget[edge] = position(e.getToVertex());
+                setEdgeAttributes(edge, e);
+                edge++;
+            }
+        }
+        firstEdge[vertices.length] = edge;
+        LOG.info("Built compact street graph with {} vertices and {} edges.", vertices.length, nEdges);
+    }
+
+    private void setEdgeAttributes (int edge, Edge e) {
+        StreetTraversalPermission permission;
+        byte flags = 0;
+        if (e instanceof StreetEdge) {
+            StreetEdge se = (StreetEdge) e;
+            permission = se.getPermission();
+            if (e.getFromVertex() instanceof BarrierVertex) {
+                permission = permission.intersection(((BarrierVertex) e.getFromVertex()).getBarrierPermissions());
+            }
+            if (e.getToVertex() instanceof BarrierVertex) {
+                permission = permission.intersection(((BarrierVertex) e.getToVertex()).getBarrierPermissions());
+            }
+            edgeLengthMm[edge] = (int) Math.round(se.getDistance() * 1000);
+            edgeCarSpeed[edge] = se.getCarSpeed();
+            if (se.isStairs()) flags |= FLAG_STAIRS;
+            if (se.isWheelchairAccessible()) flags |= FLAG_WHEELCHAIR;
+        } else {
+            if (e instanceof StreetTransitLink) {
+                permission = StreetTraversalPermission.PEDESTRIAN_AND_BICYCLE;
+                if (((StreetTransitLink) e).isWheelchairAccessible()) flags |= FLAG_WHEELCHAIR;
+            } else if (e instanceof ElevatorHopEdge) {
+                permission = ((ElevatorHopEdge) e).getPermission();
+                if (((ElevatorHopEdge) e).wheelchairAccessible) flags |= FLAG_WHEELCHAIR;
+            } else {
+                permission = StreetTraversalPermission.ALL;
+                flags |= FLAG_WHEELCHAIR;
+            }
+            edgeLengthMm[edge] = 0;
+            edgeCarSpeed[edge] = Float.POSITIVE_INFINITY;
+        }
+        edgePermission[edge] = (byte) permission.code;
+        edgeFlags[edge] = flags;
+    }
+
+    private static boolean isIncluded (Vertex v) {
+        return v instanceof StreetVertex || v instanceof TransitStationStop;
+    }
+
+    private static boolean isIncluded (Edge e) {
+        if (!isIncluded(e.getFromVertex()) || !isIncluded(e.getToVertex())) return false;
+        return e instanceof StreetEdge || e instanceof StreetTransitLink || e instanceof FreeEdge
+                || e instanceof ElevatorEdge;
+    }
+
+    /** @return the position of the given vertex in this view, or -1 if it is not included. */
+    public int position (Vertex v) {
+        int index = v.getIndex();
+        if (index >= positionForIndex.length) return -1;
+        int position = positionForIndex[index];
+        // Temporary vertices created after this view was built may have indices beyond those of any vertex included.
+        if (position < 0 || vertices[position] != v) return -1;
+        return position;
+    }
+
+    public Vertex getVertex (int position) {
+        return vertices[position];
+    }
+
+    public int getVertexCount () {
+        return vertices.length;
+    }
+
+    public int getEdgeCount () {
+        return edgeTarget.length;
+    }
+
+    /** @return whether a search may continue through the vertex at the given position. */
+    public boolean isThrough (int position) {
+        return through[position];
+    }
+
+    public int getFirstEdge (int position) {
+        return firstEdge[position];
+    }
+
+    /** @return the index after the last outgoing edge of the vertex at the given position. */
+    public int getEndEdge (int position) {
+        return firstEdge[position + 1];
+    }
+
+    public int getEdgeTarget (int edge) {
+        return edgeTarget[edge];
+    }
+
+    public int getEdgeLengthMm (int edge) {
+        return edgeLengthMm[edge];
+    }
+
+    public float getEdgeCarSpeed (int edge) {
+        return edgeCarSpeed[edge];
+    }
+
+    /** @return whether the given edge allows any of the modes in the given mask, see permissionMask. */
+    public boolean allows (int edge, int permissionMask) {
+        return (edgePermission[edge] & permissionMask) != 0;
+    }
+
+    /** @return the StreetTraversalPermission bits for a street mode, for use with allows(int, int). */
+    public static int permissionMask (TraverseMode mode) {
+        switch (mode) {
+            case WALK: return StreetTraversalPermission.PEDESTRIAN.code;
+            case BICYCLE: return StreetTraversalPermission.BICYCLE.code;
+            case CAR: return StreetTraversalPermission.CAR.code;
+            default: return 0;
+        }
+    }
+
+    public boolean isStairs (int edge) {
+        return (edgeFlags[edge] & FLAG_STAIRS) != 0;
+    }
+
+    public boolean isWheelchairAccessible (int edge) {
+        return (edgeFlags[edge] & FLAG_WHEELCHAIR) != 0;
+    }
+
+}
@@ -280,4 +280,9 @@ public abstract class Edge implements Serializable {
     	return this.id;
     }
 
+    /** Restores the identifier of an edge loaded from the binary graph format. */
+    void setId(int id) {
+        this.id = id;
+    }
+
 }
@@ -37,6 +37,8 @@ import org.opentripplanner.common.geometry.GraphUtils;
 import org.opentripplanner.graph_builder.annotation.GraphBuilderAnnotation;
 import org.opentripplanner.graph_builder.annotation.NoFutureDates;
 import org.opentripplanner.model.GraphBundle;
+import org.opentripplanner.profile.StopTreeCache;
+import org.opentripplanner.routing.algorithm.strategies.LandmarkDistances;
 import org.opentripplanner.routing.alertpatch.AlertPatch;
 import org.opentripplanner.routing.core.MortonVertexComparatorFactory;
 import org.opentripplanner.routing.core.TransferTable;
@@ -177,6 +179,12 @@ public class Graph implements Serializable {
     /** True if OSM data was loaded into this Graph. */
     public boolean hasStreets = false;
 
+    /** Street network distances to and from landmarks for the ALT heuristic, or null if none were computed. */
+    public LandmarkDistances landmarkDistances = null;
+
+    /** Street network distances from transit stops to nearby vertices, or null if they were not computed when building. */
+    public StopTreeCache stopTreeCache = null;
+
     /** True if GTFS data was loaded into this Graph. */
     public boolean hasTransit = false;
 
@@ -198,12 +206,16 @@ public class Graph implements Serializable {
     /** A speed source for traffic data */
     public transient StreetSpeedSnapshotSource streetSpeedSource;
 
+    /** The generations of the edge lists of the vertices, see GraphGeneration. */
+    private transient GraphGenerations generations;
+
     public Graph(Graph basedOn) {
         this();
         this.bundle = basedOn.getBundle();
     }
 
     public Graph() {
+        this.generations = new GraphGenerations();
         this.vertices = new ConcurrentHashMap<String, Vertex>();
         this.edgeById = new ConcurrentHashMap<Integer, Edge>();
         this.vertexById = new ConcurrentHashMap<Integer, Vertex>();
@@ -264,11 +276,19 @@ public class Graph implements Serializable {
                     }
                 }
 
-                e.fromv = null;
             }
 
             if (e.tov != null) {
                 e.tov.removeIncoming(e);
+            }
+
+            // Requests that pinned an older generation of the graph may still traverse the edge, so it keeps its
+            // vertices until that generation is retired.
+            GraphGeneration editing = GraphGeneration.editing();
+            if (editing != null) {
+                editing.removed(e);
+            } else {
+                e.fromv = null;
                 e.tov = null;
             }
         }
@@ -483,6 +503,32 @@ public class Graph implements Serializable {
         vertices.remove(vertex.getLabel());
     }
 
+    /**
+     * Make the given changes to this graph as a new generation, which is published to new requests all at once when
+     * the changes are done. Requests that are running see the edges as they were when they started. Only one
+     * generation is built at a time, so concurrent calls wait for each other. See GraphGeneration.
+     */
+    public void edit(Runnable changes) {
+        generations.edit(changes);
+    }
+
+    /** @return the latest published generation of this graph. */
+    public GraphGeneration getGeneration() {
+        return generations.current();
+    }
+
+    /**
+     * Pin the current generation of this graph for the given holder (usually a routing context), so that edge lists
+     * of that generation are kept until it is unpinned or the holder is garbage collected.
+     */
+    public GraphGeneration pinGeneration(Object holder) {
+        return generations.pin(holder);
+    }
+
+    public void unpinGeneration(Object holder) {
+        generations.unpin(holder);
+    }
+
     public void removeVertexAndEdges(Vertex vertex) {
         if (!containsVertex(vertex)) {
             throw new IllegalStateException("attempting to remove vertex that is not in graph.");
@@ -595,14 +641,14 @@ public class Graph implements Serializable {
      * before the Vertex has any edges, so updating indices on addVertex is insufficient.
      */
     public void rebuildVertexAndEdgeIndices() {
-        this.vertexById = new HashMap<Integer, Vertex>(Vertex.getMaxIndex());
+        this.vertexById = new ConcurrentHashMap<Integer, Vertex>(Vertex.getMaxIndex());
         Collection<Vertex> vertices = getVertices();
         for (Vertex v : vertices) {
             vertexById.put(v.getIndex(), v);
         }
 
         // Create map from edge ids to edges.
-        this.edgeById = new HashMap<Integer, Edge>();
+        this.edgeById = new ConcurrentHashMap<Integer, Edge>();
         for (Vertex v : vertices) {
             // TODO(flamholz): this check seems superfluous.
             if (v == null) {
@@ -617,6 +663,7 @@ public class Graph implements Serializable {
     private void readObject(ObjectInputStream inputStream) throws ClassNotFoundException,
             IOException {
         inputStream.defaultReadObject();
+        generations = new GraphGenerations();
     }
 
     /**
@@ -638,6 +685,14 @@ public class Graph implements Serializable {
         return this.graphBuilderAnnotations;
     }
 
+    void setBuilderAnnotations(List<GraphBuilderAnnotation> graphBuilderAnnotations) {
+        this.graphBuilderAnnotations = graphBuilderAnnotations;
+    }
+
+    boolean isDebugData() {
+        return debugData;
+    }
+
     /**
      * Adds mode of transport to transit modes in graph
      * @param mode
@@ -656,24 +711,56 @@ public class Graph implements Serializable {
         BASIC, FULL, DEBUG;
     }
 
+    /** Load a graph file with the default street vertex index, see below. */
     public static Graph load(File file, LoadLevel level) throws IOException, ClassNotFoundException {
+        return load(file, level, new DefaultStreetVertexIndexFactory());
+    }
+
+    /**
+     * Load a graph file, in the binary graph format (see BinaryGraphReader) or with Java serialization, depending on
+     * how the file starts. The street edge geometries of a graph in the binary format are mapped from the file, which
+     * must then not be overwritten in place while the graph is in use.
+     */
+    public static Graph load(File file, LoadLevel level, StreetVertexIndexFactory indexFactory)
+            throws IOException, ClassNotFoundException {
         LOG.info("Reading graph " + file.getAbsolutePath() + " ...");
+        if (BinaryGraphReader.isBinaryGraph(file)) {
+            return BinaryGraphReader.read(file, level, indexFactory, null);
+        }
         // cannot use getClassLoader() in static context
-        ObjectInputStream in = new ObjectInputStream(new FileInputStream(file));
-        return load(in, level);
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            return load(in, level, indexFactory);
+        }
     }
 
     public static Graph load(ClassLoader classLoader, File file, LoadLevel level)
             throws IOException, ClassNotFoundException {
         LOG.info("Reading graph " + file.getAbsolutePath() + " with alternate classloader ...");
-        ObjectInputStream in = new GraphObjectInputStream(new BufferedInputStream(
-                new FileInputStream(file)), classLoader);
-        return load(in, level);
+        if (BinaryGraphReader.isBinaryGraph(file)) {
+            return BinaryGraphReader.read(file, level, new DefaultStreetVertexIndexFactory(), classLoader);
+        }
+        try (ObjectInputStream in = new GraphObjectInputStream(new BufferedInputStream(
+                new FileInputStream(file)), classLoader)) {
+            return load(in, level);
+        }
     }
 
     public static Graph load(InputStream is, LoadLevel level) throws ClassNotFoundException,
             IOException {
-        return load(new ObjectInputStream(is), level);
+        return load(is, level, new DefaultStreetVertexIndexFactory());
+    }
+
+    /**
+     * Load a graph from a stream, in the binary graph format (see BinaryGraphReader) or with Java serialization,
+     * depending on how the stream starts.
+     */
+    public static Graph load(InputStream is, LoadLevel level, StreetVertexIndexFactory indexFactory)
+            throws ClassNotFoundException, IOException {
+        BufferedInputStream in = new BufferedInputStream(is);
+        if (BinaryGraphReader.isBinaryGraph(in)) {
+            return BinaryGraphReader.read(in, level, indexFactory, null);
+        }
+        return load(new ObjectInputStream(in), level, indexFactory);
     }
 
     /**
@@ -701,6 +788,12 @@ public class Graph implements Serializable {
         LOG.debug("street index built.");
         LOG.debug("Rebuilding edge and vertex indices.");
         rebuildVertexAndEdgeIndices();
+        if (landmarkDistances != null) {
+            landmarkDistances.index();
+        }
+        if (stopTreeCache != null) {
+            stopTreeCache.index();
+        }
         Set<TripPattern> tableTripPatterns = Sets.newHashSet();
         for (PatternArriveVertex pav : Iterables.filter(this.getVertices(), PatternArriveVertex.class)) {
             tableTripPatterns.add(pav.getTripPattern());
@@ -735,15 +828,7 @@ public class Graph implements Serializable {
             // vertex list is transient because it can be reconstructed from edges
             LOG.debug("Loading edges...");
             List<Edge> edges = (ArrayList<Edge>) in.readObject();
-            graph.vertices = new HashMap<String, Vertex>();
-            
-            for (Edge e : edges) {
-                graph.vertices.put(e.getFromVertex().getLabel(), e.getFromVertex());
-                graph.vertices.put(e.getToVertex().getLabel(), e.getToVertex());
-            }
-
-            LOG.info("Main graph read. |V|={} |E|={}", graph.countVertices(), graph.countEdges());
-            graph.index(indexFactory);
+            graph.indexLoadedEdges(edges, indexFactory);
 
             if (level == LoadLevel.FULL) {
                 return graph;
@@ -762,6 +847,20 @@ public class Graph implements Serializable {
         }
     }
 
+    /**
+     * Rebuild the table of vertices of a graph that was just loaded from the endpoints of its edges, as the vertex
+     * list is transient, then index the graph.
+     */
+    void indexLoadedEdges(Collection<Edge> edges, StreetVertexIndexFactory indexFactory) {
+        vertices = new ConcurrentHashMap<String, Vertex>();
+        for (Edge e : edges) {
+            vertices.put(e.getFromVertex().getLabel(), e.getFromVertex());
+            vertices.put(e.getToVertex().getLabel(), e.getToVertex());
+        }
+        LOG.info("Main graph read. |V|={} |E|={}", countVertices(), countEdges());
+        index(indexFactory);
+    }
+
     /**
      * Compares the OTP version number stored in the graph with that of the currently running instance. Logs warnings explaining that mismatched
      * versions can cause problems.
@@ -769,7 +868,7 @@ public class Graph implements Serializable {
      * @return false if Maven versions match (even if commit ids do not match), true if Maven version of graph does not match this version of OTP or
      *         graphs are otherwise obviously incompatible.
      */
-    private boolean graphVersionMismatch() {
+    boolean graphVersionMismatch() {
         MavenVersion v = MavenVersion.VERSION;
         MavenVersion gv = this.mavenVersion;
         LOG.info("Graph version: {}", gv);
@@ -795,21 +894,18 @@ public class Graph implements Serializable {
         }
     }
 
+    /**
+     * Save this graph to a file in the binary graph format (see BinaryGraphWriter), which loads much faster than Java
+     * serialization. Files saved with save(ObjectOutputStream) can still be loaded.
+     */
     public void save(File file) throws IOException {
         LOG.info("Main graph size: |V|={} |E|={}", this.countVertices(), this.countEdges());
         LOG.info("Writing graph " + file.getAbsolutePath() + " ...");
-        ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(
-                new FileOutputStream(file)));
-        try {
-            save(out);
-            out.close();
-        } catch (RuntimeException e) {
-            out.close();
-            file.delete(); // remove half-written file
-            throw e;
-        }
+        // the file is only replaced once the new graph is completely written
+        BinaryGraphWriter.write(this, file);
     }
 
+    /** Save this graph with Java serialization. */
     public void save(ObjectOutputStream out) throws IOException {
         LOG.debug("Consolidating edges...");
         // this is not space efficient
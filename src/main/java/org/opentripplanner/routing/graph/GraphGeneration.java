@@ -0,0 +1,118 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.graph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One version of the edge lists of the vertices in a graph.
+ *
+ * Updaters that add or remove vertices and edges make their changes as a new generation (see Graph.edit()). The edge
+ * lists changed in a generation are kept by each vertex next to those of older generations, and are invisible to
+ * searches until all the changes are done and the generation is published. A routing request pins the generation that
+ * was current when it started, and sees the edges of that generation for its whole duration, even if newer generations
+ * are published while it runs. Older edge lists are dropped when no request can see them any more.
+ *
+ * Only the edge lists of vertices are versioned. Vertices and edges themselves are not copied, so changes to their
+ * fields (for example the number of bikes at a bike rental station) are still visible immediately. The same goes for
+ * the vertex map of the graph and the street index, which are used to link the origin and destination of a request
+ * before its search starts.
+ */
+public final class GraphGeneration {
+
+    /** The generation being built by each thread that is editing a graph. */
+    private static final ThreadLocal<GraphGeneration> editing = new ThreadLocal<>();
+
+    /** Generations are numbered consecutively, starting with zero for the base generation. */
+    public final long number;
+
+    /**
+     * When this generation was started, no request had pinned a generation older than this one, and none will, so
+     * edge lists that are replaced by a newer one of this generation or older can be dropped.
+     */
+    final long oldestVisible;
+
+    /** The thread building this generation, which can see its changes before they are published. */
+    private final Thread writer;
+
+    private volatile boolean published;
+
+    /** The number of requests that pinned this generation. */
+    final AtomicInteger pins = new AtomicInteger();
+
+    /**
+     * Edges removed in this generation, which keep their vertices until no request can see an older generation. Only
+     * written by the thread building this generation, then read once it is retired (see GraphGenerations).
+     */
+    private List<Edge> removedEdges = new ArrayList<>();
+
+    GraphGeneration (long number, long oldestVisible, Thread writer) {
+        this.number = number;
+        this.oldestVisible = oldestVisible;
+        this.writer = writer;
+        this.published = writer == null;
+    }
+
+    /** @return the generation being built by the current thread, or null if it is not editing a graph. */
+    static GraphGeneration editing () {
+        return editing.get();
+    }
+
+    static void setEditing (GraphGeneration generation) {
+        if (generation == null) {
+            editing.remove();
+        } else {
+            editing.set(generation);
+        }
+    }
+
+    void publish () {
+        published = true;
+    }
+
+    /** Record an edge removed while building this generation, so that it is detached once this one is retired. */
+    void removed (Edge edge) {
+        removedEdges.add(edge);
+    }
+
+    /** Detach the edges removed in this generation from their vertices, now that no request can traverse them. */
+    void detachRemovedEdges () {
+        for (Edge edge : removedEdges) {
+            edge.fromv = null;
+            edge.tov = null;
+        }
+        removedEdges.clear();
+    }
+
+    public boolean isPublished () {
+        return published;
+    }
+
+    /**
+     * @param pinned the generation pinned by a request, or null to see the latest published generation.
+     * @return whether a request that pinned the given generation sees the changes made in this one. The thread building
+     * a generation always sees its own changes.
+     */
+    boolean isVisibleTo (GraphGeneration pinned) {
+        if (!published) return writer == Thread.currentThread();
+        return pinned == null || number <= pinned.number;
+    }
+
+    @Override
+    public String toString () {
+        return "GraphGeneration(" + number + (published ? ")" : ", unpublished)");
+    }
+}
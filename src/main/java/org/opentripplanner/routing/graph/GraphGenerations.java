@@ -0,0 +1,137 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.graph;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps track of the current generation of a graph, of the generations pinned by requests, and makes sure that only
+ * one generation is built at a time.
+ *
+ * Each generation counts the requests that pinned it. Pinning and unpinning only touch that count and a concurrent
+ * map from holders to generations, so requests never wait for each other or for an edit. The map holds its keys
+ * weakly, so a request that is never cleaned up only holds on to old edge lists until it is garbage collected.
+ *
+ * A generation is retired once it is neither current nor pinned, and all older ones are retired. The edges removed in
+ * a generation are detached from their vertices when all generations older than it are retired.
+ */
+class GraphGenerations {
+
+    private volatile GraphGeneration current = new GraphGeneration(0, Long.MAX_VALUE, null);
+
+    /** The published generations that are not retired yet, oldest first. The current one is always the last. */
+    private final Queue<GraphGeneration> live = new ConcurrentLinkedQueue<>();
+
+    /** The generation pinned by each holder. Removing an entry, or the garbage collection of its holder, unpins it. */
+    private final Cache<Object, GraphGeneration> pins = CacheBuilder.newBuilder().weakKeys()
+            .removalListener((RemovalListener<Object, GraphGeneration>) removal -> removal.getValue().pins.decrementAndGet())
+            .build();
+
+    /** Held while a generation is built, so that generations are built one after the other. */
+    private final Object editLock = new Object();
+
+    /** Held while retiring generations. Threads that find it taken leave the retirement to the thread holding it. */
+    private final ReentrantLock retireLock = new ReentrantLock();
+
+    GraphGenerations () {
+        live.add(current);
+    }
+
+    GraphGeneration current () {
+        return current;
+    }
+
+    GraphGeneration pin (Object holder) {
+        while (true) {
+            GraphGeneration generation = current;
+            generation.pins.incrementAndGet();
+            // If a newer generation was published in the meantime, this one may already be retired.
+            if (generation == current) {
+                // Pinning again with the same holder replaces its previous pin, which unpins that one.
+                pins.put(holder, generation);
+                return generation;
+            }
+            generation.pins.decrementAndGet();
+        }
+    }
+
+    void unpin (Object holder) {
+        pins.invalidate(holder);
+        retire();
+    }
+
+    /** @return the number of the oldest generation that is pinned or current. */
+    private long oldestVisible () {
+        // Unpin the generations of holders that were garbage collected.
+        pins.cleanUp();
+        long oldest = current.number;
+        for (GraphGeneration generation : live) {
+            if (generation.pins.get() > 0) {
+                oldest = Math.min(oldest, generation.number);
+            }
+        }
+        return oldest;
+    }
+
+    /** Retire the oldest generations that are no longer visible, and detach the edges no request can traverse. */
+    private void retire () {
+        if (!retireLock.tryLock()) return;
+        try {
+            pins.cleanUp();
+            GraphGeneration oldest = live.peek();
+            while (oldest != current && oldest.pins.get() == 0) {
+                live.poll();
+                oldest.detachRemovedEdges();
+                oldest = live.peek();
+            }
+            // No request can see a generation older than this one, so none can traverse the edges removed in it.
+            oldest.detachRemovedEdges();
+        } finally {
+            retireLock.unlock();
+        }
+    }
+
+    /**
+     * Make the changes of the given runnable as a new generation, and publish it when the runnable returns. The
+     * generation is also published if the runnable throws an exception, as the changes made until then cannot be
+     * undone.
+     */
+    void edit (Runnable changes) {
+        if (GraphGeneration.editing() != null) {
+            // Nested edits are part of the enclosing one.
+            changes.run();
+            return;
+        }
+        synchronized (editLock) {
+            GraphGeneration generation = new GraphGeneration(current.number + 1, oldestVisible(),
+                    Thread.currentThread());
+            GraphGeneration.setEditing(generation);
+            try {
+                changes.run();
+            } finally {
+                GraphGeneration.setEditing(null);
+                live.add(generation);
+                generation.publish();
+                current = generation;
+            }
+        }
+        retire();
+    }
+}
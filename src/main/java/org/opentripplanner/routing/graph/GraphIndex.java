@@ -1,5 +1,7 @@
 package org.opentripplanner.routing.graph;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Lists;
@@ -20,6 +22,7 @@ import org.onebusaway.gtfs.model.Stop;
 import org.onebusaway.gtfs.model.Trip;
 import org.onebusaway.gtfs.model.calendar.ServiceDate;
 import org.onebusaway.gtfs.services.calendar.CalendarService;
+import org.opentripplanner.analyst.cluster.TaskStatistics;
 import org.opentripplanner.common.LuceneIndex;
 import org.opentripplanner.common.geometry.HashGridSpatialIndex;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
@@ -28,10 +31,14 @@ import org.opentripplanner.common.model.P2;
 import org.opentripplanner.index.IndexGraphQLSchema;
 import org.opentripplanner.index.model.StopTimesInPattern;
 import org.opentripplanner.index.model.TripTimeShort;
+import org.opentripplanner.profile.ProfileRequest;
 import org.opentripplanner.profile.ProfileTransfer;
+import org.opentripplanner.profile.RaptorWorker;
+import org.opentripplanner.profile.RaptorWorkerData;
 import org.opentripplanner.profile.StopCluster;
 import org.opentripplanner.profile.StopNameNormalizer;
 import org.opentripplanner.profile.StopTreeCache;
+import org.opentripplanner.profile.TimeWindow;
 import org.opentripplanner.routing.algorithm.AStar;
 import org.opentripplanner.routing.algorithm.TraverseVisitor;
 import org.opentripplanner.routing.core.RoutingRequest;
@@ -50,6 +57,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.core.Response;
+import java.time.DayOfWeek;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Collection;
@@ -58,6 +66,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 
 /**
@@ -113,6 +122,14 @@ public class GraphIndex {
     /** Store distances from each stop to all nearby street intersections. Useful in speeding up analyst requests. */
     private transient StopTreeCache stopTreeCache = null;
 
+    /** A compact, read-only copy of the street network for fast street-only searches. Built on demand. */
+    private transient volatile CompactStreetGraph compactStreetGraph = null;
+
+    /** RAPTOR data for point-to-point searches, keyed on service date and the hour of the departure time. */
+    private final Cache<String, RaptorWorkerData> pointToPointRaptorData = CacheBuilder.newBuilder()
+            .maximumSize(8)
+            .build();
+
     public GraphIndex (Graph graph) {
         LOG.info("Indexing graph...");
 
@@ -406,6 +423,8 @@ public class GraphIndex {
             snapshot = graph.timetableSnapshotSource.getTimetableSnapshot();
         }
         ServiceDate[] serviceDates = {new ServiceDate().previous(), new ServiceDate(), new ServiceDate().next()};
+        // Service days are the same for all the patterns of an agency, and are costly to make.
+        Map<String, ServiceDay[]> serviceDaysForAgency = new HashMap<>();
 
         for (TripPattern pattern : patternsForStop.get(stop)) {
 
@@ -419,9 +438,20 @@ public class GraphIndex {
                 }
             };
 
+            String agencyId = pattern.route.getAgency().getId();
+            ServiceDay[] serviceDays = serviceDaysForAgency.get(agencyId);
+            if (serviceDays == null) {
+                serviceDays = new ServiceDay[serviceDates.length];
+                for (int d = 0; d < serviceDates.length; d++) {
+                    serviceDays[d] = new ServiceDay(graph, serviceDates[d], calendarService, agencyId);
+                }
+                serviceDaysForAgency.put(agencyId, serviceDays);
+            }
+
             // Loop through all possible days
-            for (ServiceDate serviceDate : serviceDates) {
-                ServiceDay sd = new ServiceDay(graph, serviceDate, calendarService, pattern.route.getAgency().getId());
+            for (int d = 0; d < serviceDates.length; d++) {
+                ServiceDate serviceDate = serviceDates[d];
+                ServiceDay sd = serviceDays[d];
                 Timetable tt;
                 if (snapshot != null){
                     tt = snapshot.resolve(pattern, serviceDate);
@@ -435,12 +465,21 @@ public class GraphIndex {
                 int sidx = 0;
                 for (Stop currStop : pattern.stopPattern.stops) {
                     if (currStop == stop) {
-                        for (TripTimes t : tt.tripTimes) {
-                            if (!sd.serviceRunning(t.serviceCode)) continue;
-                            if (t.getDepartureTime(sidx) != -1 &&
-                                    t.getDepartureTime(sidx) >= secondsSinceMidnight) {
+                        // Finished timetables (including those of every committed realtime snapshot) have the trips
+                        // sorted by departure at each stop, so only the next departures need to be looked at.
+                        List<TripTimes> departures = tt.getNextDepartures(sd, sidx, secondsSinceMidnight, numberOfDepartures);
+                        if (departures != null) {
+                            for (TripTimes t : departures) {
                                 pq.insertWithOverflow(new TripTimeShort(t, sidx, stop, sd));
                             }
+                        } else {
+                            for (TripTimes t : tt.tripTimes) {
+                                if (!sd.serviceRunning(t.serviceCode)) continue;
+                                if (t.getDepartureTime(sidx) != -1 &&
+                                        t.getDepartureTime(sidx) >= secondsSinceMidnight) {
+                                    pq.insertWithOverflow(new TripTimeShort(t, sidx, stop, sd));
+                                }
+                            }
                         }
 
                         // TODO: This needs to be adapted after #1647 is merged
@@ -512,18 +551,66 @@ public class GraphIndex {
         return ret;
     }
 
-    /** Fetch a cache of nearby intersection distances for every transit stop in this graph, lazy-building as needed. */
+    /**
+     * Fetch a cache of nearby intersection distances for every transit stop in this graph, lazy-building as needed.
+     * A cache that was built with the graph is used if it has the same cutoff distance.
+     */
     public StopTreeCache getStopTreeCache() {
         if (stopTreeCache == null) {
             synchronized (this) {
                 if (stopTreeCache == null) {
-                    stopTreeCache = new StopTreeCache(graph, MAX_WALK_METERS); // TODO make this max-distance variable
+                    StopTreeCache prebuilt = graph.stopTreeCache;
+                    if (prebuilt != null && prebuilt.getMaxWalkMeters() == MAX_WALK_METERS) {
+                        stopTreeCache = prebuilt;
+                    } else {
+                        stopTreeCache = new StopTreeCache(graph, MAX_WALK_METERS); // TODO make this max-distance variable
+                    }
                 }
             }
         }
         return stopTreeCache;
     }
 
+    /**
+     * Fetch a compact, read-only copy of the street network in this graph, lazy-building as needed. It reflects the
+     * streets as they were when it was built, see CompactStreetGraph.
+     */
+    public CompactStreetGraph getCompactStreetGraph() {
+        if (compactStreetGraph == null) {
+            synchronized (this) {
+                if (compactStreetGraph == null) {
+                    compactStreetGraph = new CompactStreetGraph(graph);
+                }
+            }
+        }
+        return compactStreetGraph;
+    }
+
+    /**
+     * Get RAPTOR data containing the scheduled trips running on the given service date from the start of the given
+     * hour until RaptorWorker.MAX_DURATION after its end, including trips of the previous service day running past
+     * midnight, without any precomputed propagation to street targets.
+     * This is built on first use and cached, so that point-to-point searches departing in the same hour share it.
+     */
+    public RaptorWorkerData getPointToPointRaptorData (LocalDate date, int hour) {
+        try {
+            return pointToPointRaptorData.get(date + "T" + hour, () -> {
+                ProfileRequest request = new ProfileRequest();
+                request.date = date;
+                request.fromTime = hour * 3600;
+                request.toTime = request.fromTime + 3600;
+                // Trips of the previous service day may still be running after midnight.
+                // convert from joda to java - ISO day of week with monday == 1
+                TimeWindow window = new TimeWindow(request.fromTime, request.toTime + RaptorWorker.MAX_DURATION,
+                        servicesRunning(date), servicesRunning(date.minusDays(1)), DayOfWeek.of(date.getDayOfWeek()));
+                LOG.info("Building point-to-point RAPTOR data for {} hour {}", date, hour);
+                return new RaptorWorkerData(graph, window, request, null, new TaskStatistics(), false);
+            });
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
     /**
      * FIXME OBA parentStation field is a string, not an AgencyAndId, so it has no agency/feed scope
      * But the DC regional graph has no parent stations pre-defined, so no use dealing with them for now.
@@ -60,6 +60,9 @@ public abstract class Vertex implements Serializable, Cloneable {
 
     private transient Edge[] outgoing = new Edge[0];
 
+    /** Edge lists of newer generations of the graph than the ones above, newest first, or null if there are none. */
+    private transient volatile EdgeLists versions = null;
+
     
     /* CONSTRUCTORS */
 
@@ -143,15 +146,40 @@ public abstract class Vertex implements Serializable, Cloneable {
 
     /* FIELD ACCESSOR METHODS : READ/WRITE */
 
+    /*
+     * Changes made while editing a graph generation (see GraphGeneration) go into edge lists of that generation, which
+     * are invisible to other threads until it is published. Changes made outside of an edit, when building the graph
+     * or linking the temporary vertices of a request, are applied to the edge lists of all generations.
+     */
+
     public void addOutgoing(Edge edge) {
         synchronized (this) {
-            outgoing = addEdge(outgoing, edge);
+            GraphGeneration editing = GraphGeneration.editing();
+            if (editing != null) {
+                EdgeLists lists = editableLists(editing);
+                lists.outgoing = addEdge(lists.outgoing, edge);
+            } else {
+                outgoing = addEdge(outgoing, edge);
+                for (EdgeLists lists = versions; lists != null; lists = lists.older) {
+                    lists.outgoing = addEdge(lists.outgoing, edge);
+                }
+            }
         }
     }
 
     /** @return whether the edge was found and removed. */
     public boolean removeOutgoing(Edge edge) {
         synchronized (this) {
+            GraphGeneration editing = GraphGeneration.editing();
+            if (editing != null) {
+                EdgeLists lists = editableLists(editing);
+                int n = lists.outgoing.length;
+                lists.outgoing = removeEdge(lists.outgoing, edge);
+                return (lists.outgoing.length < n);
+            }
+            for (EdgeLists lists = versions; lists != null; lists = lists.older) {
+                if (contains(lists.outgoing, edge)) lists.outgoing = removeEdge(lists.outgoing, edge);
+            }
             int n = outgoing.length;
             outgoing = removeEdge(outgoing, edge);
             return (outgoing.length < n);
@@ -161,41 +189,146 @@ public abstract class Vertex implements Serializable, Cloneable {
 
     public void addIncoming(Edge edge) {
         synchronized (this) {
-            incoming = addEdge(incoming, edge);
+            GraphGeneration editing = GraphGeneration.editing();
+            if (editing != null) {
+                EdgeLists lists = editableLists(editing);
+                lists.incoming = addEdge(lists.incoming, edge);
+            } else {
+                incoming = addEdge(incoming, edge);
+                for (EdgeLists lists = versions; lists != null; lists = lists.older) {
+                    lists.incoming = addEdge(lists.incoming, edge);
+                }
+            }
         }
     }
 
     /** @return whether the edge was found and removed. */
     public boolean removeIncoming(Edge edge) {
         synchronized (this) {
+            GraphGeneration editing = GraphGeneration.editing();
+            if (editing != null) {
+                EdgeLists lists = editableLists(editing);
+                int n = lists.incoming.length;
+                lists.incoming = removeEdge(lists.incoming, edge);
+                return (lists.incoming.length < n);
+            }
+            for (EdgeLists lists = versions; lists != null; lists = lists.older) {
+                if (contains(lists.incoming, edge)) lists.incoming = removeEdge(lists.incoming, edge);
+            }
             int n = incoming.length;
             incoming = removeEdge(incoming, edge);
             return (incoming.length < n);
         }
     }
 
+    private static boolean contains(Edge[] edges, Edge e) {
+        for (Edge edge : edges) {
+            if (edge == e) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Get the edge lists of the given generation being edited by the current thread, copying them from the latest
+     * published ones if this is the first change to this vertex in that generation. Edge lists that no request can see
+     * any more are dropped at the same time. Must be called while synchronized on this vertex.
+     */
+    private EdgeLists editableLists(GraphGeneration editing) {
+        EdgeLists head = versions;
+        if (head != null && head.generation == editing) return head;
+        // The edge lists of the newest generation that every request can see, older ones can be dropped.
+        EdgeLists oldestVisible = null;
+        for (EdgeLists lists = head; lists != null; lists = lists.older) {
+            if (lists.generation.number <= editing.oldestVisible) {
+                oldestVisible = lists;
+                break;
+            }
+        }
+        if (oldestVisible != null) {
+            // These become the base edge lists. Readers that already found them in the chain still see the same arrays.
+            incoming = oldestVisible.incoming;
+            outgoing = oldestVisible.outgoing;
+            if (oldestVisible == head) {
+                head = null;
+            } else {
+                for (EdgeLists lists = head; lists != null; lists = lists.older) {
+                    if (lists.older == oldestVisible) {
+                        lists.older = null;
+                        break;
+                    }
+                }
+            }
+        }
+        Edge[] currentIncoming = head == null ? incoming : head.incoming;
+        Edge[] currentOutgoing = head == null ? outgoing : head.outgoing;
+        versions = new EdgeLists(editing, currentIncoming, currentOutgoing, head);
+        return versions;
+    }
+
+    private Edge[] outgoingEdges(GraphGeneration pinned) {
+        if (versions == null) return outgoing;
+        for (EdgeLists lists = versions; lists != null; lists = lists.older) {
+            if (lists.generation.isVisibleTo(pinned)) return lists.outgoing;
+        }
+        return outgoing;
+    }
+
+    private Edge[] incomingEdges(GraphGeneration pinned) {
+        if (versions == null) return incoming;
+        for (EdgeLists lists = versions; lists != null; lists = lists.older) {
+            if (lists.generation.isVisibleTo(pinned)) return lists.incoming;
+        }
+        return incoming;
+    }
+
     /**
      * Get a collection containing all the edges leading from this vertex to other vertices.
      * There is probably some overhead to creating the wrapper ArrayList objects, but this
      * allows filtering and combining edge lists using stock Collection-based methods.
      */
     public Collection<Edge> getOutgoing() {
-        return Arrays.asList(outgoing);
+        return Arrays.asList(outgoingEdges(null));
     }
 
     /** Get a collection containing all the edges leading from other vertices to this vertex. */
     public Collection<Edge> getIncoming() {
-        return Arrays.asList(incoming);
+        return Arrays.asList(incomingEdges(null));
+    }
+
+    /**
+     * Get the edges leading from this vertex to other vertices in the given generation of the graph, or in the latest
+     * published one if the generation is null.
+     */
+    public Collection<Edge> getOutgoing(GraphGeneration generation) {
+        return Arrays.asList(outgoingEdges(generation));
+    }
+
+    /**
+     * Get the edges leading from other vertices to this vertex in the given generation of the graph, or in the latest
+     * published one if the generation is null.
+     */
+    public Collection<Edge> getIncoming(GraphGeneration generation) {
+        return Arrays.asList(incomingEdges(generation));
     }
 
     @XmlTransient
     public int getDegreeOut() {
-        return outgoing.length;
+        return outgoingEdges(null).length;
     }
 
     @XmlTransient
     public int getDegreeIn() {
-        return incoming.length;
+        return incomingEdges(null).length;
+    }
+
+    /** @return the number of outgoing edges in the given generation of the graph, or in the latest one if null. */
+    public int getDegreeOut(GraphGeneration generation) {
+        return outgoingEdges(generation).length;
+    }
+
+    /** @return the number of incoming edges in the given generation of the graph, or in the latest one if null. */
+    public int getDegreeIn(GraphGeneration generation) {
+        return incomingEdges(generation).length;
     }
     
     /** Get the longitude of the vertex */
@@ -225,6 +358,11 @@ public abstract class Vertex implements Serializable, Cloneable {
         return this.name.toString();
     }
 
+    /** Gets the non-localized name of this vertex, as it is saved in the binary graph format. */
+    I18NString getRawName() {
+        return this.name;
+    }
+
     /** If this vertex is located on only one street, get that street's name
      * in provided localization
      * @param locale wanted localization */
@@ -280,6 +418,7 @@ public abstract class Vertex implements Serializable, Cloneable {
         in.defaultReadObject();
         this.incoming = new Edge[0];
         this.outgoing = new Edge[0];
+        this.versions = null;
         index = maxIndex++;
     }
 
@@ -296,4 +435,19 @@ public abstract class Vertex implements Serializable, Cloneable {
         }
         return result;
     }
+
+    /** The edge lists of a vertex in one generation of the graph. */
+    private static final class EdgeLists {
+        final GraphGeneration generation;
+        volatile Edge[] incoming;
+        volatile Edge[] outgoing;
+        volatile EdgeLists older;
+
+        EdgeLists(GraphGeneration generation, Edge[] incoming, Edge[] outgoing, EdgeLists older) {
+            this.generation = generation;
+            this.incoming = incoming;
+            this.outgoing = outgoing;
+            this.older = older;
+        }
+    }
 }
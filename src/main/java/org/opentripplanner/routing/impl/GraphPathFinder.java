@@ -13,13 +13,16 @@
 
 package org.opentripplanner.routing.impl;
 
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.opentripplanner.common.model.GenericLocation;
 import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.algorithm.SearchContext;
 import org.opentripplanner.routing.algorithm.strategies.EuclideanRemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.InterleavedBidirectionalHeuristic;
+import org.opentripplanner.routing.algorithm.strategies.LandmarkRemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.TrivialRemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.WalkConstrainingHeuristic;
@@ -89,8 +92,20 @@ public class GraphPathFinder {
             return null;
         }
 
-        // Reuse one instance of AStar for all N requests, which are carried out sequentially
+        // Reuse one instance of AStar for all N requests, which are carried out sequentially.
+        // Its queue and SPT storage are also reused across requests handled by this thread. We only keep the
+        // GraphPaths from each search, so it is safe to recycle the SPT once they have been extracted.
         AStar aStar = new AStar();
+        SearchContext searchContext = SearchContext.acquire();
+        aStar.setSearchContext(searchContext);
+        try {
+            return getPaths(options, aStar);
+        } finally {
+            searchContext.release();
+        }
+    }
+
+    private List<GraphPath> getPaths(RoutingRequest options, AStar aStar) {
         if (options.rctx == null) {
             options.setRoutingContext(router.graph);
             // The special long-distance heuristic should be sufficient to constrain the search to the right area.
@@ -117,6 +132,8 @@ public class GraphPathFinder {
             // heuristic = new InterleavedBidirectionalHeuristic(options.rctx.graph);
             // Use a simplistic heuristic until BiDi heuristic is improved, see #2153
             heuristic = new WalkConstrainingHeuristic();
+        } else if (LandmarkRemainingWeightHeuristic.appliesTo(router.graph.landmarkDistances, options)) {
+            heuristic = new LandmarkRemainingWeightHeuristic(router.graph.landmarkDistances);
         } else {
             heuristic = new EuclideanRemainingWeightHeuristic();
         }
@@ -137,6 +154,18 @@ public class GraphPathFinder {
          * This would cause long distance mode to do unbounded street searches and consider the whole graph walkable. */
         if (options.maxWalkDistance == Double.MAX_VALUE) options.maxWalkDistance = DEFAULT_MAX_WALK;
         if (options.maxWalkDistance > CLAMP_MAX_WALK) options.maxWalkDistance = CLAMP_MAX_WALK;
+
+        // Find all the transit itineraries in a single RAPTOR search if requested, falling back on A* if none are found.
+        // The RAPTOR paths always include walking all the way when possible, which does not count as finding transit.
+        if (options.useRaptor && options.modes.isTransit() && !options.arriveBy) {
+            List<GraphPath> paths = new RaptorPathFinder(router).getPaths(options);
+            if (Iterables.any(paths, path -> !path.getTrips().isEmpty())) {
+                Collections.sort(paths, new PathComparator(options.arriveBy));
+                return paths;
+            }
+            LOG.debug("RAPTOR search found no transit paths, falling back on A*.");
+        }
+
         long searchBeginTime = System.currentTimeMillis();
         LOG.debug("BEGIN SEARCH");
         List<GraphPath> paths = Lists.newArrayList();
@@ -203,11 +203,17 @@ public class InputStreamGraphSource implements GraphSource {
      */
     private Router loadGraph() {
         final Graph newGraph;
-        try (InputStream is = streams.getGraphInputStream()) {
+        File graphFile = streams.getGraphFile();
+        if (graphFile != null && !graphFile.canRead()) {
+            LOG.warn("Graph file not found or not openable for routerId '{}': {}", routerId, graphFile);
+            return null;
+        }
+        try (InputStream is = graphFile == null ? streams.getGraphInputStream() : null) {
             LOG.info("Loading graph...");
             try {
-                newGraph = Graph.load(new ObjectInputStream(is), loadLevel,
-                        streetVertexIndexFactory);
+                // Loading from the file rather than from a stream lets the graph map its edge geometries.
+                newGraph = graphFile != null ? Graph.load(graphFile, loadLevel, streetVertexIndexFactory) :
+                        Graph.load(is, loadLevel, streetVertexIndexFactory);
             } catch (Exception ex) {
                 LOG.error("Exception while loading graph '{}'.", routerId, ex);
                 return null;
@@ -249,6 +255,9 @@ public class InputStreamGraphSource implements GraphSource {
     private interface Streams {
         public abstract InputStream getGraphInputStream() throws IOException;
 
+        /** @return the graph file, or null if the graph can only be read as a stream. */
+        public abstract File getGraphFile();
+
         public abstract InputStream getConfigInputStream() throws IOException;
 
         public abstract long getLastModified();
@@ -269,6 +278,11 @@ public class InputStreamGraphSource implements GraphSource {
             return new FileInputStream(graphFile);
         }
 
+        @Override
+        public File getGraphFile() {
+            return new File(path, GRAPH_FILENAME);
+        }
+
         @Override
         public InputStream getConfigInputStream() throws IOException {
             File configFile = new File(path, Router.ROUTER_CONFIG_FILENAME);
@@ -303,6 +317,11 @@ public class InputStreamGraphSource implements GraphSource {
                     .getResourceAsStream(graphFile.getPath());
         }
 
+        @Override
+        public File getGraphFile() {
+            return null;
+        }
+
         @Override
         public InputStream getConfigInputStream() {
             File configFile = new File(path, Router.ROUTER_CONFIG_FILENAME);
@@ -0,0 +1,238 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.opentripplanner.profile.PointToPointRaptorWorker;
+import org.opentripplanner.profile.RaptorWorkerData;
+import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.core.RoutingContext;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.edgetype.PreAlightEdge;
+import org.opentripplanner.routing.edgetype.PreBoardEdge;
+import org.opentripplanner.routing.edgetype.SimpleTransfer;
+import org.opentripplanner.routing.edgetype.TripPattern;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.DominanceFunction;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.vertextype.TransitStop;
+import org.opentripplanner.standalone.Router;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds transit itineraries for a point-to-point request with a single multi-criteria RAPTOR search, instead of
+ * repeated A* searches banning the trips of each itinerary found.
+ *
+ * The street access and egress legs come from two street-only searches, one forward from the origin and one backward
+ * from the destination. The RAPTOR search then finds the Pareto set of journeys on (arrival time, transfers) over the
+ * scheduled trips in the RaptorWorkerData shared by all searches departing in the same hour. Each journey is turned
+ * into a GraphPath by traversing the corresponding graph edges, so that the resulting paths carry real-time updates,
+ * banned routes and all the other details of the request exactly as A* paths would, and are converted to itineraries
+ * by the usual GraphPathToTripPlanConverter. A journey that can no longer be followed on the graph is dropped.
+ *
+ * Like GraphPathFinder this is request-scoped. Only depart-after searches are supported.
+ */
+public class RaptorPathFinder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RaptorPathFinder.class);
+
+    private final Router router;
+
+    public RaptorPathFinder(Router router) {
+        this.router = router;
+    }
+
+    /**
+     * @param options a depart-after request including transit, with its routing context already set.
+     * @return the paths found, possibly empty, or an empty list if the request is not supported. This includes the
+     *         path walking all the way if there is one, so the result may be non-empty without any transit path.
+     */
+    public List<GraphPath> getPaths(RoutingRequest options) {
+        List<GraphPath> paths = Lists.newArrayList();
+        if (options.arriveBy || !options.modes.isTransit()) {
+            return paths;
+        }
+        long searchBeginTime = System.currentTimeMillis();
+        Graph graph = router.graph;
+        RoutingContext rctx = options.rctx;
+        double timeout = router.timeouts[0];
+
+        DateTime departure = new DateTime(options.getSecondsSinceEpoch() * 1000,
+                DateTimeZone.forTimeZone(graph.getTimeZone()));
+        int departureTime = departure.getSecondOfDay();
+        RaptorWorkerData data = graph.index.getPointToPointRaptorData(departure.toLocalDate(), departureTime / 3600);
+
+        // Street search from the origin to nearby stops. This may also reach the destination on foot.
+        RoutingRequest accessOptions = streetSearchOptions(options);
+        ShortestPathTree accessTree = new AStar().getShortestPathTree(accessOptions, timeout);
+        if (accessTree == null) return paths;
+
+        // Street search backward from the destination to nearby stops.
+        RoutingRequest egressOptions = streetSearchOptions(options);
+        egressOptions.setArriveBy(true);
+        ShortestPathTree egressTree = new AStar().getShortestPathTree(egressOptions, timeout, null,
+                Collections.singletonList(new State(rctx.target, egressOptions)));
+        if (egressTree == null) return paths;
+
+        TIntObjectMap<State> accessStates = new TIntObjectHashMap<>();
+        TIntIntMap accessTimes = findStops(accessTree, data, accessStates);
+        TIntObjectMap<State> egressStates = new TIntObjectHashMap<>();
+        TIntIntMap egressTimes = findStops(egressTree, data, egressStates);
+        LOG.debug("{} access stops, {} egress stops", accessTimes.size(), egressTimes.size());
+
+        PointToPointRaptorWorker worker = new PointToPointRaptorWorker(data, options.maxTransfers + 1,
+                (float) options.walkSpeed);
+        List<PointToPointRaptorWorker.Journey> journeys = worker.route(accessTimes, egressTimes, departureTime);
+
+        Set<List<AgencyAndId>> tripsUsed = Sets.newHashSet();
+        for (PointToPointRaptorWorker.Journey journey : journeys) {
+            State state = followJourney(journey, data, options, accessStates.get(journey.accessStop),
+                    egressStates.get(journey.egressStop));
+            if (state == null) {
+                LOG.debug("Journey with {} transfers could not be followed on the graph", journey.getTransfers());
+                continue;
+            }
+            GraphPath path = new GraphPath(state, true);
+            // Replaying different journeys may board the same trips, do not return the same itinerary twice.
+            if (tripsUsed.add(path.getTrips())) {
+                paths.add(path);
+            }
+        }
+
+        // Include walking (or cycling etc.) all the way, as A* would.
+        State direct = accessTree.getState(rctx.target);
+        if (direct != null) {
+            paths.add(new GraphPath(direct, false));
+        }
+        LOG.debug("RAPTOR search found {} paths ({} msec)", paths.size(),
+                System.currentTimeMillis() - searchBeginTime);
+        return paths;
+    }
+
+    /** Make a batch street search request sharing the routing context (and thus temporary vertices) of the request. */
+    private RoutingRequest streetSearchOptions(RoutingRequest options) {
+        RoutingRequest streetOptions = options.clone();
+        streetOptions.setModes(options.modes.getNonTransitSet());
+        streetOptions.batch = true;
+        streetOptions.dominanceFunction = new DominanceFunction.MinimumWeight();
+        streetOptions.softWalkLimiting = false;
+        streetOptions.rctx = options.rctx;
+        return streetOptions;
+    }
+
+    /**
+     * Find the stops reached by a street search that are known to the RAPTOR data.
+     * @param statesByStop filled with the state at each stop found, by RAPTOR stop index.
+     * @return the elapsed time in seconds to reach each stop found, by RAPTOR stop index.
+     */
+    private TIntIntMap findStops(ShortestPathTree spt, RaptorWorkerData data, TIntObjectMap<State> statesByStop) {
+        TIntIntMap times = new TIntIntHashMap();
+        for (State state : spt.getAllStates()) {
+            Vertex vertex = state.getVertex();
+            if ( ! (vertex instanceof TransitStop)) continue;
+            int stop = data.indexForStop.get(vertex.getIndex());
+            if (stop == -1) continue;
+            int time = (int) state.getElapsedTimeSeconds();
+            if (!times.containsKey(stop) || time < times.get(stop)) {
+                times.put(stop, time);
+                statesByStop.put(stop, state);
+            }
+        }
+        return times;
+    }
+
+    /**
+     * Traverse the graph edges corresponding to a RAPTOR journey: the access path, then for each leg the boarding,
+     * hops, dwells and alighting on the pattern with a transfer in between if needed, and finally the egress path.
+     * The trips boarded are chosen by the board edges as in any other search, so they may differ from the RAPTOR
+     * trips if there are real-time updates.
+     *
+     * @return the final state at the destination, or null if some edge can not be traversed.
+     */
+    private State followJourney(PointToPointRaptorWorker.Journey journey, RaptorWorkerData data,
+            RoutingRequest options, State access, State egress) {
+        Graph graph = router.graph;
+        State state = new State(options);
+
+        List<Edge> accessEdges = Lists.newArrayList();
+        for (State s = access; s.getBackState() != null; s = s.getBackState()) {
+            accessEdges.add(s.getBackEdge());
+        }
+        Collections.reverse(accessEdges);
+        state = traverse(state, accessEdges);
+
+        TransitStop previousStop = null;
+        for (PointToPointRaptorWorker.Leg leg : journey.legs) {
+            if (state == null || leg.pattern >= data.patternForIndex.size()) return null;
+            TransitStop boardStop = (TransitStop) graph.getVertexById(data.stopForIndex.get(leg.boardStop));
+            if (previousStop != null && previousStop != boardStop) {
+                Edge transfer = Iterables.getFirst(Iterables.filter(Iterables.filter(previousStop.getOutgoing(),
+                        SimpleTransfer.class), e -> e.getToVertex() == boardStop), null);
+                if (transfer == null) return null;
+                state = traverse(state, Arrays.asList(transfer));
+                if (state == null) return null;
+            }
+            TripPattern pattern = data.patternForIndex.get(leg.pattern);
+            List<Edge> rideEdges = Lists.newArrayList();
+            rideEdges.add(Iterables.getFirst(Iterables.filter(boardStop.getOutgoing(), PreBoardEdge.class), null));
+            rideEdges.add(pattern.boardEdges[leg.boardPosition]);
+            for (int position = leg.boardPosition; position < leg.alightPosition; position++) {
+                if (position > leg.boardPosition) rideEdges.add(pattern.dwellEdges[position]);
+                rideEdges.add(pattern.hopEdges[position]);
+            }
+            Edge alight = pattern.alightEdges[leg.alightPosition];
+            rideEdges.add(alight);
+            rideEdges.add(Iterables.getFirst(Iterables.filter(alight.getToVertex().getOutgoing(),
+                    PreAlightEdge.class), null));
+            state = traverse(state, rideEdges);
+            previousStop = (TransitStop) graph.getVertexById(data.stopForIndex.get(leg.alightStop));
+        }
+
+        // The egress path comes from an arrive-by search, so its back edges are already in forward order.
+        List<Edge> egressEdges = Lists.newArrayList();
+        for (State s = egress; s.getBackState() != null; s = s.getBackState()) {
+            egressEdges.add(s.getBackEdge());
+        }
+        return traverse(state, egressEdges);
+    }
+
+    /** Traverse the given edges in order, returning the resulting state or null if any of them cannot be traversed. */
+    private static State traverse(State state, List<Edge> edges) {
+        for (Edge edge : edges) {
+            if (state == null || edge == null) return null;
+            state = edge.traverse(state);
+        }
+        return state;
+    }
+
+}
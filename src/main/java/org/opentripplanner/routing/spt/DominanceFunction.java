@@ -86,6 +86,11 @@ public abstract class DominanceFunction implements Serializable {
         return new ShortestPathTree(routingRequest, this);
      }
 
+    /** Create a new shortest path tree using this function, storing its states in the given reusable map. */
+    public ShortestPathTree getNewShortestPathTree(RoutingRequest routingRequest, VertexStateMap stateMap) {
+        return new ShortestPathTree(routingRequest, this, stateMap);
+    }
+
     public static class MinimumWeight extends DominanceFunction {
         /** Return true if the first state has lower weight than the second state. */
         @Override
@@ -46,12 +46,27 @@ public class ShortestPathTree {
 
     private Map<Vertex, List<State>> stateSets;
 
+    /** When non-null, states are stored in this reusable vertex-indexed map (which is also stateSets). */
+    private final VertexStateMap pooledStateSets;
+
     public ShortestPathTree (RoutingRequest options, DominanceFunction dominanceFunction) {
         this.options = options;
         this.dominanceFunction = dominanceFunction;
+        this.pooledStateSets = null;
         stateSets = new IdentityHashMap<Vertex, List<State>>();
     }
 
+    /**
+     * Create an SPT that stores its states in the given (empty) reusable map. The resulting tree is only valid until
+     * that map is cleared to begin another search, so paths should be extracted from it before that happens.
+     */
+    public ShortestPathTree (RoutingRequest options, DominanceFunction dominanceFunction, VertexStateMap stateMap) {
+        this.options = options;
+        this.dominanceFunction = dominanceFunction;
+        this.pooledStateSets = stateMap;
+        stateSets = stateMap;
+    }
+
     /** @return a list of GraphPaths, sometimes empty but never null. */
     public List<GraphPath> getPaths(Vertex dest, boolean optimize) {
         List<? extends State> stateList = getStates(dest);
@@ -128,8 +143,12 @@ public class ShortestPathTree {
 
         // if the vertex has no states, add one and return
         if (states == null) {
-            states = new ArrayList<>();
-            stateSets.put(vertex, states);
+            if (pooledStateSets != null) {
+                states = pooledStateSets.getOrCreate(vertex);
+            } else {
+                states = new ArrayList<>();
+                stateSets.put(vertex, states);
+            }
             states.add(newState);
             return true;
         }
@@ -0,0 +1,176 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.spt;
+
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Vertex;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Storage for the states at each vertex of a ShortestPathTree, in arrays indexed by Vertex.getIndex() instead of a
+ * hash map. This is meant to be reused from one search to the next: the per-vertex state lists are kept and cleared
+ * rather than thrown away, and the indexes of vertices touched by a search are recorded so that clearing only costs
+ * O(touched vertices) rather than O(|V|).
+ *
+ * Vertices whose index is beyond the capacity of the arrays (typically the temporary vertices created for the origin
+ * and destination of a request after the arrays were sized) are kept in a small overflow map.
+ *
+ * A vertex is present in the map when its state list is not empty. This map is not thread-safe, and an SPT built on
+ * top of it is only valid until the map is cleared for the next search.
+ */
+public class VertexStateMap extends AbstractMap<Vertex, List<State>> {
+
+    /** Grow somewhat past the current max vertex index so temporary vertices don't cause a resize on every search. */
+    private static final double GROW_FACTOR = 1.25;
+
+    private List<State>[] statesByVertex;
+
+    private int[] touched;
+
+    private int nTouched = 0;
+
+    private final Map<Vertex, List<State>> overflow = new IdentityHashMap<>();
+
+    private final EntrySet entrySet = new EntrySet();
+
+    public VertexStateMap(int capacity) {
+        statesByVertex = newArray(capacity);
+        touched = new int[Math.max(capacity / 16, 16)];
+    }
+
+    /** Empty this map, and make sure it can hold vertices with indexes up to (but excluding) the given capacity. */
+    public void clear(int capacity) {
+        clear();
+        if (capacity > statesByVertex.length) {
+            int newCapacity = (int) (capacity * GROW_FACTOR);
+            statesByVertex = Arrays.copyOf(statesByVertex, newCapacity);
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < nTouched; i++) {
+            statesByVertex[touched[i]].clear();
+        }
+        nTouched = 0;
+        overflow.clear();
+    }
+
+    /**
+     * Get the list of states at the given vertex, creating an empty one (reusing a list from a previous search where
+     * possible) if there was none. The returned list is part of this map: the vertex is considered absent again if
+     * the caller leaves it empty.
+     */
+    public List<State> getOrCreate(Vertex vertex) {
+        int index = vertex.getIndex();
+        if (index >= statesByVertex.length) {
+            List<State> states = overflow.get(vertex);
+            if (states == null) {
+                states = new ArrayList<>();
+                overflow.put(vertex, states);
+            }
+            return states;
+        }
+        List<State> states = statesByVertex[index];
+        if (states == null) {
+            states = new ArrayList<>(1);
+            statesByVertex[index] = states;
+        }
+        if (states.isEmpty()) {
+            if (nTouched == touched.length) {
+                touched = Arrays.copyOf(touched, touched.length * 2);
+            }
+            touched[nTouched++] = index;
+        }
+        return states;
+    }
+
+    @Override
+    public List<State> get(Object key) {
+        if ( ! (key instanceof Vertex)) return null;
+        Vertex vertex = (Vertex) key;
+        int index = vertex.getIndex();
+        if (index >= statesByVertex.length) {
+            return overflow.get(vertex);
+        }
+        List<State> states = statesByVertex[index];
+        return (states == null || states.isEmpty()) ? null : states;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+        return nTouched + overflow.size();
+    }
+
+    @Override
+    public Set<Entry<Vertex, List<State>>> entrySet() {
+        return entrySet;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<State>[] newArray(int capacity) {
+        return (List<State>[]) new List[capacity];
+    }
+
+    /** A read-only view of the vertices and their states, iterating over touched indexes then the overflow map. */
+    private class EntrySet extends AbstractSet<Entry<Vertex, List<State>>> {
+
+        @Override
+        public int size() {
+            return VertexStateMap.this.size();
+        }
+
+        @Override
+        public Iterator<Entry<Vertex, List<State>>> iterator() {
+            final Iterator<Entry<Vertex, List<State>>> overflowIterator = overflow.entrySet().iterator();
+            return new Iterator<Entry<Vertex, List<State>>>() {
+                int i = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return i < nTouched || overflowIterator.hasNext();
+                }
+
+                @Override
+                public Entry<Vertex, List<State>> next() {
+                    if (i < nTouched) {
+                        List<State> states = statesByVertex[touched[i++]];
+                        // State lists are never left empty by the SPT, so the first state identifies the vertex.
+                        return new SimpleImmutableEntry<>(states.get(0).getVertex(), states);
+                    }
+                    if (overflowIterator.hasNext()) {
+                        return overflowIterator.next();
+                    }
+                    throw new NoSuchElementException();
+                }
+            };
+        }
+    }
+
+}
@@ -14,6 +14,7 @@
 package org.opentripplanner.routing.vertextype;
 
 import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.GraphGeneration;
 import org.opentripplanner.util.I18NString;
 import org.opentripplanner.util.NonLocalizedString;
 
@@ -36,11 +37,19 @@ public class IntersectionVertex extends StreetVertex {
 
     /** Returns true if this.freeFlowing or if it appears that this vertex is free-flowing */
     public boolean inferredFreeFlowing() {
+        return inferredFreeFlowing(null);
+    }
+
+    /**
+     * Returns true if this.freeFlowing or if it appears that this vertex is free-flowing, judging from its edges in the
+     * given generation of the graph (the latest one if null).
+     */
+    public boolean inferredFreeFlowing(GraphGeneration generation) {
         if (this.freeFlowing) {
             return true;
         }
         
-        return getDegreeIn() == 1 && getDegreeOut() == 1 && !this.trafficLight;
+        return getDegreeIn(generation) == 1 && getDegreeOut(generation) == 1 && !this.trafficLight;
     }
 
     //For testing only
@@ -1,11 +1,15 @@
 package org.opentripplanner.standalone;
 
 import org.opentripplanner.graph_builder.services.osm.CustomNamer;
+import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.impl.DefaultFareServiceFactory;
 import org.opentripplanner.routing.services.FareServiceFactory;
 
 import com.fasterxml.jackson.databind.JsonNode;
 
+import java.util.EnumSet;
+import java.util.Set;
+
 /**
  * These are parameters that when changed, necessitate a Graph rebuild.
  * They are distinct from the RouterParameters which can be applied to a pre-built graph or on the fly at runtime.
@@ -112,6 +116,21 @@ public class GraphBuilderParameters {
      */
     public boolean staticBikeParkAndRide = false;
 
+    /**
+     * The number of landmarks for which to precompute street network distances, used to speed up street searches with
+     * the ALT goal direction heuristic. Zero (the default) disables landmarks.
+     */
+    public final int landmarks;
+
+    /** The street modes for which the landmark heuristic should be used (fastest mode of the request). */
+    public final Set<TraverseMode> landmarkModes;
+
+    /**
+     * Whether to precompute walking distances from each transit stop to nearby street vertices and save them with the
+     * graph, so that analyst workers do not have to compute them on startup.
+     */
+    public final boolean stopTreeCache;
+
     /**
      * Set all parameters from the given Jackson JSON tree, applying defaults.
      * Supplying MissingNode.getInstance() will cause all the defaults to be applied.
@@ -138,6 +157,17 @@ public class GraphBuilderParameters {
         staticParkAndRide = config.path("staticParkAndRide").asBoolean(true);
         staticBikeParkAndRide = config.path("staticBikeParkAndRide").asBoolean(false);
         maxHtmlAnnotationsPerFile = config.path("maxHtmlAnnotationsPerFile").asInt(1000);
+        landmarks = config.path("landmarks").asInt(0);
+        landmarkModes = EnumSet.noneOf(TraverseMode.class);
+        if (config.has("landmarkModes")) {
+            for (JsonNode mode : config.path("landmarkModes")) {
+                landmarkModes.add(TraverseMode.valueOf(mode.asText()));
+            }
+        } else {
+            landmarkModes.add(TraverseMode.CAR);
+            landmarkModes.add(TraverseMode.BICYCLE);
+        }
+        stopTreeCache = config.path("stopTreeCache").asBoolean(false);
     }
 
 }
@@ -134,6 +134,11 @@ public class Router {
             }
         }
 
+        /* Build the compact street graph up front rather than on first use, if requested. */
+        if (config.path("compactStreetGraph").asBoolean(false) && graph.index != null) {
+            graph.index.getCompactStreetGraph();
+        }
+
         /* Create Graph updater modules from JSON config. */
         GraphUpdaterConfigurator.setupGraph(this.graph, config);
 
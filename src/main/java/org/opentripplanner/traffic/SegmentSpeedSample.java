@@ -6,10 +6,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Serializable;
-import java.time.DayOfWeek;
-import java.time.Instant;
-import java.time.OffsetDateTime;
-import java.time.ZoneOffset;
+import java.util.Arrays;
 
 /**
  * Represents speeds at particular times of day.
@@ -19,6 +16,14 @@ public class SegmentSpeedSample implements Serializable {
 
     private static final double KMH_TO_MS = 1000d / 3600d;
 
+    /** The number of hour bins in a week */
+    static final int HOURS_PER_WEEK = 7 * 24;
+
+    private static final long MILLIS_PER_HOUR = 3600 * 1000;
+
+    /** The epoch was on a Thursday, three days after the start of the week. */
+    private static final long EPOCH_HOUR_OF_WEEK = 3 * 24;
+
     /**
      * the overall average speed on this segment, in centimeters per second, with -32,768 representing 0.
      * This allows representation of speeds up to 2359 kilometers per hour.
@@ -36,21 +41,30 @@ public class SegmentSpeedSample implements Serializable {
         if (hourBins == null)
             return decodeSpeed(average);
 
-        // figure out the hour bin
-        Instant instant = Instant.ofEpochMilli(time);
-
-        OffsetDateTime dt = instant.atOffset(ZoneOffset.UTC);
+        return decodeSpeed(hourBins[hourOfWeek(time)]);
+    }
 
-        // 0 (Monday) to 6 (Sunday) after subtraction
-        int day = DayOfWeek.from(dt).getValue() - 1;
-        int hour = dt.getHour();
+    /**
+     * Get the hour bin for a time in milliseconds since the epoch, with 0 being midnight Monday morning GMT. This is
+     * plain arithmetic on the time since UTC has no daylight saving time, and does not allocate any date objects.
+     */
+    static int hourOfWeek (long time) {
+        return (int) Math.floorMod(Math.floorDiv(time, MILLIS_PER_HOUR) + EPOCH_HOUR_OF_WEEK, HOURS_PER_WEEK);
+    }
 
-        int hourBin = day * 24 + hour;
-        return decodeSpeed(hourBins[hourBin]);
+    /**
+     * Copy the coded speeds of this sample for each hour of the week to the given array, starting at the given offset.
+     * Hours for which there is no speed get the average speed.
+     */
+    void copyHourBins (short[] target, int offset) {
+        int n = hourBins == null ? 0 : Math.min(hourBins.length, HOURS_PER_WEEK);
+        if (n > 0)
+            System.arraycopy(hourBins, 0, target, offset, n);
+        Arrays.fill(target, offset + n, offset + HOURS_PER_WEEK, average);
     }
 
     /** Decode a speed to meters per second from its short representation */
-    private double decodeSpeed (short speed) {
+    static double decodeSpeed (short speed) {
         return (((double) speed) - Short.MIN_VALUE) / 100d;
     }
 
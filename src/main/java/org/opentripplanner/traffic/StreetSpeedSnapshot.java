@@ -2,20 +2,59 @@ package org.opentripplanner.traffic;
 
 import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.TemporaryEdge;
+import org.opentripplanner.routing.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.Map;
 
+import static org.opentripplanner.traffic.SegmentSpeedSample.HOURS_PER_WEEK;
+
 /**
  * A source of speeds for traversing streets.
+ *
+ * When it is created for a graph, the speeds are compiled into a table indexed by edge id, so that looking up the speed
+ * of a street edge does not create any objects or hash anything. Each distinct speed sample takes one row of hour bins
+ * in the table, and edges without a sample take no row at all. Edges that are not in the table, such as temporary
+ * edges or those created after the table was compiled, are looked up by segment in the samples.
  */
 public class StreetSpeedSnapshot {
+    private static final Logger LOG = LoggerFactory.getLogger(StreetSpeedSnapshot.class);
+
+    /** Row for an edge that is in the table but has no speed sample. */
+    private static final int NO_SAMPLE = -1;
+
     private final Map<Segment, SegmentSpeedSample> samples;
 
+    /**
+     * The street edge compiled into the table for each edge id, or null. Edge ids are only unique among the edges
+     * created in one run of OTP, so an edge with the same id as an edge in the table may be another one, which is
+     * looked up in the samples.
+     */
+    private final StreetEdge[] edgeForId;
+
+    /** For each edge id, the row of the speeds of the edge in hourBins, or NO_SAMPLE. */
+    private final int[] rowForId;
+
+    /** Coded speeds (see SegmentSpeedSample) of each row for each hour of the week, one row after the other. */
+    private final short[] hourBins;
+
     /** Get the speed for traversing the given edge with the given mode at the given time. Returns NaN if there is no speed information available. */
     public double getSpeed (StreetEdge edge, TraverseMode traverseMode, long timeMillis) {
         if (traverseMode != TraverseMode.CAR)
             return Double.NaN;
 
+        int id = edge.getId();
+        if (id >= 0 && id < edgeForId.length && edgeForId[id] == edge) {
+            int row = rowForId[id];
+            if (row == NO_SAMPLE) return Double.NaN;
+            int hourOfWeek = SegmentSpeedSample.hourOfWeek(timeMillis);
+            return SegmentSpeedSample.decodeSpeed(hourBins[row * HOURS_PER_WEEK + hourOfWeek]);
+        }
+
         SegmentSpeedSample sample = samples.get(new Segment(edge));
 
         if (sample == null) return Double.NaN;
@@ -23,7 +62,50 @@ public class StreetSpeedSnapshot {
         return sample.getSpeed(timeMillis);
     }
 
+    /** Create a snapshot that looks up every edge in the given samples by segment. */
     public StreetSpeedSnapshot (Map<Segment, SegmentSpeedSample> samples) {
         this.samples = samples;
+        this.edgeForId = new StreetEdge[0];
+        this.rowForId = new int[0];
+        this.hourBins = new short[0];
+    }
+
+    /**
+     * Create a snapshot with the given samples compiled into a table for the street edges of the given graph. This
+     * must be called from a graph writer, as it reads all the edges of the graph.
+     */
+    public StreetSpeedSnapshot (Map<Segment, SegmentSpeedSample> samples, Graph graph) {
+        this.samples = samples;
+        int maxId = -1;
+        for (StreetEdge edge : graph.getStreetEdges()) {
+            maxId = Math.max(maxId, edge.getId());
+        }
+        edgeForId = new StreetEdge[maxId + 1];
+        rowForId = new int[maxId + 1];
+        Arrays.fill(rowForId, NO_SAMPLE);
+
+        // Edges in both directions of a segment, or split from the same edge, share the row of their sample.
+        Map<SegmentSpeedSample, Integer> rowForSample = new IdentityHashMap<>();
+        int nEdges = 0;
+        for (StreetEdge edge : graph.getStreetEdges()) {
+            int id = edge.getId();
+            if (id < 0 || edge instanceof TemporaryEdge || edgeForId[id] != null) continue;
+            edgeForId[id] = edge;
+            nEdges++;
+            SegmentSpeedSample sample = samples.get(new Segment(edge));
+            if (sample == null) continue;
+            Integer row = rowForSample.get(sample);
+            if (row == null) {
+                row = rowForSample.size();
+                rowForSample.put(sample, row);
+            }
+            rowForId[id] = row;
+        }
+
+        hourBins = new short[rowForSample.size() * HOURS_PER_WEEK];
+        for (Map.Entry<SegmentSpeedSample, Integer> entry : rowForSample.entrySet()) {
+            entry.getKey().copyHourBins(hourBins, entry.getValue() * HOURS_PER_WEEK);
+        }
+        LOG.info("Compiled speeds of {} samples for {} street edges.", rowForSample.size(), nEdges);
     }
 }
@@ -23,7 +23,6 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
@@ -51,6 +50,13 @@ public class GraphUpdaterManager {
      * Text used for naming threads when the graph lacks a routerId.
      */
     private static String DEFAULT_ROUTER_ID = "(default)";
+
+    /**
+     * Number of threads running graph writer runnables, at most one per part of the graph they modify. On small
+     * machines, runnables modifying the parts with the highest priority start first.
+     */
+    private static final int N_WRITER_THREADS = Math.max(1, Math.min(GraphWriterRunnable.Resource.values().length - 1,
+            Runtime.getRuntime().availableProcessors() - 1));
     
     /**
      * Thread factory used to create new threads.
@@ -60,11 +66,13 @@ public class GraphUpdaterManager {
 
     /**
      * OTP's multi-version concurrency control model for graph updating allows simultaneous reads,
-     * but never simultaneous writes. We ensure this policy is respected by having a single writer
-     * thread, which sequentially executes all graph updater tasks. Each task is a runnable that is
-     * scheduled with the ExecutorService to run at regular intervals.
+     * but never simultaneous writes to the same part of the graph. We ensure this policy is respected
+     * by having all graph updater tasks executed by this scheduler, which only runs concurrently the
+     * tasks that modify different parts of the graph (see GraphWriterRunnable.Resource). Tasks that
+     * modify the vertices and edges make their changes as a new generation of the graph (see
+     * Graph.edit()), so searches never see half of the changes to the edge lists of the vertices.
      */
-    private ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private GraphWriterScheduler writerScheduler;
 
     /**
      * Pool with updaters
@@ -94,7 +102,7 @@ public class GraphUpdaterManager {
             routerId = DEFAULT_ROUTER_ID;
         
         threadFactory = new ThreadFactoryBuilder().setNameFormat("GraphUpdater-" + routerId + "-%d").build();
-        scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        writerScheduler = new GraphWriterScheduler(graph, N_WRITER_THREADS, threadFactory);
         updaterPool = Executors.newCachedThreadPool(threadFactory);
     }
 
@@ -120,16 +128,7 @@ public class GraphUpdaterManager {
         updaterList.clear();
 
         // Shutdown scheduler
-        scheduler.shutdownNow();
-        try {
-            boolean ok = scheduler.awaitTermination(30, TimeUnit.SECONDS);
-            if (!ok) {
-                LOG.warn("Timeout waiting for scheduled task to finish.");
-            }
-        } catch (InterruptedException e) {
-            // This should not happen
-            LOG.warn("Interrupted while waiting for scheduled task to finish.");
-        }
+        writerScheduler.stop();
     }
 
     /**
@@ -157,9 +156,11 @@ public class GraphUpdaterManager {
     }
 
     /**
-     * This is the method to use to modify the graph from the updaters. The runnables will be
-     * scheduled after each other, guaranteeing that only one of these runnables will be active at
-     * any time.
+     * This is the method to use to modify the graph from the updaters. The runnables modifying the
+     * same part of the graph will be scheduled after each other, guaranteeing that only one of these
+     * runnables will be active at any time. Runnables that do not say which part of the graph they
+     * modify run alone. This waits if many runnables modifying the same part of the graph are
+     * already queued.
      * 
      * @param runnable is a graph writer runnable
      */
@@ -186,19 +187,7 @@ public class GraphUpdaterManager {
     }
 
     private Future<?> executeReturningFuture(final GraphWriterRunnable runnable) {
-        // TODO: check for high water mark?
-        Future<?> future = scheduler.submit(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    runnable.run(graph);
-                } catch (Exception e) {
-                    LOG.error("Error while running graph writer {}:", runnable.getClass().getName(),
-                            e);
-                }
-            }
-        });
-        return future;
+        return writerScheduler.submit(runnable);
     }
 
     public int size() {
@@ -226,4 +215,12 @@ public class GraphUpdaterManager {
         if (id >= updaterList.size()) return null;
         return updaterList.get(id);
     }
+
+    /**
+     * @return statistics of the graph writer runnables modifying each part of the graph, such as the number of queued
+     * runnables and how long they waited.
+     */
+    public Map<GraphWriterRunnable.Resource, GraphWriterStats> getWriterStats () {
+        return writerScheduler.getStats();
+    }
 }
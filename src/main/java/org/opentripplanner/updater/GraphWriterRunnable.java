@@ -20,16 +20,71 @@ import org.opentripplanner.routing.graph.Graph;
  * GraphUpdaterManager.
  * A few notes:
  * - Don't spend more time in this runnable than necessary, it might block other graph writer runnables.
- * - Be aware that while only one graph writer runnable is running to write to the graph, several
- *   request-threads might be reading the graph.
+ * - Be aware that while only one graph writer runnable is running to write to a given part of the graph
+ *   (see getResource()), several request-threads might be reading the graph.
  * - Be sure that the request-threads always see a consistent view of the graph while planning.
  * 
  * @see GraphUpdaterManager.execute
  */
 public interface GraphWriterRunnable {
 
+    /**
+     * The part of the graph state that a graph writer runnable modifies. Runnables modifying different parts run
+     * concurrently, while those modifying the same part run one after the other, in the order they were submitted.
+     * When several runnables could start but there are not enough writer threads, they start in the order of these
+     * constants, so that small and latency-sensitive updates are not stuck behind large ones.
+     */
+    enum Resource {
+        /** The alert patches of the alert patch service. */
+        ALERTS(false),
+        /**
+         * The timetable snapshot of the TimetableSnapshotSource. Added and modified trips may create the vertices and
+         * edges of new trip patterns.
+         */
+        TIMETABLES(true),
+        /** The street speed snapshot. */
+        TRAFFIC(false),
+        /** The notes attached to street edges. */
+        STREET_NOTES(false),
+        /** The vertices and edges of the graph, for example bike rental stations and bike parks linked to the streets. */
+        STREETS(true),
+        /**
+         * Anything in the graph. These runnables run alone, after all runnables submitted before them and before all
+         * runnables submitted after them, like all runnables did when there was a single writer thread.
+         */
+        GRAPH(true);
+
+        /**
+         * Whether the runnables modifying this part of the graph may add or remove vertices and edges. They make their
+         * changes as a new generation of the graph (see Graph.edit()), and as only one generation is built at a time,
+         * they do not run concurrently with each other.
+         */
+        public final boolean changesEdges;
+
+        Resource(boolean changesEdges) {
+            this.changesEdges = changesEdges;
+        }
+    }
+
     /**
      * This function is executed to modify the graph.
      */
     public void run(Graph graph);
+
+    /**
+     * @return the part of the graph this runnable modifies. Runnables that do not say which part they modify could
+     * modify anything, and run alone.
+     */
+    default Resource getResource() {
+        return Resource.GRAPH;
+    }
+
+    /**
+     * @return null, or a key such that a runnable with the same key and resource that is submitted later supersedes this
+     * one. If this runnable has not started yet when that happens, it is dropped, and only the later one runs. This is
+     * meant for runnables applying a full dataset, for example the key could be the updater that submitted it.
+     */
+    default Object getCoalescingKey() {
+        return null;
+    }
 }
@@ -0,0 +1,233 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.updater;
+
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.updater.GraphWriterRunnable.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the graph writer runnables submitted by the updaters of a graph. Runnables modifying different parts of the
+ * graph (see GraphWriterRunnable.Resource) run concurrently on a small pool of writer threads, while runnables modifying
+ * the same part run one after the other in submission order. Runnables that may modify anything run alone.
+ *
+ * All runnables wait in a single queue in submission order. A runnable can start when no runnable modifying the same
+ * part of the graph is running or queued before it, and no runnable modifying anything is running or queued before it.
+ * Of the runnables that can start, the one modifying the part of the graph with the highest priority starts first.
+ */
+class GraphWriterScheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GraphWriterScheduler.class);
+
+    /**
+     * When this many runnables modifying the same part of the graph are queued, updaters submitting more of them wait
+     * until one has run, so that an updater that is faster than the writer cannot fill the memory.
+     */
+    static final int MAX_QUEUED_PER_RESOURCE = 50;
+
+    private final Graph graph;
+
+    private final int maxRunning;
+
+    private final ExecutorService pool;
+
+    /** The runnables that have not started yet, in submission order. */
+    private final LinkedList<Task> queue = new LinkedList<>();
+
+    /** The parts of the graph modified by the running runnables. */
+    private final EnumSet<Resource> running = EnumSet.noneOf(Resource.class);
+
+    private final EnumMap<Resource, GraphWriterStats> stats = new EnumMap<>(Resource.class);
+
+    /** Set for the writer threads, which must never wait for the queue to drain. */
+    private final ThreadLocal<Boolean> isWriterThread = new ThreadLocal<>();
+
+    private boolean stopped = false;
+
+    private static class Task {
+        final GraphWriterRunnable runnable;
+        final Resource resource;
+        final Object coalescingKey;
+        /** Shared with the runnables this one superseded, so that whoever waits for them is released when it ran. */
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        final long submitTime = System.currentTimeMillis();
+
+        Task (GraphWriterRunnable runnable) {
+            this.runnable = runnable;
+            this.resource = runnable.getResource() == null ? Resource.GRAPH : runnable.getResource();
+            this.coalescingKey = runnable.getCoalescingKey();
+        }
+    }
+
+    /**
+     * @param maxRunning the number of writer threads, that is the largest number of runnables running at the same time.
+     */
+    GraphWriterScheduler (Graph graph, int maxRunning, ThreadFactory threadFactory) {
+        this.graph = graph;
+        this.maxRunning = maxRunning;
+        this.pool = Executors.newFixedThreadPool(maxRunning, threadFactory);
+        for (Resource resource : Resource.values()) {
+            stats.put(resource, new GraphWriterStats());
+        }
+    }
+
+    /**
+     * Queue the given runnable, superseding any queued runnable with the same resource and coalescing key.
+     * @return a future that is completed when the runnable, or the runnable that superseded it, has run.
+     */
+    synchronized Future<?> submit (GraphWriterRunnable runnable) {
+        Task task = new Task(runnable);
+        GraphWriterStats resourceStats = stats.get(task.resource);
+        resourceStats.submitted++;
+        if (task.coalescingKey != null) {
+            for (Iterator<Task> it = queue.iterator(); it.hasNext(); ) {
+                Task queued = it.next();
+                if (queued.resource == task.resource && Objects.equals(queued.coalescingKey, task.coalescingKey)) {
+                    // The later runnable takes the place of the superseded one at the end of the queue, behind the
+                    // runnables submitted in between.
+                    it.remove();
+                    resourceStats.queued--;
+                    resourceStats.coalesced++;
+                    task.future = queued.future;
+                    break;
+                }
+            }
+        }
+        while (!stopped && resourceStats.queued >= MAX_QUEUED_PER_RESOURCE && isWriterThread.get() == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                // The updater is being stopped. Queue the runnable anyway, it will be dropped by stop().
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (stopped) {
+            LOG.warn("Graph writer {} submitted after the updaters were stopped, ignoring it.",
+                    runnable.getClass().getName());
+            task.future.cancel(false);
+            return task.future;
+        }
+        queue.add(task);
+        resourceStats.queued++;
+        resourceStats.maxQueued = Math.max(resourceStats.maxQueued, resourceStats.queued);
+        startRunnables();
+        return task.future;
+    }
+
+    /** Start as many queued runnables as possible. Must be called while holding the lock. */
+    private void startRunnables () {
+        while (!stopped && running.size() < maxRunning) {
+            Task task = nextStartable();
+            if (task == null) break;
+            queue.remove(task);
+            running.add(task.resource);
+            stats.get(task.resource).recordStart(System.currentTimeMillis() - task.submitTime);
+            pool.execute(() -> run(task));
+        }
+    }
+
+    /** @return the queued runnable that should start next, or null if none can start now. */
+    private Task nextStartable () {
+        if (running.contains(Resource.GRAPH)) return null;
+        EnumSet<Resource> waiting = EnumSet.noneOf(Resource.class);
+        Task best = null;
+        for (Task task : queue) {
+            if (task.resource == Resource.GRAPH) {
+                // Nothing queued after it can start before it ran, and it waits for everything queued before it.
+                if (best == null && waiting.isEmpty() && running.isEmpty()) best = task;
+                break;
+            }
+            if (waiting.add(task.resource) && !running.contains(task.resource)) {
+                if (best == null || task.resource.ordinal() < best.resource.ordinal()) best = task;
+            }
+        }
+        return best;
+    }
+
+    private void run (Task task) {
+        isWriterThread.set(Boolean.TRUE);
+        long startTime = System.currentTimeMillis();
+        boolean success = false;
+        try {
+            if (task.resource.changesEdges) {
+                // Searches only see the changes when the whole runnable is done, see GraphGeneration.
+                graph.edit(() -> task.runnable.run(graph));
+            } else {
+                task.runnable.run(graph);
+            }
+            success = true;
+        } catch (Exception e) {
+            LOG.error("Error while running graph writer {}:", task.runnable.getClass().getName(), e);
+        } finally {
+            synchronized (this) {
+                running.remove(task.resource);
+                stats.get(task.resource).recordEnd(System.currentTimeMillis() - startTime, success);
+                startRunnables();
+                // Wake up the updaters waiting for the queue to drain.
+                notifyAll();
+            }
+            task.future.complete(null);
+        }
+    }
+
+    /** @return a copy of the statistics of the runnables modifying each part of the graph. */
+    synchronized Map<Resource, GraphWriterStats> getStats () {
+        Map<Resource, GraphWriterStats> copy = new EnumMap<>(Resource.class);
+        for (Map.Entry<Resource, GraphWriterStats> entry : stats.entrySet()) {
+            copy.put(entry.getKey(), entry.getValue().clone());
+        }
+        return copy;
+    }
+
+    /** Drop the queued runnables, interrupt the running ones and wait for them to finish. */
+    void stop () {
+        List<Task> dropped;
+        synchronized (this) {
+            stopped = true;
+            dropped = new ArrayList<>(queue);
+            queue.clear();
+            notifyAll();
+        }
+        for (Task task : dropped) {
+            task.future.cancel(false);
+        }
+        pool.shutdownNow();
+        try {
+            boolean ok = pool.awaitTermination(30, TimeUnit.SECONDS);
+            if (!ok) {
+                LOG.warn("Timeout waiting for scheduled task to finish.");
+            }
+        } catch (InterruptedException e) {
+            // This should not happen
+            LOG.warn("Interrupted while waiting for scheduled task to finish.");
+        }
+    }
+}
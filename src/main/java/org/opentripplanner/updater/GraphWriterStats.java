@@ -0,0 +1,80 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.updater;
+
+/**
+ * Counters and timings of the graph writer runnables modifying one part of the graph (see GraphWriterRunnable.Resource),
+ * as reported by the updater status API. Instances returned by the GraphUpdaterManager are copies that do not change.
+ */
+public class GraphWriterStats implements Cloneable {
+
+    /** Number of runnables waiting to run. */
+    public int queued;
+
+    /** Highest number of runnables that were waiting to run at the same time. */
+    public int maxQueued;
+
+    /** Whether a runnable is running. */
+    public boolean running;
+
+    /** Number of runnables that were submitted, including the ones that were superseded. */
+    public long submitted;
+
+    /** Number of runnables that have run, including the ones that threw an exception. */
+    public long executed;
+
+    /** Number of runnables dropped because a later one with the same coalescing key superseded them. */
+    public long coalesced;
+
+    /** Number of runnables that threw an exception. */
+    public long failed;
+
+    /** Total and longest time runnables waited in the queue before they started, in milliseconds. */
+    public long totalWaitMillis, maxWaitMillis;
+
+    /** Total and longest time runnables took to run, in milliseconds. */
+    public long totalRunMillis, maxRunMillis;
+
+    public double getMeanWaitMillis() {
+        return executed == 0 ? 0 : (double) totalWaitMillis / executed;
+    }
+
+    public double getMeanRunMillis() {
+        return executed == 0 ? 0 : (double) totalRunMillis / executed;
+    }
+
+    void recordStart(long waitMillis) {
+        queued--;
+        running = true;
+        totalWaitMillis += waitMillis;
+        maxWaitMillis = Math.max(maxWaitMillis, waitMillis);
+    }
+
+    void recordEnd(long runMillis, boolean success) {
+        running = false;
+        executed++;
+        if (!success) failed++;
+        totalRunMillis += runMillis;
+        maxRunMillis = Math.max(maxRunMillis, runMillis);
+    }
+
+    @Override
+    public GraphWriterStats clone() {
+        try {
+            return (GraphWriterStats) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -117,6 +117,17 @@ public class GtfsRealtimeAlertsUpdater extends PollingGraphUpdater {
                 public void run(Graph graph) {
                     updateHandler.update(feed);
                 }
+
+                @Override
+                public Resource getResource() {
+                    return Resource.ALERTS;
+                }
+
+                /** Each feed expires the alerts of the previous one. */
+                @Override
+                public Object getCoalescingKey() {
+                    return updateHandler;
+                }
             });
 
             lastTimestamp = feedTimestamp;
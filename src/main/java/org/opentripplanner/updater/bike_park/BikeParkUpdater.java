@@ -144,6 +144,17 @@ public class BikeParkUpdater extends PollingGraphUpdater {
             this.bikeParks = bikeParks;
         }
 
+        @Override
+        public Resource getResource() {
+            return Resource.STREETS;
+        }
+
+        /** Each list of bike parks replaces the previous one of this updater. */
+        @Override
+        public Object getCoalescingKey() {
+            return BikeParkUpdater.this;
+        }
+
         @Override
         public void run(Graph graph) {
             // Apply stations to graph
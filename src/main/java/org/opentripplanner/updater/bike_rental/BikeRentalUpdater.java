@@ -169,6 +169,17 @@ public class BikeRentalUpdater extends PollingGraphUpdater {
             this.stations = stations;
         }
 
+        @Override
+        public Resource getResource() {
+            return Resource.STREETS;
+        }
+
+        /** Each list of stations replaces the previous one of this updater. */
+        @Override
+        public Object getCoalescingKey() {
+            return BikeRentalUpdater.this;
+        }
+
 		@Override
         public void run(Graph graph) {
             // Apply stations to graph
@@ -25,9 +25,7 @@ import org.opentripplanner.updater.JsonConfigurable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.transit.realtime.GtfsRealtime;
-import com.google.transit.realtime.GtfsRealtime.FeedEntity;
-import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader;
 import com.google.transit.realtime.GtfsRealtime.TripUpdate;
 
 /** Reads the GTFS-RT from a local file. */
@@ -56,30 +54,20 @@ public class GtfsRealtimeFileTripUpdateSource implements TripUpdateSource, JsonC
 
     @Override
     public List<TripUpdate> getUpdates() {
-        FeedMessage feedMessage = null;
-        List<FeedEntity> feedEntityList = null;
         List<TripUpdate> updates = null;
         fullDataset = true;
-        try {
-            InputStream is = new FileInputStream(file);
+        try (InputStream is = new FileInputStream(file)) {
             if (is != null) {
-                // Decode message
-                feedMessage = FeedMessage.PARSER.parseFrom(is);
-                feedEntityList = feedMessage.getEntityList();
-                
+                // Decode the trip updates one entity at a time, skipping the other entities of the feed
+                List<TripUpdate> tripUpdates = new ArrayList<TripUpdate>();
+                FeedHeader header = GtfsRealtimeTripUpdateReader.read(is, tripUpdates::add);
+                updates = tripUpdates;
+
                 // Change fullDataset value if this is an incremental update
-                if (feedMessage.hasHeader()
-                        && feedMessage.getHeader().hasIncrementality()
-                        && feedMessage.getHeader().getIncrementality()
-                                .equals(GtfsRealtime.FeedHeader.Incrementality.DIFFERENTIAL)) {
+                if (header.hasIncrementality()
+                        && header.getIncrementality().equals(FeedHeader.Incrementality.DIFFERENTIAL)) {
                     fullDataset = false;
                 }
-                
-                // Create List of TripUpdates
-                updates = new ArrayList<TripUpdate>(feedEntityList.size());
-                for (FeedEntity feedEntity : feedEntityList) {
-                    if (feedEntity.hasTripUpdate()) updates.add(feedEntity.getTripUpdate());
-                }
             }
         } catch (Exception e) {
             LOG.warn("Failed to parse gtfs-rt feed at " + file + ":", e);
@@ -0,0 +1,100 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.updater.stoptime;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.ExtensionRegistryLite;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader;
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.Consumer;
+
+/**
+ * Decodes the trip updates of a GTFS-RT feed message one entity at a time, straight from the wire format.
+ *
+ * Parsing a whole FeedMessage builds every entity of the feed, including the vehicle positions and alerts that the
+ * trip updaters ignore, and keeps all of them reachable until the last one is decoded. Large feeds of tens of
+ * megabytes then cause a spike of garbage on every poll, and may even exceed the 64MB limit protobuf puts on a single
+ * message. This reader skips the entities without a trip update without building them, never builds the FeedEntity
+ * wrappers, and only applies the protobuf size limit to each entity rather than to the whole feed.
+ */
+public class GtfsRealtimeTripUpdateReader {
+
+    private static final int HEADER_TAG = lengthDelimitedTag(FeedMessage.HEADER_FIELD_NUMBER);
+    private static final int ENTITY_TAG = lengthDelimitedTag(FeedMessage.ENTITY_FIELD_NUMBER);
+    private static final int TRIP_UPDATE_TAG = lengthDelimitedTag(FeedEntity.TRIP_UPDATE_FIELD_NUMBER);
+
+    private static int lengthDelimitedTag (int fieldNumber) {
+        return fieldNumber << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+    }
+
+    /**
+     * Decode a feed message read from the given stream, handing each trip update to the consumer in feed order.
+     * @return the header of the feed message.
+     */
+    public static FeedHeader read (InputStream stream, Consumer<TripUpdate> consumer) throws IOException {
+        return read(CodedInputStream.newInstance(stream), consumer);
+    }
+
+    /** Decode the given serialized feed message, handing each trip update to the consumer in feed order. */
+    public static FeedHeader read (byte[] message, Consumer<TripUpdate> consumer) throws IOException {
+        return read(CodedInputStream.newInstance(message), consumer);
+    }
+
+    private static FeedHeader read (CodedInputStream input, Consumer<TripUpdate> consumer) throws IOException {
+        ExtensionRegistryLite registry = ExtensionRegistryLite.getEmptyRegistry();
+        FeedHeader header = null;
+        for (int tag = input.readTag(); tag != 0; tag = input.readTag()) {
+            if (tag == HEADER_TAG) {
+                header = input.readMessage(FeedHeader.PARSER, registry);
+            } else if (tag == ENTITY_TAG) {
+                TripUpdate tripUpdate = readTripUpdate(input, registry);
+                // Unlike parsing a whole message, a trip update without its required trip descriptor does not make
+                // the whole feed fail. It is skipped, as it could not be matched to a trip anyway.
+                if (tripUpdate != null && tripUpdate.isInitialized()) consumer.accept(tripUpdate);
+            } else if (!input.skipField(tag)) {
+                break;
+            }
+            // The size limit of protobuf is meant for single messages, not for a whole feed.
+            input.resetSizeCounter();
+        }
+        if (header == null) {
+            throw new InvalidProtocolBufferException("GTFS-RT feed message has no header.");
+        }
+        return header;
+    }
+
+    /** @return the trip update of the entity at the current position of the input, or null if it has none. */
+    private static TripUpdate readTripUpdate (CodedInputStream input, ExtensionRegistryLite registry)
+            throws IOException {
+        int length = input.readRawVarint32();
+        int oldLimit = input.pushLimit(length);
+        TripUpdate tripUpdate = null;
+        for (int tag = input.readTag(); tag != 0; tag = input.readTag()) {
+            if (tag == TRIP_UPDATE_TAG) {
+                tripUpdate = input.readMessage(TripUpdate.PARSER, registry);
+            } else if (!input.skipField(tag)) {
+                break;
+            }
+        }
+        input.popLimit(oldLimit);
+        return tripUpdate;
+    }
+}
@@ -76,6 +76,11 @@ public class PollingStoptimeUpdater extends PollingGraphUpdater {
      */
     private GtfsRealtimeFuzzyTripMatcher fuzzyTripMatcher;
 
+    /**
+     * The snapshot source the updates are applied to, set once setup is done. Only used to report status.
+     */
+    private volatile TimetableSnapshotSource snapshotSource;
+
     @Override
     public void setGraphUpdaterManager(GraphUpdaterManager updaterManager) {
         this.updaterManager = updaterManager;
@@ -145,6 +150,7 @@ public class PollingStoptimeUpdater extends PollingGraphUpdater {
                 if (fuzzyTripMatcher != null) {
                     snapshotSource.fuzzyTripMatcher = fuzzyTripMatcher;
                 }
+                PollingStoptimeUpdater.this.snapshotSource = snapshotSource;
             }
         });
     }
@@ -173,6 +179,11 @@ public class PollingStoptimeUpdater extends PollingGraphUpdater {
 
     public String toString() {
         String s = (updateSource == null) ? "NONE" : updateSource.toString();
-        return "Streaming stoptime updater with update source = " + s;
+        String status = "Streaming stoptime updater with update source = " + s;
+        if (snapshotSource != null) {
+            status += ", trip updates in last message: " + snapshotSource.getLastUpdateCounts() + ", in total: "
+                    + snapshotSource.getTotalUpdateCounts();
+        }
+        return status;
     }
 }
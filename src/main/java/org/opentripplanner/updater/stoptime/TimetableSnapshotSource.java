@@ -17,11 +17,17 @@ import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.onebusaway.gtfs.model.Agency;
 import org.onebusaway.gtfs.model.AgencyAndId;
@@ -44,6 +50,7 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
 import com.google.transit.realtime.GtfsRealtime.TripDescriptor;
 import com.google.transit.realtime.GtfsRealtime.TripUpdate;
 import com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeUpdate;
@@ -66,6 +73,11 @@ public class TimetableSnapshotSource {
      */
     private static final long MAX_ARRIVAL_DEPARTURE_TIME = 48 * 60 * 60;
 
+    /**
+     * Messages with at least this many trip updates are prepared in parallel
+     */
+    private static final int MIN_PARALLEL_UPDATES = 100;
+
     public int logFrequency = 2000;
 
     private int appliedBlockCount = 0;
@@ -115,6 +127,20 @@ public class TimetableSnapshotSource {
 
     public GtfsRealtimeFuzzyTripMatcher fuzzyTripMatcher;
 
+    /**
+     * For each feed id, a fingerprint of the last TripUpdate applied for each trip and service date. A full dataset is
+     * compared against these so that only the TripUpdates that changed are applied again and only the trips that
+     * disappeared from the feed are reverted, rather than clearing and rebuilding all realtime data of the feed.
+     * Should only be modified by a thread that holds a lock on {@link #bufferLock}.
+     */
+    private final Map<String, Map<TripAndServiceDate, Long>> fingerprintsForFeedId = new ConcurrentHashMap<>();
+
+    /** The number of TripUpdates handled in the last message. */
+    private volatile UpdateCounts lastUpdateCounts = new UpdateCounts(0, 0, 0, 0);
+
+    /** The number of TripUpdates handled since this snapshot source was created. */
+    private volatile UpdateCounts totalUpdateCounts = new UpdateCounts(0, 0, 0, 0);
+
     public TimetableSnapshotSource(final Graph graph) {
         timeZone = graph.getTimeZone();
         graphIndex = graph.index;
@@ -190,41 +216,56 @@ public class TimetableSnapshotSource {
             return;
         }
 
+        // A full dataset replaces all previous updates of the feed. Rather than clearing the buffer, trips whose
+        // TripUpdate did not change are left as they are, and the others are reverted before being updated.
+        Map<TripAndServiceDate, Long> fingerprints = fingerprintsForFeedId.computeIfAbsent(feedId,
+                k -> new ConcurrentHashMap<>());
+
+        // Match, validate and convert the updates before taking the lock, so that the lock is only held while the
+        // results are merged into the buffer. This only reads the graph and the scheduled timetables, so updates can
+        // be prepared in parallel. The order of the updates is kept, since later updates override earlier ones.
+        LOG.debug("message contains {} trip updates", updates.size());
+        IntStream indexes = IntStream.range(0, updates.size());
+        if (updates.size() >= MIN_PARALLEL_UPDATES) {
+            indexes = indexes.parallel();
+        }
+        final List<PreparedTripUpdate> preparedUpdates = indexes
+                .mapToObj(i -> prepareTripUpdate(updates.get(i), feedId, fingerprints, fullDataset))
+                .collect(Collectors.toList());
+
         // Acquire lock on buffer
         bufferLock.lock();
 
         try {
-            if (fullDataset) {
-                // Remove all updates from the buffer
-                buffer.clear(feedId);
-            }
+            Set<TripAndServiceDate> tripsInDataset = new HashSet<>();
+            int appliedCount = 0;
+            int skippedCount = 0;
+            int failedCount = 0;
+            int retiredCount = 0;
 
-            LOG.debug("message contains {} trip updates", updates.size());
             int uIndex = 0;
-            for (TripUpdate tripUpdate : updates) {
-                if (fuzzyTripMatcher != null && tripUpdate.hasTrip()) {
-                    final TripDescriptor trip = fuzzyTripMatcher.match(feedId, tripUpdate.getTrip());
-                    tripUpdate = tripUpdate.toBuilder().setTrip(trip).build();
-                }
-
-                if (!tripUpdate.hasTrip()) {
-                    LOG.warn("Missing TripDescriptor in gtfs-rt trip update: \n{}", tripUpdate);
+            for (PreparedTripUpdate prepared : preparedUpdates) {
+                if (prepared == null) {
+                    failedCount++;
                     continue;
                 }
-
-                ServiceDate serviceDate = new ServiceDate();
-                final TripDescriptor tripDescriptor = tripUpdate.getTrip();
-
-                if (tripDescriptor.hasStartDate()) {
-                    try {
-                        serviceDate = ServiceDate.parseString(tripDescriptor.getStartDate());
-                    } catch (final ParseException e) {
-                        LOG.warn("Failed to parse start date in gtfs-rt trip update: \n{}", tripUpdate);
-                        continue;
+                final TripUpdate tripUpdate = prepared.tripUpdate;
+                final ServiceDate serviceDate = prepared.serviceDate;
+
+                // Updates without a trip id are not fingerprinted, so they are always applied
+                final TripAndServiceDate tripAndServiceDate = prepared.tripAndServiceDate;
+                final Long previousFingerprint = tripAndServiceDate == null ? null :
+                        fingerprints.get(tripAndServiceDate);
+                if (fullDataset && tripAndServiceDate != null) {
+                    tripsInDataset.add(tripAndServiceDate);
+                    if (previousFingerprint != null) {
+                        if (previousFingerprint == prepared.fingerprint) {
+                            skippedCount++;
+                            continue;
+                        }
+                        // Start again from the scheduled data, as if the buffer had been cleared
+                        revertTrip(feedId, tripAndServiceDate);
                     }
-                } else {
-                    // TODO: figure out the correct service date. For the special case that a trip
-                    // starts for example at 40:00, yesterday would probably be a better guess.
                 }
 
                 uIndex += 1;
@@ -232,13 +273,11 @@ public class TimetableSnapshotSource {
                         uIndex, tripUpdate.getStopTimeUpdateCount());
                 LOG.trace("{}", tripUpdate);
 
-                // Determine what kind of trip update this is
+                // Handle the trip update according to its kind
                 boolean applied = false;
-                final TripDescriptor.ScheduleRelationship tripScheduleRelationship = determineTripScheduleRelationship(
-                        tripUpdate);
-                switch (tripScheduleRelationship) {
+                switch (prepared.scheduleRelationship) {
                     case SCHEDULED:
-                        applied = handleScheduledTrip(tripUpdate, feedId, serviceDate);
+                        applied = handleScheduledTrip(prepared, feedId);
                         break;
                     case ADDED:
                         applied = validateAndHandleAddedTrip(graph, tripUpdate, feedId, serviceDate);
@@ -254,9 +293,21 @@ public class TimetableSnapshotSource {
                         break;
                 }
 
+                // Only remember updates that made it into the buffer. After a failure, the trip is only still in the
+                // state of its previous update if that update was not reverted above.
+                if (tripAndServiceDate != null) {
+                    if (applied) {
+                        fingerprints.put(tripAndServiceDate, prepared.fingerprint);
+                    } else if (fullDataset) {
+                        fingerprints.remove(tripAndServiceDate);
+                    }
+                }
+
                 if (applied) {
                     appliedBlockCount++;
+                    appliedCount++;
                 } else {
+                    failedCount++;
                     LOG.warn("Failed to apply TripUpdate.");
                     LOG.trace(" Contents: {}", tripUpdate);
                 }
@@ -267,6 +318,23 @@ public class TimetableSnapshotSource {
             }
             LOG.debug("end of update message");
 
+            if (fullDataset) {
+                // Revert the trips that are no longer in the feed
+                Iterator<TripAndServiceDate> it = fingerprints.keySet().iterator();
+                while (it.hasNext()) {
+                    TripAndServiceDate tripAndServiceDate = it.next();
+                    if (!tripsInDataset.contains(tripAndServiceDate)) {
+                        revertTrip(feedId, tripAndServiceDate);
+                        it.remove();
+                        retiredCount++;
+                    }
+                }
+            }
+            LOG.debug("{} trip updates applied, {} unchanged, {} failed, {} trips retired",
+                    appliedCount, skippedCount, failedCount, retiredCount);
+            lastUpdateCounts = new UpdateCounts(appliedCount, skippedCount, failedCount, retiredCount);
+            totalUpdateCounts = totalUpdateCounts.plus(lastUpdateCounts);
+
             // Make a snapshot after each message in anticipation of incoming requests
             // Purge data if necessary (and force new snapshot if anything was purged)
             // Make sure that the public (locking) getTimetableSnapshot function is not called.
@@ -282,6 +350,40 @@ public class TimetableSnapshotSource {
         }
     }
 
+    /**
+     * @return the number of TripUpdates applied, skipped because they were unchanged, and failed, and the number of
+     *         trips reverted because they disappeared from a full dataset, in the last message applied.
+     */
+    public UpdateCounts getLastUpdateCounts() {
+        return lastUpdateCounts;
+    }
+
+    /**
+     * @return the same counts as {@link #getLastUpdateCounts()}, summed over all messages applied so far.
+     */
+    public UpdateCounts getTotalUpdateCounts() {
+        return totalUpdateCounts;
+    }
+
+    /**
+     * @return a fingerprint of the contents of a TripUpdate. The timestamp is left out, because producers often set it
+     *         to the time the feed was generated even when nothing changed for the trip.
+     */
+    private static long fingerprint(TripUpdate tripUpdate) {
+        if (tripUpdate.hasTimestamp()) {
+            tripUpdate = tripUpdate.toBuilder().clearTimestamp().build();
+        }
+        return Hashing.murmur3_128().hashBytes(tripUpdate.toByteArray()).asLong();
+    }
+
+    /**
+     * Revert a trip in the buffer to its scheduled state, undoing all updates applied to it.
+     */
+    private void revertTrip(final String feedId, final TripAndServiceDate tripAndServiceDate) {
+        final String tripId = tripAndServiceDate.tripId;
+        buffer.revert(feedId, getPatternForTripId(feedId, tripId), tripId, tripAndServiceDate.serviceDate);
+    }
+
     /**
      * Determine how the trip update should be handled.
      *
@@ -323,34 +425,105 @@ public class TimetableSnapshotSource {
         return tripScheduleRelationship;
     }
 
-    private boolean handleScheduledTrip(final TripUpdate tripUpdate, final String feedId, final ServiceDate serviceDate) {
+    /**
+     * Fuzzy match a TripUpdate, parse its service date and determine its kind. If it only updates the times of a
+     * scheduled trip, also compute the new trip times, unless it is part of a full dataset and did not change since it
+     * was last applied. This does not use the buffer and is called without holding the lock.
+     *
+     * @param fingerprints the fingerprints of the last updates applied for the feed, which are only read here
+     * @return the prepared trip update, or null if it is not valid
+     */
+    private PreparedTripUpdate prepareTripUpdate(TripUpdate tripUpdate, final String feedId,
+            final Map<TripAndServiceDate, Long> fingerprints, final boolean fullDataset) {
+        if (fuzzyTripMatcher != null && tripUpdate.hasTrip()) {
+            final TripDescriptor trip = fuzzyTripMatcher.match(feedId, tripUpdate.getTrip());
+            // The matcher returns the descriptor itself when it has a trip id, so most updates need no copy.
+            if (trip != tripUpdate.getTrip()) {
+                tripUpdate = tripUpdate.toBuilder().setTrip(trip).build();
+            }
+        }
+
+        if (!tripUpdate.hasTrip()) {
+            LOG.warn("Missing TripDescriptor in gtfs-rt trip update: \n{}", tripUpdate);
+            return null;
+        }
+
+        ServiceDate serviceDate = new ServiceDate();
         final TripDescriptor tripDescriptor = tripUpdate.getTrip();
+
+        if (tripDescriptor.hasStartDate()) {
+            try {
+                serviceDate = ServiceDate.parseString(tripDescriptor.getStartDate());
+            } catch (final ParseException e) {
+                LOG.warn("Failed to parse start date in gtfs-rt trip update: \n{}", tripUpdate);
+                return null;
+            }
+        } else {
+            // TODO: figure out the correct service date. For the special case that a trip
+            // starts for example at 40:00, yesterday would probably be a better guess.
+        }
+
+        final PreparedTripUpdate prepared = new PreparedTripUpdate(tripUpdate, serviceDate,
+                determineTripScheduleRelationship(tripUpdate));
+        if (prepared.scheduleRelationship == TripDescriptor.ScheduleRelationship.SCHEDULED) {
+            // An unchanged update in a full dataset will be skipped, unless the fingerprints change before the merge
+            final Long previousFingerprint = prepared.tripAndServiceDate == null ? null :
+                    fingerprints.get(prepared.tripAndServiceDate);
+            if (!fullDataset || previousFingerprint == null || previousFingerprint != prepared.fingerprint) {
+                convertScheduledTrip(prepared, feedId);
+            }
+        }
+        return prepared;
+    }
+
+    /**
+     * Apply a TripUpdate of a scheduled trip on the *scheduled* timetable of its pattern, setting the pattern and the
+     * updated trip times of the prepared trip update. The trip times stay null if the update cannot be applied.
+     */
+    private void convertScheduledTrip(final PreparedTripUpdate prepared, final String feedId) {
+        prepared.converted = true;
+        final TripUpdate tripUpdate = prepared.tripUpdate;
         // This does not include Agency ID or feed ID, trips are feed-unique and we currently assume a single static feed.
-        final String tripId = tripDescriptor.getTripId();
+        final String tripId = tripUpdate.getTrip().getTripId();
         final TripPattern pattern = getPatternForTripId(feedId, tripId);
 
         if (pattern == null) {
             LOG.warn("No pattern found for tripId {}, skipping TripUpdate.", tripId);
-            return false;
+            return;
         }
 
         if (tripUpdate.getStopTimeUpdateCount() < 1) {
             LOG.warn("TripUpdate contains no updates, skipping.");
-            return false;
+            return;
         }
 
-        // Apply update on the *scheduled* time table and set the updated trip times in the buffer
         final TripTimes updatedTripTimes = pattern.scheduledTimetable.createUpdatedTripTimes(tripUpdate,
-                timeZone, serviceDate);
+                timeZone, prepared.serviceDate);
 
         if (updatedTripTimes == null) {
-            return false;
+            return;
         }
 
         // Make sure that updated trip times have the correct real time state
         updatedTripTimes.setRealTimeState(RealTimeState.UDPATED);
 
-        final boolean success = buffer.update(feedId, pattern, updatedTripTimes, serviceDate);
+        prepared.pattern = pattern;
+        prepared.updatedTripTimes = updatedTripTimes;
+    }
+
+    private boolean handleScheduledTrip(final PreparedTripUpdate prepared, final String feedId) {
+        if (!prepared.converted) {
+            // The update was expected to be skipped, but the fingerprints changed in the meantime
+            convertScheduledTrip(prepared, feedId);
+        }
+
+        if (prepared.updatedTripTimes == null) {
+            return false;
+        }
+
+        // Set the updated trip times in the buffer
+        final boolean success = buffer.update(feedId, prepared.pattern, prepared.updatedTripTimes,
+                prepared.serviceDate);
         return success;
     }
 
@@ -934,6 +1107,12 @@ public class TimetableSnapshotSource {
 
         lastPurgeDate = previously;
 
+        // Forget the TripUpdates for the days that are purged, so they are applied again if they show up later
+        for (Map<TripAndServiceDate, Long> fingerprints : fingerprintsForFeedId.values()) {
+            fingerprints.keySet().removeIf(tripAndServiceDate ->
+                    previously.compareTo(tripAndServiceDate.serviceDate) >= 0);
+        }
+
         return buffer.purgeExpiredData(previously);
     }
 
@@ -986,4 +1165,102 @@ public class TimetableSnapshotSource {
         return stop;
     }
 
+    /**
+     * A TripUpdate with everything that can be computed before taking the buffer lock, see prepareTripUpdate.
+     */
+    private static final class PreparedTripUpdate {
+        /** The trip update, after fuzzy trip matching */
+        private final TripUpdate tripUpdate;
+
+        private final ServiceDate serviceDate;
+
+        /** The key of the fingerprint, or null if the trip update has no trip id and is not fingerprinted */
+        private final TripAndServiceDate tripAndServiceDate;
+
+        private final long fingerprint;
+
+        private final TripDescriptor.ScheduleRelationship scheduleRelationship;
+
+        /** Whether convertScheduledTrip was called, for SCHEDULED trip updates only */
+        private boolean converted = false;
+
+        /** The pattern of the trip and its updated trip times, if the conversion succeeded */
+        private TripPattern pattern;
+
+        private TripTimes updatedTripTimes;
+
+        PreparedTripUpdate(final TripUpdate tripUpdate, final ServiceDate serviceDate,
+                final TripDescriptor.ScheduleRelationship scheduleRelationship) {
+            this.tripUpdate = tripUpdate;
+            this.serviceDate = serviceDate;
+            this.tripAndServiceDate = tripUpdate.getTrip().hasTripId() ?
+                    new TripAndServiceDate(tripUpdate.getTrip().getTripId(), serviceDate) : null;
+            this.fingerprint = fingerprint(tripUpdate);
+            this.scheduleRelationship = scheduleRelationship;
+        }
+    }
+
+    /**
+     * Key for the TripUpdate fingerprints: a trip id (without agency) and a service date.
+     */
+    private static final class TripAndServiceDate {
+        private final String tripId;
+        private final ServiceDate serviceDate;
+
+        TripAndServiceDate(final String tripId, final ServiceDate serviceDate) {
+            this.tripId = tripId;
+            this.serviceDate = serviceDate;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(tripId, serviceDate);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof TripAndServiceDate))
+                return false;
+            TripAndServiceDate other = (TripAndServiceDate) obj;
+            return tripId.equals(other.tripId) && serviceDate.equals(other.serviceDate);
+        }
+    }
+
+    /**
+     * The number of TripUpdates handled in one or more messages.
+     */
+    public static final class UpdateCounts {
+        /** TripUpdates applied to the realtime data */
+        public final long applied;
+
+        /** TripUpdates of full datasets not applied because they did not change since the previous message */
+        public final long skipped;
+
+        /** TripUpdates that could not be applied */
+        public final long failed;
+
+        /** Trips reverted to their scheduled state because they were no longer in a full dataset */
+        public final long retired;
+
+        public UpdateCounts(long applied, long skipped, long failed, long retired) {
+            this.applied = applied;
+            this.skipped = skipped;
+            this.failed = failed;
+            this.retired = retired;
+        }
+
+        public UpdateCounts plus(UpdateCounts other) {
+            return new UpdateCounts(applied + other.applied, skipped + other.skipped, failed + other.failed,
+                    retired + other.retired);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d applied, %d unchanged, %d failed, %d retired", applied, skipped, failed,
+                    retired);
+        }
+    }
+
 }
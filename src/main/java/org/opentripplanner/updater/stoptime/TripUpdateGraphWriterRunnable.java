@@ -51,6 +51,17 @@ public class TripUpdateGraphWriterRunnable implements GraphWriterRunnable {
         this.feedId = feedId;
     }
 
+    @Override
+    public Resource getResource() {
+        return Resource.TIMETABLES;
+    }
+
+    /** A full dataset replaces all earlier updates of the same feed, so only the latest one has to be applied. */
+    @Override
+    public Object getCoalescingKey() {
+        return fullDataset ? feedId : null;
+    }
+
     @Override
     public void run(Graph graph) {
         // Apply updates to graph using realtime snapshot source
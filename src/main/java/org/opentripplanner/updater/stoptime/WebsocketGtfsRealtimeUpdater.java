@@ -13,6 +13,7 @@
 
 package org.opentripplanner.updater.stoptime;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
@@ -26,10 +27,7 @@ import org.opentripplanner.updater.stoptime.TimetableSnapshotSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.protobuf.InvalidProtocolBufferException;
-import com.google.transit.realtime.GtfsRealtime;
-import com.google.transit.realtime.GtfsRealtime.FeedEntity;
-import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader;
 import com.google.transit.realtime.GtfsRealtime.TripUpdate;
 import com.ning.http.client.AsyncHttpClient;
 import com.ning.http.client.websocket.DefaultWebSocketListener;
@@ -170,31 +168,20 @@ public class WebsocketGtfsRealtimeUpdater implements GraphUpdater {
     private class Listener extends DefaultWebSocketListener {
         @Override
         public void onMessage(byte[] message) {
-            FeedMessage feedMessage = null;
-            List<FeedEntity> feedEntityList = null;
             List<TripUpdate> updates = null;
             boolean fullDataset = true;
             try {
-                // Decode message
-                feedMessage = FeedMessage.PARSER.parseFrom(message);
-                feedEntityList = feedMessage.getEntityList();
-                
+                // Decode the trip updates one entity at a time, skipping the other entities of the feed
+                List<TripUpdate> tripUpdates = new ArrayList<TripUpdate>();
+                FeedHeader header = GtfsRealtimeTripUpdateReader.read(message, tripUpdates::add);
+                updates = tripUpdates;
+
                 // Change fullDataset value if this is an incremental update
-                if (feedMessage.hasHeader()
-                        && feedMessage.getHeader().hasIncrementality()
-                        && feedMessage.getHeader().getIncrementality()
-                                .equals(GtfsRealtime.FeedHeader.Incrementality.DIFFERENTIAL)) {
+                if (header.hasIncrementality()
+                        && header.getIncrementality().equals(FeedHeader.Incrementality.DIFFERENTIAL)) {
                     fullDataset = false;
                 }
-                
-                // Create List of TripUpdates
-                updates = new ArrayList<TripUpdate>(feedEntityList.size());
-                for (FeedEntity feedEntity : feedEntityList) {
-                    if (feedEntity.hasTripUpdate()) {
-                        updates.add(feedEntity.getTripUpdate());
-                    }
-                }
-            } catch (InvalidProtocolBufferException e) {
+            } catch (IOException e) {
                 LOG.error("Could not decode gtfs-rt message:", e);
             }
 
@@ -165,6 +165,16 @@ public abstract class WFSNotePollingGraphUpdater extends PollingGraphUpdater {
         public void run(Graph graph) {
             notesSource.setNotes(notesForEdge);
         }
+
+        @Override
+        public Resource getResource() {
+            return Resource.STREET_NOTES;
+        }
+
+        @Override
+        public Object getCoalescingKey() {
+            return WFSNotePollingGraphUpdater.this;
+        }
     }
 
     /**
@@ -9,6 +9,7 @@ import org.opentripplanner.traffic.SegmentSpeedSample;
 import org.opentripplanner.traffic.StreetSpeedSnapshot;
 import org.opentripplanner.traffic.StreetSpeedSnapshotSource;
 import org.opentripplanner.updater.GraphUpdaterManager;
+import org.opentripplanner.updater.GraphWriterRunnable;
 import org.opentripplanner.updater.PollingGraphUpdater;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -74,8 +75,21 @@ public class OpenTrafficUpdater extends PollingGraphUpdater {
 
         LOG.info("Indexed {} speed samples", speedIndex.size());
 
-        graphUpdaterManager.execute(graph -> {
-            graph.streetSpeedSource.setSnapshot(new StreetSpeedSnapshot(speedIndex));
+        graphUpdaterManager.execute(new GraphWriterRunnable() {
+            @Override
+            public void run(Graph graph) {
+                graph.streetSpeedSource.setSnapshot(new StreetSpeedSnapshot(speedIndex, graph));
+            }
+
+            @Override
+            public Resource getResource() {
+                return Resource.TRAFFIC;
+            }
+
+            @Override
+            public Object getCoalescingKey() {
+                return OpenTrafficUpdater.this;
+            }
         });
     }
 
@@ -0,0 +1,85 @@
+package org.opentripplanner.analyst.broker;
+
+import org.opentripplanner.analyst.cluster.AnalystWorker;
+import org.opentripplanner.analyst.cluster.JobSimulator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Properties;
+
+/**
+ * This is not an automatic unit test. It is a load test that must be started manually. It starts a broker and some
+ * local workers that complete all their tasks immediately without doing any work, submits a large job with the
+ * JobSimulator, and reports the rate at which the broker delivers tasks and records their completion. Since the
+ * workers do nothing, this measures the throughput of the broker and of the protocol between it and the workers.
+ *
+ * By default the workers use the bulk protocol, asking for tasks according to their free capacity and acknowledging
+ * completed tasks in bulk. Run with the argument "single" to have them acknowledge each task with its own request as
+ * they used to, for comparison.
+ */
+public class BrokerBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BrokerBenchmark.class);
+    static final int N_TASKS = 100000;
+    static final int N_WORKERS = 16;
+    static final int N_JOBS = 4;
+
+    public static void main(String[] params) throws Exception {
+
+        boolean bulkProtocol = !(params.length > 0 && "single".equals(params[0]));
+        LOG.info("Workers will use the {} protocol.", bulkProtocol ? "bulk" : "single task");
+
+        // Start a broker in a new thread.
+        Properties brokerConfig = new Properties();
+        brokerConfig.setProperty("graphs-bucket", "FAKE");
+        brokerConfig.setProperty("pointsets-bucket", "FAKE");
+        brokerConfig.setProperty("work-offline", "true");
+        BrokerMain brokerMain = new BrokerMain(brokerConfig);
+        Thread brokerThread = new Thread(brokerMain);
+        brokerThread.start();
+
+        // Start some workers that never fail.
+        Properties workerConfig = new Properties();
+        workerConfig.setProperty("initial-graph-id", "GRAPH");
+        for (int i = 0; i < N_WORKERS; i++) {
+            AnalystWorker worker = new AnalystWorker(workerConfig);
+            worker.dryRunFailureRate = 0;
+            worker.bulkProtocol = bulkProtocol;
+            new Thread(worker).start();
+        }
+
+        // Feed some work to the broker, in several jobs so that the round-robin between jobs is exercised.
+        long startTime = System.currentTimeMillis();
+        for (int j = 0; j < N_JOBS; j++) {
+            JobSimulator jobSimulator = new JobSimulator();
+            jobSimulator.nOrigins = N_TASKS / N_JOBS;
+            jobSimulator.graphId = "GRAPH";
+            jobSimulator.sendFakeJob();
+        }
+
+        // Report throughput until all tasks are marked finished.
+        long lastTime = startTime;
+        long lastDelivered = 0;
+        long lastCompleted = 0;
+        while (brokerMain.broker.anyJobsActive()) {
+            Thread.sleep(2000);
+            long now = System.currentTimeMillis();
+            long delivered = brokerMain.broker.getDeliveredTaskCount();
+            long completed = brokerMain.broker.getCompletedTaskCount();
+            double seconds = (now - lastTime) / 1000.0;
+            LOG.info("{} tasks/sec delivered, {} tasks/sec completed ({} of {} tasks complete)",
+                    (int) ((delivered - lastDelivered) / seconds), (int) ((completed - lastCompleted) / seconds),
+                    completed, N_TASKS);
+            lastTime = now;
+            lastDelivered = delivered;
+            lastCompleted = completed;
+        }
+
+        double seconds = (System.currentTimeMillis() - startTime) / 1000.0;
+        LOG.info("All jobs finished in {} seconds: {} tasks/sec delivered, {} tasks/sec completed on average.",
+                seconds, (int) (brokerMain.broker.getDeliveredTaskCount() / seconds),
+                (int) (brokerMain.broker.getCompletedTaskCount() / seconds));
+        System.exit(0);
+    }
+
+}
@@ -0,0 +1,55 @@
+package org.opentripplanner.analyst.broker;
+
+import gnu.trove.list.array.TIntArrayList;
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.opentripplanner.analyst.cluster.AnalystClusterRequest;
+
+import java.util.List;
+
+public class JobTest extends TestCase {
+
+    private static Job makeJob (int nTasks) {
+        Job job = new Job("JOB");
+        job.graphId = "GRAPH";
+        for (int i = 0; i < nTasks; i++) {
+            AnalystClusterRequest task = new AnalystClusterRequest();
+            task.jobId = "JOB";
+            task.graphId = "GRAPH";
+            task.taskId = i;
+            job.addTask(task);
+        }
+        return job;
+    }
+
+    @Test
+    public void testDeliveryAndBatchCompletion() {
+        Job job = makeJob(10);
+        assertEquals(10, job.getTasksAwaitingDeliveryCount());
+
+        List<AnalystClusterRequest> tasks = job.pollTasksForDelivery(8);
+        assertEquals(8, tasks.size());
+        assertEquals(2, job.getTasksAwaitingDeliveryCount());
+        job.markTasksDelivered(tasks);
+        assertEquals(8, job.getInFlightTaskCount());
+
+        // Task 9 has not been delivered, so its completion is ignored. Task 42 is not in the job.
+        assertEquals(3, job.markTasksCompleted(new TIntArrayList(new int[] { 0, 1, 2, 9, 42 })));
+        assertEquals(3, job.getCompletedTaskCount());
+        assertEquals(5, job.getInFlightTaskCount());
+        assertFalse(job.isComplete());
+    }
+
+    @Test
+    public void testReturnUndeliveredTasks() {
+        Job job = makeJob(3);
+        List<AnalystClusterRequest> tasks = job.pollTasksForDelivery(8);
+        assertEquals(3, tasks.size());
+        assertFalse(job.hasTasksAwaitingDelivery());
+        job.returnUndeliveredTasks(tasks);
+        assertTrue(job.hasTasksAwaitingDelivery());
+        assertEquals(3, job.getTasksAwaitingDeliveryCount());
+        assertEquals(0, job.getInFlightTaskCount());
+    }
+
+}
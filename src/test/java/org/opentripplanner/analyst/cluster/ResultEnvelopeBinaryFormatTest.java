@@ -0,0 +1,68 @@
+package org.opentripplanner.analyst.cluster;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.opentripplanner.analyst.Histogram;
+import org.opentripplanner.analyst.ResultSet;
+import org.opentripplanner.analyst.core.IsochroneData;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+public class ResultEnvelopeBinaryFormatTest extends TestCase {
+
+    private static ResultSet makeResultSet (String id, int... times) {
+        ResultSet resultSet = new ResultSet();
+        resultSet.id = id;
+        resultSet.times = times;
+        Histogram histogram = new Histogram();
+        histogram.counts = new int[] { 0, 3, 12, 0, 7 };
+        histogram.sums = new int[] { 0, 300, 1200000, 0, 7 };
+        resultSet.histograms.put("jobs", histogram);
+        return resultSet;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        ResultEnvelope envelope = new ResultEnvelope();
+        envelope.profile = true;
+        envelope.jobId = "job";
+        envelope.id = "origin";
+        envelope.destinationPointsetId = null;
+        envelope.bestCase = makeResultSet("best", 0, 600, 540, Integer.MAX_VALUE, 7200, Integer.MAX_VALUE);
+        envelope.worstCase = makeResultSet("worst");
+        envelope.avgCase = makeResultSet("avg", (int[]) null);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResultEnvelopeBinaryFormat.write(envelope, out);
+        ResultEnvelope read = ResultEnvelopeBinaryFormat.read(new ByteArrayInputStream(out.toByteArray()));
+
+        assertTrue(read.profile);
+        assertEquals("job", read.jobId);
+        assertEquals("origin", read.id);
+        assertNull(read.destinationPointsetId);
+        assertNull(read.pointEstimate);
+        assertNull(read.spread);
+        for (ResultEnvelope.Which which : new ResultEnvelope.Which[] { ResultEnvelope.Which.BEST_CASE,
+                ResultEnvelope.Which.WORST_CASE, ResultEnvelope.Which.AVERAGE }) {
+            ResultSet expected = envelope.get(which);
+            ResultSet actual = read.get(which);
+            assertEquals(expected.id, actual.id);
+            assertTrue(Arrays.equals(expected.times, actual.times));
+            assertEquals(1, actual.histograms.size());
+            assertTrue(Arrays.equals(expected.histograms.get("jobs").counts, actual.histograms.get("jobs").counts));
+            assertTrue(Arrays.equals(expected.histograms.get("jobs").sums, actual.histograms.get("jobs").sums));
+        }
+    }
+
+    @Test
+    public void testIsochronesNotWritable() {
+        ResultEnvelope envelope = new ResultEnvelope();
+        envelope.pointEstimate = new ResultSet();
+        assertTrue(ResultEnvelopeBinaryFormat.canWrite(envelope));
+        envelope.pointEstimate.isochrones = new IsochroneData[0];
+        assertFalse(ResultEnvelopeBinaryFormat.canWrite(envelope));
+    }
+
+}
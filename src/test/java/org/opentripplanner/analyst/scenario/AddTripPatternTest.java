@@ -178,9 +178,9 @@ public class AddTripPatternTest extends TestCase {
         // make sure that we have transfers a) between the new lines b) from the new lines
         // to the existing lines c) from the existing lines to the new lines
         // stop IDs in the data will be 0 and 1 for existing stops, 2 - 6 for Broad/High and 7 - 11 for Bexley/CMH
-        int[] txFromExisting = data.transfersForStop.get(0);
+        int[] txFromExisting = transfersForStop(data, 0);
         if (txFromExisting.length == 0)
-            txFromExisting = data.transfersForStop.get(1);
+            txFromExisting = transfersForStop(data, 1);
 
         // make sure there's a transfer to stop 4 (Broad/High)
         // the AddTripPattern instructions are processed in order
@@ -201,7 +201,7 @@ public class AddTripPatternTest extends TestCase {
 
         // Check that there are transfers from the new route to the existing route
         // This is the stop at Broad and High
-        int[] txToExisting = data.transfersForStop.get(4);
+        int[] txToExisting = transfersForStop(data, 4);
         assertTrue(txToExisting.length > 0);
         foundTx = false;
 
@@ -216,7 +216,7 @@ public class AddTripPatternTest extends TestCase {
         assertTrue("transfer from new to existing", foundTx);
 
         // Check that there are transfers between the new routes
-        int[] txBetweenNew = data.transfersForStop.get(7);
+        int[] txBetweenNew = transfersForStop(data, 7);
         assertTrue(txBetweenNew.length > 0);
         foundTx = false;
 
@@ -347,4 +347,14 @@ public class AddTripPatternTest extends TestCase {
             }
         }
     }
+
+    /** @return the (targetStopIndex, distanceMeters) pairs of the transfers out of the given stop. */
+    private static int[] transfersForStop (RaptorWorkerData data, int stop) {
+        PackedIntLists packed = data.packedTransfersForStop;
+        int[] ret = new int[packed.length(stop)];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = packed.values.get(packed.offsets[stop] + i);
+        }
+        return ret;
+    }
 }
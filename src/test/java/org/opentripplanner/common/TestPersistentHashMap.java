@@ -0,0 +1,98 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class TestPersistentHashMap extends TestCase {
+
+    /** A key with a poor hash function, to exercise collisions. */
+    private static class BadKey {
+        final int id;
+        BadKey (int id) { this.id = id; }
+        @Override public int hashCode () { return id % 7; }
+        @Override public boolean equals (Object o) { return o instanceof BadKey && ((BadKey) o).id == id; }
+    }
+
+    @Test
+    public void testAgainstHashMap() {
+        Random random = new Random(1);
+        Map<Integer, Integer> expected = new HashMap<>();
+        PersistentHashMap<Integer, Integer> map = PersistentHashMap.empty();
+        for (int i = 0; i < 100000; i++) {
+            // Use a wide range of keys, including negative ones, so that all bits of the hash are significant.
+            int key = random.nextInt() % 5000;
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                map = map.minus(key);
+            } else {
+                expected.put(key, i);
+                map = map.plus(key, i);
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+        Map<Integer, Integer> contents = new HashMap<>();
+        map.forEach(contents::put);
+        assertEquals(expected, contents);
+    }
+
+    @Test
+    public void testOldVersionsUnchanged() {
+        PersistentHashMap<String, Integer> v1 = PersistentHashMap.<String, Integer>empty().plus("a", 1).plus("b", 2);
+        PersistentHashMap<String, Integer> v2 = v1.plus("a", 10).minus("b").plus("c", 3);
+        assertEquals(2, v1.size());
+        assertEquals(Integer.valueOf(1), v1.get("a"));
+        assertEquals(Integer.valueOf(2), v1.get("b"));
+        assertNull(v1.get("c"));
+        assertEquals(2, v2.size());
+        assertEquals(Integer.valueOf(10), v2.get("a"));
+        assertNull(v2.get("b"));
+        assertEquals(Integer.valueOf(3), v2.get("c"));
+        // Operations that change nothing return the same map.
+        assertSame(v2, v2.minus("z"));
+        Integer three = v2.get("c");
+        assertSame(v2, v2.plus("c", three));
+    }
+
+    @Test
+    public void testCollisions() {
+        PersistentHashMap<BadKey, Integer> map = PersistentHashMap.empty();
+        for (int i = 0; i < 100; i++) {
+            map = map.plus(new BadKey(i), i);
+        }
+        assertEquals(100, map.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Integer.valueOf(i), map.get(new BadKey(i)));
+        }
+        map = map.minusIf((k, v) -> v % 2 == 0);
+        assertEquals(50, map.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i % 2 == 0 ? null : Integer.valueOf(i), map.get(new BadKey(i)));
+        }
+        for (int i = 0; i < 100; i++) {
+            map = map.minus(new BadKey(i));
+        }
+        assertTrue(map.isEmpty());
+    }
+
+}
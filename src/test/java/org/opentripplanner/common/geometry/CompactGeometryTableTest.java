@@ -0,0 +1,82 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common.geometry;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class CompactGeometryTableTest extends TestCase {
+
+    private static final int[][] GEOMETRIES = { { 1, -2, 30000, 4 }, {}, { -7, 8 } };
+
+    /** Write the table in its file layout, after some bytes that are not part of it. */
+    private static byte[] tableBytes(int prefix) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int i = 0; i < prefix; i++)
+            out.writeByte(0xFF);
+        out.writeInt(GEOMETRIES.length);
+        int offset = 0;
+        out.writeInt(offset);
+        for (int[] geometry : GEOMETRIES) {
+            offset += geometry.length;
+            out.writeInt(offset);
+        }
+        for (int[] geometry : GEOMETRIES)
+            for (int value : geometry)
+                out.writeInt(value);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static void checkTable(CompactGeometryTable table) {
+        assertEquals(GEOMETRIES.length, table.size());
+        for (int i = 0; i < GEOMETRIES.length; i++)
+            assertTrue(Arrays.equals(GEOMETRIES[i], table.get(i)));
+    }
+
+    @Test
+    public final void testRead() throws IOException {
+        checkTable(CompactGeometryTable.read(new DataInputStream(new ByteArrayInputStream(tableBytes(0)))));
+    }
+
+    @Test
+    public final void testMap() throws IOException {
+        File file = File.createTempFile("geometries", ".bin");
+        try {
+            byte[] bytes = tableBytes(3);
+            Files.write(file.toPath(), bytes);
+            CompactGeometryTable table;
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                table = CompactGeometryTable.map(channel, 3, bytes.length - 3);
+            }
+            // The mapping outlives the channel.
+            checkTable(table);
+        } finally {
+            file.delete();
+        }
+    }
+}
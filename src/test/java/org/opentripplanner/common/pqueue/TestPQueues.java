@@ -92,6 +92,21 @@ public class TestPQueues extends TestCase {
         fillQueue(new BinHeap<Integer>(), input);
     }
 
+    public void testClear() {
+        BinHeap<Integer> q = new BinHeap<Integer>(10);
+        for (int i = 0; i < 100; i++) q.insert(i, 100 - i);
+        for (int i = 0; i < 50; i++) q.extract_min();
+        q.clear();
+        assertTrue(q.empty());
+        assertNull(q.peek_min());
+        // the heap should be fully usable again after clearing
+        List<Integer> input = new ArrayList<Integer>();
+        for (int i = 0; i < 20; i++) input.add(i);
+        for (Integer i : input) q.insert(i, i);
+        for (Integer i : input) assertEquals(i, q.extract_min());
+        assertTrue(q.empty());
+    }
+
     /*
      * You must be careful to produce unique objects for rekeying,
      * otherwise the same object might be rekeyed twice or more.
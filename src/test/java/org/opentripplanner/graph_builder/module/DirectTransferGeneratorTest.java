@@ -0,0 +1,72 @@
+package org.opentripplanner.graph_builder.module;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+import org.opentripplanner.routing.edgetype.SimpleTransfer;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.opentripplanner.graph_builder.module.FakeGraph.*;
+
+public class DirectTransferGeneratorTest {
+
+    /**
+     * Linking the stops in reverse order should create exactly the same transfers, because no search sees the
+     * transfers created for the other stops.
+     */
+    @Test
+    public void testTransfersIndependentOfStopOrder () throws Exception {
+        Graph g1 = buildGraph();
+        Graph g2 = buildGraph();
+        DirectTransferGenerator generator = new DirectTransferGenerator();
+
+        List<TransitStop> stops1 = linkableStops(g1);
+        int n1 = generator.linkStops(g1, new NearbyStopFinder(g1, generator.maxDuration), stops1);
+
+        List<TransitStop> stops2 = Lists.reverse(linkableStops(g2));
+        int n2 = generator.linkStops(g2, new NearbyStopFinder(g2, generator.maxDuration), stops2);
+
+        assertTrue("No transfers", n1 > 0);
+        assertEquals(n1, n2);
+        assertEquals(transfers(g1), transfers(g2));
+    }
+
+    /** A street graph with many short lines whose stops are closer together than the maximum transfer distance */
+    private static Graph buildGraph () throws Exception {
+        Graph g = buildGraphNoTransit();
+        addTransitMultipleLines(g, 200);
+        link(g);
+        g.index(new DefaultStreetVertexIndexFactory());
+        return g;
+    }
+
+    private static List<TransitStop> linkableStops (Graph g) {
+        List<TransitStop> ret = Lists.newArrayList();
+        for (TransitStop ts : Iterables.filter(g.getVertices(), TransitStop.class)) {
+            if (ts.isStreetLinkable()) ret.add(ts);
+        }
+        return ret;
+    }
+
+    /** @return each transfer as its origin and destination stop labels and its distance. */
+    private static Set<String> transfers (Graph g) {
+        Set<String> ret = new HashSet<String>();
+        for (TransitStop ts : Iterables.filter(g.getVertices(), TransitStop.class)) {
+            for (Edge e : ts.getOutgoing()) {
+                if (e instanceof SimpleTransfer) {
+                    ret.add(ts.getLabel() + " -> " + e.getToVertex().getLabel() + " " + e.getDistance());
+                }
+            }
+        }
+        return ret;
+    }
+
+}
@@ -9,6 +9,7 @@ import org.opentripplanner.graph_builder.linking.SimpleStreetSplitter;
 import org.opentripplanner.graph_builder.model.GtfsBundle;
 import org.opentripplanner.graph_builder.module.osm.DefaultWayPropertySetSource;
 import org.opentripplanner.graph_builder.module.osm.OpenStreetMapModule;
+import org.opentripplanner.graph_builder.services.DefaultStreetEdgeFactory;
 import org.opentripplanner.openstreetmap.impl.AnyFileBasedOpenStreetMapProviderImpl;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.vertextype.TransitStop;
@@ -32,9 +33,17 @@ public class FakeGraph {
 
     /** Build a graph in Columbus, OH with no transit */
     public static Graph buildGraphNoTransit () throws UnsupportedEncodingException {
+        return buildGraphNoTransit(false);
+    }
+
+    /** Build a graph in Columbus, OH with no transit, whose streets can have elevation profiles if useElevationData */
+    public static Graph buildGraphNoTransit (boolean useElevationData) throws UnsupportedEncodingException {
         Graph gg = new Graph();
 
         OpenStreetMapModule loader = new OpenStreetMapModule();
+        DefaultStreetEdgeFactory edgeFactory = new DefaultStreetEdgeFactory();
+        edgeFactory.useElevationData = useElevationData;
+        loader.edgeFactory = edgeFactory;
         loader.setDefaultWayPropertySetSource(new DefaultWayPropertySetSource());
         AnyFileBasedOpenStreetMapProviderImpl provider = new AnyFileBasedOpenStreetMapProviderImpl();
 
@@ -126,6 +135,11 @@ public class FakeGraph {
 
     /** Add many transit lines to a lot of stops */
     public static void addTransitMultipleLines (Graph g) throws Exception {
+        addTransitMultipleLines(g, 10000);
+    }
+
+    /** Add a two-stop transit line for every pair of the given number of stops, which are laid out in a grid */
+    public static void addTransitMultipleLines (Graph g, int nStops) throws Exception {
         // using conveyal GTFS lib to build GTFS so a lot of code does not have to be rewritten later
         // once we're using the conveyal GTFS lib for everything we ought to be able to do this
         // without even writing out the GTFS to a file.
@@ -155,7 +169,7 @@ public class FakeGraph {
         feed.services.put(s.service_id, s);
 
         int stopIdx = 0;
-        while (stopIdx < 10000) {
+        while (stopIdx < nStops) {
             com.conveyal.gtfs.model.Stop s1 = new com.conveyal.gtfs.model.Stop();
             s1.stop_id = s1.stop_name = "s" + stopIdx++;
             s1.stop_lat = 39.9354 + (stopIdx % 100) * 1e-3;
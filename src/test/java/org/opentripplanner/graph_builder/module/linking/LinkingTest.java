@@ -14,6 +14,7 @@ import org.junit.Test;
 import org.opentripplanner.common.geometry.GeometryUtils;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
 import org.opentripplanner.common.model.P2;
+import org.opentripplanner.graph_builder.linking.SimpleStreetSplitter;
 import org.opentripplanner.profile.StopTreeCache;
 import org.opentripplanner.routing.edgetype.StreetEdge;
 import org.opentripplanner.routing.edgetype.StreetTransitLink;
@@ -28,9 +29,13 @@ import org.opentripplanner.routing.vertextype.StreetVertex;
 import org.opentripplanner.routing.vertextype.TransitStop;
 
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import static org.junit.Assert.*;
 import static org.opentripplanner.graph_builder.module.FakeGraph.*;
@@ -151,6 +156,44 @@ public class LinkingTest {
         }
     }
 
+    /**
+     * Test that linking all the stops at once, which finds the closest edges in parallel, links them exactly as
+     * linking them one at a time in the same order does, including the nearly duplicate stops that link to edges split
+     * by other stops.
+     */
+    @Test
+    public void testParallelLinkingMatchesSequential () throws UnsupportedEncodingException {
+        Graph g1 = buildGraphNoTransit();
+        addExtraStops(g1);
+        addRegularStopGrid(g1);
+        List<String> labels = new ArrayList<String>();
+        for (TransitStop ts : Iterables.filter(g1.getVertices(), TransitStop.class)) {
+            labels.add(ts.getLabel());
+        }
+        link(g1);
+
+        Graph g2 = buildGraphNoTransit();
+        addExtraStops(g2);
+        addRegularStopGrid(g2);
+        SimpleStreetSplitter linker = new SimpleStreetSplitter(g2);
+        for (String label : labels) {
+            linker.link(g2.getVertex(label));
+        }
+
+        for (String label : labels) {
+            assertEquals("Different links from stop " + label, linkedCoordinates(g1.getVertex(label)),
+                    linkedCoordinates(g2.getVertex(label)));
+        }
+    }
+
+    private static Set<Coordinate> linkedCoordinates (Vertex v) {
+        Set<Coordinate> ret = new HashSet<Coordinate>();
+        for (Edge e : stls(v.getOutgoing())) {
+            ret.add(e.getToVertex().getCoordinate());
+        }
+        return ret;
+    }
+
     private TObjectIntMap<String> jaggedArrayToVertexMap(int[] value, Graph g) {
         TObjectIntMap<String> ret = new TObjectIntHashMap<String>();
 
@@ -180,8 +223,8 @@ public class LinkingTest {
     public static Map<String, int[]> cacheByLabel (StopTreeCache c) {
         Map<String, int[]> ret = Maps.newHashMap();
 
-        for (Entry<TransitStop, int[]> e : c.distancesForStop.entrySet()) {
-            ret.put(e.getKey().getLabel(), e.getValue());
+        for (TransitStop tstop : c.getStops()) {
+            ret.put(tstop.getLabel(), c.getDistancesForStop(tstop));
         }
 
         return ret;
@@ -0,0 +1,121 @@
+package org.opentripplanner.graph_builder.module.ned;
+
+import com.google.common.collect.Lists;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.junit.Test;
+import org.opengis.coverage.Coverage;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.graph_builder.annotation.ElevationFlattened;
+import org.opentripplanner.graph_builder.annotation.GraphBuilderAnnotation;
+import org.opentripplanner.graph_builder.services.ned.ElevationGridCoverageFactory;
+import org.opentripplanner.routing.edgetype.StreetWithElevationEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+import static org.opentripplanner.graph_builder.module.FakeGraph.buildGraphNoTransit;
+
+public class ElevationModuleTest {
+
+    /**
+     * Sampling the elevations of the edges in parallel should give the same elevation profiles and flattening
+     * annotations, in the same order, as sampling them on a single thread.
+     */
+    @Test
+    public void testParallelMatchesSequential () throws Exception {
+        Graph g1 = buildGraphNoTransit(true);
+        Graph g2 = buildGraphNoTransit(true);
+
+        // Parallel streams started from a pool task run in that pool, so a pool with one thread samples sequentially.
+        ForkJoinPool singleThread = new ForkJoinPool(1);
+        singleThread.submit(() -> new ElevationModule(new FakeCoverageFactory()).buildGraph(g1, new HashMap<>())).get();
+        singleThread.shutdown();
+        new ElevationModule(new FakeCoverageFactory()).buildGraph(g2, new HashMap<>());
+
+        // Edge IDs differ between the graphs, but both graphs were built the same way and list their edges in the same order.
+        List<StreetWithElevationEdge> edges1 = elevationEdges(g1);
+        List<StreetWithElevationEdge> edges2 = elevationEdges(g2);
+        assertEquals(edges1.size(), edges2.size());
+        int nWithProfile = 0;
+        for (int i = 0; i < edges1.size(); i++) {
+            StreetWithElevationEdge e1 = edges1.get(i);
+            StreetWithElevationEdge e2 = edges2.get(i);
+            assertEquals(e1.getFromVertex().getLabel(), e2.getFromVertex().getLabel());
+            assertEquals(e1.getToVertex().getLabel(), e2.getToVertex().getLabel());
+            assertEquals(e1.isElevationFlattened(), e2.isElevationFlattened());
+            if (e1.getElevationProfile() == null) {
+                assertNull(e2.getElevationProfile());
+                continue;
+            }
+            assertArrayEquals("Different elevation profile for " + e1,
+                    e1.getElevationProfile().toCoordinateArray(), e2.getElevationProfile().toCoordinateArray());
+            nWithProfile++;
+        }
+        assertTrue("No elevation profile set", nWithProfile > 0);
+
+        List<Integer> flattened1 = flattenedEdgeIndices(g1, edges1);
+        assertFalse("No edge flattened", flattened1.isEmpty());
+        assertEquals(flattened1, flattenedEdgeIndices(g2, edges2));
+    }
+
+    private static List<StreetWithElevationEdge> elevationEdges (Graph g) {
+        List<StreetWithElevationEdge> ret = Lists.newArrayList();
+        for (Edge e : g.getEdges()) {
+            if (e instanceof StreetWithElevationEdge) ret.add((StreetWithElevationEdge) e);
+        }
+        return ret;
+    }
+
+    /** @return the positions in the edge list of the edges with flattening annotations, in annotation order. */
+    private static List<Integer> flattenedEdgeIndices (Graph g, List<StreetWithElevationEdge> edges) {
+        Map<String, Integer> indexForMessage = new HashMap<>();
+        for (int i = 0; i < edges.size(); i++) {
+            indexForMessage.put(new ElevationFlattened(edges.get(i)).getMessage(), i);
+        }
+        List<Integer> ret = Lists.newArrayList();
+        for (GraphBuilderAnnotation annotation : g.getBuilderAnnotations()) {
+            if (annotation instanceof ElevationFlattened) {
+                ret.add(indexForMessage.get(annotation.getMessage()));
+            }
+        }
+        return ret;
+    }
+
+    /** A raster of random elevations over the Columbus graph, steep enough to flatten some of the streets. */
+    private static class FakeCoverageFactory implements ElevationGridCoverageFactory {
+
+        private Coverage coverage;
+
+        @Override
+        public Coverage getGridCoverage () {
+            if (coverage == null) {
+                Random random = new Random(42);
+                float[][] elevations = new float[100][100];
+                for (int row = 0; row < elevations.length; row++) {
+                    for (int col = 0; col < elevations[row].length; col++) {
+                        elevations[row][col] = 200 + random.nextFloat() * 300;
+                    }
+                }
+                ReferencedEnvelope envelope = new ReferencedEnvelope(-83.3, -82.7, 39.7, 40.4, GeometryUtils.WGS84_XY);
+                coverage = new GridCoverageFactory().create("elevation", elevations, envelope);
+            }
+            return coverage;
+        }
+
+        @Override
+        public void checkInputs () {
+        }
+
+        @Override
+        public void setGraph (Graph graph) {
+        }
+    }
+
+}
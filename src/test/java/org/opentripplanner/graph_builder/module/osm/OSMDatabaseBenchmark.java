@@ -0,0 +1,52 @@
+package org.opentripplanner.graph_builder.module.osm;
+
+import org.opentripplanner.openstreetmap.impl.BinaryFileBasedOpenStreetMapProviderImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+/**
+ * This is not an automatic unit test. It is a benchmark that must be started manually on a large OSM extract:
+ *
+ *   OSMDatabaseBenchmark path/to/extract.osm.pbf
+ *
+ * It loads the extract into an OSMDatabase the way OpenStreetMapModule does, and reports the time taken, the peak heap
+ * used during loading and the heap still used by the loaded database. Run it with the same -Xmx before and after a
+ * change to the OSM storage to compare them.
+ */
+public class OSMDatabaseBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OSMDatabaseBenchmark.class);
+
+    public static void main(String[] params) throws Exception {
+        BinaryFileBasedOpenStreetMapProviderImpl provider = new BinaryFileBasedOpenStreetMapProviderImpl();
+        provider.setPath(new File(params[0]));
+        long heap0 = usedHeap();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        long time0 = System.nanoTime();
+        OSMDatabase osmdb = new OSMDatabase();
+        provider.readOSM(osmdb);
+        osmdb.postLoad();
+        long millis = (System.nanoTime() - time0) / 1000000;
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+        }
+        long retained = usedHeap() - heap0;
+        LOG.info("Loaded {} ways in {} msec, peak heap {} MB, {} MB retained by the database.",
+                osmdb.getWays().size(), millis, peak / 1000000, retained / 1000000);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
@@ -66,6 +66,16 @@ public class OpenStreetMapParserTest {
         testParser(map);
     }
 
+    @Test
+    public void testBinaryParserSingleThread() throws Exception {
+        BinaryFileBasedOpenStreetMapProviderImpl pr = new BinaryFileBasedOpenStreetMapProviderImpl();
+        OSMMap map = new OSMMap();
+        pr.setPath(new File(URLDecoder.decode(getClass().getResource("map.osm.pbf").getPath(), "UTF-8")));
+        pr.setThreads(1);
+        pr.readOSM(map);
+        testParser(map);
+    }
+
     @Test
     public void testXMLParser() throws Exception {
         FileBasedOpenStreetMapProviderImpl pr = new FileBasedOpenStreetMapProviderImpl();
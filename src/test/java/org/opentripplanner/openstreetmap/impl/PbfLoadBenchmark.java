@@ -0,0 +1,72 @@
+package org.opentripplanner.openstreetmap.impl;
+
+import crosby.binary.file.BlockInputStream;
+import org.opentripplanner.graph_builder.module.osm.OSMDatabase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+
+/**
+ * This is not an automatic unit test. It is a benchmark that must be started manually on a large PBF extract, for
+ * instance a state-size one:
+ *
+ *   PbfLoadBenchmark path/to/extract.osm.pbf
+ *
+ * It loads the extract into an OSMDatabase with the former sequential three-pass reader, then with the indexed reader
+ * on one thread and on all processors, and reports the time taken by each.
+ */
+public class PbfLoadBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PbfLoadBenchmark.class);
+    static final int N_ROUNDS = 3;
+
+    public static void main(String[] params) throws Exception {
+        File file = new File(params[0]);
+        int processors = Runtime.getRuntime().availableProcessors();
+        // The first round warms up the JIT and is not counted.
+        for (int round = 0; round <= N_ROUNDS; round++) {
+            String label = round == 0 ? "Warm-up" : "Timed";
+            long time0 = System.nanoTime();
+            OSMDatabase osmdb = new OSMDatabase();
+            readSequentially(file, osmdb);
+            LOG.info("{} round {}: sequential reader loaded {} ways in {} msec.", label, round,
+                    osmdb.getWays().size(), (System.nanoTime() - time0) / 1000000);
+            for (int threads : new int[] { 1, processors }) {
+                time0 = System.nanoTime();
+                osmdb = new OSMDatabase();
+                BinaryFileBasedOpenStreetMapProviderImpl provider = new BinaryFileBasedOpenStreetMapProviderImpl();
+                provider.setPath(file);
+                provider.setThreads(threads);
+                provider.readOSM(osmdb);
+                LOG.info("{} round {}: indexed reader on {} threads loaded {} ways in {} msec.", label, round,
+                        threads, osmdb.getWays().size(), (System.nanoTime() - time0) / 1000000);
+            }
+        }
+    }
+
+    /** The reader as it was before blocks were indexed and decoded in parallel. */
+    private static void readSequentially(File file, OSMDatabase osmdb) throws Exception {
+        BinaryOpenStreetMapParser parser = new BinaryOpenStreetMapParser(osmdb);
+        parser.setParseNodes(false);
+        parser.setParseWays(false);
+        process(file, parser);
+        osmdb.doneFirstPhaseRelations();
+        parser.setParseRelations(false);
+        parser.setParseWays(true);
+        process(file, parser);
+        osmdb.doneSecondPhaseWays();
+        parser.setParseNodes(true);
+        parser.setParseWays(false);
+        process(file, parser);
+        osmdb.doneThirdPhaseNodes();
+    }
+
+    private static void process(File file, BinaryOpenStreetMapParser parser) throws Exception {
+        try (FileInputStream input = new FileInputStream(file)) {
+            new BlockInputStream(input, parser).process();
+        }
+    }
+
+}
@@ -15,6 +15,8 @@ package org.opentripplanner.openstreetmap.model;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
+
 import org.junit.Test;
 import org.opentripplanner.common.model.P2;
 import org.opentripplanner.graph_builder.module.osm.OSMFilter;
@@ -33,6 +35,16 @@ public class OSMWayTest {
         assertTrue(way.isBicycleDismountForced());
     }
 
+    @Test
+    public void testNodeRefs() {
+        OSMWay way = new OSMWay();
+        way.addNodeRef(1);
+        way.addNodeRef(3);
+        way.addNodeRef(2, 1);
+        assertEquals(Arrays.asList(1L, 2L, 3L), way.getNodeRefs());
+        assertEquals(2, way.getPrimitiveNodeRefs().get(1));
+    }
+
     @Test
     public void testIsSteps() {
         OSMWay way = new OSMWay();
@@ -41,6 +41,19 @@ public class OSMWithTagsTest {
         assertEquals("bar", o.getTag("FOO"));
     }
     
+    @Test
+    public void testReplaceTag() {
+        OSMWithTags o = new OSMWithTags();
+        assertNull(o.getTags());
+        o.addTag("foo", "bar");
+        o.addTag("baz", "qux");
+        o.addTag("FOO", "quux");
+        assertEquals("quux", o.getTag("foo"));
+        assertEquals("qux", o.getTag("baz"));
+        assertEquals(2, o.getTags().size());
+        assertEquals("quux", o.getTags().get("foo"));
+    }
+
     @Test
     public void testIsFalse() {
         assertTrue(OSMWithTags.isFalse("no"));
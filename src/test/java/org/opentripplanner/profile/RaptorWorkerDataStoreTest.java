@@ -0,0 +1,105 @@
+package org.opentripplanner.profile;
+
+import com.google.common.collect.Iterables;
+import junit.framework.TestCase;
+import org.joda.time.LocalDate;
+import org.junit.Test;
+import org.opentripplanner.analyst.cluster.TaskStatistics;
+import org.opentripplanner.api.parameter.QualifiedModeSet;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.SimpleTransfer;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.opentripplanner.graph_builder.module.FakeGraph.*;
+
+/**
+ * Test saving RAPTOR data to a file and reading it back.
+ */
+public class RaptorWorkerDataStoreTest extends TestCase {
+
+    /** Data read back from a file should have the same stops, timetables, transfers and targets as the original. */
+    @Test
+    public void testRoundTrip () throws Exception {
+        Graph gg = buildGraphNoTransit();
+        addMultiplePatterns(gg);
+        link(gg);
+        gg.index(new DefaultStreetVertexIndexFactory());
+
+        // The stops of the fake line are too far apart for transfers to be generated, so add one in each direction.
+        TransitStop s2 = null, s3 = null;
+        for (TransitStop ts : Iterables.filter(gg.getVertices(), TransitStop.class)) {
+            if ("s2".equals(ts.getStop().getId().getId())) s2 = ts;
+            if ("s3".equals(ts.getStop().getId().getId())) s3 = ts;
+        }
+        new SimpleTransfer(s2, s3, 1200, null);
+        new SimpleTransfer(s3, s2, 1200, null);
+
+        ProfileRequest pr = new ProfileRequest();
+        pr.date = new LocalDate(2015, 6, 10);
+        pr.fromTime = 7 * 3600;
+        pr.toTime = 9 * 3600;
+        pr.walkSpeed = 1.3f;
+        pr.accessModes = pr.egressModes = pr.directModes = new QualifiedModeSet("WALK");
+        pr.transitModes = new TraverseModeSet("TRANSIT");
+
+        RaptorWorkerData data = RepeatedRaptorProfileRouter.getRaptorWorkerData(pr, gg, null, new TaskStatistics());
+        assertTrue(RaptorWorkerDataStore.canStore(data));
+        assertTrue(data.nPatterns > 1);
+
+        File file = File.createTempFile("raptor", ".dat");
+        file.deleteOnExit();
+        RaptorWorkerDataStore.write(data, gg, file);
+        RaptorWorkerData read = RaptorWorkerDataStore.read(file, gg);
+        assertNotNull(read);
+
+        assertEquals(data.nStops, read.nStops);
+        assertEquals(data.nPatterns, read.nPatterns);
+        assertEquals(data.nTargets, read.nTargets);
+        assertEquals(data.hasSchedules, read.hasSchedules);
+        assertEquals(data.hasFrequencies, read.hasFrequencies);
+        assertEquals(data.boardingAssumption, read.boardingAssumption);
+
+        // stop index
+        assertEquals(data.stopForIndex, read.stopForIndex);
+        for (int s = 0; s < data.nStops; s++) {
+            assertEquals(s, read.indexForStop.get(data.stopForIndex.get(s)));
+        }
+        assertEquals(data.patternForIndex, read.patternForIndex);
+
+        // timetables
+        for (int p = 0; p < data.nPatterns; p++) {
+            RaptorWorkerTimetable expected = data.timetablesForPattern.get(p);
+            RaptorWorkerTimetable actual = read.timetablesForPattern.get(p);
+            assertEquals(expected.nTrips, actual.nTrips);
+            assertEquals(expected.nStops, actual.nStops);
+            assertEquals(expected.mode, actual.mode);
+            assertEquals(expected.dataIndex, actual.dataIndex);
+            assertTrue(Arrays.equals(expected.stopIndices, actual.stopIndices));
+            assertTrue(Arrays.equals(expected.arrivalsByStop, actual.arrivalsByStop));
+            assertTrue(Arrays.equals(expected.departuresByStop, actual.departuresByStop));
+            assertEquals(expected.departuresSorted, actual.departuresSorted);
+            assertEquals(expected.getFrequencyTripCount(), actual.getFrequencyTripCount());
+            assertSame(read, actual.raptorData);
+        }
+
+        // transfers, patterns and targets for each stop
+        assertTrue("No transfers", data.packedTransfersForStop.values.limit() > 0);
+        assertPackedEquals(data.packedTransfersForStop, read.packedTransfersForStop);
+        assertPackedEquals(data.packedPatternsForStop, read.packedPatternsForStop);
+        assertPackedEquals(data.packedTargetsForStop, read.packedTargetsForStop);
+    }
+
+    private static void assertPackedEquals (PackedIntLists expected, PackedIntLists actual) {
+        assertTrue(Arrays.equals(expected.offsets, actual.offsets));
+        assertEquals(expected.values.limit(), actual.values.limit());
+        for (int i = 0; i < expected.values.limit(); i++) {
+            assertEquals(expected.values.get(i), actual.values.get(i));
+        }
+    }
+
+}
@@ -0,0 +1,71 @@
+package org.opentripplanner.profile;
+
+import gnu.trove.map.TIntIntMap;
+import junit.framework.TestCase;
+import org.joda.time.LocalDate;
+import org.junit.Test;
+import org.opentripplanner.analyst.cluster.TaskStatistics;
+import org.opentripplanner.api.parameter.QualifiedModeSet;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+
+import java.util.Arrays;
+
+import static org.opentripplanner.graph_builder.module.FakeGraph.*;
+
+/**
+ * Test the RAPTOR worker used in repeated RAPTOR profile routing.
+ */
+public class RaptorWorkerTest extends TestCase {
+
+    /**
+     * Searching sub-ranges of the departure minutes in parallel should give exactly the same travel times as searching
+     * all of them sequentially with range-RAPTOR.
+     */
+    @Test
+    public void testParallelMatchesSequential () throws Exception {
+        Graph gg = buildGraphNoTransit();
+        addTransit(gg);
+        link(gg);
+        gg.index(new DefaultStreetVertexIndexFactory());
+
+        ProfileRequest pr = new ProfileRequest();
+        pr.date = new LocalDate(2015, 6, 10);
+        pr.fromTime = 7 * 3600;
+        pr.toTime = 9 * 3600;
+        // at the first stop of the line
+        pr.fromLat = pr.toLat = 40.2182;
+        pr.fromLon = pr.toLon = -83.0889;
+        pr.walkSpeed = 1.3f;
+        pr.maxWalkTime = 20;
+        pr.accessModes = pr.egressModes = pr.directModes = new QualifiedModeSet("WALK");
+        pr.transitModes = new TraverseModeSet("TRANSIT");
+
+        RaptorWorkerData data = RepeatedRaptorProfileRouter.getRaptorWorkerData(pr, gg, null, new TaskStatistics());
+        // Data without schedules is searched at a single minute, which is never split.
+        assertTrue(data.hasSchedules);
+        TIntIntMap accessTimes = new RepeatedRaptorProfileRouter(gg, pr, null).findInitialStops(false, data);
+        assertFalse(accessTimes.isEmpty());
+        // Leave out the walk-only times, so that all times reached come from the transit search.
+        int[] nonTransitTimes = new int[data.nTargets];
+        Arrays.fill(nonTransitTimes, RaptorWorker.UNREACHED);
+
+        PropagatedTimesStore sequential = new RaptorWorker(data, pr)
+                .runRaptor(gg, accessTimes, nonTransitTimes, new TaskStatistics());
+
+        RaptorWorker worker = new RaptorWorker(data, pr);
+        worker.parallel = true;
+        PropagatedTimesStore parallel = worker.runRaptor(gg, accessTimes, nonTransitTimes, new TaskStatistics());
+
+        int reached = 0;
+        for (int min : sequential.mins) {
+            if (min != RaptorWorker.UNREACHED) reached++;
+        }
+        assertTrue("No vertex reached by transit", reached > 0);
+        assertTrue(Arrays.equals(sequential.mins, parallel.mins));
+        assertTrue(Arrays.equals(sequential.avgs, parallel.avgs));
+        assertTrue(Arrays.equals(sequential.maxs, parallel.maxs));
+    }
+
+}
@@ -0,0 +1,67 @@
+package org.opentripplanner.profile;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class RaptorWorkerTimetableTest extends TestCase {
+
+    private static RaptorWorkerTimetable makeTimetable (int[]... tripTimes) {
+        RaptorWorkerTimetable timetable = new RaptorWorkerTimetable(tripTimes.length, tripTimes[0].length / 2);
+        timetable.pack(tripTimes);
+        return timetable;
+    }
+
+    /** The stop-major layout should give the same times as the per-trip arrays it is built from. */
+    @Test
+    public void testPackedTimes() {
+        int[][] tripTimes = {
+                new int[] { 1000, 1010, 1500, 1520 },
+                new int[] { 2000, 2010, 2500, 2520 },
+                new int[] { 3000, 3010, 3500, 3520 } };
+        RaptorWorkerTimetable timetable = makeTimetable(tripTimes);
+        assertTrue(timetable.departuresSorted);
+        for (int trip = 0; trip < 3; trip++) {
+            for (int stop = 0; stop < 2; stop++) {
+                assertEquals(tripTimes[trip][stop * 2], timetable.getArrival(trip, stop));
+                assertEquals(tripTimes[trip][stop * 2 + 1], timetable.getDeparture(trip, stop));
+            }
+        }
+    }
+
+    @Test
+    public void testFindDepartureAfter() {
+        RaptorWorkerTimetable sorted = makeTimetable(
+                new int[] { 1000, 1010, 1500, 1520 },
+                new int[] { 2000, 2010, 2500, 2520 },
+                new int[] { 3000, 3010, 3500, 3520 });
+        // the slack must be strictly exceeded
+        assertEquals(0, sorted.findDepartureAfter(0, 0));
+        assertEquals(1, sorted.findDepartureAfter(0, 1010 - RaptorWorkerTimetable.MIN_BOARD_TIME_SECONDS));
+        assertEquals(1, sorted.findDepartureAfter(1, 2000));
+        assertEquals(-1, sorted.findDepartureAfter(1, 3520));
+
+        // the second trip overtakes the first at the second stop. This must give the same results as a linear scan.
+        RaptorWorkerTimetable overtaking = makeTimetable(
+                new int[] { 1000, 1010, 2500, 2520 },
+                new int[] { 1100, 1110, 1500, 1520 },
+                new int[] { 3000, 3010, 3500, 3520 });
+        assertFalse(overtaking.departuresSorted);
+        assertEquals(0, overtaking.findDepartureAfter(1, 1000));
+        assertEquals(0, overtaking.findDepartureAfter(1, 2000));
+        assertEquals(2, overtaking.findDepartureAfter(1, 2500));
+    }
+
+    @Test
+    public void testPackedIntLists() {
+        PackedIntLists packed = new PackedIntLists(Arrays.asList(new int[] { 1, 2 }, null, new int[] { 3 }), 4);
+        assertEquals(4, packed.size());
+        assertEquals(2, packed.length(0));
+        assertEquals(0, packed.length(1));
+        assertEquals(1, packed.length(2));
+        assertEquals(0, packed.length(3));
+        assertEquals(3, packed.values.get(packed.offsets[2]));
+    }
+
+}
@@ -0,0 +1,129 @@
+package org.opentripplanner.profile;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineString;
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Stop;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTransitLink;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.CompactStreetGraph;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Check that a stop tree cache gives the same distances to the same vertices after it is saved and loaded, when the
+ * vertices have been given new indices.
+ */
+public class StopTreeCacheTest extends TestCase {
+
+    private static final int SIZE = 6;
+
+    private static final int MAX_WALK_METERS = 500;
+
+    private Graph graph;
+
+    private TransitStop[] stops;
+
+    @Override
+    protected void setUp() {
+        graph = new Graph();
+        IntersectionVertex[][] grid = new IntersectionVertex[SIZE][SIZE];
+        for (int row = 0; row < SIZE; row++) {
+            for (int col = 0; col < SIZE; col++) {
+                grid[row][col] = new IntersectionVertex(graph, "v_" + row + "_" + col, col * 0.001, 45 + row * 0.001);
+            }
+        }
+        for (int row = 0; row < SIZE; row++) {
+            for (int col = 0; col < SIZE; col++) {
+                if (col + 1 < SIZE) edges(grid[row][col], grid[row][col + 1]);
+                if (row + 1 < SIZE) edges(grid[row][col], grid[row + 1][col]);
+            }
+        }
+        stops = new TransitStop[] { stop("s1", grid[0][0]), stop("s2", grid[SIZE - 1][SIZE - 1]) };
+    }
+
+    private void edges (IntersectionVertex a, IntersectionVertex b) {
+        Coordinate[] coords = new Coordinate[] { a.getCoordinate(), b.getCoordinate() };
+        LineString geometry = GeometryUtils.getGeometryFactory().createLineString(coords);
+        double length = SphericalDistanceLibrary.distance(a.getCoordinate(), b.getCoordinate());
+        new StreetEdge(a, b, geometry, "street", length, StreetTraversalPermission.ALL, false);
+        new StreetEdge(b, a, (LineString) geometry.reverse(), "street", length, StreetTraversalPermission.ALL, true);
+    }
+
+    private TransitStop stop (String id, IntersectionVertex street) {
+        Stop stop = new Stop();
+        stop.setId(new AgencyAndId("agency", id));
+        stop.setLat(street.getLat());
+        stop.setLon(street.getLon());
+        TransitStop transitStop = new TransitStop(graph, stop);
+        new StreetTransitLink(street, transitStop, true);
+        new StreetTransitLink(transitStop, street, true);
+        return transitStop;
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        StopTreeCache cache = new StopTreeCache(new CompactStreetGraph(graph), Arrays.asList(stops), MAX_WALK_METERS);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(cache);
+        }
+        StopTreeCache loaded;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            loaded = (StopTreeCache) in.readObject();
+        }
+        loaded.index();
+
+        assertEquals(MAX_WALK_METERS, loaded.getMaxWalkMeters());
+        assertEquals(stops.length, loaded.getStops().size());
+        for (int s = 0; s < stops.length; s++) {
+            TransitStop loadedStop = loaded.getStops().get(s);
+            assertEquals(stops[s].getLabel(), loadedStop.getLabel());
+            Map<String, Integer> expected = distancesByLabel(cache.getDistancesForStop(stops[s]), stops[s]);
+            Map<String, Integer> actual = distancesByLabel(loaded.getDistancesForStop(loadedStop), loadedStop);
+            // The search must have gone some way along the grid, but not all the way across it.
+            assertTrue(expected.size() > 2);
+            assertTrue(expected.size() < SIZE * SIZE);
+            assertEquals(expected, actual);
+        }
+
+        assertNull(cache.getDistancesForStop(loaded.getStops().get(0)));
+    }
+
+    /** Convert a flattened array of (vertex index, distance) to distances by the labels of the vertices. */
+    private static Map<String, Integer> distancesByLabel (int[] distances, Vertex origin) {
+        Map<Integer, Vertex> vertexForIndex = new HashMap<>();
+        Deque<Vertex> queue = new ArrayDeque<>();
+        queue.add(origin);
+        while (!queue.isEmpty()) {
+            Vertex v = queue.remove();
+            if (vertexForIndex.put(v.getIndex(), v) != null) continue;
+            for (Edge e : v.getOutgoing()) queue.add(e.getToVertex());
+        }
+        Map<String, Integer> distancesByLabel = new HashMap<>();
+        for (int i = 0; i < distances.length; i += 2) {
+            distancesByLabel.put(vertexForIndex.get(distances[i]).getLabel(), distances[i + 1]);
+        }
+        return distancesByLabel;
+    }
+
+}
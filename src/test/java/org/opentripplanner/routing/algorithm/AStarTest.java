@@ -244,6 +244,51 @@ public class AStarTest {
         }
     }
 
+    @Test
+    public void testReusedSearchContext() {
+        SearchContext searchContext = SearchContext.acquire();
+        try {
+            AStar aStar = new AStar();
+            aStar.setSearchContext(searchContext);
+
+            RoutingRequest options = new RoutingRequest();
+            options.walkSpeed = 1.0;
+            options.setRoutingContext(_graph, _graph.getVertex("56th_24th"), _graph.getVertex("leary_20th"));
+            ShortestPathTree tree = aStar.getShortestPathTree(options);
+            GraphPath path = tree.getPath(_graph.getVertex("leary_20th"), false);
+            assertEquals(7, path.states.size());
+            int vertexCount = tree.getVertexCount();
+
+            // A second search reusing the same storage, which includes temporary vertices created after it was sized.
+            TemporaryStreetLocation from = new TemporaryStreetLocation("near_shilshole_22nd",
+                    new Coordinate(-122.385050, 47.666620), new NonLocalizedString("near_shilshole_22nd"), false);
+            new TemporaryConcreteEdge(from, _graph.getVertex("shilshole_22nd"));
+            TemporaryStreetLocation to = new TemporaryStreetLocation("near_56th_20th",
+                    new Coordinate(-122.382347, 47.669518), new NonLocalizedString("near_56th_20th"), true);
+            new TemporaryConcreteEdge(_graph.getVertex("56th_20th"), to);
+
+            options = new RoutingRequest();
+            options.walkSpeed = 1.0;
+            options.setRoutingContext(_graph, from, to);
+            tree = aStar.getShortestPathTree(options);
+            options.cleanup();
+            path = tree.getPath(to, false);
+            assertEquals(9, path.states.size());
+            assertEquals("near_shilshole_22nd", path.states.get(0).getVertex().getLabel());
+            assertEquals("near_56th_20th", path.states.get(8).getVertex().getLabel());
+            assertEquals(tree.getVertexCount(), tree.getVertices().size());
+            assertTrue(vertexCount > 0);
+
+            // The pooled context is in use, so a nested acquisition should get a separate one.
+            SearchContext nested = SearchContext.acquire();
+            assertTrue(searchContext.isPooled());
+            assertTrue(!nested.isPooled());
+            nested.release();
+        } finally {
+            searchContext.release();
+        }
+    }
+
     /****
      * Private Methods
      ****/
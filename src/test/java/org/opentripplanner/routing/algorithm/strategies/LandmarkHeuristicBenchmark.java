@@ -0,0 +1,116 @@
+package org.opentripplanner.routing.algorithm.strategies;
+
+import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.algorithm.TraverseVisitor;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.vertextype.StreetVertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This is not an automatic unit test. It is a benchmark that must be started manually on a real graph:
+ *
+ *   LandmarkHeuristicBenchmark path/to/Graph.obj [CAR|BICYCLE|WALK] [nLandmarks]
+ *
+ * It runs the same fixed, seeded set of street searches between random street vertices with the Euclidean heuristic
+ * and with the landmark heuristic, checks that both find paths of the same weight, and reports the number of vertices
+ * visited and the latency of each. If the graph was built without landmarks they are computed before the benchmark.
+ */
+public class LandmarkHeuristicBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LandmarkHeuristicBenchmark.class);
+    static final int N_QUERIES = 500;
+    static final int N_WARMUP = 50;
+
+    public static void main(String[] params) throws Exception {
+        Graph graph = Graph.load(new File(params[0]), Graph.LoadLevel.FULL);
+        TraverseMode mode = params.length > 1 ? TraverseMode.valueOf(params[1]) : TraverseMode.CAR;
+        if (graph.landmarkDistances == null || params.length > 2) {
+            int nLandmarks = params.length > 2 ? Integer.parseInt(params[2]) : 16;
+            long startTime = System.currentTimeMillis();
+            graph.landmarkDistances = LandmarkDistances.build(graph, nLandmarks, EnumSet.of(mode));
+            LOG.info("Computed {} landmarks in {} msec.", nLandmarks, System.currentTimeMillis() - startTime);
+        }
+
+        List<Vertex> streetVertices = new ArrayList<>();
+        for (Vertex v : graph.getVertices()) {
+            if (v instanceof StreetVertex) streetVertices.add(v);
+        }
+        Random random = new Random(42);
+        Vertex[][] queries = new Vertex[N_WARMUP + N_QUERIES][2];
+        for (Vertex[] query : queries) {
+            query[0] = streetVertices.get(random.nextInt(streetVertices.size()));
+            query[1] = streetVertices.get(random.nextInt(streetVertices.size()));
+        }
+
+        double[] euclideanWeights = new double[queries.length];
+        double[] landmarkWeights = new double[queries.length];
+        long[] euclidean = run(graph, mode, queries, false, euclideanWeights);
+        long[] landmark = run(graph, mode, queries, true, landmarkWeights);
+        int nMismatched = 0;
+        for (int q = 0; q < queries.length; q++) {
+            if (Math.abs(euclideanWeights[q] - landmarkWeights[q]) > 1e-6) {
+                LOG.warn("Path weights differ from {} to {}: {} with Euclidean, {} with landmarks.", queries[q][0],
+                        queries[q][1], euclideanWeights[q], landmarkWeights[q]);
+                nMismatched++;
+            }
+        }
+        LOG.info("{} of {} queries found paths of different weights.", nMismatched, queries.length);
+        LOG.info("Euclidean: {} vertices visited and {} msec per query on average.", euclidean[0] / N_QUERIES,
+                euclidean[1] / (double) N_QUERIES);
+        LOG.info("Landmarks: {} vertices visited and {} msec per query on average.", landmark[0] / N_QUERIES,
+                landmark[1] / (double) N_QUERIES);
+        LOG.info("Landmarks visit {}% of the vertices in {}% of the time.", landmark[0] * 100 / euclidean[0],
+                landmark[1] * 100 / euclidean[1]);
+    }
+
+    /**
+     * @param weights filled in with the weight of the path found by each query, or -1 if none was found.
+     * @return the total number of vertices visited and the total time in milliseconds, excluding warm-up queries.
+     */
+    private static long[] run (Graph graph, TraverseMode mode, Vertex[][] queries, boolean useLandmarks,
+            double[] weights) {
+        long nVisited = 0;
+        long totalTime = 0;
+        for (int q = 0; q < queries.length; q++) {
+            RoutingRequest request = new RoutingRequest(new TraverseModeSet(mode));
+            request.setRoutingContext(graph, queries[q][0], queries[q][1]);
+            request.rctx.remainingWeightHeuristic = useLandmarks ?
+                    new LandmarkRemainingWeightHeuristic(graph.landmarkDistances) :
+                    new EuclideanRemainingWeightHeuristic();
+            CountingVisitor visitor = new CountingVisitor();
+            AStar aStar = new AStar();
+            aStar.setTraverseVisitor(visitor);
+            long startTime = System.nanoTime();
+            GraphPath path = aStar.getShortestPathTree(request).getPath(queries[q][1], false);
+            long time = System.nanoTime() - startTime;
+            request.cleanup();
+            weights[q] = path == null ? -1 : path.getWeight();
+            if (q < N_WARMUP) continue;
+            nVisited += visitor.nVisited;
+            totalTime += time;
+        }
+        return new long[] { nVisited, totalTime / 1000000 };
+    }
+
+    private static class CountingVisitor implements TraverseVisitor {
+        long nVisited = 0;
+        @Override public void visitEdge(Edge edge, State state) { }
+        @Override public void visitVertex(State state) { nVisited++; }
+        @Override public void visitEnqueue(State state) { }
+    }
+
+}
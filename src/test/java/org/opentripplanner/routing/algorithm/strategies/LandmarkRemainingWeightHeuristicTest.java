@@ -0,0 +1,148 @@
+package org.opentripplanner.routing.algorithm.strategies;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineString;
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
+import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.algorithm.TraverseVisitor;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+import java.util.EnumSet;
+
+/**
+ * Check that the landmark heuristic never overestimates the remaining weight, and that it finds the same paths as an
+ * uninformed search while visiting fewer vertices. The test graph is a grid cut in two by a "river" that can only be
+ * crossed at one end, so that straight-line distance is a poor estimate on the far bank.
+ */
+public class LandmarkRemainingWeightHeuristicTest extends TestCase {
+
+    private static final int SIZE = 10;
+
+    private static final int RIVER_ROW = 5;
+
+    private Graph graph;
+
+    private IntersectionVertex[][] grid;
+
+    @Override
+    protected void setUp() {
+        graph = new Graph();
+        grid = new IntersectionVertex[SIZE][SIZE];
+        for (int row = 0; row < SIZE; row++) {
+            for (int col = 0; col < SIZE; col++) {
+                grid[row][col] = new IntersectionVertex(graph, "v_" + row + "_" + col, col * 0.001, 45 + row * 0.001);
+            }
+        }
+        for (int row = 0; row < SIZE; row++) {
+            for (int col = 0; col < SIZE; col++) {
+                if (col + 1 < SIZE) {
+                    edges(grid[row][col], grid[row][col + 1]);
+                }
+                // The only bridge over the river is in the first column.
+                if (row + 1 < SIZE && (row + 1 != RIVER_ROW || col == 0)) {
+                    edges(grid[row][col], grid[row + 1][col]);
+                }
+            }
+        }
+        graph.landmarkDistances = LandmarkDistances.build(graph, 4, EnumSet.of(TraverseMode.WALK));
+    }
+
+    private void edges (IntersectionVertex a, IntersectionVertex b) {
+        Coordinate[] coords = new Coordinate[] { a.getCoordinate(), b.getCoordinate() };
+        LineString geometry = GeometryUtils.getGeometryFactory().createLineString(coords);
+        double length = SphericalDistanceLibrary.distance(a.getCoordinate(), b.getCoordinate());
+        new StreetEdge(a, b, geometry, "street", length, StreetTraversalPermission.ALL, false);
+        new StreetEdge(b, a, (LineString) geometry.reverse(), "street", length, StreetTraversalPermission.ALL, true);
+    }
+
+    private RoutingRequest request (Vertex from, Vertex to, boolean arriveBy, RemainingWeightHeuristic heuristic) {
+        RoutingRequest request = new RoutingRequest(new TraverseModeSet(TraverseMode.WALK));
+        request.setArriveBy(arriveBy);
+        request.setRoutingContext(graph, from, to);
+        request.rctx.remainingWeightHeuristic = heuristic;
+        return request;
+    }
+
+    @Test
+    public void testAdmissible () {
+        for (boolean arriveBy : new boolean[] { false, true }) {
+            Vertex target = grid[SIZE - 1][SIZE - 1];
+            Vertex origin = grid[0][SIZE - 1];
+            // An uninformed search outward from the target gives the exact remaining weight at every vertex.
+            RoutingRequest exactRequest = request(origin, target, !arriveBy, new TrivialRemainingWeightHeuristic());
+            exactRequest.batch = true;
+            ShortestPathTree exact = new AStar().getShortestPathTree(exactRequest);
+
+            RoutingRequest request = request(origin, target, arriveBy,
+                    new LandmarkRemainingWeightHeuristic(graph.landmarkDistances));
+            request.rctx.remainingWeightHeuristic.initialize(request, Long.MAX_VALUE);
+            for (IntersectionVertex[] row : grid) {
+                for (IntersectionVertex v : row) {
+                    State state = new State(v, 0, request);
+                    double estimate = request.rctx.remainingWeightHeuristic.estimateRemainingWeight(state);
+                    double actual = exact.getState(v).getWeight();
+                    assertTrue(v + ": " + estimate + " > " + actual, estimate <= actual + 1e-6);
+                }
+            }
+            // On the far bank of the river the landmarks should beat the straight line by a wide margin.
+            State farBank = new State(grid[0][SIZE - 1], 0, request);
+            double straightLine = SphericalDistanceLibrary.fastDistance(origin.getLat(), origin.getLon(),
+                    target.getLat(), target.getLon()) * request.walkReluctance / request.walkSpeed;
+            assertTrue(request.rctx.remainingWeightHeuristic.estimateRemainingWeight(farBank) > 1.5 * straightLine);
+        }
+    }
+
+    @Test
+    public void testSamePathFewerVisits () {
+        Vertex origin = grid[0][SIZE - 1];
+        Vertex target = grid[SIZE - 1][SIZE - 1];
+        CountingVisitor uninformedVisits = new CountingVisitor();
+        AStar uninformed = new AStar();
+        uninformed.setTraverseVisitor(uninformedVisits);
+        RoutingRequest uninformedRequest = request(origin, target, false, new TrivialRemainingWeightHeuristic());
+        GraphPath expected = uninformed.getShortestPathTree(uninformedRequest).getPath(target, false);
+
+        CountingVisitor landmarkVisits = new CountingVisitor();
+        AStar landmark = new AStar();
+        landmark.setTraverseVisitor(landmarkVisits);
+        RoutingRequest landmarkRequest = request(origin, target, false,
+                new LandmarkRemainingWeightHeuristic(graph.landmarkDistances));
+        GraphPath path = landmark.getShortestPathTree(landmarkRequest).getPath(target, false);
+
+        assertEquals(expected.getWeight(), path.getWeight(), 1e-6);
+        assertTrue(landmarkVisits.nVisited < uninformedVisits.nVisited);
+    }
+
+    @Test
+    public void testAppliesTo () {
+        RoutingRequest walk = new RoutingRequest(new TraverseModeSet(TraverseMode.WALK));
+        assertTrue(LandmarkRemainingWeightHeuristic.appliesTo(graph.landmarkDistances, walk));
+        RoutingRequest car = new RoutingRequest(new TraverseModeSet(TraverseMode.CAR));
+        assertFalse(LandmarkRemainingWeightHeuristic.appliesTo(graph.landmarkDistances, car));
+        RoutingRequest transit = new RoutingRequest(new TraverseModeSet(TraverseMode.WALK, TraverseMode.TRANSIT));
+        assertFalse(LandmarkRemainingWeightHeuristic.appliesTo(graph.landmarkDistances, transit));
+        assertFalse(LandmarkRemainingWeightHeuristic.appliesTo(null, walk));
+    }
+
+    private static class CountingVisitor implements TraverseVisitor {
+        int nVisited = 0;
+        @Override public void visitEdge(Edge edge, State state) { }
+        @Override public void visitVertex(State state) { nVisited++; }
+        @Override public void visitEnqueue(State state) { }
+    }
+
+}
@@ -16,10 +16,14 @@ package org.opentripplanner.routing.edgetype;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.opentripplanner.util.TestUtils.AUGUST;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
 
@@ -35,6 +39,8 @@ import org.opentripplanner.gtfs.GtfsContext;
 import org.opentripplanner.gtfs.GtfsLibrary;
 import org.opentripplanner.routing.algorithm.AStar;
 import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.ServiceDay;
+import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.edgetype.factory.GTFSPatternHopFactory;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
@@ -315,4 +321,54 @@ public class TimetableTest {
         updatedTripTimes = timetable.createUpdatedTripTimes(tripUpdate, timeZone, serviceDate); 
         assertNull(updatedTripTimes);
     }
+
+    @Test
+    public void testGetNextTripSorted() {
+        // A copy of the timetable which has not been finished uses a linear search, and must find the same trips.
+        Timetable unsorted = new Timetable(timetable, serviceDate);
+        RoutingRequest options = new RoutingRequest();
+        ServiceDay serviceDay = new ServiceDay(graph, serviceDate, graph.getCalendarService(), "agency");
+        Vertex stop_a = graph.getVertex(graph.getFeedIds().iterator().next() + ":A");
+        int found = 0;
+        for (int stopIndex = 0; stopIndex < pattern.getStops().size(); stopIndex++) {
+            for (int time = -3600; time < 30 * 3600; time += 120) {
+                State s0 = new State(stop_a, serviceDay.time(time), options);
+                for (boolean boarding : new boolean[] { true, false }) {
+                    TripTimes expected = unsorted.getNextTrip(s0, serviceDay, stopIndex, boarding);
+                    assertSame(expected, timetable.getNextTrip(s0, serviceDay, stopIndex, boarding));
+                    if (expected != null) found++;
+                }
+            }
+        }
+        assertTrue(found > 0);
+    }
+
+    @Test
+    public void testGetNextDepartures() {
+        ServiceDay serviceDay = new ServiceDay(graph, serviceDate, graph.getCalendarService(), "agency");
+        assertNull(new Timetable(timetable, serviceDate).getNextDepartures(serviceDay, 0, 0, 3));
+        int found = 0;
+        for (int stopIndex = 0; stopIndex < pattern.getStops().size(); stopIndex++) {
+            for (int time = -3600; time < 30 * 3600; time += 120) {
+                List<TripTimes> departures = timetable.getNextDepartures(serviceDay, stopIndex, time, 3);
+                assertNotNull(departures);
+                // Check against the running trips departing at or after the time, in order of departure.
+                List<TripTimes> expected = new ArrayList<>();
+                for (TripTimes tt : timetable.tripTimes) {
+                    int departure = tt.getDepartureTime(stopIndex);
+                    if (departure != -1 && departure >= time && serviceDay.serviceRunning(tt.serviceCode)) {
+                        expected.add(tt);
+                    }
+                }
+                final int s = stopIndex;
+                expected.sort((a, b) -> a.getDepartureTime(s) - b.getDepartureTime(s));
+                assertEquals(Math.min(3, expected.size()), departures.size());
+                for (int i = 0; i < departures.size(); i++) {
+                    assertEquals(expected.get(i).getDepartureTime(s), departures.get(i).getDepartureTime(s));
+                }
+                found += departures.size();
+            }
+        }
+        assertTrue(found > 0);
+    }
 }
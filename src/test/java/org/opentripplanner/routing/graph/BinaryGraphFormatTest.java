@@ -0,0 +1,162 @@
+package org.opentripplanner.routing.graph;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineString;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Stop;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTransitLink;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.edgetype.StreetWithElevationEdge;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.OsmVertex;
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BinaryGraphFormatTest {
+
+    private Graph graph;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        graph = new Graph();
+        IntersectionVertex a = new IntersectionVertex(graph, "a", 0.001, 45.001, "corner");
+        OsmVertex b = new OsmVertex(graph, "osm:node:2", 0.002, 45.001, 2);
+        OsmVertex c = new OsmVertex(graph, "osm:node:3", 0.002, 45.002, 3);
+        b.trafficLight = true;
+        edges(a, b, "main street", StreetTraversalPermission.ALL, false);
+        edges(b, c, "hill", StreetTraversalPermission.PEDESTRIAN_AND_BICYCLE, true);
+        Stop s = new Stop();
+        s.setId(new AgencyAndId("A", "stop"));
+        s.setLat(45.001);
+        s.setLon(0.0015);
+        TransitStop stop = new TransitStop(graph, s);
+        new StreetTransitLink(a, stop, true);
+        new StreetTransitLink(stop, a, true);
+        file = File.createTempFile("graph", ".obj");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private void edges (IntersectionVertex a, IntersectionVertex b, String name, StreetTraversalPermission permission,
+            boolean elevation) {
+        Coordinate[] coords = new Coordinate[] { a.getCoordinate(),
+                new Coordinate(a.getX() + 0.0005, (a.getY() + b.getY()) / 2), b.getCoordinate() };
+        LineString geometry = GeometryUtils.getGeometryFactory().createLineString(coords);
+        StreetEdge forward, back;
+        if (elevation) {
+            forward = new StreetWithElevationEdge(a, b, geometry, name, 100, permission, false);
+            back = new StreetWithElevationEdge(b, a, (LineString) geometry.reverse(), name, 100, permission, true);
+        } else {
+            forward = new StreetEdge(a, b, geometry, name, 100, permission, false);
+            back = new StreetEdge(b, a, (LineString) geometry.reverse(), name, 100, permission, true);
+        }
+        forward.wayId = 42;
+        forward.shareData(back);
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        graph.save(file);
+        assertTrue(BinaryGraphReader.isBinaryGraph(file));
+        Graph loaded = Graph.load(file, Graph.LoadLevel.FULL);
+        assertEquals(graph.countVertices(), loaded.countVertices());
+        assertEquals(graph.countEdges(), loaded.countEdges());
+        for (Vertex v : graph.getVertices()) {
+            Vertex copy = loaded.getVertex(v.getLabel());
+            assertNotNull(copy);
+            assertSame(v.getClass(), copy.getClass());
+            assertEquals(v.getX(), copy.getX(), 0);
+            assertEquals(v.getY(), copy.getY(), 0);
+            assertEquals(v.getName(), copy.getName());
+            assertEquals(v.getDegreeOut(), copy.getDegreeOut());
+            assertEquals(v.getDegreeIn(), copy.getDegreeIn());
+        }
+        OsmVertex b = (OsmVertex) loaded.getVertex("osm:node:2");
+        assertEquals(2, b.nodeId);
+        assertTrue(b.trafficLight);
+        for (Edge e : graph.getEdges()) {
+            Edge copy = loaded.getEdgeById(e.getId());
+            assertNotNull(copy);
+            assertSame(e.getClass(), copy.getClass());
+            assertEquals(e.getFromVertex().getLabel(), copy.getFromVertex().getLabel());
+            assertEquals(e.getToVertex().getLabel(), copy.getToVertex().getLabel());
+            // Edges to the stop are serialized, and must refer to the vertices stored in columns.
+            assertSame(loaded.getVertex(e.getFromVertex().getLabel()), copy.getFromVertex());
+            assertSame(loaded.getVertex(e.getToVertex().getLabel()), copy.getToVertex());
+            if (e instanceof StreetEdge) {
+                StreetEdge se = (StreetEdge) e;
+                StreetEdge sc = (StreetEdge) copy;
+                assertEquals(se.getName(), sc.getName());
+                assertEquals(se.getDistance(), sc.getDistance(), 0);
+                assertEquals(se.getPermission(), sc.getPermission());
+                assertEquals(se.isBack(), sc.isBack());
+                assertEquals(se.wayId, sc.wayId);
+                assertTrue(se.getGeometry().equalsExact(sc.getGeometry(), 1e-6));
+            }
+        }
+    }
+
+    /** A graph with its geometries mapped from a file can be saved again over that same file. */
+    @Test
+    public void testResaveOverMappedFile() throws Exception {
+        graph.save(file);
+        Graph loaded = Graph.load(file, Graph.LoadLevel.FULL);
+        loaded.save(file);
+        Graph reloaded = Graph.load(file, Graph.LoadLevel.FULL);
+        for (Edge e : graph.getEdges()) {
+            if (e instanceof StreetEdge) {
+                LineString geometry = ((StreetEdge) e).getGeometry();
+                assertTrue(geometry.equalsExact(((StreetEdge) loaded.getEdgeById(e.getId())).getGeometry(), 1e-6));
+                assertTrue(geometry.equalsExact(((StreetEdge) reloaded.getEdgeById(e.getId())).getGeometry(), 1e-6));
+            }
+        }
+    }
+
+    @Test
+    public void testLoadFromStream() throws Exception {
+        graph.save(file);
+        try (InputStream in = new FileInputStream(file)) {
+            Graph loaded = Graph.load(in, Graph.LoadLevel.FULL);
+            assertEquals(graph.countVertices(), loaded.countVertices());
+            assertEquals(graph.countEdges(), loaded.countEdges());
+        }
+    }
+
+    /** Graphs saved with Java serialization can still be loaded. */
+    @Test
+    public void testJavaSerializedGraph() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            graph.save(out);
+        }
+        try (InputStream in = new ByteArrayInputStream(bytes.toByteArray())) {
+            assertFalse(BinaryGraphReader.isBinaryGraph(new BufferedInputStream(in)));
+        }
+        Graph loaded = Graph.load(new ByteArrayInputStream(bytes.toByteArray()), Graph.LoadLevel.FULL);
+        assertEquals(graph.countEdges(), loaded.countEdges());
+    }
+}
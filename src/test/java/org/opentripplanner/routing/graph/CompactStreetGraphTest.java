@@ -0,0 +1,147 @@
+package org.opentripplanner.routing.graph;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineString;
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Stop;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
+import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.algorithm.CompactStreetSearch;
+import org.opentripplanner.routing.core.MortonVertexComparator;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTransitLink;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.spt.DominanceFunction;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class CompactStreetGraphTest extends TestCase {
+
+    private static final int SIZE = 6;
+
+    private Graph graph;
+
+    private IntersectionVertex[][] grid;
+
+    private TransitStop stop;
+
+    @Override
+    protected void setUp() {
+        graph = new Graph();
+        grid = new IntersectionVertex[SIZE][SIZE];
+        for (int row = 0; row < SIZE; row++) {
+            for (int col = 0; col < SIZE; col++) {
+                grid[row][col] = new IntersectionVertex(graph, "v_" + row + "_" + col, col * 0.001, 45 + row * 0.001);
+            }
+        }
+        for (int row = 0; row < SIZE; row++) {
+            for (int col = 0; col < SIZE; col++) {
+                // The bottom row is a pedestrian street.
+                StreetTraversalPermission permission = row == 0 ?
+                        StreetTraversalPermission.PEDESTRIAN : StreetTraversalPermission.ALL;
+                if (col + 1 < SIZE) edges(grid[row][col], grid[row][col + 1], permission);
+                if (row + 1 < SIZE) edges(grid[row][col], grid[row + 1][col], StreetTraversalPermission.ALL);
+            }
+        }
+        // A stop linked to two corners of the grid, which must not become a shortcut between them.
+        Stop s = new Stop();
+        s.setId(new AgencyAndId("A", "stop"));
+        s.setLat(45);
+        s.setLon(0.0025);
+        stop = new TransitStop(graph, s);
+        for (IntersectionVertex v : new IntersectionVertex[] { grid[0][0], grid[SIZE - 1][SIZE - 1] }) {
+            new StreetTransitLink(v, stop, true);
+            new StreetTransitLink(stop, v, true);
+        }
+    }
+
+    private void edges (IntersectionVertex a, IntersectionVertex b, StreetTraversalPermission permission) {
+        Coordinate[] coords = new Coordinate[] { a.getCoordinate(), b.getCoordinate() };
+        LineString geometry = GeometryUtils.getGeometryFactory().createLineString(coords);
+        double length = SphericalDistanceLibrary.distance(a.getCoordinate(), b.getCoordinate());
+        new StreetEdge(a, b, geometry, "street", length, permission, false);
+        new StreetEdge(b, a, (LineString) geometry.reverse(), "street", length, permission, true);
+    }
+
+    private static double distance (Vertex a, Vertex b) {
+        return SphericalDistanceLibrary.distance(a.getCoordinate(), b.getCoordinate());
+    }
+
+    @Test
+    public void testMortonOrder () {
+        CompactStreetGraph compact = new CompactStreetGraph(graph);
+        assertEquals(SIZE * SIZE + 1, compact.getVertexCount());
+        assertEquals(4 * SIZE * (SIZE - 1) + 4, compact.getEdgeCount());
+        List<Vertex> vertices = new ArrayList<>();
+        for (int p = 0; p < compact.getVertexCount(); p++) {
+            vertices.add(compact.getVertex(p));
+            assertEquals(p, compact.position(compact.getVertex(p)));
+        }
+        MortonVertexComparator comparator = new MortonVertexComparator(vertices);
+        for (int p = 1; p < vertices.size(); p++) {
+            assertTrue(comparator.compare(vertices.get(p - 1), vertices.get(p)) <= 0);
+        }
+    }
+
+    /** Walking distances from a stop should be the same as those found by a walk-only search on the full graph. */
+    @Test
+    public void testWalkDistancesFromStop () {
+        CompactStreetSearch search = new CompactStreetSearch(new CompactStreetGraph(graph));
+        search.search(stop);
+
+        RoutingRequest request = new RoutingRequest(TraverseMode.WALK);
+        request.batch = true;
+        request.setRoutingContext(graph, stop, stop);
+        request.dominanceFunction = new DominanceFunction.LeastWalk();
+        ShortestPathTree spt = new AStar().getShortestPathTree(request);
+
+        assertEquals(spt.getVertexCount(), search.getReachedCount());
+        for (Vertex v : spt.getVertices()) {
+            State state = spt.getState(v);
+            // Walk distances on the full graph include a small tie-breaker for turns.
+            assertEquals(state.getWalkDistance(), search.getDistance(v), 1.0);
+        }
+    }
+
+    @Test
+    public void testStopsAreNotShortcuts () {
+        CompactStreetSearch search = new CompactStreetSearch(new CompactStreetGraph(graph));
+        search.search(grid[0][0]);
+        double expected = distance(grid[0][0], grid[0][SIZE - 1]) + distance(grid[0][SIZE - 1], grid[SIZE - 1][SIZE - 1]);
+        assertEquals(0, search.getDistance(stop), 1e-3);
+        assertEquals(expected, search.getDistance(grid[SIZE - 1][SIZE - 1]), 1.0);
+    }
+
+    @Test
+    public void testPermissionsAndLimits () {
+        CompactStreetSearch search = new CompactStreetSearch(new CompactStreetGraph(graph));
+        search.mode = TraverseMode.CAR;
+        search.minimizeDistance = false;
+        search.search(grid[0][0]);
+        // Cars cannot use the pedestrian street along the bottom row, nor the links to the stop.
+        double viaSecondRow = distance(grid[0][0], grid[1][0]) + distance(grid[1][0], grid[1][SIZE - 1])
+                + distance(grid[1][SIZE - 1], grid[0][SIZE - 1]);
+        assertEquals(viaSecondRow, search.getDistance(grid[0][SIZE - 1]), 1.0);
+        assertTrue(Double.isInfinite(search.getDistance(stop)));
+
+        search.mode = TraverseMode.WALK;
+        search.minimizeDistance = true;
+        search.maxDistance = 150;
+        search.search(grid[0][0]);
+        for (int r = 0; r < search.getReachedCount(); r++) {
+            assertTrue(search.getReachedDistance(r) <= 150);
+        }
+        assertTrue(Double.isInfinite(search.getDistance(grid[SIZE - 1][SIZE - 1])));
+    }
+
+}
@@ -0,0 +1,53 @@
+package org.opentripplanner.routing.graph;
+
+import org.onebusaway.gtfs.model.Stop;
+import org.opentripplanner.index.model.StopTimesInPattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This is not an automatic unit test. It is a benchmark that must be started manually on a real graph:
+ *
+ *   DepartureBoardBenchmark path/to/Graph.obj [startTime]
+ *
+ * It fetches the next departures from every stop of the graph as the stop times endpoint of the index API does, at
+ * the given time in seconds since the epoch (by default now), and reports the average time taken and bytes allocated
+ * per stop. Run it before and after a change to stopTimesForStop to compare them.
+ */
+public class DepartureBoardBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DepartureBoardBenchmark.class);
+    static final int N_ROUNDS = 5;
+    static final int TIME_RANGE = 24 * 60 * 60;
+    static final int N_DEPARTURES = 5;
+
+    public static void main(String[] params) throws Exception {
+        Graph graph = Graph.load(new File(params[0]), Graph.LoadLevel.FULL);
+        long startTime = params.length > 1 ? Long.parseLong(params[1]) : System.currentTimeMillis() / 1000;
+        List<Stop> stops = new ArrayList<>(graph.index.stopForId.values());
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        // The first round warms up the JIT and is not counted.
+        for (int round = 0; round <= N_ROUNDS; round++) {
+            long bytes0 = threads.getThreadAllocatedBytes(threadId);
+            long time0 = System.nanoTime();
+            int nDepartures = 0;
+            for (Stop stop : stops) {
+                for (StopTimesInPattern stopTimes : graph.index.stopTimesForStop(stop, startTime, TIME_RANGE, N_DEPARTURES)) {
+                    nDepartures += stopTimes.times.size();
+                }
+            }
+            double micros = (System.nanoTime() - time0) / 1e3 / stops.size();
+            long bytes = (threads.getThreadAllocatedBytes(threadId) - bytes0) / stops.size();
+            LOG.info("{} round {}: {} departures from {} stops, {} usec and {} bytes per stop.",
+                    round == 0 ? "Warm-up" : "Timed", round, nDepartures, stops.size(), String.format("%.1f", micros), bytes);
+        }
+    }
+
+}
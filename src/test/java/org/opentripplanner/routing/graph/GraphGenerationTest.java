@@ -0,0 +1,123 @@
+package org.opentripplanner.routing.graph;
+
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check that changes made while editing a graph are invisible to other threads until they are published, and that a
+ * pinned generation keeps seeing the edges it started with.
+ */
+public class GraphGenerationTest {
+
+    @Test
+    public void testEdit() throws Exception {
+        Graph graph = new Graph();
+        Vertex a = new SimpleConcreteVertex(graph, "a", 0, 0);
+        Vertex b = new SimpleConcreteVertex(graph, "b", 0, 1);
+        Vertex c = new SimpleConcreteVertex(graph, "c", 1, 1);
+        Edge ab = new SimpleConcreteEdge(a, b);
+
+        Object request = new Object();
+        GraphGeneration pinned = graph.pinGeneration(request);
+        assertEquals(0, pinned.number);
+
+        AtomicReference<Collection<Edge>> seenByOtherThread = new AtomicReference<>();
+        Edge[] ac = new Edge[1];
+        graph.edit(() -> {
+            ac[0] = new SimpleConcreteEdge(a, c);
+            graph.removeEdge(ab);
+            // The thread making the changes sees them right away.
+            assertTrue(a.getOutgoing().contains(ac[0]));
+            assertFalse(a.getOutgoing().contains(ab));
+            Thread reader = new Thread(() -> seenByOtherThread.set(a.getOutgoing()));
+            reader.start();
+            try {
+                reader.join();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        // Other threads only see the changes once they are published.
+        assertTrue(seenByOtherThread.get().contains(ab));
+        assertFalse(seenByOtherThread.get().contains(ac[0]));
+
+        assertEquals(1, graph.getGeneration().number);
+        assertTrue(a.getOutgoing().contains(ac[0]));
+        assertFalse(a.getOutgoing().contains(ab));
+        assertEquals(1, c.getIncoming().size());
+        assertEquals(0, b.getIncoming().size());
+
+        // The pinned generation still sees the removed edge, which can still be traversed.
+        assertTrue(a.getOutgoing(pinned).contains(ab));
+        assertFalse(a.getOutgoing(pinned).contains(ac[0]));
+        assertTrue(b.getIncoming(pinned).contains(ab));
+        assertEquals(1, b.getDegreeIn(pinned));
+        assertEquals(0, b.getDegreeIn(graph.getGeneration()));
+        assertSame(a, ab.getFromVertex());
+        assertSame(b, ab.getToVertex());
+
+        // Once no request can see the generation before the edge was removed, the edge is detached from its vertices.
+        graph.unpinGeneration(request);
+        assertNull(ab.getFromVertex());
+        assertNull(ab.getToVertex());
+
+        // The next edit drops the old edge lists without changing what the latest generation sees.
+        Edge ca = new SimpleConcreteEdge(c, a);
+        graph.edit(() -> new SimpleConcreteEdge(b, a));
+        assertEquals(2, graph.getGeneration().number);
+        assertEquals(2, a.getIncoming().size());
+        assertTrue(a.getIncoming().contains(ca));
+        assertEquals(1, a.getOutgoing().size());
+    }
+
+    @Test
+    public void testChangesOutsideEditAreSeenByAllGenerations() {
+        Graph graph = new Graph();
+        Vertex a = new SimpleConcreteVertex(graph, "a", 0, 0);
+        Vertex b = new SimpleConcreteVertex(graph, "b", 0, 1);
+        Object request = new Object();
+        GraphGeneration pinned = graph.pinGeneration(request);
+        graph.edit(() -> new SimpleConcreteEdge(a, b));
+
+        // Like the temporary edges linking the origin and destination of a request.
+        Edge temporary = new SimpleConcreteEdge(b, a);
+        assertTrue(b.getOutgoing().contains(temporary));
+        assertTrue(b.getOutgoing(pinned).contains(temporary));
+        assertEquals(1, a.getIncoming().size());
+        assertEquals(1, a.getIncoming(pinned).size());
+
+        b.removeOutgoing(temporary);
+        a.removeIncoming(temporary);
+        assertEquals(0, b.getOutgoing().size());
+        assertEquals(0, b.getOutgoing(pinned).size());
+        assertEquals(1, a.getOutgoing().size());
+        assertEquals(0, a.getOutgoing(pinned).size());
+    }
+
+    /** An edge removed while no request is pinned is detached from its vertices as soon as the edit is published. */
+    @Test
+    public void testRemovedEdgeDetachedWithoutPins() {
+        Graph graph = new Graph();
+        Vertex a = new SimpleConcreteVertex(graph, "a", 0, 0);
+        Vertex b = new SimpleConcreteVertex(graph, "b", 0, 1);
+        Edge ab = new SimpleConcreteEdge(a, b);
+
+        graph.edit(() -> {
+            graph.removeEdge(ab);
+            // Other requests could still be pinning the previous generation until this one is published.
+            assertSame(a, ab.getFromVertex());
+        });
+        assertNull(ab.getFromVertex());
+        assertNull(ab.getToVertex());
+    }
+
+}
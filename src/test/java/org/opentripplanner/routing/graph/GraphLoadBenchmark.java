@@ -0,0 +1,60 @@
+package org.opentripplanner.routing.graph;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * This is not an automatic unit test. It is a benchmark that must be started manually on a real graph:
+ *
+ *   GraphLoadBenchmark path/to/Graph.obj
+ *
+ * It saves the graph both with Java serialization and in the binary graph format to temporary files, then loads each of
+ * them several times and reports the time taken and the heap used by the loaded graph.
+ */
+public class GraphLoadBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GraphLoadBenchmark.class);
+    static final int N_ROUNDS = 3;
+
+    public static void main(String[] params) throws Exception {
+        File javaFile = File.createTempFile("graph", ".java.obj");
+        File binaryFile = File.createTempFile("graph", ".binary.obj");
+        javaFile.deleteOnExit();
+        binaryFile.deleteOnExit();
+        {
+            Graph graph = Graph.load(new File(params[0]), Graph.LoadLevel.FULL);
+            try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(javaFile)))) {
+                graph.save(out);
+            }
+            graph.save(binaryFile);
+        }
+        LOG.info("Java serialization: {} bytes, binary graph format: {} bytes.", javaFile.length(),
+                binaryFile.length());
+        // The first round warms up the JIT and is not counted.
+        for (int round = 0; round <= N_ROUNDS; round++) {
+            for (File file : new File[] { javaFile, binaryFile }) {
+                long heap0 = usedHeap();
+                long time0 = System.nanoTime();
+                Graph graph = Graph.load(file, Graph.LoadLevel.FULL);
+                long millis = (System.nanoTime() - time0) / 1000000;
+                long heap = usedHeap() - heap0;
+                LOG.info("{} round {}: {} loaded in {} msec, {} MB of heap for {} edges.",
+                        round == 0 ? "Warm-up" : "Timed", round, file == javaFile ? "Java serialization" :
+                        "Binary graph format", millis, heap / 1000000, graph.countEdges());
+            }
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
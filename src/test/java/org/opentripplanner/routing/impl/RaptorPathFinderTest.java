@@ -0,0 +1,112 @@
+package org.opentripplanner.routing.impl;
+
+import com.google.common.collect.Sets;
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.standalone.Router;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.opentripplanner.graph_builder.module.FakeGraph.*;
+
+/**
+ * Test point-to-point transit searches with RAPTOR on the fake Columbus line, which runs from s1 to s2 every ten
+ * minutes from 7:00 to 20:00.
+ */
+public class RaptorPathFinderTest extends TestCase {
+
+    private Graph graph;
+
+    private Router router;
+
+    @Override
+    protected void setUp() throws Exception {
+        graph = buildGraphNoTransit();
+        addTransit(graph);
+        link(graph);
+        graph.index(new DefaultStreetVertexIndexFactory());
+        router = new Router("TEST", graph);
+    }
+
+    /** RAPTOR should find the same earliest arrival, on the same trip, as A*. */
+    @Test
+    public void testRaptorMatchesAStar () {
+        GraphPath raptor = earliestTransitPath(new GraphPathFinder(router).getPaths(request("07:02", true)));
+        GraphPath aStar = earliestTransitPath(new GraphPathFinder(router).getPaths(request("07:02", false)));
+        assertNotNull("RAPTOR found no transit path", raptor);
+        assertNotNull("A* found no transit path", aStar);
+        assertEquals(aStar.getTrips(), raptor.getTrips());
+        assertEquals(aStar.getEndTime(), raptor.getEndTime());
+    }
+
+    /**
+     * Before the first trip, RAPTOR finds no transit within its maximum trip duration. A walk-only path does not
+     * count as a result, so the transit path comes from A*.
+     */
+    @Test
+    public void testFallbackOnAStarWithoutTransit () {
+        RoutingRequest options = request("04:00", true);
+        options.setRoutingContext(graph);
+        assertNull(earliestTransitPath(new RaptorPathFinder(router).getPaths(options)));
+
+        GraphPath fallback = earliestTransitPath(new GraphPathFinder(router).getPaths(request("04:00", true)));
+        GraphPath aStar = earliestTransitPath(new GraphPathFinder(router).getPaths(request("04:00", false)));
+        assertNotNull("No transit path found after the RAPTOR search", fallback);
+        assertNotNull(aStar);
+        assertEquals(aStar.getTrips(), fallback.getTrips());
+    }
+
+    /**
+     * Each RAPTOR journey is replayed over the graph edges from the origin to the destination, boarding the first trip
+     * leaving after the access walk, and no two paths ride the same trips.
+     */
+    @Test
+    public void testJourneysReplayedOnGraph () {
+        RoutingRequest options = request("07:02", true);
+        options.setRoutingContext(graph);
+        List<GraphPath> paths = new RaptorPathFinder(router).getPaths(options);
+
+        Set<List<AgencyAndId>> tripsUsed = Sets.newHashSet();
+        for (GraphPath path : paths) {
+            assertEquals(options.rctx.origin, path.getStartVertex());
+            assertEquals(options.rctx.target, path.getEndVertex());
+            assertTrue(path.getStartTime() >= options.dateTime);
+            assertTrue("Two paths ride the same trips", tripsUsed.add(path.getTrips()));
+        }
+
+        GraphPath transit = earliestTransitPath(paths);
+        assertNotNull("No journey could be replayed", transit);
+        assertEquals(1, transit.getTrips().size());
+        // The 7:00 trip leaves before the access walk is done, so the 7:10 trip is the first one that can be boarded.
+        assertEquals("trip" + (7 * 3600 + FREQUENCY), transit.getTrips().get(0).getId());
+    }
+
+    /** A depart-after request from the first stop of the line to its last stop on a weekday. */
+    private RoutingRequest request (String time, boolean useRaptor) {
+        RoutingRequest options = new RoutingRequest(new TraverseModeSet(TraverseMode.WALK, TraverseMode.TRANSIT));
+        options.from = new GenericLocation(40.2182, -83.0889);
+        options.to = new GenericLocation(39.9621, -83.0007);
+        options.setDateTime("2015-06-10", time, graph.getTimeZone());
+        options.useRaptor = useRaptor;
+        return options;
+    }
+
+    /** @return the path riding transit that arrives first, or null if no path rides transit. */
+    private static GraphPath earliestTransitPath (List<GraphPath> paths) {
+        GraphPath best = null;
+        for (GraphPath path : paths) {
+            if (path.getTrips().isEmpty()) continue;
+            if (best == null || path.getEndTime() < best.getEndTime()) best = path;
+        }
+        return best;
+    }
+
+}
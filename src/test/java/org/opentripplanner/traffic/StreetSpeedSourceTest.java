@@ -97,6 +97,53 @@ public class StreetSpeedSourceTest extends TestCase {
         assertTrue(Double.isNaN(snap.getSpeed(se, TraverseMode.CAR, System.currentTimeMillis())));
     }
 
+    /** Test that compiling a snapshot for a graph does not change the speeds */
+    @Test
+    public void testCompiled () {
+        Graph g = new Graph();
+        OsmVertex v1 = new OsmVertex(g, "v1", 0, 0, 5l);
+        OsmVertex v2 = new OsmVertex(g, "v2", 0, 0.01, 6l);
+        OsmVertex v3 = new OsmVertex(g, "v3", 0, 0.02, 7l);
+        StreetEdge se = new StreetEdge(v1, v2, null, "test", 1000, StreetTraversalPermission.CAR, false);
+        se.wayId = 10;
+        StreetEdge noSample = new StreetEdge(v2, v3, null, "test", 1000, StreetTraversalPermission.CAR, false);
+        noSample.wayId = 10;
+
+        Map<Segment, SegmentSpeedSample> speeds = Maps.newHashMap();
+        speeds.put(new Segment(10l, 5l, 6l), getSpeedSample());
+        speeds.put(new Segment(10l, 6l, 5l), new SegmentSpeedSample(2.5, new double[0]));
+        StreetSpeedSnapshot compiled = new StreetSpeedSnapshot(speeds, g);
+        StreetSpeedSnapshot uncompiled = new StreetSpeedSnapshot(speeds);
+
+        // created after the snapshot was compiled, so looked up by segment
+        StreetEdge back = new StreetEdge(v2, v1, null, "test", 1000, StreetTraversalPermission.CAR, false);
+        back.wayId = 10;
+
+        OffsetDateTime odt = OffsetDateTime.of(2015, 5, 31, 22, 30, 0, 0, ZoneOffset.UTC);
+        for (int hour = 0; hour < 2 * 7 * 24; hour++) {
+            long time = odt.plusHours(hour).toInstant().toEpochMilli();
+            for (StreetEdge edge : new StreetEdge[] { se, noSample, back }) {
+                assertEquals(uncompiled.getSpeed(edge, TraverseMode.CAR, time),
+                        compiled.getSpeed(edge, TraverseMode.CAR, time));
+            }
+        }
+        assertTrue(Double.isNaN(compiled.getSpeed(noSample, TraverseMode.CAR, odt.toInstant().toEpochMilli())));
+        assertEquals(2.5, compiled.getSpeed(back, TraverseMode.CAR, odt.toInstant().toEpochMilli()), 0.01);
+        assertTrue(Double.isNaN(compiled.getSpeed(se, TraverseMode.WALK, odt.toInstant().toEpochMilli())));
+    }
+
+    @Test
+    public void testHourOfWeek () {
+        OffsetDateTime monday = OffsetDateTime.of(2015, 6, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+        assertEquals(0, SegmentSpeedSample.hourOfWeek(monday.toInstant().toEpochMilli()));
+        assertEquals(0, SegmentSpeedSample.hourOfWeek(monday.plusMinutes(59).toInstant().toEpochMilli()));
+        assertEquals(9, SegmentSpeedSample.hourOfWeek(monday.plusHours(9).toInstant().toEpochMilli()));
+        assertEquals(167, SegmentSpeedSample.hourOfWeek(monday.minusMinutes(1).toInstant().toEpochMilli()));
+        // before the epoch
+        OffsetDateTime oldMonday = OffsetDateTime.of(1969, 12, 29, 5, 0, 0, 0, ZoneOffset.UTC);
+        assertEquals(5, SegmentSpeedSample.hourOfWeek(oldMonday.toInstant().toEpochMilli()));
+    }
+
     /** Make a speed sample */
     private SegmentSpeedSample getSpeedSample() {
         double[] hourBins = new double[7 * 24];
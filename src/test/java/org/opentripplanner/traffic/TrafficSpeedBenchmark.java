@@ -0,0 +1,89 @@
+package org.opentripplanner.traffic;
+
+import com.google.common.collect.Maps;
+import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.StreetVertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * This is not an automatic unit test. It is a benchmark that must be started manually on a real graph:
+ *
+ *   TrafficSpeedBenchmark path/to/Graph.obj
+ *
+ * It gives every street edge a random speed sample, then runs the same fixed, seeded set of car searches between
+ * random street vertices without traffic, with traffic looked up by segment, and with traffic compiled for the graph,
+ * and reports the average latency of each.
+ */
+public class TrafficSpeedBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TrafficSpeedBenchmark.class);
+    static final int N_QUERIES = 200;
+    static final int N_WARMUP = 50;
+
+    public static void main(String[] params) throws Exception {
+        Graph graph = Graph.load(new File(params[0]), Graph.LoadLevel.FULL);
+
+        Random random = new Random(42);
+        Map<Segment, SegmentSpeedSample> samples = Maps.newHashMap();
+        for (StreetEdge edge : graph.getStreetEdges()) {
+            double[] hourBins = new double[7 * 24];
+            for (int h = 0; h < hourBins.length; h++) {
+                hourBins[h] = edge.getCarSpeed() * (0.3 + 0.7 * random.nextDouble());
+            }
+            samples.put(new Segment(edge), new SegmentSpeedSample(edge.getCarSpeed(), hourBins));
+        }
+
+        List<Vertex> streetVertices = new ArrayList<>();
+        for (Vertex v : graph.getVertices()) {
+            if (v instanceof StreetVertex) streetVertices.add(v);
+        }
+        Vertex[][] queries = new Vertex[N_WARMUP + N_QUERIES][2];
+        for (Vertex[] query : queries) {
+            query[0] = streetVertices.get(random.nextInt(streetVertices.size()));
+            query[1] = streetVertices.get(random.nextInt(streetVertices.size()));
+        }
+
+        graph.streetSpeedSource = new StreetSpeedSnapshotSource();
+        double withoutTraffic = run(graph, queries, false);
+        graph.streetSpeedSource.setSnapshot(new StreetSpeedSnapshot(samples));
+        double bySegment = run(graph, queries, true);
+        long startTime = System.currentTimeMillis();
+        graph.streetSpeedSource.setSnapshot(new StreetSpeedSnapshot(samples, graph));
+        LOG.info("Compiled speeds in {} msec.", System.currentTimeMillis() - startTime);
+        double compiled = run(graph, queries, true);
+
+        LOG.info("Without traffic: {} msec per query on average.", withoutTraffic);
+        LOG.info("Traffic by segment: {} msec per query on average.", bySegment);
+        LOG.info("Compiled traffic: {} msec per query on average.", compiled);
+    }
+
+    /** @return the average time per query in milliseconds, excluding warm-up queries. */
+    private static double run (Graph graph, Vertex[][] queries, boolean useTraffic) {
+        long totalTime = 0;
+        for (int q = 0; q < queries.length; q++) {
+            RoutingRequest request = new RoutingRequest(new TraverseModeSet(TraverseMode.CAR));
+            request.useTraffic = useTraffic;
+            request.setRoutingContext(graph, queries[q][0], queries[q][1]);
+            long startTime = System.nanoTime();
+            new AStar().getShortestPathTree(request).getPath(queries[q][1], false);
+            long time = System.nanoTime() - startTime;
+            request.cleanup();
+            if (q >= N_WARMUP) totalTime += time;
+        }
+        return totalTime / 1e6 / N_QUERIES;
+    }
+
+}
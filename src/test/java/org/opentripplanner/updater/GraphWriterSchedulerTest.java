@@ -0,0 +1,124 @@
+package org.opentripplanner.updater;
+
+import org.junit.Test;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.updater.GraphWriterRunnable.Resource;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class GraphWriterSchedulerTest {
+
+    /** The names of the writers, in the order they ran. */
+    private final List<String> ran = new CopyOnWriteArrayList<>();
+
+    private class Writer implements GraphWriterRunnable {
+        final String name;
+        final Resource resource;
+        final Object coalescingKey;
+        final CountDownLatch release;
+
+        Writer (String name, Resource resource, Object coalescingKey, CountDownLatch release) {
+            this.name = name;
+            this.resource = resource;
+            this.coalescingKey = coalescingKey;
+            this.release = release;
+        }
+
+        @Override
+        public void run(Graph graph) {
+            ran.add(name);
+            try {
+                if (release != null) release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public Resource getResource() {
+            return resource;
+        }
+
+        @Override
+        public Object getCoalescingKey() {
+            return coalescingKey;
+        }
+    }
+
+    private GraphWriterScheduler newScheduler () {
+        return new GraphWriterScheduler(new Graph(), 3, Executors.defaultThreadFactory());
+    }
+
+    @Test
+    public void testDifferentResourcesRunConcurrently() throws Exception {
+        GraphWriterScheduler scheduler = newScheduler();
+        CountDownLatch release = new CountDownLatch(1);
+        Future<?> slow = scheduler.submit(new Writer("timetables", Resource.TIMETABLES, null, release));
+        Future<?> blocked = scheduler.submit(new Writer("timetables 2", Resource.TIMETABLES, null, null));
+        // Alerts are not stuck behind the slow trip updates.
+        scheduler.submit(new Writer("alerts", Resource.ALERTS, null, null)).get(10, TimeUnit.SECONDS);
+        assertFalse(slow.isDone());
+        assertFalse(blocked.isDone());
+        assertEquals(1, scheduler.getStats().get(Resource.TIMETABLES).queued);
+
+        release.countDown();
+        blocked.get(10, TimeUnit.SECONDS);
+        assertEquals("timetables 2", ran.get(2));
+        assertEquals(2, scheduler.getStats().get(Resource.TIMETABLES).executed);
+        scheduler.stop();
+    }
+
+    @Test
+    public void testGraphWritersRunAlone() throws Exception {
+        GraphWriterScheduler scheduler = newScheduler();
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.submit(new Writer("alerts", Resource.ALERTS, null, release));
+        Future<?> graph = scheduler.submit(new Writer("graph", Resource.GRAPH, null, null));
+        Future<?> traffic = scheduler.submit(new Writer("traffic", Resource.TRAFFIC, null, null));
+        Thread.sleep(100);
+        assertFalse(graph.isDone());
+        assertFalse(traffic.isDone());
+
+        release.countDown();
+        traffic.get(10, TimeUnit.SECONDS);
+        assertEquals("alerts", ran.get(0));
+        assertEquals("graph", ran.get(1));
+        assertEquals("traffic", ran.get(2));
+        scheduler.stop();
+    }
+
+    @Test
+    public void testCoalescing() throws Exception {
+        GraphWriterScheduler scheduler = newScheduler();
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.submit(new Writer("first", Resource.TIMETABLES, null, release));
+        Future<?> superseded = scheduler.submit(new Writer("full 1", Resource.TIMETABLES, "feed", null));
+        Future<?> differential = scheduler.submit(new Writer("differential", Resource.TIMETABLES, null, null));
+        Future<?> latest = scheduler.submit(new Writer("full 2", Resource.TIMETABLES, "feed", null));
+        // Whoever waits for the superseded writer waits for the one that replaced it.
+        assertSame(superseded, latest);
+
+        release.countDown();
+        latest.get(10, TimeUnit.SECONDS);
+        assertTrue(differential.isDone());
+        assertEquals(3, ran.size());
+        assertEquals("differential", ran.get(1));
+        assertEquals("full 2", ran.get(2));
+        GraphWriterStats stats = scheduler.getStats().get(Resource.TIMETABLES);
+        assertEquals(4, stats.submitted);
+        assertEquals(1, stats.coalesced);
+        assertEquals(3, stats.executed);
+        assertEquals(0, stats.queued);
+        scheduler.stop();
+    }
+}
@@ -0,0 +1,60 @@
+package org.opentripplanner.updater.stoptime;
+
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This is not an automatic unit test. It is a benchmark that must be started manually on a recorded feed:
+ *
+ *   GtfsRealtimeDecodingBenchmark path/to/recorded/FeedMessage
+ *
+ * It extracts the trip updates of the feed message the way the trip updaters used to, by parsing the whole message,
+ * and with the GtfsRealtimeTripUpdateReader, and reports the time taken and the bytes allocated by each. Feeds that
+ * also contain many vehicle positions or alerts show the largest difference.
+ */
+public class GtfsRealtimeDecodingBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GtfsRealtimeDecodingBenchmark.class);
+    static final int N_ROUNDS = 10;
+
+    public static void main(String[] params) throws Exception {
+        byte[] feed = Files.readAllBytes(new File(params[0]).toPath());
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        // The first round warms up the JIT and is not counted.
+        for (int round = 0; round <= N_ROUNDS; round++) {
+            long bytes0 = threads.getThreadAllocatedBytes(threadId);
+            long time0 = System.nanoTime();
+            FeedMessage message = FeedMessage.PARSER.parseFrom(new ByteArrayInputStream(feed));
+            List<TripUpdate> parsed = new ArrayList<>(message.getEntityCount());
+            for (FeedEntity entity : message.getEntityList()) {
+                if (entity.hasTripUpdate()) parsed.add(entity.getTripUpdate());
+            }
+            long parseNanos = System.nanoTime() - time0;
+            long parseBytes = threads.getThreadAllocatedBytes(threadId) - bytes0;
+
+            bytes0 = threads.getThreadAllocatedBytes(threadId);
+            time0 = System.nanoTime();
+            List<TripUpdate> streamed = new ArrayList<>();
+            GtfsRealtimeTripUpdateReader.read(new ByteArrayInputStream(feed), streamed::add);
+            long streamNanos = System.nanoTime() - time0;
+            long streamBytes = threads.getThreadAllocatedBytes(threadId) - bytes0;
+
+            if (!parsed.equals(streamed)) throw new IllegalStateException("Decoded trip updates differ.");
+            LOG.info("{} round {}: {} trip updates. Whole message {} msec {} bytes, streamed {} msec {} bytes.",
+                    round == 0 ? "Warm-up" : "Timed", round, streamed.size(), parseNanos / 1000000, parseBytes,
+                    streamNanos / 1000000, streamBytes);
+        }
+    }
+
+}
@@ -0,0 +1,71 @@
+package org.opentripplanner.updater.stoptime;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.transit.realtime.GtfsRealtime.Alert;
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader;
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+import com.google.transit.realtime.GtfsRealtime.TripDescriptor;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeEvent;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeUpdate;
+import com.google.transit.realtime.GtfsRealtime.VehiclePosition;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class GtfsRealtimeTripUpdateReaderTest {
+
+    private static TripUpdate tripUpdate(String tripId, int delay) {
+        return TripUpdate.newBuilder()
+                .setTrip(TripDescriptor.newBuilder().setTripId(tripId).setStartDate("20150101"))
+                .addStopTimeUpdate(StopTimeUpdate.newBuilder().setStopSequence(1)
+                        .setDeparture(StopTimeEvent.newBuilder().setDelay(delay)))
+                .setTimestamp(1420070400L)
+                .build();
+    }
+
+    @Test
+    public void testReadTripUpdates() throws Exception {
+        TripUpdate first = tripUpdate("1.1", 60);
+        TripUpdate second = tripUpdate("1.2", -30);
+        // The header comes last to check that it does not have to be the first field on the wire.
+        FeedMessage message = FeedMessage.newBuilder()
+                .addEntity(FeedEntity.newBuilder().setId("1").setTripUpdate(first))
+                .addEntity(FeedEntity.newBuilder().setId("2").setVehicle(VehiclePosition.newBuilder()
+                        .setTrip(TripDescriptor.newBuilder().setTripId("1.1"))))
+                .addEntity(FeedEntity.newBuilder().setId("3").setAlert(Alert.newBuilder()))
+                .addEntity(FeedEntity.newBuilder().setId("4").setIsDeleted(true).setTripUpdate(second))
+                .setHeader(FeedHeader.newBuilder().setGtfsRealtimeVersion("1.0")
+                        .setIncrementality(FeedHeader.Incrementality.DIFFERENTIAL))
+                .build();
+
+        List<TripUpdate> fromStream = new ArrayList<>();
+        FeedHeader header = GtfsRealtimeTripUpdateReader.read(
+                new ByteArrayInputStream(message.toByteArray()), fromStream::add);
+        assertEquals(message.getHeader(), header);
+        assertEquals(2, fromStream.size());
+        assertEquals(first, fromStream.get(0));
+        assertEquals(second, fromStream.get(1));
+
+        List<TripUpdate> fromBytes = new ArrayList<>();
+        GtfsRealtimeTripUpdateReader.read(message.toByteArray(), fromBytes::add);
+        assertEquals(fromStream, fromBytes);
+    }
+
+    @Test(expected = InvalidProtocolBufferException.class)
+    public void testMissingHeader() throws Exception {
+        byte[] entityOnly = FeedEntity.newBuilder().setId("1").setTripUpdate(tripUpdate("1.1", 0)).build()
+                .toByteArray();
+        // Field 2, length delimited: the tag of an entity in a feed message.
+        byte[] message = new byte[entityOnly.length + 2];
+        message[0] = 2 << 3 | 2;
+        message[1] = (byte) entityOnly.length;
+        System.arraycopy(entityOnly, 0, message, 2, entityOnly.length);
+        GtfsRealtimeTripUpdateReader.read(message, tripUpdate -> { });
+    }
+}
@@ -0,0 +1,85 @@
+package org.opentripplanner.updater.stoptime;
+
+import com.google.transit.realtime.GtfsRealtime;
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate;
+import org.opentripplanner.routing.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This is not an automatic unit test. It is a benchmark that must be started manually:
+ *
+ *   TimetableSnapshotBenchmark path/to/Graph.obj path/to/recorded/messages feedId
+ *
+ * It applies a recorded sequence of GTFS-RT feed messages (one FeedMessage per file, applied in file name order) to a
+ * TimetableSnapshotSource, committing a new snapshot after each one, and reports the time taken and the bytes
+ * allocated by each commit separately from the application of the updates.
+ */
+public class TimetableSnapshotBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TimetableSnapshotBenchmark.class);
+
+    public static void main(String[] params) throws Exception {
+        Graph graph = Graph.load(new File(params[0]), Graph.LoadLevel.FULL);
+        File[] files = new File(params[1]).listFiles();
+        Arrays.sort(files);
+        String feedId = params[2];
+
+        TimetableSnapshotSource source = new TimetableSnapshotSource(graph);
+        source.purgeExpiredData = false;
+        // Keep applyTripUpdates from committing on its own, so that commits can be timed separately.
+        source.maxSnapshotFrequency = Integer.MAX_VALUE;
+        source.getTimetableSnapshot();
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long totalApplyNanos = 0, totalCommitNanos = 0, totalApplyBytes = 0, totalCommitBytes = 0;
+        int nMessages = 0;
+        for (File file : files) {
+            FeedMessage message;
+            try (InputStream in = new FileInputStream(file)) {
+                message = FeedMessage.PARSER.parseFrom(in);
+            }
+            boolean fullDataset = !(message.hasHeader() && message.getHeader().getIncrementality() ==
+                    GtfsRealtime.FeedHeader.Incrementality.DIFFERENTIAL);
+            List<TripUpdate> updates = new ArrayList<>();
+            for (FeedEntity entity : message.getEntityList()) {
+                if (entity.hasTripUpdate()) updates.add(entity.getTripUpdate());
+            }
+
+            long bytes0 = threads.getThreadAllocatedBytes(threadId);
+            long time0 = System.nanoTime();
+            source.applyTripUpdates(graph, fullDataset, updates, feedId);
+            long time1 = System.nanoTime();
+            long bytes1 = threads.getThreadAllocatedBytes(threadId);
+            source.maxSnapshotFrequency = 0;
+            source.getTimetableSnapshot();
+            source.maxSnapshotFrequency = Integer.MAX_VALUE;
+            long time2 = System.nanoTime();
+            long bytes2 = threads.getThreadAllocatedBytes(threadId);
+
+            LOG.info("{}: {} trip updates applied in {} msec ({} kB), committed in {} msec ({} kB)", file.getName(),
+                    updates.size(), (time1 - time0) / 1e6, (bytes1 - bytes0) / 1024, (time2 - time1) / 1e6,
+                    (bytes2 - bytes1) / 1024);
+            totalApplyNanos += time1 - time0;
+            totalCommitNanos += time2 - time1;
+            totalApplyBytes += bytes1 - bytes0;
+            totalCommitBytes += bytes2 - bytes1;
+            nMessages++;
+        }
+        LOG.info("Average over {} messages: applied in {} msec ({} kB), committed in {} msec ({} kB)", nMessages,
+                totalApplyNanos / 1e6 / nMessages, totalApplyBytes / 1024 / nMessages,
+                totalCommitNanos / 1e6 / nMessages, totalCommitBytes / 1024 / nMessages);
+    }
+
+}
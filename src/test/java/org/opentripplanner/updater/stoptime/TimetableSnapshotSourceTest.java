@@ -22,6 +22,7 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.List;
@@ -512,4 +513,116 @@ public class TimetableSnapshotSourceTest {
         assertNotSame(snapshotA.resolve(pattern, null ), snapshotA.resolve(pattern, serviceDate));
         assertSame   (snapshotB.resolve(pattern, null ), snapshotB.resolve(pattern, previously));
     }
+
+    @Test
+    public void testIncrementalFullDataset() throws InvalidProtocolBufferException {
+        final AgencyAndId tripId = new AgencyAndId(feedId, "1.1");
+        final Trip trip = graph.index.tripForId.get(tripId);
+        final TripPattern pattern = graph.index.patternForTrip.get(trip);
+        final int tripIndex = pattern.scheduledTimetable.getTripIndex(tripId);
+
+        updater.maxSnapshotFrequency = (0);
+
+        final TripUpdate.Builder tripUpdateBuilder = TripUpdate.newBuilder();
+        tripUpdateBuilder.getTripBuilder().setTripId("1.1");
+        final StopTimeUpdate.Builder stopTimeUpdateBuilder = tripUpdateBuilder.addStopTimeUpdateBuilder();
+        stopTimeUpdateBuilder.setStopSequence(2);
+        stopTimeUpdateBuilder.getArrivalBuilder().setDelay(1);
+        stopTimeUpdateBuilder.getDepartureBuilder().setDelay(1);
+        final TripUpdate delay = tripUpdateBuilder.build();
+
+        updater.applyTripUpdates(graph, true, Arrays.asList(delay), feedId);
+        final TimetableSnapshot snapshotA = updater.getTimetableSnapshot();
+        assertEquals(1, updater.getLastUpdateCounts().applied);
+        assertEquals(1, snapshotA.resolve(pattern, serviceDate).getTripTimes(tripIndex).getArrivalDelay(1));
+
+        // The same update with a new timestamp is not applied again, so the snapshot does not change
+        updater.applyTripUpdates(graph, true, Arrays.asList(delay.toBuilder().setTimestamp(1).build()), feedId);
+        assertEquals(0, updater.getLastUpdateCounts().applied);
+        assertEquals(1, updater.getLastUpdateCounts().skipped);
+        assertSame(snapshotA, updater.getTimetableSnapshot());
+
+        // A changed update replaces the previous one
+        updater.applyTripUpdates(graph, true, Arrays.asList(TripUpdate.parseFrom(cancellation)), feedId);
+        final TimetableSnapshot snapshotB = updater.getTimetableSnapshot();
+        assertEquals(1, updater.getLastUpdateCounts().applied);
+        assertEquals(RealTimeState.CANCELED,
+                snapshotB.resolve(pattern, serviceDate).getTripTimes(tripIndex).getRealTimeState());
+
+        // A trip that is no longer in the feed is reverted to its scheduled times
+        updater.applyTripUpdates(graph, true, Arrays.<TripUpdate>asList(), feedId);
+        final TimetableSnapshot snapshotC = updater.getTimetableSnapshot();
+        assertEquals(1, updater.getLastUpdateCounts().retired);
+        assertSame(pattern.scheduledTimetable.getTripTimes(tripIndex),
+                snapshotC.resolve(pattern, serviceDate).getTripTimes(tripIndex));
+        assertEquals(3, updater.getTotalUpdateCounts().applied + updater.getTotalUpdateCounts().skipped);
+    }
+
+    @Test
+    public void testFailedUpdateInFullDataset() throws InvalidProtocolBufferException {
+        final AgencyAndId tripId = new AgencyAndId(feedId, "1.1");
+        final Trip trip = graph.index.tripForId.get(tripId);
+        final TripPattern pattern = graph.index.patternForTrip.get(trip);
+        final int tripIndex = pattern.scheduledTimetable.getTripIndex(tripId);
+
+        updater.maxSnapshotFrequency = (0);
+
+        final TripUpdate.Builder tripUpdateBuilder = TripUpdate.newBuilder();
+        tripUpdateBuilder.getTripBuilder().setTripId("1.1");
+        final StopTimeUpdate.Builder stopTimeUpdateBuilder = tripUpdateBuilder.addStopTimeUpdateBuilder();
+        stopTimeUpdateBuilder.setStopSequence(2);
+        stopTimeUpdateBuilder.getArrivalBuilder().setDelay(1);
+        stopTimeUpdateBuilder.getDepartureBuilder().setDelay(1);
+        final TripUpdate delay = tripUpdateBuilder.build();
+        // A TripUpdate without any StopTimeUpdate cannot be applied to a scheduled trip
+        final TripUpdate empty = delay.toBuilder().clearStopTimeUpdate().build();
+
+        updater.applyTripUpdates(graph, true, Arrays.asList(delay), feedId);
+        assertEquals(1, updater.getLastUpdateCounts().applied);
+
+        // The failed update replaces the previous one, leaving the trip on its scheduled times
+        updater.applyTripUpdates(graph, true, Arrays.asList(empty), feedId);
+        assertEquals(1, updater.getLastUpdateCounts().failed);
+        assertSame(pattern.scheduledTimetable.getTripTimes(tripIndex),
+                updater.getTimetableSnapshot().resolve(pattern, serviceDate).getTripTimes(tripIndex));
+
+        // A failed update is not remembered, so it is tried again rather than skipped as unchanged
+        updater.applyTripUpdates(graph, true, Arrays.asList(empty), feedId);
+        assertEquals(1, updater.getLastUpdateCounts().failed);
+        assertEquals(0, updater.getLastUpdateCounts().skipped);
+
+        // Neither is an update without a trip id, which cannot be reverted
+        final TripUpdate.Builder routeUpdateBuilder = TripUpdate.newBuilder();
+        routeUpdateBuilder.getTripBuilder().setRouteId("1");
+        final TripUpdate routeUpdate = routeUpdateBuilder.build();
+        updater.applyTripUpdates(graph, true, Arrays.asList(routeUpdate, routeUpdate), feedId);
+        assertEquals(0, updater.getLastUpdateCounts().skipped);
+        assertEquals(0, updater.getLastUpdateCounts().retired);
+    }
+
+    @Test
+    public void testLastUpdateWinsInLargeMessage() {
+        final AgencyAndId tripId = new AgencyAndId(feedId, "1.1");
+        final Trip trip = graph.index.tripForId.get(tripId);
+        final TripPattern pattern = graph.index.patternForTrip.get(trip);
+        final int tripIndex = pattern.scheduledTimetable.getTripIndex(tripId);
+
+        // Enough updates for the message to be prepared in parallel, all for the same trip
+        final List<TripUpdate> updates = new ArrayList<TripUpdate>();
+        for (int delay = 1; delay <= 500; delay++) {
+            final TripUpdate.Builder tripUpdateBuilder = TripUpdate.newBuilder();
+            tripUpdateBuilder.getTripBuilder().setTripId("1.1");
+            final StopTimeUpdate.Builder stopTimeUpdateBuilder = tripUpdateBuilder.addStopTimeUpdateBuilder();
+            stopTimeUpdateBuilder.setStopSequence(2);
+            stopTimeUpdateBuilder.getArrivalBuilder().setDelay(delay);
+            stopTimeUpdateBuilder.getDepartureBuilder().setDelay(delay);
+            updates.add(tripUpdateBuilder.build());
+        }
+
+        updater.applyTripUpdates(graph, fullDataset, updates, feedId);
+
+        final TimetableSnapshot snapshot = updater.getTimetableSnapshot();
+        assertEquals(500, updater.getLastUpdateCounts().applied);
+        assertEquals(500, snapshot.resolve(pattern, serviceDate).getTripTimes(tripIndex).getArrivalDelay(1));
+    }
 }